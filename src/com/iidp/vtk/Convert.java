@@ -0,0 +1,204 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk;
+
+import com.iidp.vtk.high_level.RawConverter;
+import com.iidp.vtk.low_level.RawArray;
+import com.iidp.vtk.low_level.RawLayout;
+import com.iidp.vtk.low_level.VTK_DATA_TYPE;
+
+import java.io.File;
+import java.nio.ByteOrder;
+
+/**
+ * Command line converter of raw binary files to VTK files, see com.iidp.vtk.high_level.RawConverter.
+ * <p>
+ * Usage:
+ * <pre>
+ *   java com.iidp.vtk.Convert output grid [arrays]
+ *
+ *   grid:   --image nx ny nz [--origin x y z] [--spacing dx dy dz]
+ *           --structured nx ny nz file [layout]
+ *           --points file [layout]
+ *   arrays: --point name file [layout]
+ *           --cell name file [layout]
+ *   layout: type=float64|float32|int32|... order=big|little components=1 planar=false skip=0
+ * </pre>
+ * nx, ny and nz are numbers of cells, and the number of tuples of each array is given by the grid, except
+ * for --points where it is given by the size of the file. Coordinates of points have 3 components.
+ * For example:
+ * <pre>
+ *   java com.iidp.vtk.Convert pressure --image 512 512 512 --point p p.raw type=float32 order=little
+ * </pre>
+ */
+public class Convert {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            usage();
+            return;
+        }
+
+        var output = args[0];
+        var converter = new RawConverter();
+        String grid = null;
+        int[] ncells = null;
+        var origin = new double[]{0.0, 0.0, 0.0};
+        var spacing = new double[]{1.0, 1.0, 1.0};
+        String pointsFile = null;
+        int pointsLayout = -1;
+
+        // The grid is parsed first, since it gives the size of the arrays
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--image":
+                    grid = args[i];
+                    ncells = ints(args, i + 1);
+                    i += 3;
+                    break;
+                case "--structured":
+                    grid = args[i];
+                    ncells = ints(args, i + 1);
+                    pointsFile = args[i + 4];
+                    pointsLayout = i + 5;
+                    i += 4;
+                    break;
+                case "--points":
+                    grid = args[i];
+                    pointsFile = args[i + 1];
+                    pointsLayout = i + 2;
+                    i += 1;
+                    break;
+                case "--origin":
+                    origin = doubles(args, i + 1);
+                    i += 3;
+                    break;
+                case "--spacing":
+                    spacing = doubles(args, i + 1);
+                    i += 3;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (grid == null) {
+            usage();
+            return;
+        }
+
+        RawArray points = null;
+        long npoints, ncellsTotal;
+        if (grid.equals("--points")) {
+            var layout = layout(args, pointsLayout, -1, new File(pointsFile), 3);
+            points = new RawArray(new File(pointsFile), layout);
+            npoints = points.ntuples();
+            ncellsTotal = npoints;
+        } else {
+            npoints = (long) (ncells[0] + 1) * (ncells[1] + 1) * (ncells[2] + 1);
+            ncellsTotal = (long) Math.max(ncells[0], 1) * Math.max(ncells[1], 1) * Math.max(ncells[2], 1);
+            if (pointsFile != null) {
+                points = new RawArray(new File(pointsFile), layout(args, pointsLayout, npoints, null, 3));
+            }
+        }
+
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--point") || args[i].equals("--cell")) {
+                var isPoint = args[i].equals("--point");
+                var name = args[i + 1];
+                var file = new File(args[i + 2]);
+                var n = isPoint ? npoints : ncellsTotal;
+                var a = new RawArray(file, layout(args, i + 3, n, null, 1));
+                if (isPoint) {
+                    converter.addPointData(name, a);
+                } else {
+                    converter.addCellData(name, a);
+                }
+                i += 2;
+            }
+        }
+
+        String path;
+        switch (grid) {
+            case "--image":
+                path = converter.imageToVTK(output, ncells, origin, spacing, null);
+                break;
+            case "--structured":
+                path = converter.structuredGridToVTK(output, ncells, points, null);
+                break;
+            default:
+                path = converter.pointsToVTK(output, points, null);
+                break;
+        }
+        System.out.println(path);
+    }
+
+    // Helper function: layout given by the key=value arguments that start at index first.
+    // The number of tuples is n, or it is computed from the size of the file if n < 0.
+    private static RawLayout layout(String[] args, int first, long n, File file, int ncomponents) {
+        var type = VTK_DATA_TYPE.FLOAT64;
+        var order = ByteOrder.BIG_ENDIAN;
+        var planar = false;
+        long skip = 0;
+        for (int i = first; i < args.length && args[i].contains("="); i++) {
+            var kv = args[i].split("=", 2);
+            switch (kv[0]) {
+                case "type":
+                    type = VTK_DATA_TYPE.valueOf(kv[1].toUpperCase());
+                    break;
+                case "order":
+                    order = kv[1].equalsIgnoreCase("little") ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+                    break;
+                case "components":
+                    ncomponents = Integer.parseInt(kv[1]);
+                    break;
+                case "planar":
+                    planar = Boolean.parseBoolean(kv[1]);
+                    break;
+                case "skip":
+                    skip = Long.parseLong(kv[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown layout option: " + args[i]);
+            }
+        }
+        if (n < 0) {
+            n = (file.length() - skip) / ((long) ncomponents * type.sizeof());
+        }
+        return new RawLayout(type, n).setByteOrder(order)
+                .setComponents(ncomponents, planar).setHeaderBytes(skip);
+    }
+
+    private static int[] ints(String[] args, int first) {
+        return new int[]{Integer.parseInt(args[first]), Integer.parseInt(args[first + 1]),
+                Integer.parseInt(args[first + 2])};
+    }
+
+    private static double[] doubles(String[] args, int first) {
+        return new double[]{Double.parseDouble(args[first]), Double.parseDouble(args[first + 1]),
+                Double.parseDouble(args[first + 2])};
+    }
+
+    private static void usage() {
+        System.out.println("Usage: java com.iidp.vtk.Convert output grid [arrays]");
+        System.out.println("  grid:   --image nx ny nz [--origin x y z] [--spacing dx dy dz]");
+        System.out.println("          --structured nx ny nz file [layout]");
+        System.out.println("          --points file [layout]");
+        System.out.println("  arrays: --point name file [layout]");
+        System.out.println("          --cell name file [layout]");
+        System.out.println("  layout: type=float64 order=big components=1 planar=false skip=0");
+    }
+}
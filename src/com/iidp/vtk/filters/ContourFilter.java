@@ -0,0 +1,413 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.filters;
+
+import com.iidp.vtk.high_level.data.GridData;
+import com.iidp.vtk.high_level.data.PairData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Extracts isosurfaces of a point variable of an image or rectilinear grid, so a simulation can write
+ * the surfaces it needs instead of whole volumes. Example:
+ * <pre>
+ *   var surface = ContourFilter.image(ncells, origin, spacing, cellData, pointData, "temp", 0.25, 0.75);
+ *   surface.toVTK("temp_contours", null, new ExportOptions());
+ * </pre>
+ * <p>
+ * Cells are split in 6 tetrahedra that share the diagonal from their first to their last point, and
+ * surfaces are computed in each tetrahedron, i.e. marching tetrahedra. Since all cells are split in the same
+ * way, surfaces do not have cracks between cells. Points of the surfaces lie on the edges of the tetrahedra,
+ * and they are shared by all triangles that cut the same edge. Points of the grid where the variable is equal
+ * to the value of a surface are points of the surface, shared by all triangles that touch them, and triangles
+ * that collapse to a point or a segment there are dropped. The variables in pointData are
+ * interpolated at these points, and each triangle takes the cell data of its cell.
+ * Triangles are oriented so their normals point towards larger values of the variable.
+ * <p>
+ * Surfaces are computed in parallel on layers of cells, i.e. slabs normal to z.
+ */
+public class ContourFilter {
+    // Tetrahedra of a cell as paths from its first to its last corner.
+    // Corner c is the point (i + (c & 1), j + ((c >> 1) & 1), k + ((c >> 2) & 1)) of cell (i, j, k).
+    private static final int[][] TETRAHEDRA = {
+            {0, 1, 3, 7}, {0, 1, 5, 7}, {0, 2, 3, 7}, {0, 2, 6, 7}, {0, 4, 5, 7}, {0, 4, 6, 7}};
+
+    // Number of edges that can start at a point, indexed by direction d = 1..7 with the same bits as corners,
+    // plus the point itself as d = 0, see Surface.
+    private static final int EDGES = 8;
+
+    /**
+     * Returns the isosurfaces of a point variable of an image.
+     * See EVTK.imageToVTK for a description of the grid parameters.
+     *
+     * @param field:  name of the variable in pointData.
+     * @param values: values of the isosurfaces.
+     * @return a new surface with all the isosurfaces, possibly empty.
+     */
+    public static PolyMesh image(int[] ncells, double[] origin, double[] spacing, GridData cellData,
+                                 GridData pointData, String field, double... values) {
+        var xyz = new double[3][];
+        for (int d = 0; d < 3; d++) {
+            final int dd = d;
+            xyz[d] = IntStream.rangeClosed(0, ncells[d]).mapToDouble(i -> origin[dd] + i * spacing[dd]).toArray();
+        }
+        return rectilinear(xyz[0], xyz[1], xyz[2], cellData, pointData, field, values);
+    }
+
+    /**
+     * Returns the isosurfaces of a point variable of a rectilinear grid.
+     * See EVTK.rectilinearGridToVTK for a description of the grid parameters.
+     *
+     * @param field:  name of the variable in pointData.
+     * @param values: values of the isosurfaces.
+     * @return a new surface with all the isosurfaces, possibly empty.
+     */
+    public static PolyMesh rectilinear(double[] x, double[] y, double[] z, GridData cellData,
+                                       GridData pointData, String field, double... values) {
+        var f = pointData.get(field);
+        assert f != null : "unknown point variable " + field;
+        assert f.size() == (long) x.length * y.length * z.length;
+
+        var surfaces = new ArrayList<Surface>();
+        var nvertices = 0L;
+        for (double v : values) {
+            var s = new Surface(x.length, y.length, z.length, f, v, nvertices);
+            nvertices += s.from.length;
+            surfaces.add(s);
+        }
+        assert nvertices <= Integer.MAX_VALUE : "too many points in the isosurfaces";
+
+        // Points of all surfaces
+        final int nv = (int) nvertices;
+        var from = new long[nv];
+        var to = new long[nv];
+        var weight = new double[nv];
+        var ntriangles = 0;
+        for (Surface s : surfaces) {
+            System.arraycopy(s.from, 0, from, s.base, s.from.length);
+            System.arraycopy(s.to, 0, to, s.base, s.to.length);
+            System.arraycopy(s.weight, 0, weight, s.base, s.weight.length);
+            ntriangles = Math.addExact(ntriangles, s.ntriangles());
+        }
+
+        var px = new double[nv];
+        var py = new double[nv];
+        var pz = new double[nv];
+        final long nx = x.length, nxy = (long) x.length * y.length;
+        IntStream.range(0, nv).parallel().forEach(i -> {
+            final long p = from[i], q = to[i];
+            final double w = weight[i];
+            px[i] = (1.0 - w) * x[(int) (p % nx)] + w * x[(int) (q % nx)];
+            py[i] = (1.0 - w) * y[(int) ((p % nxy) / nx)] + w * y[(int) ((q % nxy) / nx)];
+            pz[i] = (1.0 - w) * z[(int) (p / nxy)] + w * z[(int) (q / nxy)];
+        });
+
+        // Triangles of all surfaces
+        var connectivity = new int[Math.multiplyExact(3, ntriangles)];
+        var cells = new long[ntriangles];
+        var t0 = 0;
+        for (Surface s : surfaces) {
+            for (Layer l : s.layers) {
+                System.arraycopy(l.triangles, 0, connectivity, 3 * t0, 3 * l.n);
+                System.arraycopy(l.cells, 0, cells, t0, l.n);
+                t0 += l.n;
+            }
+        }
+        var offsets = IntStream.rangeClosed(1, ntriangles).parallel().map(t -> 3 * t).toArray();
+
+        var newCellData = (cellData != null) ? cellData.gather(ntriangles, t -> cells[(int) t]) : null;
+        var newPointData = pointData.interpolate(nv, i -> from[(int) i], i -> to[(int) i], i -> weight[(int) i]);
+        return new PolyMesh(px, py, pz, connectivity, offsets, newCellData, newPointData);
+    }
+
+    /**
+     * Isosurface for a single value.
+     * Points of the surface are numbered in the order of the edges that they cut, i.e. in the
+     * order of the first point of the edge and then of its direction. An edge that ends at a point of the grid
+     * with the value of the surface does not have its own point, it uses the point of the grid, which is
+     * numbered as direction 0.
+     */
+    private static class Surface {
+        final int nx, ny, nz;
+        final PairData f;
+        final double value;
+
+        // Index of the first point of the surface in all surfaces
+        final int base;
+
+        // First point of the surface in each row of points along x, without base
+        final int[] rowStart;
+
+        // End points of the edge of each point of the surface and weight of the second one
+        final long[] from, to;
+        final double[] weight;
+
+        // Triangles of each layer of cells
+        final Layer[] layers;
+
+        Surface(int _nx, int _ny, int _nz, PairData _f, double _value, long _base) {
+            nx = _nx;
+            ny = _ny;
+            nz = _nz;
+            f = _f;
+            value = _value;
+            assert _base <= Integer.MAX_VALUE : "too many points in the isosurfaces";
+            base = (int) _base;
+
+            final int nrows = Math.multiplyExact(ny, nz);
+            rowStart = new int[nrows];
+            IntStream.range(0, nrows).parallel().forEach(r -> {
+                var n = 0;
+                for (int i = 0; i < nx; i++) {
+                    for (int d = 0; d < EDGES; d++) {
+                        if (hasPoint(i, r % ny, r / ny, d)) n++;
+                    }
+                }
+                rowStart[r] = n;
+            });
+            var rowEnd = rowStart.clone();
+            Arrays.parallelPrefix(rowEnd, Math::addExact);
+            IntStream.range(0, nrows).parallel().forEach(r -> rowStart[r] = rowEnd[r] - rowStart[r]);
+
+            final int npoints = (nrows > 0) ? rowEnd[nrows - 1] : 0;
+            from = new long[npoints];
+            to = new long[npoints];
+            weight = new double[npoints];
+            IntStream.range(0, nrows).parallel().forEach(r -> {
+                var next = rowStart[r];
+                final int j = r % ny, k = r / ny;
+                for (int i = 0; i < nx; i++) {
+                    for (int d = 0; d < EDGES; d++) {
+                        if (hasPoint(i, j, k, d)) {
+                            var p = index(i, j, k);
+                            var q = index(i + (d & 1), j + ((d >> 1) & 1), k + ((d >> 2) & 1));
+                            var fp = f.get(p);
+                            from[next] = p;
+                            to[next] = q;
+                            weight[next] = (d == 0) ? 0.0 : (value - fp) / (f.get(q) - fp);
+                            next++;
+                        }
+                    }
+                }
+            });
+
+            layers = new Layer[Math.max(nz - 1, 0)];
+            IntStream.range(0, layers.length).parallel().forEach(k -> layers[k] = triangulate(k));
+        }
+
+        int ntriangles() {
+            var n = 0;
+            for (Layer l : layers) {
+                n = Math.addExact(n, l.n);
+            }
+            return n;
+        }
+
+        // Triangles of the cells in layer k.
+        private Layer triangulate(int k) {
+            var layer = new Layer();
+            if (nx < 2 || ny < 2) return layer;
+
+            // Surface points of the edges of rows (j, k), (j + 1, k), (j, k + 1) and (j + 1, k + 1)
+            var ids = new int[4][];
+            ids[0] = rowIds(0, k);
+            ids[2] = rowIds(0, k + 1);
+            var above = new boolean[8];
+            var corner = new double[8][3];
+            var tri = new int[3];
+            for (int j = 0; j < ny - 1; j++) {
+                ids[1] = rowIds(j + 1, k);
+                ids[3] = rowIds(j + 1, k + 1);
+                for (int i = 0; i < nx - 1; i++) {
+                    var nabove = 0;
+                    for (int c = 0; c < 8; c++) {
+                        above[c] = f.get(index(i + (c & 1), j + ((c >> 1) & 1), k + ((c >> 2) & 1))) >= value;
+                        if (above[c]) nabove++;
+                    }
+                    if (nabove == 0 || nabove == 8) continue;
+
+                    for (int c = 0; c < 8; c++) {
+                        corner[c][0] = i + (c & 1);
+                        corner[c][1] = j + ((c >> 1) & 1);
+                        corner[c][2] = k + ((c >> 2) & 1);
+                    }
+                    final long cell = i + (nx - 1) * (j + (long) (ny - 1) * k);
+                    for (int[] t : TETRAHEDRA) {
+                        var a = new int[4];
+                        var b = new int[4];
+                        var na = 0;
+                        var nb = 0;
+                        for (int c : t) {
+                            if (above[c]) a[na++] = c;
+                            else b[nb++] = c;
+                        }
+                        if (na == 0 || nb == 0) continue;
+
+                        if (na == 1 || nb == 1) {
+                            // One corner is separated from the other three
+                            var single = (na == 1) ? a[0] : b[0];
+                            var others = (na == 1) ? b : a;
+                            for (int e = 0; e < 3; e++) {
+                                tri[e] = edge(ids, i, single, others[e]);
+                            }
+                            emit(layer, tri, corner, above, a, na, b, nb, cell);
+                        } else {
+                            // Two corners are separated from the other two, i.e. a quad made of two triangles
+                            var e0 = edge(ids, i, a[0], b[0]);
+                            var e1 = edge(ids, i, a[0], b[1]);
+                            var e2 = edge(ids, i, a[1], b[1]);
+                            var e3 = edge(ids, i, a[1], b[0]);
+                            tri[0] = e0;
+                            tri[1] = e1;
+                            tri[2] = e2;
+                            emit(layer, tri, corner, above, a, na, b, nb, cell);
+                            tri[0] = e0;
+                            tri[1] = e2;
+                            tri[2] = e3;
+                            emit(layer, tri, corner, above, a, na, b, nb, cell);
+                        }
+                    }
+                }
+                ids[0] = ids[1];
+                ids[2] = ids[3];
+            }
+            return layer;
+        }
+
+        // Adds a triangle to a layer, with its normal pointing from the corners below value to the ones above it.
+        // Triangles with two points of the grid, or two edges that end at the same one, are not added.
+        private void emit(Layer layer, int[] tri, double[][] corner, boolean[] above,
+                          int[] a, int na, int[] b, int nb, long cell) {
+            if (tri[0] == tri[1] || tri[1] == tri[2] || tri[2] == tri[0]) return;
+
+            var p = new double[3][];
+            for (int e = 0; e < 3; e++) {
+                p[e] = position(tri[e]);
+            }
+            var g = new double[3];
+            for (int d = 0; d < 3; d++) {
+                for (int c = 0; c < na; c++) g[d] += corner[a[c]][d] / na;
+                for (int c = 0; c < nb; c++) g[d] -= corner[b[c]][d] / nb;
+            }
+            var u = new double[]{p[1][0] - p[0][0], p[1][1] - p[0][1], p[1][2] - p[0][2]};
+            var v = new double[]{p[2][0] - p[0][0], p[2][1] - p[0][1], p[2][2] - p[0][2]};
+            var dot = (u[1] * v[2] - u[2] * v[1]) * g[0] + (u[2] * v[0] - u[0] * v[2]) * g[1] +
+                    (u[0] * v[1] - u[1] * v[0]) * g[2];
+            if (dot < 0) {
+                layer.add(tri[0] + base, tri[2] + base, tri[1] + base, cell);
+            } else {
+                layer.add(tri[0] + base, tri[1] + base, tri[2] + base, cell);
+            }
+        }
+
+        // Position of a point of the surface in index space, which is enough to orient triangles.
+        private double[] position(int s) {
+            final long nxy = (long) nx * ny;
+            var w = weight[s];
+            var p = from[s];
+            var q = to[s];
+            return new double[]{
+                    (1.0 - w) * (p % nx) + w * (q % nx),
+                    (1.0 - w) * ((p % nxy) / nx) + w * ((q % nxy) / nx),
+                    (1.0 - w) * (p / nxy) + w * (q / nxy)};
+        }
+
+        // Surface point of the edge between corners c0 and c1 of cell i of the current rows, which is the point
+        // of the grid at one of its ends when the variable is equal to value there.
+        private int edge(int[][] ids, int i, int c0, int c1) {
+            final int lo = Math.min(c0, c1), hi = Math.max(c0, c1);
+            var s = id(ids, i, lo, lo ^ hi);
+            if (s < 0) s = id(ids, i, lo, 0);
+            if (s < 0) s = id(ids, i, hi, 0);
+            assert s >= 0;
+            return s;
+        }
+
+        // Surface point of corner c of cell i of the current rows in direction d, see rowIds.
+        private int id(int[][] ids, int i, int c, int d) {
+            final int row = ((c >> 1) & 1) + 2 * ((c >> 2) & 1);
+            return ids[row][(i + (c & 1)) * EDGES + d];
+        }
+
+        // Surface point of each point of row (j, k), as direction 0, and of each edge that starts there,
+        // or -1 if there is none, see hasPoint.
+        private int[] rowIds(int j, int k) {
+            var ids = new int[nx * EDGES];
+            var next = rowStart[j + ny * k];
+            for (int i = 0; i < nx; i++) {
+                for (int d = 0; d < EDGES; d++) {
+                    ids[i * EDGES + d] = hasPoint(i, j, k, d) ? next++ : -1;
+                }
+            }
+            return ids;
+        }
+
+        // True if the surface has a point on the edge that starts at point (i, j, k) in direction d, or, for
+        // d = 0, at point (i, j, k) itself. A cut edge only has one end where the variable is equal to value,
+        // the one above value, and the point of the grid is used instead of a point on the edge.
+        private boolean hasPoint(int i, int j, int k, int d) {
+            if (d > 0) {
+                return cuts(i, j, k, d) && !isOnSurface(i, j, k) &&
+                        !isOnSurface(i + (d & 1), j + ((d >> 1) & 1), k + ((d >> 2) & 1));
+            }
+            if (!isOnSurface(i, j, k)) return false;
+            for (int e = 1; e < EDGES; e++) {
+                if (cuts(i, j, k, e) || cuts(i - (e & 1), j - ((e >> 1) & 1), k - ((e >> 2) & 1), e)) return true;
+            }
+            return false;
+        }
+
+        // True if the variable is equal to value at point (i, j, k).
+        private boolean isOnSurface(int i, int j, int k) {
+            return f.get(index(i, j, k)) == value;
+        }
+
+        // True if the surface cuts the edge that starts at point (i, j, k) in direction d.
+        private boolean cuts(int i, int j, int k, int d) {
+            final int i1 = i + (d & 1), j1 = j + ((d >> 1) & 1), k1 = k + ((d >> 2) & 1);
+            if (i < 0 || j < 0 || k < 0 || i1 >= nx || j1 >= ny || k1 >= nz) return false;
+            return (f.get(index(i, j, k)) >= value) != (f.get(index(i1, j1, k1)) >= value);
+        }
+
+        private long index(int i, int j, int k) {
+            return i + (long) nx * (j + (long) ny * k);
+        }
+    }
+
+    /**
+     * Triangles computed for a layer of cells.
+     */
+    private static class Layer {
+        int[] triangles = new int[3 * 16];
+        long[] cells = new long[16];
+        int n = 0;
+
+        void add(int p0, int p1, int p2, long cell) {
+            if (n == cells.length) {
+                cells = Arrays.copyOf(cells, 2 * n);
+                triangles = Arrays.copyOf(triangles, 6 * n);
+            }
+            triangles[3 * n] = p0;
+            triangles[3 * n + 1] = p1;
+            triangles[3 * n + 2] = p2;
+            cells[n] = cell;
+            n++;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.filters;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Helper functions to renumber the points that are used by the cells kept by a filter.
+ */
+final class Points {
+
+    /**
+     * Renumbers used points in the same order as in the input grid.
+     * On input, used[p] is 1 if point p is used and 0 otherwise. On output, used[p] is the new
+     * index of point p plus one, i.e. the prefix sum of the flags, which is only meaningful for used points.
+     *
+     * @param used: flag of each point of the input grid, it is overwritten.
+     * @return the index in the input grid of each used point.
+     */
+    static int[] renumber(int[] used) {
+        final int npoints = used.length;
+        Arrays.parallelPrefix(used, Integer::sum);
+
+        final int nused = (npoints > 0) ? used[npoints - 1] : 0;
+        var points = new int[nused];
+        IntStream.range(0, npoints).parallel().forEach(p -> {
+            if (used[p] != ((p > 0) ? used[p - 1] : 0)) {
+                points[used[p] - 1] = p;
+            }
+        });
+        return points;
+    }
+
+    /** Returns the values of a point array for the given points. */
+    static double[] gather(double[] a, int[] points) {
+        var g = new double[points.length];
+        IntStream.range(0, points.length).parallel().forEach(i -> g[i] = a[points[i]]);
+        return g;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.filters;
+
+import com.iidp.vtk.high_level.EVTK;
+import com.iidp.vtk.high_level.ExportOptions;
+import com.iidp.vtk.high_level.data.GridData;
+
+import java.util.List;
+
+/**
+ * Surface made of polygons returned by the filters in this package, stored with the same arrays
+ * that are passed to EVTK.polyDataToVTK.
+ */
+public class PolyMesh {
+    public final double[] x, y, z;
+    public final int[] connectivity;
+    public final int[] offsets;
+    public final GridData cellData, pointData;
+
+    /**
+     * See EVTK.polyDataToVTK for a description of the parameters.
+     * Arrays are not copied.
+     */
+    public PolyMesh(double[] _x, double[] _y, double[] _z, int[] _connectivity, int[] _offsets,
+                    GridData _cellData, GridData _pointData) {
+        assert (_x.length == _y.length) && (_x.length == _z.length);
+        x = _x;
+        y = _y;
+        z = _z;
+        connectivity = _connectivity;
+        offsets = _offsets;
+        cellData = _cellData;
+        pointData = _pointData;
+    }
+
+    /** Returns the number of points. */
+    public int npoints() {
+        return x.length;
+    }
+
+    /** Returns the number of polygons. */
+    public int npolygons() {
+        return offsets.length;
+    }
+
+    /**
+     * Exports this surface as a VTK poly data file.
+     *
+     * @param path:     path to where file should be saved without extension.
+     * @param comments: list comments as strings, it can be null.
+     * @param options:  options that control how the surface is written, see ExportOptions.
+     * @return the full path to where the file was saved including extension.
+     */
+    public String toVTK(String path, List<String> comments, ExportOptions options) throws Exception {
+        return EVTK.polyDataToVTK(path, x, y, z, connectivity, offsets, cellData, pointData, comments, options);
+    }
+}
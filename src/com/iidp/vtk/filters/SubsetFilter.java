@@ -0,0 +1,129 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.filters;
+
+import com.iidp.vtk.high_level.data.GridData;
+import com.iidp.vtk.low_level.VTK_CELL_TYPE;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Extracts a subset of the cells of an unstructured grid, e.g. the cells where a variable is above
+ * a threshold or the cells of a given material. Example:
+ * <pre>
+ *   var hot = SubsetFilter.extract(x, y, z, connectivity, offsets, cell_types, cellData, pointData,
+ *                                  c -&gt; temperature[c] &gt; 300.0);
+ *   hot.toVTK("hot_cells", null, new ExportOptions());
+ * </pre>
+ * <p>
+ * Only the points used by the selected cells are kept, and they are renumbered in the same order
+ * as in the input grid. All the steps run in parallel: selected cells are compacted, used points are
+ * renumbered with a prefix sum over a used-point flag array, and cell and point data are gathered.
+ * The input arrays are not modified or copied.
+ */
+public class SubsetFilter {
+
+    /**
+     * Returns the cells of a grid for which keep is true.
+     * See EVTK.unstructuredGridToVTK for a description of the other parameters.
+     *
+     * @param keep: predicate evaluated for the index of each cell. It is evaluated in parallel.
+     * @return a new mesh with the selected cells.
+     */
+    public static UnstructuredMesh extract(double[] x, double[] y, double[] z, int[] connectivity, int[] offsets,
+                                           VTK_CELL_TYPE[] cell_types, GridData cellData, GridData pointData,
+                                           IntPredicate keep) {
+        var cells = IntStream.range(0, offsets.length).parallel().filter(keep).toArray();
+        return extract(x, y, z, connectivity, offsets, cell_types, cellData, pointData, cells);
+    }
+
+    /**
+     * Returns the cells of a grid that are selected by a mask.
+     * See EVTK.unstructuredGridToVTK for a description of the other parameters.
+     *
+     * @param keep: true for the cells that are kept. It should have ncells elements.
+     * @return a new mesh with the selected cells.
+     */
+    public static UnstructuredMesh extract(double[] x, double[] y, double[] z, int[] connectivity, int[] offsets,
+                                           VTK_CELL_TYPE[] cell_types, GridData cellData, GridData pointData,
+                                           boolean[] keep) {
+        assert keep.length == offsets.length;
+        return extract(x, y, z, connectivity, offsets, cell_types, cellData, pointData, c -> keep[c]);
+    }
+
+    /**
+     * Returns the cells of a grid with the given indexes.
+     * See EVTK.unstructuredGridToVTK for a description of the other parameters.
+     *
+     * @param cells: indexes of the kept cells in increasing order.
+     * @return a new mesh with the selected cells.
+     */
+    public static UnstructuredMesh extract(double[] x, double[] y, double[] z, int[] connectivity, int[] offsets,
+                                           VTK_CELL_TYPE[] cell_types, GridData cellData, GridData pointData,
+                                           int[] cells) {
+        final int ncells = cells.length;
+        final int npoints = x.length;
+
+        // Offsets of the kept cells from a prefix sum of their sizes
+        var newOffsets = new int[ncells];
+        IntStream.range(0, ncells).parallel().forEach(i -> {
+            final int c = cells[i];
+            newOffsets[i] = offsets[c] - first(offsets, c);
+        });
+        Arrays.parallelPrefix(newOffsets, Integer::sum);
+
+        // Flag used points, then the prefix sum of the flags gives their new index plus one
+        var remap = new int[npoints];
+        IntStream.range(0, ncells).parallel().forEach(i -> {
+            final int c = cells[i];
+            for (int v = first(offsets, c); v < offsets[c]; v++) {
+                remap[connectivity[v]] = 1;
+            }
+        });
+        var points = Points.renumber(remap);
+        final int nused = points.length;
+
+        // Renumbered connectivity and cell types
+        var nconnectivity = (ncells > 0) ? newOffsets[ncells - 1] : 0;
+        var newConnectivity = new int[nconnectivity];
+        var newTypes = new VTK_CELL_TYPE[ncells];
+        IntStream.range(0, ncells).parallel().forEach(i -> {
+            final int c = cells[i];
+            var dst = first(newOffsets, i);
+            for (int v = first(offsets, c); v < offsets[c]; v++) {
+                newConnectivity[dst++] = remap[connectivity[v]] - 1;
+            }
+            newTypes[i] = cell_types[c];
+        });
+
+        // Coordinates and data
+        var nx = Points.gather(x, points);
+        var ny = Points.gather(y, points);
+        var nz = Points.gather(z, points);
+        var newCellData = (cellData != null) ? cellData.gather(ncells, i -> cells[(int) i]) : null;
+        var newPointData = (pointData != null) ? pointData.gather(nused, i -> points[(int) i]) : null;
+
+        return new UnstructuredMesh(nx, ny, nz, newConnectivity, newOffsets, newTypes, newCellData, newPointData);
+    }
+
+    // Helper function: index in connectivity of the first vertex of cell c.
+    private static int first(int[] offsets, int c) {
+        return (c > 0) ? offsets[c - 1] : 0;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.filters;
+
+import com.iidp.vtk.high_level.data.GridData;
+import com.iidp.vtk.low_level.VTK_CELL_TYPE;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Extracts the external surface of a volume mesh, i.e. the faces that belong to a single cell,
+ * so a preview of the mesh can be written as a small poly data file. Example:
+ * <pre>
+ *   var skin = SurfaceFilter.extract(x, y, z, connectivity, offsets, cell_types, cellData, pointData);
+ *   skin.toVTK("skin", null, new ExportOptions());
+ * </pre>
+ * <p>
+ * Supported cells are VTK_TETRA, VTK_VOXEL, VTK_HEXAHEDRON, VTK_WEDGE and VTK_PYRAMID, other cells are ignored.
+ * Faces keep the orientation given by VTK, i.e. their normals point out of the mesh.
+ * Each face takes the cell data of its cell, and point data is kept for the points of the surface.
+ * <p>
+ * Faces are matched by their sorted vertices: faces are sorted in parallel by them, so a face is internal
+ * if it is equal to the face before or after it, and each face is compared at most twice.
+ */
+public class SurfaceFilter {
+    // Faces of each cell type as listed by VTK, with outward normals.
+    private static final int[][] TETRA_FACES = {{0, 1, 3}, {1, 2, 3}, {2, 0, 3}, {0, 2, 1}};
+    private static final int[][] VOXEL_FACES = {{0, 4, 6, 2}, {1, 3, 7, 5}, {0, 1, 5, 4}, {2, 6, 7, 3},
+            {0, 2, 3, 1}, {4, 5, 7, 6}};
+    private static final int[][] HEXAHEDRON_FACES = {{0, 4, 7, 3}, {1, 2, 6, 5}, {0, 1, 5, 4}, {3, 7, 6, 2},
+            {0, 3, 2, 1}, {4, 5, 6, 7}};
+    private static final int[][] WEDGE_FACES = {{0, 1, 2}, {3, 5, 4}, {0, 3, 4, 1}, {1, 4, 5, 2}, {2, 5, 3, 0}};
+    private static final int[][] PYRAMID_FACES = {{0, 3, 2, 1}, {0, 1, 4}, {1, 2, 4}, {2, 3, 4}, {3, 0, 4}};
+    private static final int[][] NO_FACES = {};
+
+    // Largest number of vertices of a face.
+    private static final int FACE_SIZE = 4;
+
+    /**
+     * Returns the external faces of a volume mesh.
+     * See EVTK.unstructuredGridToVTK for a description of the parameters.
+     *
+     * @return a new surface with the external faces.
+     */
+    public static PolyMesh extract(double[] x, double[] y, double[] z, int[] connectivity, int[] offsets,
+                                   VTK_CELL_TYPE[] cell_types, GridData cellData, GridData pointData) {
+        final int ncells = offsets.length;
+
+        // First face of each cell, from a prefix sum of the number of faces of each cell
+        var faceEnd = new int[ncells];
+        IntStream.range(0, ncells).parallel().forEach(c -> faceEnd[c] = faces(cell_types[c]).length);
+        Arrays.parallelPrefix(faceEnd, Integer::sum);
+        final int nfaces = (ncells > 0) ? faceEnd[ncells - 1] : 0;
+
+        // Cell of each face and sorted vertices of each face, in rows of FACE_SIZE padded with -1
+        var faceCell = new int[nfaces];
+        var keys = new int[Math.multiplyExact(FACE_SIZE, nfaces)];
+        IntStream.range(0, ncells).parallel().forEach(c -> {
+            var table = faces(cell_types[c]);
+            var f0 = faceEnd[c] - table.length;
+            var v0 = first(offsets, c);
+            for (int lf = 0; lf < table.length; lf++) {
+                final int k0 = FACE_SIZE * (f0 + lf);
+                Arrays.fill(keys, k0, k0 + FACE_SIZE, -1);
+                for (int k = 0; k < table[lf].length; k++) {
+                    keys[k0 + k] = connectivity[v0 + table[lf][k]];
+                }
+                Arrays.sort(keys, k0, k0 + table[lf].length);
+                faceCell[f0 + lf] = c;
+            }
+        });
+        var order = IntStream.range(0, nfaces).boxed().toArray(Integer[]::new);
+        Arrays.parallelSort(order, (a, b) -> Arrays.compare(keys, FACE_SIZE * a, FACE_SIZE * (a + 1),
+                keys, FACE_SIZE * b, FACE_SIZE * (b + 1)));
+
+        // Faces are internal if the next face in order has the same vertices
+        var internal = new boolean[nfaces];
+        IntStream.range(1, nfaces).parallel().forEach(i -> {
+            final int a = order[i - 1], b = order[i];
+            if (Arrays.equals(keys, FACE_SIZE * a, FACE_SIZE * (a + 1), keys, FACE_SIZE * b, FACE_SIZE * (b + 1))) {
+                internal[a] = true;
+                internal[b] = true;
+            }
+        });
+
+        // External faces in the order of their cells
+        var external = IntStream.range(0, nfaces).parallel().filter(f -> !internal[f]).toArray();
+        final int npolys = external.length;
+        var polyOffsets = new int[npolys];
+        IntStream.range(0, npolys).parallel().forEach(i -> {
+            final int f = external[i];
+            final int c = faceCell[f];
+            var table = faces(cell_types[c]);
+            polyOffsets[i] = table[f - (faceEnd[c] - table.length)].length;
+        });
+        Arrays.parallelPrefix(polyOffsets, Integer::sum);
+
+        var polyConnectivity = new int[(npolys > 0) ? polyOffsets[npolys - 1] : 0];
+        var used = new int[x.length];
+        IntStream.range(0, npolys).parallel().forEach(i -> {
+            var v = vertices(connectivity, offsets, cell_types, faceEnd, faceCell, external[i]);
+            var dst = first(polyOffsets, i);
+            for (int p : v) {
+                polyConnectivity[dst++] = p;
+                used[p] = 1;
+            }
+        });
+
+        // Keep the points of the surface only
+        var points = Points.renumber(used);
+        IntStream.range(0, polyConnectivity.length).parallel().forEach(i ->
+                polyConnectivity[i] = used[polyConnectivity[i]] - 1);
+
+        var newCellData = (cellData != null) ? cellData.gather(npolys, i -> faceCell[external[(int) i]]) : null;
+        var newPointData = (pointData != null) ? pointData.gather(points.length, i -> points[(int) i]) : null;
+        return new PolyMesh(Points.gather(x, points), Points.gather(y, points), Points.gather(z, points),
+                polyConnectivity, polyOffsets, newCellData, newPointData);
+    }
+
+    // Helper function: faces of a cell type.
+    private static int[][] faces(VTK_CELL_TYPE type) {
+        switch (type) {
+            case VTK_TETRA:
+                return TETRA_FACES;
+            case VTK_VOXEL:
+                return VOXEL_FACES;
+            case VTK_HEXAHEDRON:
+                return HEXAHEDRON_FACES;
+            case VTK_WEDGE:
+                return WEDGE_FACES;
+            case VTK_PYRAMID:
+                return PYRAMID_FACES;
+            default:
+                return NO_FACES;
+        }
+    }
+
+    // Helper function: vertices of face f in the order given by VTK.
+    private static int[] vertices(int[] connectivity, int[] offsets, VTK_CELL_TYPE[] cell_types,
+                                  int[] faceEnd, int[] faceCell, int f) {
+        final int c = faceCell[f];
+        var table = faces(cell_types[c]);
+        var face = table[f - (faceEnd[c] - table.length)];
+        var v0 = first(offsets, c);
+        var v = new int[face.length];
+        for (int k = 0; k < face.length; k++) {
+            v[k] = connectivity[v0 + face[k]];
+        }
+        return v;
+    }
+
+    // Helper function: index in connectivity of the first vertex of cell c.
+    private static int first(int[] offsets, int c) {
+        return (c > 0) ? offsets[c - 1] : 0;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.filters;
+
+import com.iidp.vtk.high_level.EVTK;
+import com.iidp.vtk.high_level.ExportOptions;
+import com.iidp.vtk.high_level.data.GridData;
+import com.iidp.vtk.low_level.VTK_CELL_TYPE;
+
+import java.util.List;
+
+/**
+ * Unstructured grid returned by the filters in this package, stored with the same arrays
+ * that are passed to EVTK.unstructuredGridToVTK.
+ */
+public class UnstructuredMesh {
+    public final double[] x, y, z;
+    public final int[] connectivity;
+    public final int[] offsets;
+    public final VTK_CELL_TYPE[] cell_types;
+    public final GridData cellData, pointData;
+
+    /**
+     * See EVTK.unstructuredGridToVTK for a description of the parameters.
+     * Arrays are not copied.
+     */
+    public UnstructuredMesh(double[] _x, double[] _y, double[] _z, int[] _connectivity, int[] _offsets,
+                            VTK_CELL_TYPE[] _cell_types, GridData _cellData, GridData _pointData) {
+        assert (_x.length == _y.length) && (_x.length == _z.length);
+        assert _offsets.length == _cell_types.length;
+        x = _x;
+        y = _y;
+        z = _z;
+        connectivity = _connectivity;
+        offsets = _offsets;
+        cell_types = _cell_types;
+        cellData = _cellData;
+        pointData = _pointData;
+    }
+
+    /** Returns the number of points. */
+    public int npoints() {
+        return x.length;
+    }
+
+    /** Returns the number of cells. */
+    public int ncells() {
+        return offsets.length;
+    }
+
+    /**
+     * Exports this mesh as a VTK unstructured grid file.
+     *
+     * @param path:     path to where file should be saved without extension.
+     * @param comments: list comments as strings, it can be null.
+     * @param options:  options that control how the grid is written, see ExportOptions.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public String toVTK(String path, List<String> comments, ExportOptions options) throws Exception {
+        return EVTK.unstructuredGridToVTK(path, x, y, z, connectivity, offsets, cell_types,
+                cellData, pointData, comments, options);
+    }
+}
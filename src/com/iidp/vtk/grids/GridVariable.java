@@ -0,0 +1,260 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.iidp.vtk.grids;
+
+import java.io.IOException;
+import java.util.function.LongToDoubleFunction;
+
+import com.iidp.vtk.low_level.BigDoubleArray;
+import com.iidp.vtk.low_level.BigIntArray;
+import com.iidp.vtk.low_level.VTK_DATA_TYPE;
+import com.iidp.vtk.low_level.VTKWriter;
+
+/**
+ * Values of a variable of a StructuredGrid, which are written with their own type.
+ * Derived variables are computed from the index of each cell or node when the grid is written.
+ */
+abstract class GridVariable {
+    final VTK_DATA_TYPE type;
+    final long length;
+
+    private GridVariable(VTK_DATA_TYPE _type, long _length) {
+        type = _type;
+        length = _length;
+    }
+
+    /** Appends values to the appended section of a file. */
+    abstract void appendTo(VTKWriter vw) throws IOException;
+
+    /** Writes values as a data array in ASCII format. */
+    abstract void addToVTKAsAscii(VTKWriter vw, String name) throws IOException;
+
+    /** Returns the values inside a box of the cells or nodes of the grid, in grid order. */
+    abstract GridVariable box(Box b);
+
+    static GridVariable of(byte[] a) {
+        return of(a, VTK_DATA_TYPE.INT8);
+    }
+
+    /**
+     * Returns a variable with bytes that are written either as VTK_DATA_TYPE.INT8 or VTK_DATA_TYPE.UINT8.
+     */
+    static GridVariable of(byte[] a, VTK_DATA_TYPE byteType) {
+        return new GridVariable(byteType, a.length) {
+            @Override
+            void appendTo(VTKWriter vw) throws IOException {
+                vw.appendArray(a);
+            }
+
+            @Override
+            void addToVTKAsAscii(VTKWriter vw, String name) throws IOException {
+                vw.addDataArrayASCII(name, a, type);
+            }
+
+            @Override
+            GridVariable box(Box b) {
+                if (b.isFull()) return this;
+                var v = new byte[Math.toIntExact(b.size())];
+                b.forEachRow((from, to, n) -> System.arraycopy(a, (int) from, v, (int) to, n));
+                return of(v, type);
+            }
+        };
+    }
+
+    static GridVariable of(short[] a) {
+        return new GridVariable(VTK_DATA_TYPE.INT16, a.length) {
+            @Override
+            void appendTo(VTKWriter vw) throws IOException {
+                vw.appendArray(a);
+            }
+
+            @Override
+            void addToVTKAsAscii(VTKWriter vw, String name) throws IOException {
+                vw.addDataArrayASCII(name, a);
+            }
+
+            @Override
+            GridVariable box(Box b) {
+                if (b.isFull()) return this;
+                var v = new short[Math.toIntExact(b.size())];
+                b.forEachRow((from, to, n) -> System.arraycopy(a, (int) from, v, (int) to, n));
+                return of(v);
+            }
+        };
+    }
+
+    static GridVariable of(BigIntArray a) {
+        return new GridVariable(VTK_DATA_TYPE.INT32, a.length()) {
+            @Override
+            void appendTo(VTKWriter vw) throws IOException {
+                vw.appendArray(a);
+            }
+
+            @Override
+            void addToVTKAsAscii(VTKWriter vw, String name) throws IOException {
+                vw.addDataArrayASCII(name, a);
+            }
+
+            @Override
+            GridVariable box(Box b) {
+                if (b.isFull()) return this;
+                var v = new BigIntArray(b.size());
+                b.forEachRow((from, to, n) -> {
+                    for (int i = 0; i < n; i++) {
+                        v.set(to + i, a.get(from + i));
+                    }
+                });
+                return of(v);
+            }
+        };
+    }
+
+    static GridVariable of(float[] a) {
+        return new GridVariable(VTK_DATA_TYPE.FLOAT32, a.length) {
+            @Override
+            void appendTo(VTKWriter vw) throws IOException {
+                vw.appendArray(a);
+            }
+
+            @Override
+            void addToVTKAsAscii(VTKWriter vw, String name) throws IOException {
+                vw.addDataArrayASCII(name, a);
+            }
+
+            @Override
+            GridVariable box(Box b) {
+                if (b.isFull()) return this;
+                var v = new float[Math.toIntExact(b.size())];
+                b.forEachRow((from, to, n) -> System.arraycopy(a, (int) from, v, (int) to, n));
+                return of(v);
+            }
+        };
+    }
+
+    static GridVariable of(BigDoubleArray a) {
+        return new GridVariable(VTK_DATA_TYPE.FLOAT64, a.length()) {
+            @Override
+            void appendTo(VTKWriter vw) throws IOException {
+                vw.appendArray(a);
+            }
+
+            @Override
+            void addToVTKAsAscii(VTKWriter vw, String name) throws IOException {
+                vw.addDataArrayASCII(name, a);
+            }
+
+            @Override
+            GridVariable box(Box b) {
+                if (b.isFull()) return this;
+                var v = new BigDoubleArray(b.size());
+                b.forEachRow((from, to, n) -> {
+                    for (int i = 0; i < n; i++) {
+                        v.set(to + i, a.get(from + i));
+                    }
+                });
+                return of(v);
+            }
+        };
+    }
+
+    static GridVariable derived(long n, LongToDoubleFunction f) {
+        return new GridVariable(VTK_DATA_TYPE.FLOAT64, n) {
+            @Override
+            void appendTo(VTKWriter vw) throws IOException {
+                vw.appendArray(n, f);
+            }
+
+            @Override
+            void addToVTKAsAscii(VTKWriter vw, String name) throws IOException {
+                // variables written as text must fit in a single array
+                var a = new double[Math.toIntExact(n)];
+                for (int i = 0; i < a.length; i++) {
+                    a[i] = f.applyAsDouble(i);
+                }
+                vw.addDataArrayASCII(name, a);
+            }
+
+            @Override
+            GridVariable box(Box b) {
+                if (b.isFull()) return this;
+                return derived(b.size(), i -> f.applyAsDouble(b.fullIndex(i)));
+            }
+        };
+    }
+
+    /**
+     * Box of cells or nodes of a grid with dimensions n[0] x n[1] x n[2], which goes from
+     * lo to hi (both included) in each direction.
+     */
+    static final class Box {
+        final int[] n, lo, hi;
+
+        Box(int[] _n, int[] _lo, int[] _hi) {
+            n = _n;
+            lo = _lo;
+            hi = _hi;
+            for (int d = 0; d < 3; d++) {
+                assert (0 <= lo[d]) && (lo[d] <= hi[d]) && (hi[d] < n[d]);
+            }
+        }
+
+        /** Returns the box with all the elements of a grid. */
+        static Box full(int[] n) {
+            return new Box(n, new int[]{0, 0, 0}, new int[]{n[0] - 1, n[1] - 1, n[2] - 1});
+        }
+
+        /** Number of elements in each direction. */
+        int width(int d) {
+            return hi[d] - lo[d] + 1;
+        }
+
+        long size() {
+            return (long) width(0) * width(1) * width(2);
+        }
+
+        boolean isFull() {
+            return size() == (long) n[0] * n[1] * n[2];
+        }
+
+        /** Returns the index in the grid of the element with index i in the box. */
+        long fullIndex(long i) {
+            var wx = width(0);
+            var wy = width(1);
+            var ii = lo[0] + i % wx;
+            var jj = lo[1] + (i / wx) % wy;
+            var kk = lo[2] + i / ((long) wx * wy);
+            return ii + jj * n[0] + kk * n[0] * (long) n[1];
+        }
+
+        /** Calls row for each row of the box along the x direction. */
+        void forEachRow(Row row) {
+            long to = 0;
+            for (int k = lo[2]; k <= hi[2]; k++) {
+                for (int j = lo[1]; j <= hi[1]; j++) {
+                    var from = lo[0] + (long) j * n[0] + (long) k * n[0] * n[1];
+                    row.copy(from, to, width(0));
+                    to += width(0);
+                }
+            }
+        }
+
+        interface Row {
+            void copy(long from, long to, int n);
+        }
+    }
+}
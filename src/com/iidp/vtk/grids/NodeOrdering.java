@@ -0,0 +1,205 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.grids;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Finds the order of the nodes of a structured grid given as an unordered list of points.
+ * <p>
+ * Nodes are ordered in column major order, i.e. x direction changing fastest, then y, then z.
+ * Nodes are first sorted by x and split in nx planes, then each plane is sorted by y and split in ny rows,
+ * and finally each row is sorted by z. All sorts are stable, so nodes with equal coordinates keep their
+ * relative order. Coordinates are sorted once with a LSD radix sort, which gives the order in x and the rank
+ * of the y and z coordinates. Planes and rows are then sorted as packed long keys (rank &lt;&lt; 32 | position)
+ * in parallel, so no objects or comparators are needed.
+ * <p>
+ * If the nodes are already in column major order, which is checked in O(n), they are not sorted.
+ */
+class NodeOrdering {
+
+    /**
+     * Returns the order of the nodes.
+     *
+     * @param x, y, z: coordinates of the nodes in any order.
+     * @param nx, ny, nz: number of nodes in each direction.
+     * @return array order such that node ii = i + j * nx + k * nx * ny of the grid is the point order[ii] of the input.
+     */
+    static int[] columnMajorOrder(double[] x, double[] y, double[] z, int nx, int ny, int nz) {
+        var nnodes = x.length;
+        assert (long) nx * ny * nz == nnodes;
+
+        if (isColumnMajor(x, y, z, nx, ny, nz)) {
+            return IntStream.range(0, nnodes).toArray();
+        }
+
+        // First sort in x-direction
+        var order = new int[nnodes];
+        ranks(x, order);
+
+        // Then sort each plane in y-direction and each row in z-direction
+        var keys = new long[nnodes];
+        var tmp = new int[nnodes];
+        sortBlocks(order, keys, ranks(y, tmp), ny * nz);
+        sortBlocks(order, keys, ranks(z, tmp), nz);
+
+        // At this point nodes are ordered with z coordinate changing fastest.
+        // So we have to invert order.
+        var result = new int[nnodes];
+        IntStream.range(0, nx).parallel().forEach(i -> {
+            var pos = i * ny * nz;
+            for (int j = 0; j < ny; j++) {
+                for (int k = 0; k < nz; k++) {
+                    result[i + j * nx + k * nx * ny] = order[pos];
+                    pos += 1;
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns true if sorting the nodes would not change their order, i.e. if x increases from one
+     * plane of nodes to the next, y from one row to the next within each plane and z along each column.
+     */
+    static boolean isColumnMajor(double[] x, double[] y, double[] z, int nx, int ny, int nz) {
+        final int nxy = nx * ny;
+
+        // z increases along each column
+        var columns = IntStream.range(0, nz - 1).parallel().allMatch(k -> {
+            for (int p = k * nxy; p < (k + 1) * nxy; p++) {
+                if (!(z[p] < z[p + nxy])) return false;
+            }
+            return true;
+        });
+        if (!columns) return false;
+
+        // y increases from one row to the next in each plane
+        var rows = IntStream.range(0, nx).parallel().allMatch(i -> {
+            var maxPrevious = Double.NEGATIVE_INFINITY;
+            for (int j = 0; j < ny; j++) {
+                var min = Double.POSITIVE_INFINITY;
+                var max = Double.NEGATIVE_INFINITY;
+                for (int k = 0; k < nz; k++) {
+                    var v = y[i + j * nx + k * nxy];
+                    min = Math.min(min, v);
+                    max = Math.max(max, v);
+                }
+                if (j > 0 && !(maxPrevious < min)) return false;
+                maxPrevious = max;
+            }
+            return true;
+        });
+        if (!rows) return false;
+
+        // x increases from one plane to the next
+        var min = new double[nx];
+        var max = new double[nx];
+        IntStream.range(0, nx).parallel().forEach(i -> {
+            var mn = Double.POSITIVE_INFINITY;
+            var mx = Double.NEGATIVE_INFINITY;
+            for (int p = i; p < x.length; p += nx) {
+                mn = Math.min(mn, x[p]);
+                mx = Math.max(mx, x[p]);
+            }
+            min[i] = mn;
+            max[i] = mx;
+        });
+        for (int i = 1; i < nx; i++) {
+            if (!(max[i - 1] < min[i])) return false;
+        }
+        return true;
+    }
+
+    // Helper function: stable sort of consecutive blocks of order by rank, blocks are sorted in parallel.
+    private static void sortBlocks(int[] order, long[] keys, int[] rank, int blockSize) {
+        var nblocks = order.length / blockSize;
+        IntStream.range(0, nblocks).parallel().forEach(b -> {
+            var from = b * blockSize;
+            var to = from + blockSize;
+            for (int q = from; q < to; q++) {
+                keys[q] = pack(rank[order[q]], q);
+            }
+            Arrays.sort(keys, from, to);
+        });
+        var previous = order.clone();
+        IntStream.range(0, order.length).parallel().forEach(q -> order[q] = previous[position(keys[q])]);
+    }
+
+    // Helper function: rank of each value in the sorted list of values, equal values have the same rank.
+    // It also returns in order the indices of the values in ascending order, equal values keep their order.
+    private static int[] ranks(double[] v, int[] order) {
+        var n = v.length;
+        var keys = new long[n];
+        IntStream.range(0, n).parallel().forEach(p -> {
+            // adding 0.0 turns -0.0 into 0.0, so both are equal as when they are compared with <
+            var bits = Double.doubleToLongBits(v[p] + 0.0);
+            // flip bits such that unsigned order of keys is the order of values
+            keys[p] = bits ^ ((bits >> 63) | Long.MIN_VALUE);
+            order[p] = p;
+        });
+        radixSort(keys, order);
+
+        var rank = new int[n];
+        var r = 0;
+        for (int q = 0; q < n; q++) {
+            if (q > 0 && keys[q] != keys[q - 1]) r = q;
+            rank[order[q]] = r;
+        }
+        return rank;
+    }
+
+    // Helper function: stable LSD radix sort of unsigned keys with 16 bit digits, values are moved with their keys.
+    // Digits that are equal for all keys, e.g. the sign and exponent of similar coordinates, are skipped.
+    private static void radixSort(long[] keys, int[] values) {
+        var n = keys.length;
+        var keys2 = new long[n];
+        var values2 = new int[n];
+        var count = new int[1 << 16];
+        for (int shift = 0; shift < 64; shift += 16) {
+            Arrays.fill(count, 0);
+            for (int i = 0; i < n; i++) {
+                count[(int) (keys[i] >>> shift) & 0xFFFF]++;
+            }
+            if (n == 0 || count[(int) (keys[0] >>> shift) & 0xFFFF] == n) continue;
+
+            var sum = 0;
+            for (int d = 0; d < count.length; d++) {
+                var c = count[d];
+                count[d] = sum;
+                sum += c;
+            }
+            for (int i = 0; i < n; i++) {
+                var pos = count[(int) (keys[i] >>> shift) & 0xFFFF]++;
+                keys2[pos] = keys[i];
+                values2[pos] = values[i];
+            }
+
+            System.arraycopy(keys2, 0, keys, 0, n);
+            System.arraycopy(values2, 0, values, 0, n);
+        }
+    }
+
+    private static long pack(int rank, int position) {
+        return ((long) rank << 32) | position;
+    }
+
+    private static int position(long key) {
+        return (int) (key & 0xFFFFFFFFL);
+    }
+}
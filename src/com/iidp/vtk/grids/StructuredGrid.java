@@ -17,12 +17,16 @@
 
 package com.iidp.vtk.grids;
 
-import java.io.DataOutputStream;
 import java.io.File;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.function.LongToDoubleFunction;
+import java.util.stream.IntStream;
 
+import com.iidp.vtk.low_level.BigDoubleArray;
+import com.iidp.vtk.low_level.BigIntArray;
 import com.iidp.vtk.low_level.VTK_DATA_TYPE;
 import com.iidp.vtk.low_level.VTK_FILE_TYPE;
 import com.iidp.vtk.low_level.VTKWriter;
@@ -35,9 +39,9 @@ import com.iidp.vtk.low_level.VTKWriter;
  */
 public class StructuredGrid {
     /**
-     * Nodes coordinates
+     * Nodes coordinates, stored as one contiguous array per direction in grid order
      */
-    private double[][] coords;
+    private double[] xs, ys, zs;
 
     /**
      * Number of cells in each direction
@@ -45,11 +49,19 @@ public class StructuredGrid {
     public int nx, ny, nz;
     public int ncols, nrows, nlays;
 
-    private int ncells, nnodes;
+    private long ncells, nnodes;
 
-    HashMap<String, double[]> cellVars = new HashMap<String, double[]>();
-    HashMap<String, double[]> nodeVars = new HashMap<String, double[]>();
-    //TODO: ADD INT VARIABLES
+    HashMap<String, GridVariable> cellVars = new HashMap<String, GridVariable>();
+    HashMap<String, GridVariable> nodeVars = new HashMap<String, GridVariable>();
+
+    /** Name of the cell array that VTK uses to blank cells. */
+    public static final String GHOST_ARRAY = "vtkGhostType";
+
+    /** Value of vtkGhostType for cells that are not rendered, i.e. vtkDataSetAttributes::HIDDENCELL. */
+    public static final byte HIDDEN_CELL = 32;
+
+    private boolean[] active = null;
+    private boolean trimToActive = false;
 
     /**
      * @param nx number of nodes in x direction.
@@ -66,12 +78,12 @@ public class StructuredGrid {
         this.nrows = ny - 1;
         this.nlays = nz - 1;
 
-        ncells = (nx - 1) * (ny - 1) * (nz - 1);
-        nnodes = nx * ny * nz;
+        ncells = (long) (nx - 1) * (ny - 1) * (nz - 1);
+        nnodes = (long) nx * ny * nz;
     }
 
-    private final int getCellIndex1D(int i, int j, int k) {
-        return i + j * this.ncols + k * this.ncols * this.nrows; // THIS MAY OVERFLOW, WOW!
+    private final long getCellIndex1D(int i, int j, int k) {
+        return i + (long) j * this.ncols + (long) k * this.ncols * this.nrows;
     }
 
     public StructuredGrid setNodeCoordinates(double[] x, double[] y, double[] z) {
@@ -83,52 +95,20 @@ public class StructuredGrid {
         assert (x.length == nnodes);
         assert (x.length == y.length && x.length == z.length);
 
-        double[][] tmp = new double[nnodes][3];
-        for (int i = 0; i < tmp.length; i++) {
-            tmp[i][0] = x[i];
-            tmp[i][1] = y[i];
-            tmp[i][2] = z[i];
-        }
-
         // Sort coordinates such that they define the nodes of a structured grid
         // with column major order, i.e. cell number change fastest in x direction, and
         // faster in y than in z directions.
-
-        final int npx = nx;
-        final int npy = ny;
-        final int npz = nz;
-
-        // First sort in x- and then in y-directions
-        Arrays.sort(tmp, new OrderCoordinates(0));
-
-        final int nnyz = npy * npz;
-        int nyz = 0;
-        while (nyz < nnodes) {
-            //System.out.println("nnodes: " + nnodes + "  nrow: " + nrow);
-            Arrays.sort(tmp, nyz, (nyz + nnyz), new OrderCoordinates(1));
-            nyz += nnyz;
-        }
-
-        // Now we have to sort the elevations along each pilar column
-        int ncolumn = 0;
-        while (ncolumn < nnodes) {
-            Arrays.sort(tmp, ncolumn, ncolumn + npz, new OrderCoordinates(2));
-            ncolumn += npz;
-        }
-
-        // At this point nodes are ordered with z coordinate changing fastest.
-        // So we have to invert order.
-        coords = new double[tmp.length][];
-        int pos = 0;
-        for (int i = 0; i < npx; i++) {
-            for (int j = 0; j < npy; j++) {
-                for (int k = 0; k < npz; k++) {
-                    final int ii = i + j * npx + k * npx * npy;
-                    coords[ii] = tmp[pos];
-                    pos += 1;
-                }
-            }
-        }
+        var order = NodeOrdering.columnMajorOrder(x, y, z, nx, ny, nz);
+
+        xs = new double[order.length];
+        ys = new double[order.length];
+        zs = new double[order.length];
+        IntStream.range(0, order.length).parallel().forEach(ii -> {
+            final int p = order[ii];
+            xs[ii] = x[p];
+            ys[ii] = y[p];
+            zs[ii] = z[p];
+        });
         return this;
     }
 
@@ -145,11 +125,7 @@ public class StructuredGrid {
      */
     public StructuredGrid addCellVariable(String name, int[][] ijk, double[][] values, int value_pos, double default_value) {
         System.out.println("Adding cell variable to grid from list of tuples...");
-        var a = new double[this.ncells];
-
-        for (int i = 0; i < a.length; i++) {
-            a[i] = default_value;
-        }
+        var a = new BigDoubleArray(this.ncells).fill(default_value);
 
         for (int t = 0; t < ijk.length; t++) {
             var iijk = ijk[t];
@@ -159,64 +135,113 @@ public class StructuredGrid {
             assert i < this.ncols;
             assert j < this.nrows;
             assert k < this.nlays;
-            final int ii = getCellIndex1D(i, j, k);
-            assert ii < a.length;
+            final long ii = getCellIndex1D(i, j, k);
+            assert ii < a.length();
             //System.out.printf("i: %d  j: %d  k: %d ii: %d  ncells: %d\n", i, j, k, ii, this.ncells);
 
-            a[ii] = values[t][value_pos];
+            a.set(ii, values[t][value_pos]);
         }
 
         this.addCellVariable(name, a);
         return this;
     }
 
-    /** Returns array with x-coordinate. */
-    public double[] getX() {
-        double[] x_ = new double[nnodes];
-        for (int i = 0; i < x_.length; i++) {
-            x_[i] = coords[i][0];
-        }
-        return x_;
+    /**
+     * Adds a variable whose values are given for a list of cells, which are defined by
+     * columns with their i,j,k indexes. See addCellVariables.
+     *
+     * @param name:          Variable name.
+     * @param i:             i index of each cell in the list.
+     * @param j:             j index of each cell in the list.
+     * @param k:             k index of each cell in the list.
+     * @param values:        value of each cell in the list.
+     * @param default_value: Value assigned to cells that are not in the list.
+     */
+    public StructuredGrid addCellVariable(String name, int[] i, int[] j, int[] k, double[] values, double default_value) {
+        return addCellVariables(new String[]{name}, i, j, k, new double[][]{values}, new double[]{default_value});
     }
 
-    /** Returns array with y-coordinate. */
-    public double[] getY() {
-        double[] y_ = new double[nnodes];
-        for (int i = 0; i < y_.length; i++) {
-            y_[i] = coords[i][1];
+    /**
+     * Adds several variables whose values are given for the same list of cells, which are defined by
+     * columns with their i,j,k indexes, e.g. the columns of a MODFLOW list file.
+     * <p>
+     * The variables are filled with their default values and then the values of the listed cells are
+     * scattered in a single pass over the list. Both steps run in parallel.
+     * If a cell appears more than once in the list, its last values are kept, as with addCellVariable.
+     * In that case the values are scattered sequentially.
+     *
+     * @param names:          Name of each variable.
+     * @param i:              i index of each cell in the list.
+     * @param j:              j index of each cell in the list.
+     * @param k:              k index of each cell in the list.
+     * @param values:         2D array of dimension [nvars][ntuples] with the values of each variable.
+     * @param default_values: Value assigned to cells that are not in the list for each variable.
+     * @throws IndexOutOfBoundsException if an index is outside the grid.
+     */
+    public StructuredGrid addCellVariables(String[] names, int[] i, int[] j, int[] k,
+                                           double[][] values, double[] default_values) {
+        final int nvars = names.length;
+        final int ntuples = i.length;
+        assert (j.length == ntuples) && (k.length == ntuples);
+        assert (values.length == nvars) && (default_values.length == nvars);
+        for (double[] v : values) {
+            assert v.length == ntuples;
         }
-        return y_;
-    }
 
-    /** Returns array with z-coordinate. */
-    public double[] getZ() {
-        double[] z_ = new double[nnodes];
-        for (int i = 0; i < z_.length; i++) {
-            z_[i] = coords[i][2];
+        var a = new BigDoubleArray[nvars];
+        for (int v = 0; v < nvars; v++) {
+            a[v] = new BigDoubleArray(this.ncells).fill(default_values[v]);
         }
-        return z_;
-    }
 
-    // Helper class
-    private static class OrderCoordinates implements Comparator {
-        final int dim;
+        var cells = new long[ntuples];
+        IntStream.range(0, ntuples).parallel().forEach(t -> cells[t] = getCellIndex1D(Objects.checkIndex(i[t], ncols),
+                Objects.checkIndex(j[t], nrows), Objects.checkIndex(k[t], nlays)));
 
-        public OrderCoordinates(int d) {
-            dim = d;
+        var tuples = IntStream.range(0, ntuples);
+        if (!hasDuplicates(cells)) {
+            tuples = tuples.parallel();
         }
-
-        public int compare(Object o1, Object o2) {
-            double[] pos1 = (double[]) o1;
-            double[] pos2 = (double[]) o2;
-
-            if (pos1[dim] < pos2[dim]) {
-                return -1;
-            } else if (pos1[dim] > pos2[dim]) {
-                return 1;
-            } else {
-                return 0;
+        tuples.forEach(t -> {
+            for (int v = 0; v < nvars; v++) {
+                a[v].set(cells[t], values[v][t]);
             }
+        });
+
+        for (int v = 0; v < nvars; v++) {
+            this.addCellVariable(names[v], a[v]);
         }
+        return this;
+    }
+
+    // Helper function: true if some index appears more than once.
+    private static boolean hasDuplicates(long[] indexes) {
+        var sorted = indexes.clone();
+        Arrays.parallelSort(sorted);
+        return IntStream.range(1, sorted.length).parallel().anyMatch(t -> sorted[t] == sorted[t - 1]);
+    }
+
+    /**
+     * Returns array with x-coordinate in grid order.
+     * NOTE: the array is not copied, so changes to it also change the grid.
+     */
+    public double[] getX() {
+        return xs;
+    }
+
+    /**
+     * Returns array with y-coordinate in grid order.
+     * NOTE: the array is not copied, so changes to it also change the grid.
+     */
+    public double[] getY() {
+        return ys;
+    }
+
+    /**
+     * Returns array with z-coordinate in grid order.
+     * NOTE: the array is not copied, so changes to it also change the grid.
+     */
+    public double[] getZ() {
+        return zs;
     }
 
     /**
@@ -228,6 +253,74 @@ public class StructuredGrid {
      * @param var array with variable values. It should contains ncells elements.
      */
     public StructuredGrid addCellVariable(String name, double[] var) {
+        return addCellVariable(name, BigDoubleArray.wrap(var));
+    }
+
+    /**
+     * Adds a variable associated to each cell of the grid, which can have more than 2^31 cells.
+     * See addCellVariable(String, double[]).
+     *
+     * @param name variable name.
+     * @param var array with variable values. It should contains ncells elements.
+     */
+    public StructuredGrid addCellVariable(String name, BigDoubleArray var) {
+        return addCellVariable(name, GridVariable.of(var));
+    }
+
+    /**
+     * Adds a variable associated to each cell of the grid that is written as Float32.
+     * See addCellVariable(String, double[]).
+     */
+    public StructuredGrid addCellVariable(String name, float[] var) {
+        return addCellVariable(name, GridVariable.of(var));
+    }
+
+    /**
+     * Adds an integer variable associated to each cell of the grid, e.g. zone ids, that is written as Int32.
+     * See addCellVariable(String, double[]).
+     */
+    public StructuredGrid addCellVariable(String name, int[] var) {
+        return addCellVariable(name, BigIntArray.wrap(var));
+    }
+
+    /**
+     * Adds an integer variable associated to each cell of the grid, which can have more than 2^31 cells.
+     * See addCellVariable(String, int[]).
+     */
+    public StructuredGrid addCellVariable(String name, BigIntArray var) {
+        return addCellVariable(name, GridVariable.of(var));
+    }
+
+    /**
+     * Adds a variable associated to each cell of the grid that is written as Int16, e.g. layer indexes.
+     * See addCellVariable(String, double[]).
+     */
+    public StructuredGrid addCellVariable(String name, short[] var) {
+        return addCellVariable(name, GridVariable.of(var));
+    }
+
+    /**
+     * Adds a variable associated to each cell of the grid that is written as Int8, e.g. flags or masks.
+     * See addCellVariable(String, double[]).
+     */
+    public StructuredGrid addCellVariable(String name, byte[] var) {
+        return addCellVariable(name, GridVariable.of(var));
+    }
+
+    /**
+     * Adds a variable associated to each cell of the grid whose values are computed when the grid is written,
+     * so they are never stored. Values are written as Float64.
+     *
+     * @param name variable name.
+     * @param values function that returns the value of a cell from its index in grid order,
+     *               i.e. i + j * ncols + k * ncols * nrows. It may read other variables of the grid.
+     */
+    public StructuredGrid addDerivedCellVariable(String name, LongToDoubleFunction values) {
+        return addCellVariable(name, GridVariable.derived(ncells, values));
+    }
+
+    // Helper function.
+    private StructuredGrid addCellVariable(String name, GridVariable var) {
         assert (var.length == ncells);
         System.out.println("adding cell variable: " + var.length);
         cellVars.put(name, var);
@@ -243,12 +336,108 @@ public class StructuredGrid {
      * @param var array with variable values. It should contains nnodes elements.
      */
     public StructuredGrid addNodeVariable(String name, double[] var) {
+        return addNodeVariable(name, BigDoubleArray.wrap(var));
+    }
+
+    /**
+     * Adds a variable associated to each node of the grid, which can have more than 2^31 nodes.
+     * See addNodeVariable(String, double[]).
+     *
+     * @param name variable name.
+     * @param var array with variable values. It should contains nnodes elements.
+     */
+    public StructuredGrid addNodeVariable(String name, BigDoubleArray var) {
+        return addNodeVariable(name, GridVariable.of(var));
+    }
+
+    /**
+     * Adds a variable associated to each node of the grid that is written as Float32.
+     * See addNodeVariable(String, double[]).
+     */
+    public StructuredGrid addNodeVariable(String name, float[] var) {
+        return addNodeVariable(name, GridVariable.of(var));
+    }
+
+    /**
+     * Adds an integer variable associated to each node of the grid that is written as Int32.
+     * See addNodeVariable(String, double[]).
+     */
+    public StructuredGrid addNodeVariable(String name, int[] var) {
+        return addNodeVariable(name, BigIntArray.wrap(var));
+    }
+
+    /**
+     * Adds an integer variable associated to each node of the grid, which can have more than 2^31 nodes.
+     * See addNodeVariable(String, int[]).
+     */
+    public StructuredGrid addNodeVariable(String name, BigIntArray var) {
+        return addNodeVariable(name, GridVariable.of(var));
+    }
+
+    /**
+     * Adds a variable associated to each node of the grid that is written as Int16.
+     * See addNodeVariable(String, double[]).
+     */
+    public StructuredGrid addNodeVariable(String name, short[] var) {
+        return addNodeVariable(name, GridVariable.of(var));
+    }
+
+    /**
+     * Adds a variable associated to each node of the grid that is written as Int8.
+     * See addNodeVariable(String, double[]).
+     */
+    public StructuredGrid addNodeVariable(String name, byte[] var) {
+        return addNodeVariable(name, GridVariable.of(var));
+    }
+
+    /**
+     * Adds a variable associated to each node of the grid whose values are computed when the grid is written.
+     * See addDerivedCellVariable.
+     *
+     * @param name variable name.
+     * @param values function that returns the value of a node from its index in grid order,
+     *               i.e. i + j * nx + k * nx * ny.
+     */
+    public StructuredGrid addDerivedNodeVariable(String name, LongToDoubleFunction values) {
+        return addNodeVariable(name, GridVariable.derived(nnodes, values));
+    }
+
+    // Helper function.
+    private StructuredGrid addNodeVariable(String name, GridVariable var) {
         assert (var.length == nnodes);
         System.out.println("adding node variable: " + var.length);
         nodeVars.put(name, var);
         return this;
     }
 
+    /**
+     * Sets which cells of the grid are active, e.g. the IBOUND array of a MODFLOW model.
+     * Inactive cells are kept in the file, but they are blanked with a vtkGhostType UInt8 cell array,
+     * so they are not rendered and filters ignore them.
+     *
+     * NOTE: array values must be given in the grid order,
+     * i.e. x direction changing fastest, then y, then z
+     * @param _active true for active cells, or null to write all the cells without blanking.
+     *                It should contains ncells elements.
+     */
+    public StructuredGrid setActiveCells(boolean[] _active) {
+        assert (_active == null) || (_active.length == ncells);
+        active = _active;
+        return this;
+    }
+
+    /**
+     * Writes only the bounding box of the active cells instead of the whole grid.
+     * The extent of the file keeps the indexes of the cells in the whole grid.
+     * It has no effect if active cells are not set or if there are no active cells.
+     *
+     * @param trim true to write the bounding box of the active cells.
+     */
+    public StructuredGrid setTrimToActive(boolean trim) {
+        trimToActive = trim;
+        return this;
+    }
+
     /**
      * Writes grid as a binary XML VTK file.
      *
@@ -260,32 +449,30 @@ public class StructuredGrid {
         System.out.printf(" grid dims - nx: %d \t ny: %d \t nz: %d \n", nx, ny, nz);
         System.out.println(" # cells: " + ncells);
         System.out.println(" # nodes: " + nnodes);
-        var vw = new VTKWriter(new File(filename), VTK_FILE_TYPE.STRUCTURED_GRID);
+        var e = new Export();
+        var coordinatesBytes = e.nnodes * VTK_DATA_TYPE.FLOAT64.sizeof() * 3;
+        var vw = new VTKWriter(new File(filename), VTK_FILE_TYPE.STRUCTURED_GRID, VTKWriter.headerType(coordinatesBytes));
 
-        int[] start = {0, 0, 0};
-        int[] end = {nx - 1, ny - 1, nz - 1};
-        vw.openStructuredGrid(start, end);
-        vw.openPiece(start, end);
+        vw.openStructuredGrid(e.start, e.end);
+        vw.openPiece(e.start, e.end);
 
         // Declare point data
-        String pdefault = nodeVars.keySet().size() > 0 ? nodeVars.keySet().iterator().next() : null;
-        vw.openPointData(pdefault, null, null, null, null);
-        for (String name : nodeVars.keySet()) {
-            vw.addDataArray(name, VTK_DATA_TYPE.FLOAT64, nnodes, 1);
+        vw.openPointData(e.pdefault, null, null, null, null);
+        for (String name : e.nodeVars.keySet()) {
+            vw.addDataArray(name, e.nodeVars.get(name).type, e.nnodes, 1);
         }
         vw.closePointData();
 
         // Declare cell data
-        String cdefault = cellVars.keySet().size() > 0 ? cellVars.keySet().iterator().next() : null;
-        vw.openCellData(cdefault, null, null, null, null);
-        for (String name : cellVars.keySet()) {
-            vw.addDataArray(name, VTK_DATA_TYPE.FLOAT64, ncells, 1);
+        vw.openCellData(e.cdefault, null, null, null, null);
+        for (String name : e.cellVars.keySet()) {
+            vw.addDataArray(name, e.cellVars.get(name).type, e.ncells, 1);
         }
         vw.closeCellData();
 
         // Coordinates of cell vertices
         vw.openElement("Points");
-        vw.addDataArray("coordinates", VTK_DATA_TYPE.FLOAT64, nnodes, 3);
+        vw.addDataArray("coordinates", VTK_DATA_TYPE.FLOAT64, e.nnodes, 3);
         vw.closeElement("Points");
 
         vw.closePiece();
@@ -294,25 +481,19 @@ public class StructuredGrid {
         vw.openAppendedData();
 
         // Point data
-        for (String name : nodeVars.keySet()) {
+        for (String name : e.nodeVars.keySet()) {
             // System.out.println("Writing node data");
-            vw.appendArray(nodeVars.get(name));
+            e.nodeVars.get(name).appendTo(vw);
         }
 
         // Cell data
-        for (String name : cellVars.keySet()) {
+        for (String name : e.cellVars.keySet()) {
             System.out.println("Writing cell variable: " + name);
-            vw.appendArray(cellVars.get(name));
+            e.cellVars.get(name).appendTo(vw);
         }
 
         // Coordinates
-        DataOutputStream out = vw.getStream();
-        out.writeInt(nnodes * VTK_DATA_TYPE.FLOAT64.sizeof() * 3);
-        for (int i = 0; i < nnodes; i++) {
-            out.writeDouble(coords[i][0]);
-            out.writeDouble(coords[i][1]);
-            out.writeDouble(coords[i][2]);
-        }
+        vw.appendArraysAs3D(e.x, e.y, e.z);
 
         vw.closeAppendedData();
         vw.close();
@@ -329,36 +510,124 @@ public class StructuredGrid {
         System.out.printf(" grid dims - nx: %d \t ny: %d \t nz: %d \n", nx, ny, nz);
         System.out.println(" # cells: " + ncells);
         System.out.println(" # nodes: " + nnodes);
+        var e = new Export();
         var vw = new VTKWriter(new File(filename), VTK_FILE_TYPE.STRUCTURED_GRID);
 
-        int[] start = {0, 0, 0};
-        int[] end = {nx - 1, ny - 1, nz - 1};
-        vw.openStructuredGrid(start, end);
-        vw.openPiece(start, end);
+        vw.openStructuredGrid(e.start, e.end);
+        vw.openPiece(e.start, e.end);
 
         // Declare point data
-        String pdefault = nodeVars.keySet().size() > 0 ? nodeVars.keySet().iterator().next() : null;
-        vw.openPointData(pdefault, null, null, null, null);
-        for (String name : nodeVars.keySet()) {
-            vw.addDataArrayASCII(name, nodeVars.get(name));
+        vw.openPointData(e.pdefault, null, null, null, null);
+        for (String name : e.nodeVars.keySet()) {
+            e.nodeVars.get(name).addToVTKAsAscii(vw, name);
         }
         vw.closePointData();
 
         // Declare cell data
-        String cdefault = cellVars.keySet().size() > 0 ? cellVars.keySet().iterator().next() : null;
-        vw.openCellData(cdefault, null, null, null, null);
-        for (String name : cellVars.keySet()) {
-            vw.addDataArrayASCII(name, cellVars.get(name));
+        vw.openCellData(e.cdefault, null, null, null, null);
+        for (String name : e.cellVars.keySet()) {
+            e.cellVars.get(name).addToVTKAsAscii(vw, name);
         }
         vw.closeCellData();
 
         // Coordinates of cell vertices
         vw.openElement("Points");
-        vw.addDataArrayASCII("coordinates", coords);
+        vw.addDataArrayASCII("coordinates", e.x, e.y, e.z);
         vw.closeElement("Points");
 
         vw.closePiece();
         vw.closeStructuredGrid();
         vw.close();
     }
+
+    /**
+     * Part of the grid that is written to a file, i.e. the whole grid or the bounding box of its
+     * active cells, with the blanking array added to the cell variables.
+     */
+    private class Export {
+        final int[] start, end;
+        final long ncells, nnodes;
+        final String pdefault, cdefault;
+        final LinkedHashMap<String, GridVariable> cellVars = new LinkedHashMap<>();
+        final LinkedHashMap<String, GridVariable> nodeVars = new LinkedHashMap<>();
+        final double[] x, y, z;
+
+        Export() {
+            var cells = GridVariable.Box.full(new int[]{ncols, nrows, nlays});
+            if (active != null && trimToActive) {
+                var b = activeBox();
+                if (b != null) cells = b;
+            }
+            var nodes = new GridVariable.Box(new int[]{nx, ny, nz}, cells.lo,
+                    new int[]{cells.hi[0] + 1, cells.hi[1] + 1, cells.hi[2] + 1});
+
+            start = nodes.lo;
+            end = nodes.hi;
+            ncells = cells.size();
+            nnodes = nodes.size();
+
+            for (String name : StructuredGrid.this.nodeVars.keySet()) {
+                nodeVars.put(name, StructuredGrid.this.nodeVars.get(name).box(nodes));
+            }
+            for (String name : StructuredGrid.this.cellVars.keySet()) {
+                cellVars.put(name, StructuredGrid.this.cellVars.get(name).box(cells));
+            }
+            pdefault = nodeVars.size() > 0 ? nodeVars.keySet().iterator().next() : null;
+            cdefault = cellVars.size() > 0 ? cellVars.keySet().iterator().next() : null;
+
+            if (active != null) {
+                var ghost = new byte[active.length];
+                IntStream.range(0, ghost.length).parallel().forEach(c -> ghost[c] = active[c] ? 0 : HIDDEN_CELL);
+                cellVars.put(GHOST_ARRAY, GridVariable.of(ghost, VTK_DATA_TYPE.UINT8).box(cells));
+            }
+
+            x = box(xs, nodes);
+            y = box(ys, nodes);
+            z = box(zs, nodes);
+        }
+    }
+
+    // Helper function: returns the bounding box of the active cells, or null if there are no active cells.
+    private GridVariable.Box activeBox() {
+        // bounds of the active cells of each layer, from a parallel scan of the layers
+        var bounds = IntStream.range(0, nlays).parallel().mapToObj(k -> {
+            int[] b = null;
+            for (int j = 0; j < nrows; j++) {
+                final var row = (int) getCellIndex1D(0, j, k);
+                for (int i = 0; i < ncols; i++) {
+                    if (!active[row + i]) continue;
+                    if (b == null) b = new int[]{i, j, i, j};
+                    b[0] = Math.min(b[0], i);
+                    b[1] = Math.min(b[1], j);
+                    b[2] = Math.max(b[2], i);
+                    b[3] = Math.max(b[3], j);
+                }
+            }
+            return b;
+        }).toArray(int[][]::new);
+
+        int[] lo = null, hi = null;
+        for (int k = 0; k < nlays; k++) {
+            var b = bounds[k];
+            if (b == null) continue;
+            if (lo == null) {
+                lo = new int[]{b[0], b[1], k};
+                hi = new int[]{b[2], b[3], k};
+            }
+            lo[0] = Math.min(lo[0], b[0]);
+            lo[1] = Math.min(lo[1], b[1]);
+            hi[0] = Math.max(hi[0], b[2]);
+            hi[1] = Math.max(hi[1], b[3]);
+            hi[2] = k;
+        }
+        return (lo != null) ? new GridVariable.Box(new int[]{ncols, nrows, nlays}, lo, hi) : null;
+    }
+
+    // Helper function: returns the values of a node array inside a box.
+    private static double[] box(double[] a, GridVariable.Box b) {
+        if (b.isFull()) return a;
+        var v = new double[Math.toIntExact(b.size())];
+        b.forEachRow((from, to, n) -> System.arraycopy(a, (int) from, v, (int) to, n));
+        return v;
+    }
 }
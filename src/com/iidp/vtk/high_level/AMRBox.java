@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2009-2020 Paulo A. Herrera <paulo.herrera.eirl at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level;
+
+import com.iidp.vtk.high_level.data.GridData;
+
+/**
+ * Box of cells of one level of a block-structured AMR grid, see EVTK.overlappingAMRToVTK.
+ * <p>
+ * Boxes are given by the indices of their cells in the whole domain refined to their level, i.e. the cell (i, j, k)
+ * of a box at level L starts at origin + (start + (i, j, k)) * spacing[L], where origin is the origin of the
+ * domain and spacing[L] is the spacing of level L. Boxes of finer levels overlap the boxes of coarser levels.
+ */
+public class AMRBox {
+    public final int level;
+    public final int[] start;
+    public final int[] ncells;
+    public final GridData cellData, pointData;
+
+    /**
+     * @param _level:     level of the box, 0 is the coarsest level.
+     * @param _start:     index of the first cell of the box at its level in each direction as a int[3].
+     * @param _ncells:    number of cells of the box in each direction as a int[3].
+     * @param _cellData:  a container with data for each cell of the box, it can be null.
+     * @param _pointData: a container with data for each point of the box, it can be null.
+     */
+    public AMRBox(int _level, int[] _start, int[] _ncells, GridData _cellData, GridData _pointData) {
+        assert (_level >= 0) && (_start.length == 3) && (_ncells.length == 3);
+        level = _level;
+        start = _start.clone();
+        ncells = _ncells.clone();
+        cellData = _cellData;
+        pointData = _pointData;
+    }
+}
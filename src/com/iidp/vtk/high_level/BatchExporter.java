@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2009-2020 Paulo A. Herrera <paulo.herrera.eirl at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level;
+
+import com.iidp.vtk.low_level.VTKGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs many exports at the same time, e.g. to convert all the saved states of a simulation.
+ * <p>
+ * Each job is usually a lambda that calls one of the EVTK.xxxToVTK methods and returns the full path
+ * of the saved file. The scheduler limits the number of files that are written at the same time
+ * and the number of bytes that are in flight, i.e. the estimated size of the jobs that are running.
+ * When a group is given, the files of the jobs submitted with a time and a part are added to it in the order
+ * the jobs were submitted, when awaitAll or close is called, so the group does not depend on which job
+ * finishes first.
+ * <p>
+ * By default jobs run on virtual threads when the JVM supports them (Java 21+), otherwise they
+ * run on a pool with one thread per open file. Example:
+ * <pre>
+ *   var group = EVTK.createGroup("series");
+ *   try (var batch = new BatchExporter(1L &lt;&lt; 30, 8).setGroup(group)) {
+ *       for (int s = 0; s &lt; nsteps; s++) {
+ *           final int step = s;
+ *           batch.submit(() -&gt; EVTK.imageToVTK("step_" + step, ...), nbytes, step, 0);
+ *       }
+ *   }
+ *   group.close();
+ * </pre>
+ */
+public class BatchExporter implements AutoCloseable {
+
+    /**
+     * A single export. It should return the full path of the saved file.
+     */
+    public interface ExportJob {
+        String export() throws Exception;
+    }
+
+    private final ByteBudget inFlight;
+    private final Semaphore openFiles;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;         // true if the executor is shut down by close
+    private final List<CompletableFuture<String>> jobs = new ArrayList<>();
+    private final List<double[]> entries = new ArrayList<>();   // time and part of each job, part < 0 if none
+    private int nadded = 0;                                      // number of jobs already added to the group
+    private VTKGroup group = null;
+
+    /**
+     * Creates a scheduler that runs jobs on the default executor.
+     *
+     * @param maxInFlightBytes: maximum number of bytes, as estimated by the jobs, that can be in flight.
+     * @param maxOpenFiles:     maximum number of jobs that can run at the same time.
+     */
+    public BatchExporter(long maxInFlightBytes, int maxOpenFiles) {
+        this(maxInFlightBytes, maxOpenFiles, defaultExecutor(maxOpenFiles), true);
+    }
+
+    /**
+     * Creates a scheduler that runs jobs on the given executor.
+     * The executor is not shut down when this scheduler is closed, it still belongs to the caller.
+     *
+     * @param maxInFlightBytes: maximum number of bytes, as estimated by the jobs, that can be in flight.
+     * @param maxOpenFiles:     maximum number of jobs that can run at the same time.
+     * @param executor:         executor used to run the jobs.
+     */
+    public BatchExporter(long maxInFlightBytes, int maxOpenFiles, ExecutorService executor) {
+        this(maxInFlightBytes, maxOpenFiles, executor, false);
+    }
+
+    private BatchExporter(long maxInFlightBytes, int maxOpenFiles, ExecutorService executor, boolean owned) {
+        assert maxOpenFiles > 0;
+        this.inFlight = new ByteBudget(maxInFlightBytes);
+        this.openFiles = new Semaphore(maxOpenFiles, true);
+        this.executor = executor;
+        this.ownsExecutor = owned;
+    }
+
+    /**
+     * Sets a group to which the files are added in submission order, see awaitAll.
+     * The group must be closed by the caller after this scheduler is closed.
+     *
+     * @param group: group, e.g. created with EVTK.createGroup.
+     * @return this BatchExporter.
+     */
+    public BatchExporter setGroup(VTKGroup group) {
+        this.group = group;
+        return this;
+    }
+
+    /**
+     * Submits an export job whose file is not added to the group.
+     *
+     * @param job:            export to run.
+     * @param estimatedBytes: number of bytes used by the job, e.g. size of the file or memory needed by the export.
+     * @return a future with the full path of the saved file.
+     */
+    public CompletableFuture<String> submit(ExportJob job, long estimatedBytes) {
+        return submit(job, estimatedBytes, Double.NaN, -1);
+    }
+
+    /**
+     * Submits an export job whose file is added to the group, see awaitAll.
+     *
+     * @param job:            export to run.
+     * @param estimatedBytes: number of bytes used by the job, e.g. size of the file or memory needed by the export.
+     * @param time:           simulation time of the saved file, see VTKGroup.addFile.
+     * @param part:           part number of the saved file, see VTKGroup.addFile.
+     * @return a future with the full path of the saved file.
+     */
+    public CompletableFuture<String> submit(ExportJob job, long estimatedBytes, double time, int part) {
+        var future = new CompletableFuture<String>();
+        synchronized (jobs) {
+            jobs.add(future);
+            entries.add(new double[]{time, part});
+        }
+
+        // Memory and files are reserved when the job runs, so a rejected job has nothing to release
+        try {
+            executor.execute(() -> {
+                long reserved = 0;
+                var fileOpen = false;
+                try {
+                    reserved = inFlight.acquire(estimatedBytes);
+                    openFiles.acquire();
+                    fileOpen = true;
+
+                    future.complete(job.export());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    if (fileOpen) openFiles.release();
+                    inFlight.release(reserved);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (jobs) {
+                var i = jobs.indexOf(future);
+                jobs.remove(i);
+                entries.remove(i);
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+
+        return future;
+    }
+
+    /**
+     * Waits until all the submitted jobs finish, and adds the files of the jobs submitted with a time and
+     * a part since the last call to the group, in the order the jobs were submitted.
+     * Files of jobs that failed are not added.
+     *
+     * @return full path of the saved files in the order the jobs were submitted.
+     * @throws Exception the exception thrown by the first job that failed.
+     */
+    public List<String> awaitAll() throws Exception {
+        List<CompletableFuture<String>> submitted;
+        List<double[]> submittedEntries;
+        synchronized (jobs) {
+            submitted = new ArrayList<>(jobs);
+            submittedEntries = new ArrayList<>(entries);
+        }
+
+        var paths = new ArrayList<String>(submitted.size());
+        Exception error = null;
+        for (int i = 0; i < submitted.size(); i++) {
+            try {
+                var path = submitted.get(i).join();
+                paths.add(path);
+                var entry = submittedEntries.get(i);
+                if (group != null && i >= nadded && entry[1] >= 0) {
+                    group.addFile(path, entry[0], (int) entry[1]);
+                }
+            } catch (Exception e) {
+                if (error == null) {
+                    var cause = e.getCause();
+                    error = (cause instanceof Exception) ? (Exception) cause : e;
+                }
+            }
+        }
+        nadded = Math.max(nadded, submitted.size());
+
+        if (error != null) throw error;
+        return paths;
+    }
+
+    /**
+     * Waits until all the submitted jobs finish and releases the threads created by this scheduler.
+     *
+     * @throws ExecutionException wrapping the exception thrown by the first job that failed.
+     *                            If it was an InterruptedException, the interrupt flag is restored.
+     */
+    @Override
+    public void close() throws ExecutionException {
+        try {
+            awaitAll();
+        } catch (ExecutionException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        } catch (Exception e) {
+            throw new ExecutionException(e);
+        } finally {
+            if (ownsExecutor) executor.shutdown();
+        }
+    }
+
+    // Helper function: uses virtual threads when they are available.
+    private static ExecutorService defaultExecutor(int maxOpenFiles) {
+        try {
+            var m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(maxOpenFiles);
+        }
+    }
+}
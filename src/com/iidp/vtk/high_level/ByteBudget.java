@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2009-2020 Paulo A. Herrera <paulo.herrera.eirl at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps track of a number of bytes that are shared by several threads, e.g. the memory
+ * used by exports that are running at the same time.
+ * <p>
+ * Requests larger than the capacity are reduced to the capacity, so they can still
+ * proceed when nothing else is reserved. Waiting threads block on a ReentrantLock condition,
+ * which does not pin the carrier of a virtual thread.
+ */
+public class ByteBudget {
+    private final long capacity;
+    private long used = 0;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    /**
+     * @param capacity: maximum number of bytes that can be reserved at the same time.
+     */
+    public ByteBudget(long capacity) {
+        assert capacity > 0;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Reserves bytes, waiting until there are enough available.
+     *
+     * @param nbytes: number of bytes to reserve.
+     * @return number of bytes actually reserved, which must be later passed to release.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public long acquire(long nbytes) throws InterruptedException {
+        var n = clamp(nbytes);
+        lock.lockInterruptibly();
+        try {
+            while (used + n > capacity) {
+                released.await();
+            }
+            used += n;
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves bytes only if they are immediately available.
+     *
+     * @param nbytes: number of bytes to reserve.
+     * @return number of bytes actually reserved, or -1 if there were not enough available.
+     */
+    public long tryAcquire(long nbytes) {
+        var n = clamp(nbytes);
+        lock.lock();
+        try {
+            if (used + n > capacity) return -1;
+            used += n;
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns bytes previously reserved with acquire or tryAcquire.
+     *
+     * @param nbytes: value returned by acquire or tryAcquire.
+     */
+    public void release(long nbytes) {
+        if (nbytes <= 0) return;
+        lock.lock();
+        try {
+            used -= nbytes;
+            assert used >= 0;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the maximum number of bytes that can be reserved at the same time. */
+    public long capacity() {
+        return capacity;
+    }
+
+    /** Returns the number of bytes that can be reserved right now. */
+    public long available() {
+        lock.lock();
+        try {
+            return capacity - used;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long clamp(long nbytes) {
+        return Math.max(0, Math.min(nbytes, capacity));
+    }
+}
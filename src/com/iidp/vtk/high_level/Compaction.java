@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2009-2020 Paulo A. Herrera <paulo.herrera.eirl at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level;
+
+import com.iidp.vtk.high_level.data.GridData;
+import com.iidp.vtk.low_level.VTK_CELL_TYPE;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+/**
+ * Finds a more compact representation of a grid, when ExportOptions define a compaction tolerance.
+ * <p>
+ * A structured grid whose coordinates are axis aligned is a rectilinear grid, a rectilinear grid whose coordinates
+ * are evenly spaced is an image, and an unstructured grid of hexahedra or voxels whose points are the points of
+ * a rectilinear grid, where each cell is a cell of that grid, is also a rectilinear grid. Coordinates are compared
+ * within the tolerance with parallel scans. All methods return null if the grid cannot be written in a more
+ * compact form.
+ */
+final class Compaction {
+    /** Coordinates of the rectilinear grid, see unstructuredToRectilinear. */
+    final double[] x, y, z;
+
+    // Index of the input point of each point of the rectilinear grid and of the input cell of each cell
+    private final int[] pointOf, cellOf;
+
+    private Compaction(double[] _x, double[] _y, double[] _z, int[] _pointOf, int[] _cellOf) {
+        x = _x;
+        y = _y;
+        z = _z;
+        pointOf = _pointOf;
+        cellOf = _cellOf;
+    }
+
+    /** Returns cell data in the order of the cells of the rectilinear grid. */
+    GridData cellData(GridData cellData) {
+        return (cellData != null) ? cellData.gather(cellOf.length, c -> cellOf[(int) c]) : null;
+    }
+
+    /** Returns point data in the order of the points of the rectilinear grid. */
+    GridData pointData(GridData pointData) {
+        return (pointData != null) ? pointData.gather(pointOf.length, p -> pointOf[(int) p]) : null;
+    }
+
+    /**
+     * Returns the coordinates of the axes of a structured grid as {x, y, z}, if x only changes with i,
+     * y only with j and z only with k. See EVTK.structuredGridToVTK.
+     */
+    static double[][] rectilinearAxes(double[][][] x, double[][][] y, double[][][] z, double tolerance) {
+        final int nx = x.length, ny = x[0].length, nz = x[0][0].length;
+        var aligned = IntStream.range(0, nx).parallel().allMatch(i -> {
+            for (int j = 0; j < ny; j++) {
+                for (int k = 0; k < nz; k++) {
+                    if (!(Math.abs(x[i][j][k] - x[i][0][0]) <= tolerance)) return false;
+                    if (!(Math.abs(y[i][j][k] - y[0][j][0]) <= tolerance)) return false;
+                    if (!(Math.abs(z[i][j][k] - z[0][0][k]) <= tolerance)) return false;
+                }
+            }
+            return true;
+        });
+        if (!aligned) return null;
+
+        var ax = IntStream.range(0, nx).mapToDouble(i -> x[i][0][0]).toArray();
+        var ay = IntStream.range(0, ny).mapToDouble(j -> y[0][j][0]).toArray();
+        var az = IntStream.range(0, nz).mapToDouble(k -> z[0][0][k]).toArray();
+        return new double[][]{ax, ay, az};
+    }
+
+    /**
+     * Returns the spacing of an image with the given axes, if all axes are evenly spaced.
+     * The origin of the image is {x[0], y[0], z[0]}.
+     */
+    static double[] uniformSpacing(double[] x, double[] y, double[] z, double tolerance) {
+        var axes = new double[][]{x, y, z};
+        var spacing = new double[3];
+        for (int d = 0; d < 3; d++) {
+            final var a = axes[d];
+            final int n = a.length;
+            final double h = (n > 1) ? (a[n - 1] - a[0]) / (n - 1) : 1.0;
+            var uniform = IntStream.range(0, n).parallel().allMatch(i -> Math.abs(a[i] - (a[0] + i * h)) <= tolerance);
+            if (!uniform || !(h > 0.0)) return null;
+            spacing[d] = h;
+        }
+        return spacing;
+    }
+
+    /**
+     * Returns the rectilinear grid of an unstructured grid, if all its cells are hexahedra or voxels
+     * that are cells of a rectilinear grid whose points are the points of the unstructured grid.
+     * See EVTK.unstructuredGridToVTK.
+     */
+    static Compaction unstructuredToRectilinear(double[] x, double[] y, double[] z, int[] connectivity, int[] offsets,
+                                                VTK_CELL_TYPE[] cell_types, double tolerance) {
+        final int npoints = x.length;
+        final int ncells = offsets.length;
+        var hexahedra = IntStream.range(0, ncells).parallel().allMatch(c ->
+                (cell_types[c] == VTK_CELL_TYPE.VTK_HEXAHEDRON || cell_types[c] == VTK_CELL_TYPE.VTK_VOXEL) &&
+                        offsets[c] - first(offsets, c) == 8);
+        if (!hexahedra || npoints == 0) return null;
+
+        // Axes of the grid, i.e. the distinct coordinates in each direction, and index of each point along them
+        var ax = axis(x, tolerance);
+        var ay = axis(y, tolerance);
+        var az = axis(z, tolerance);
+        final int nx = ax.length, ny = ay.length, nz = az.length;
+        if ((long) nx * ny * nz != npoints || (long) (nx - 1) * (ny - 1) * (nz - 1) != ncells) return null;
+
+        var ix = indices(x, ax);
+        var iy = indices(y, ay);
+        var iz = indices(z, az);
+
+        // Each grid point must be a single input point. The check of pointOf[q] can miss duplicates written
+        // concurrently, but then some grid point is left unset, since there are as many input points as grid points.
+        var pointOf = new int[npoints];
+        Arrays.fill(pointOf, -1);
+        var valid = new AtomicBoolean(true);
+        IntStream.range(0, npoints).parallel().forEach(p -> {
+            var q = ix[p] + nx * (iy[p] + ny * iz[p]);
+            if (pointOf[q] != -1) valid.set(false);
+            pointOf[q] = p;
+        });
+        if (!valid.get()) return null;
+        if (!IntStream.range(0, npoints).parallel().allMatch(q -> pointOf[q] >= 0)) return null;
+
+        // Each cell must span the 8 corners of a single grid cell, and each grid cell must be a single input cell,
+        // which is checked as for points
+        var cellOf = new int[ncells];
+        Arrays.fill(cellOf, -1);
+        IntStream.range(0, ncells).parallel().forEach(c -> {
+            final int start = first(offsets, c);
+            int i0 = Integer.MAX_VALUE, j0 = Integer.MAX_VALUE, k0 = Integer.MAX_VALUE;
+            for (int v = start; v < start + 8; v++) {
+                var p = connectivity[v];
+                i0 = Math.min(i0, ix[p]);
+                j0 = Math.min(j0, iy[p]);
+                k0 = Math.min(k0, iz[p]);
+            }
+            var corners = 0;
+            for (int v = start; v < start + 8; v++) {
+                var p = connectivity[v];
+                int di = ix[p] - i0, dj = iy[p] - j0, dk = iz[p] - k0;
+                if (di > 1 || dj > 1 || dk > 1) {
+                    valid.set(false);
+                    return;
+                }
+                corners |= 1 << (di + 2 * dj + 4 * dk);
+            }
+            if (corners != 0xFF) {
+                valid.set(false);
+                return;
+            }
+            var g = i0 + (nx - 1) * (j0 + (ny - 1) * k0);
+            if (cellOf[g] != -1) valid.set(false);
+            cellOf[g] = c;
+        });
+        if (!valid.get()) return null;
+        if (!IntStream.range(0, ncells).parallel().allMatch(g -> cellOf[g] >= 0)) return null;
+
+        return new Compaction(ax, ay, az, pointOf, cellOf);
+    }
+
+    // Helper function: distinct values of a coordinate, values closer than the tolerance are the same value.
+    private static double[] axis(double[] c, double tolerance) {
+        var sorted = c.clone();
+        Arrays.parallelSort(sorted);
+        var n = sorted.length;
+        var first = IntStream.range(0, n).parallel()
+                .filter(i -> i == 0 || !(sorted[i] - sorted[i - 1] <= tolerance)).toArray();
+        return Arrays.stream(first).mapToDouble(i -> sorted[i]).toArray();
+    }
+
+    // Helper function: index of each coordinate along an axis.
+    private static int[] indices(double[] c, double[] axis) {
+        var idx = new int[c.length];
+        IntStream.range(0, c.length).parallel().forEach(p -> {
+            var i = Arrays.binarySearch(axis, c[p]);
+            idx[p] = (i >= 0) ? i : -i - 2;   // the largest value that is not larger than c[p]
+        });
+        return idx;
+    }
+
+    private static int first(int[] offsets, int c) {
+        return (c > 0) ? offsets[c - 1] : 0;
+    }
+}
@@ -20,10 +20,17 @@ import com.iidp.vtk.Version;
 import com.iidp.vtk.low_level.*;
 import com.iidp.vtk.high_level.data.GridData;
 
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.lang.Math;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
 
 /**
  * Provides a high-level interface to export data to VTK similar to the one for Python in EVTK.
@@ -60,47 +67,82 @@ public class EVTK {
      * @throws Exception
      */
     public static String imageToVTK(String path, int[] ncells, double[] origin, double[] spacing, GridData cellData, GridData pointData, List<String> comments) throws Exception {
+        return imageToVTK(path, ncells, origin, spacing, cellData, pointData, comments, new ExportOptions());
+    }
+
+    /**
+     * Exports an image defined as a Cartesian 3D grid with constant spacing in each direction.
+     * See imageToVTK above for a description of the other parameters.
+     *
+     * @param options:   options that control how the grid is written, see ExportOptions.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public static String imageToVTK(String path, int[] ncells, double[] origin, double[] spacing, GridData cellData, GridData pointData,
+                                    List<String> comments, ExportOptions options) throws Exception {
+        return reserved(ExportEstimate.imageTemporaries(ncells, cellData, pointData, options),
+                () -> imageToVTKImpl(path, ncells, origin, spacing, cellData, pointData, comments, options));
+    }
+
+    // Helper function: imageToVTK without reserving memory for its temporary arrays.
+    private static String imageToVTKImpl(String path, int[] ncells, double[] origin, double[] spacing, GridData cellData,
+                                         GridData pointData, List<String> comments, ExportOptions options) throws Exception {
+        // Region, stride or slices that are written, see ExportOptions
+        var sampling = options.sampling(new int[]{ncells[0] + 1, ncells[1] + 1, ncells[2] + 1});
+        if (sampling.isSliced()) {
+            return slicesToVTK(path, sampling, (slicePath, slice) ->
+                    sampledImageToVTK(slicePath, origin, spacing, cellData, pointData, comments, options, slice));
+        }
+        return sampledImageToVTK(path, origin, spacing, cellData, pointData, comments, options, sampling);
+    }
+
+    // Helper function: imageToVTK with the points and cells given by sampling.
+    private static String sampledImageToVTK(String path, double[] origin, double[] spacing, GridData cellData,
+                                            GridData pointData, List<String> comments, ExportOptions options,
+                                            Sampling sampling) throws Exception {
+        var precision = options.getPrecision();
+        var narrow = options.getNarrowIntegers();
+        var cellPieces = sampling.gatherCells(cellData);
+        var pointPieces = sampling.gatherPoints(pointData);
+
         var full_path = path + ".vti";
         var dst = new File(full_path);
-        var vw = new VTKWriter(dst, VTK_FILE_TYPE.IMAGE_DATA);
+        var vw = new VTKWriter(dst, VTK_FILE_TYPE.IMAGE_DATA, headerType(0, precision, allPieces(cellPieces, pointPieces)));
 
         if(comments != null) {
            vw.addComments(comments);
         }
 
-        var nx = ncells[0];
-        var ny = ncells[1];
-        var nz = ncells[2];
-
-        var nncells = nx * ny * nz;
-        var nnpoints = (nx + 1) * (ny + 1) * (nz + 1);
-
-        var start = new int[]{0, 0, 0};
-        var end = new int[]{nx, ny, nz};
+        vw.openImageData(sampling.wholeStart(), sampling.wholeEnd(), sampling.origin(origin, spacing), sampling.spacing(spacing));
+        for (int p = 0; p < sampling.npieces(); p++) {
+            var nncells = sampling.ncells(p);
+            var nnpoints = sampling.npoints(p);
+            vw.openPiece(sampling.start(p), sampling.end(p));
 
-        vw.openImageData(start, end, origin, spacing);
-        vw.openPiece(start, end);
+            if (pointPieces != null) {
+                pointPieces[p].addArrayToVTK(vw, nnpoints, nncells, precision, narrow);
+            }
 
-        if (pointData != null) {
-            pointData.addArrayToVTK(vw, nnpoints, nncells);
-        }
+            if (cellPieces != null) {
+                cellPieces[p].addArrayToVTK(vw, nnpoints, nncells, precision, narrow);
+            }
 
-        if (cellData != null) {
-            cellData.addArrayToVTK(vw, nnpoints, nncells);
+            vw.closePiece();
         }
-
-        vw.closePiece();
         vw.closeImageData();
 
         // Open data section
         vw.openAppendedData();
 
-        if (pointData != null) {
-            pointData.appendData(vw, nnpoints, nncells);
-        }
+        for (int p = 0; p < sampling.npieces(); p++) {
+            var nncells = sampling.ncells(p);
+            var nnpoints = sampling.npoints(p);
+            if (pointPieces != null) {
+                pointPieces[p].appendData(vw, nnpoints, nncells, precision, narrow);
+            }
 
-        if (cellData != null) {
-            cellData.appendData(vw, nnpoints, nncells);
+            if (cellPieces != null) {
+                cellPieces[p].appendData(vw, nnpoints, nncells, precision, narrow);
+            }
         }
 
         // Close data section.
@@ -122,55 +164,105 @@ public class EVTK {
      * @return the full path to where the grid file was saved including extension.
      */
     public static String rectilinearGridToVTK(String path, double[] x, double[] y, double[] z, GridData cellData, GridData pointData, List<String> comments) throws Exception {
+        return rectilinearGridToVTK(path, x, y, z, cellData, pointData, comments, new ExportOptions());
+    }
+
+    /**
+     * Exports a Cartesian grid to VTK. Nodes coordinates are defined by 1D arrays.
+     * See rectilinearGridToVTK above for a description of the other parameters.
+     *
+     * @param options:    options that control how the grid is written, see ExportOptions.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public static String rectilinearGridToVTK(String path, double[] x, double[] y, double[] z, GridData cellData, GridData pointData,
+                                              List<String> comments, ExportOptions options) throws Exception {
+        var ncells = new int[]{x.length - 1, y.length - 1, z.length - 1};
+        return reserved(ExportEstimate.rectilinearTemporaries(ncells, cellData, pointData, options),
+                () -> rectilinearGridToVTKImpl(path, x, y, z, cellData, pointData, comments, options));
+    }
+
+    // Helper function: rectilinearGridToVTK without reserving memory for its temporary arrays.
+    private static String rectilinearGridToVTKImpl(String path, double[] x, double[] y, double[] z, GridData cellData,
+                                                   GridData pointData, List<String> comments, ExportOptions options) throws Exception {
+        // Evenly spaced axes are written as an image, see ExportOptions.setCompactionTolerance
+        var tolerance = options.getCompactionTolerance();
+        if (tolerance >= 0.0) {
+            var spacing = Compaction.uniformSpacing(x, y, z, tolerance);
+            if (spacing != null) {
+                var ncells = new int[]{x.length - 1, y.length - 1, z.length - 1};
+                var start = new double[]{x[0], y[0], z[0]};
+                return imageToVTKImpl(path, ncells, start, spacing, cellData, pointData, comments, options);
+            }
+        }
+
+        // Region, stride or slices that are written, see ExportOptions
+        var sampling = options.sampling(new int[]{x.length, y.length, z.length});
+        if (sampling.isSliced()) {
+            return slicesToVTK(path, sampling, (slicePath, slice) ->
+                    sampledRectilinearGridToVTK(slicePath, x, y, z, cellData, pointData, comments, options, slice));
+        }
+        return sampledRectilinearGridToVTK(path, x, y, z, cellData, pointData, comments, options, sampling);
+    }
+
+    // Helper function: rectilinearGridToVTK with the points and cells given by sampling.
+    private static String sampledRectilinearGridToVTK(String path, double[] x, double[] y, double[] z, GridData cellData,
+                                                      GridData pointData, List<String> comments, ExportOptions options,
+                                                      Sampling sampling) throws Exception {
+        var precision = options.getPrecision();
+        var narrow = options.getNarrowIntegers();
+        var origin = options.originFor(x, y, z);
+        var cellPieces = sampling.gatherCells(cellData);
+        var pointPieces = sampling.gatherPoints(pointData);
+
         var full_path = path + ".vtr";
         var dst = new File(full_path);
-        var vw = new VTKWriter(dst, VTK_FILE_TYPE.RECTILINEAR_GRID);
+        var vw = new VTKWriter(dst, VTK_FILE_TYPE.RECTILINEAR_GRID, headerType(0, precision, allPieces(cellPieces, pointPieces)));
         if (comments != null) {
             vw.addComments(comments);
         }
 
-        var nx = x.length - 1;
-        var ny = y.length - 1;
-        var nz = z.length - 1;
-
-        var nncells = nx * ny * nz;
-        var nnpoints = (nx + 1) * (ny + 1) * (nz + 1);
-
-        var start = new int[]{0, 0, 0};
-        var end = new int[]{nx, ny, nz};
-
-        vw.openRectilinearGrid(start, end);
-        vw.openPiece(start, end);
-
-        vw.openElement("Coordinates");
-        vw.addDataArray("x_coordinates", VTK_DATA_TYPE.FLOAT64, x.length, 1);
-        vw.addDataArray("y_coordinates", VTK_DATA_TYPE.FLOAT64, y.length, 1);
-        vw.addDataArray("z_coordinates", VTK_DATA_TYPE.FLOAT64, z.length, 1);
-        vw.closeElement("Coordinates");
+        vw.openRectilinearGrid(sampling.wholeStart(), sampling.wholeEnd());
+        addOriginToVTK(vw, origin);
+        for (int p = 0; p < sampling.npieces(); p++) {
+            var nncells = sampling.ncells(p);
+            var nnpoints = sampling.npoints(p);
+            vw.openPiece(sampling.start(p), sampling.end(p));
+
+            vw.openElement("Coordinates");
+            vw.addDataArray("x_coordinates", precision, sampling.npoints(p, 0), 1);
+            vw.addDataArray("y_coordinates", precision, sampling.npoints(p, 1), 1);
+            vw.addDataArray("z_coordinates", precision, sampling.npoints(p, 2), 1);
+            vw.closeElement("Coordinates");
+
+            // ADD CELL AND POINT DATA
+            if (cellPieces != null) {
+                cellPieces[p].addArrayToVTK(vw, nnpoints, nncells, precision, narrow);
+            }
 
-        // ADD CELL AND POINT DATA
-        if (cellData != null) {
-            cellData.addArrayToVTK(vw, nnpoints, nncells);
-        }
+            if (pointPieces != null) {
+                pointPieces[p].addArrayToVTK(vw, nnpoints, nncells, precision, narrow);
+            }
 
-        if (pointData != null) {
-            pointData.addArrayToVTK(vw, nnpoints, nncells);
+            vw.closePiece();
         }
-
-        vw.closePiece();
         vw.closeRectilinearGrid();
 
         vw.openAppendedData();
-        vw.appendArray(x);
-        vw.appendArray(y);
-        vw.appendArray(z);
-
-        if (cellData != null) {
-            cellData.appendData(vw, nnpoints, nncells);
-        }
+        appendOrigin(vw, origin);
+        for (int p = 0; p < sampling.npieces(); p++) {
+            var nncells = sampling.ncells(p);
+            var nnpoints = sampling.npoints(p);
+            vw.appendArray(sampling.coordinates(p, 0, x), precision, (origin != null) ? origin[0] : 0.0);
+            vw.appendArray(sampling.coordinates(p, 1, y), precision, (origin != null) ? origin[1] : 0.0);
+            vw.appendArray(sampling.coordinates(p, 2, z), precision, (origin != null) ? origin[2] : 0.0);
+
+            if (cellPieces != null) {
+                cellPieces[p].appendData(vw, nnpoints, nncells, precision, narrow);
+            }
 
-        if (pointData != null) {
-            pointData.appendData(vw, nnpoints, nncells);
+            if (pointPieces != null) {
+                pointPieces[p].appendData(vw, nnpoints, nncells, precision, narrow);
+            }
         }
 
         vw.closeAppendedData();
@@ -196,64 +288,244 @@ public class EVTK {
      * @return the full path to where the grid file was saved including extension.
      */
     public static String structuredGridToVTK(String path, double[][][] x, double[][][] y, double[][][] z, GridData cellData, GridData pointData, List<String> comments) throws Exception {
-        var full_path = path + ".vts";
-        var dst = new File(full_path);
-        var vw = new VTKWriter(dst, VTK_FILE_TYPE.STRUCTURED_GRID);
-        if (comments != null) {
-            vw.addComments(comments);
+        return structuredGridToVTK(path, x, y, z, cellData, pointData, comments, new ExportOptions());
+    }
+
+    /**
+     * Exports a logically structured grid that is composed of hexahedral cells.
+     * See structuredGridToVTK above for a description of the other parameters.
+     *
+     * @param options:    options that control how the grid is written, see ExportOptions.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public static String structuredGridToVTK(String path, double[][][] x, double[][][] y, double[][][] z, GridData cellData, GridData pointData,
+                                             List<String> comments, ExportOptions options) throws Exception {
+        var ncells = new int[]{x.length - 1, x[0].length - 1, x[0][0].length - 1};
+        return reserved(ExportEstimate.structuredTemporaries(ncells, cellData, pointData, options),
+                () -> structuredGridToVTKImpl(path, x, y, z, cellData, pointData, comments, options));
+    }
+
+    // Helper function: structuredGridToVTK without reserving memory for its temporary arrays.
+    private static String structuredGridToVTKImpl(String path, double[][][] x, double[][][] y, double[][][] z, GridData cellData,
+                                                  GridData pointData, List<String> comments, ExportOptions options) throws Exception {
+        // Axis aligned grids are written as rectilinear grids or images, see ExportOptions.setCompactionTolerance
+        var tolerance = options.getCompactionTolerance();
+        if (tolerance >= 0.0) {
+            var axes = Compaction.rectilinearAxes(x, y, z, tolerance);
+            if (axes != null) {
+                return rectilinearGridToVTKImpl(path, axes[0], axes[1], axes[2], cellData, pointData, comments, options);
+            }
         }
 
         var nx = x.length - 1;
         var ny = x[0].length - 1;
         var nz = x[0][0].length - 1;
 
-        assert (y.length == nx) && (y[0].length == ny) && (y[0][0].length == nz);
-        assert (z.length == nx) && (z[0].length == ny) && (z[0][0].length == nz);
+        assert (y.length == nx + 1) && (y[0].length == ny + 1) && (y[0][0].length == nz + 1);
+        assert (z.length == nx + 1) && (z[0].length == ny + 1) && (z[0][0].length == nz + 1);
 
-        var nncells = nx * ny * nz;
-        var nnpoints = (nx + 1) * (ny + 1) * (nz + 1);
+        // Region, stride or slices that are written, see ExportOptions
+        var sampling = options.sampling(new int[]{nx + 1, ny + 1, nz + 1});
+        if (sampling.isSliced()) {
+            return slicesToVTK(path, sampling, (slicePath, slice) ->
+                    sampledStructuredGridToVTK(slicePath, x, y, z, cellData, pointData, comments, options, slice));
+        }
+        return sampledStructuredGridToVTK(path, x, y, z, cellData, pointData, comments, options, sampling);
+    }
 
-        var start = new int[]{0, 0, 0};
-        var end = new int[]{nx, ny, nz};
+    // Helper function: structuredGridToVTK with the points and cells given by sampling.
+    private static String sampledStructuredGridToVTK(String path, double[][][] x, double[][][] y, double[][][] z,
+                                                     GridData cellData, GridData pointData, List<String> comments,
+                                                     ExportOptions options, Sampling sampling) throws Exception {
+        var precision = options.getPrecision();
+        var narrow = options.getNarrowIntegers();
+        var origin = options.originFor(x, y, z);
+        var cellPieces = sampling.gatherCells(cellData);
+        var pointPieces = sampling.gatherPoints(pointData);
 
-        vw.openStructuredGrid(start, end);
-        vw.openPiece(start, end);
-        if (cellData != null) {
-            cellData.addArrayToVTK(vw, nnpoints, nncells);
+        var full_path = path + ".vts";
+        var dst = new File(full_path);
+        long maxPointsBytes = 0;
+        for (int p = 0; p < sampling.npieces(); p++) {
+            maxPointsBytes = Math.max(maxPointsBytes, sampling.npoints(p) * 3 * precision.sizeof());
         }
-
-        if (pointData != null) {
-            pointData.addArrayToVTK(vw, nnpoints, nncells);
+        var vw = new VTKWriter(dst, VTK_FILE_TYPE.STRUCTURED_GRID, headerType(maxPointsBytes, precision, allPieces(cellPieces, pointPieces)));
+        if (comments != null) {
+            vw.addComments(comments);
         }
 
-        vw.openElement("Points");
-        vw.addDataArray("points", VTK_DATA_TYPE.FLOAT64, nnpoints, 3);
-        vw.closeElement("Points");
+        vw.openStructuredGrid(sampling.wholeStart(), sampling.wholeEnd());
+        addOriginToVTK(vw, origin);
+        for (int p = 0; p < sampling.npieces(); p++) {
+            var nncells = sampling.ncells(p);
+            var nnpoints = sampling.npoints(p);
+            vw.openPiece(sampling.start(p), sampling.end(p));
+            if (cellPieces != null) {
+                cellPieces[p].addArrayToVTK(vw, nnpoints, nncells, precision, narrow);
+            }
 
-        vw.closePiece();
+            if (pointPieces != null) {
+                pointPieces[p].addArrayToVTK(vw, nnpoints, nncells, precision, narrow);
+            }
+
+            vw.openElement("Points");
+            vw.addDataArray("points", precision, nnpoints, 3);
+            vw.closeElement("Points");
+
+            vw.closePiece();
+        }
         vw.closeStructuredGrid();
 
         vw.openAppendedData();
+        appendOrigin(vw, origin);
 
-        if (cellData != null) {
-            cellData.appendData(vw, nnpoints, nncells);
+        var ox = (origin != null) ? origin[0] : 0.0;
+        var oy = (origin != null) ? origin[1] : 0.0;
+        var oz = (origin != null) ? origin[2] : 0.0;
+        var dos = vw.getStream();
+        for (int p = 0; p < sampling.npieces(); p++) {
+            var nncells = sampling.ncells(p);
+            var nnpoints = sampling.npoints(p);
+            if (cellPieces != null) {
+                cellPieces[p].appendData(vw, nnpoints, nncells, precision, narrow);
+            }
+
+            if (pointPieces != null) {
+                pointPieces[p].appendData(vw, nnpoints, nncells, precision, narrow);
+            }
+
+            // Add coordinates, one row of nodes at a time
+            var start = sampling.start(p);
+            var end = sampling.end(p);
+            VTKWriter.writeSize(dos, nnpoints * 3 * precision.sizeof());
+            var row = new double[3 * sampling.npoints(p, 0)];
+            for (int qk = start[2]; qk <= end[2]; qk++) {
+                var k = sampling.point(2, qk);
+                for (int qj = start[1]; qj <= end[1]; qj++) {
+                    var j = sampling.point(1, qj);
+                    for (int qi = start[0]; qi <= end[0]; qi++) {
+                        var i = sampling.point(0, qi);
+                        var r = 3 * (qi - start[0]);
+                        row[r] = x[i][j][k] - ox;
+                        row[r + 1] = y[i][j][k] - oy;
+                        row[r + 2] = z[i][j][k] - oz;
+                    }
+                    writeRow(dos, row, precision);
+                }
+            }
         }
 
-        if (pointData != null) {
-            pointData.appendData(vw, nnpoints, nncells);
+        vw.closeAppendedData();
+        vw.close();
+        return full_path;
+    }
+
+    /**
+     * Exports a logically structured grid whose coordinates are given by views, e.g. Fortran arrays x(i, j, k)
+     * or C arrays x[i][j][k] flattened in a 1D array, see ArrayView. The number of points in each direction is
+     * the shape of the views. Coordinates are gathered by chunks while they are written, so they are never copied
+     * to dense arrays. Regions, strides and slices are written as samples of the views, while
+     * setCompactionTolerance does not apply. See structuredGridToVTK above for a description of the other parameters.
+     *
+     * @param x:          view of the x coordinate of the nodes.
+     * @param y:          view of the y coordinate of the nodes.
+     * @param z:          view of the z coordinate of the nodes.
+     * @param options:    options that control how the grid is written, see ExportOptions.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public static String structuredGridToVTK(String path, ArrayView x, ArrayView y, ArrayView z, GridData cellData, GridData pointData,
+                                             List<String> comments, ExportOptions options) throws Exception {
+        var shape = x.shape();
+        var ncells = new int[]{shape[0] - 1, shape[1] - 1, shape[2] - 1};
+        return reserved(ExportEstimate.structuredTemporaries(ncells, cellData, pointData, options),
+                () -> structuredViewsToVTK(path, x, y, z, cellData, pointData, comments, options));
+    }
+
+    // Helper function: structuredGridToVTK with views without reserving memory for its temporary arrays.
+    private static String structuredViewsToVTK(String path, ArrayView x, ArrayView y, ArrayView z, GridData cellData,
+                                               GridData pointData, List<String> comments, ExportOptions options) throws Exception {
+        var npoints = x.shape();
+
+        assert Arrays.equals(y.shape(), npoints) && Arrays.equals(z.shape(), npoints);
+
+        // Region, stride or slices that are written, see ExportOptions
+        var sampling = options.sampling(npoints);
+        if (sampling.isSliced()) {
+            return slicesToVTK(path, sampling, (slicePath, slice) ->
+                    sampledStructuredViewsToVTK(slicePath, x, y, z, cellData, pointData, comments, options, slice));
         }
+        return sampledStructuredViewsToVTK(path, x, y, z, cellData, pointData, comments, options, sampling);
+    }
 
-        // Add coordinates
-        var dos = vw.getStream();
-        dos.writeInt(nnpoints * VTK_DATA_TYPE.FLOAT64.sizeof() * 3);
-        for (int k = 0; k < nz + 1; k++) {
-            for (int j = 0; j < nx + 1; j++) {
-                for (int i = 0; i < nx + 1; i++) {
-                    dos.writeDouble(x[i][j][k]);
-                    dos.writeDouble(y[i][j][k]);
-                    dos.writeDouble(z[i][j][k]);
-                }
+    // Helper function: structuredGridToVTK with views with the points and cells given by sampling.
+    private static String sampledStructuredViewsToVTK(String path, ArrayView x, ArrayView y, ArrayView z,
+                                                      GridData cellData, GridData pointData, List<String> comments,
+                                                      ExportOptions options, Sampling sampling) throws Exception {
+        var precision = options.getPrecision();
+        var narrow = options.getNarrowIntegers();
+        var origin = options.originFor(x, y, z);
+        var cellPieces = sampling.gatherCells(cellData);
+        var pointPieces = sampling.gatherPoints(pointData);
+
+        var full_path = path + ".vts";
+        var dst = new File(full_path);
+        long maxPointsBytes = 0;
+        for (int p = 0; p < sampling.npieces(); p++) {
+            maxPointsBytes = Math.max(maxPointsBytes, sampling.npoints(p) * 3 * precision.sizeof());
+        }
+        var vw = new VTKWriter(dst, VTK_FILE_TYPE.STRUCTURED_GRID, headerType(maxPointsBytes, precision, allPieces(cellPieces, pointPieces)));
+        if (comments != null) {
+            vw.addComments(comments);
+        }
+
+        vw.openStructuredGrid(sampling.wholeStart(), sampling.wholeEnd());
+        addOriginToVTK(vw, origin);
+        for (int p = 0; p < sampling.npieces(); p++) {
+            var nncells = sampling.ncells(p);
+            var nnpoints = sampling.npoints(p);
+            vw.openPiece(sampling.start(p), sampling.end(p));
+            if (cellPieces != null) {
+                cellPieces[p].addArrayToVTK(vw, nnpoints, nncells, precision, narrow);
             }
+
+            if (pointPieces != null) {
+                pointPieces[p].addArrayToVTK(vw, nnpoints, nncells, precision, narrow);
+            }
+
+            vw.openElement("Points");
+            vw.addDataArray("points", precision, nnpoints, 3);
+            vw.closeElement("Points");
+
+            vw.closePiece();
+        }
+        vw.closeStructuredGrid();
+
+        vw.openAppendedData();
+        appendOrigin(vw, origin);
+
+        for (int p = 0; p < sampling.npieces(); p++) {
+            var nncells = sampling.ncells(p);
+            var nnpoints = sampling.npoints(p);
+            if (cellPieces != null) {
+                cellPieces[p].appendData(vw, nnpoints, nncells, precision, narrow);
+            }
+
+            if (pointPieces != null) {
+                pointPieces[p].appendData(vw, nnpoints, nncells, precision, narrow);
+            }
+
+            // Coordinates of the piece are a sample of the views
+            var start = sampling.start(p);
+            var first = new int[3];
+            var count = new int[3];
+            var step = new int[3];
+            for (int d = 0; d < 3; d++) {
+                first[d] = sampling.point(d, start[d]);
+                count[d] = sampling.npoints(p, d);
+                step[d] = sampling.point(d, start[d] + 1) - first[d];
+            }
+            VTKWriter.writeArraysAs3D(vw.getStream(), x.sample(first, count, step), y.sample(first, count, step),
+                    z.sample(first, count, step), precision, origin);
         }
 
         vw.closeAppendedData();
@@ -263,6 +535,11 @@ public class EVTK {
 
     /**
      * Exports an unstructured grid as a VTK grid file.
+     * <p>
+     * Coordinates and topology are given by Java arrays, so a grid is limited to 2^31 - 1 points, cells and
+     * connectivity entries, and offsets must fit an int. Point clouds with more points can be exported with
+     * pointsToVTK and BigDoubleArray coordinates, and data with more than 2^31 elements with BigDoubleArray
+     * and BigIntArray, see GridData.addData.
      *
      * @param path:         path to where file should be saved without extension.
      * @param x:            1D array with x-coordinate of the nodes.
@@ -283,38 +560,120 @@ public class EVTK {
      */
     public static String unstructuredGridToVTK(String path, double[] x, double[] y, double[] z, int[] connectivity, int[] offsets,
                                                VTK_CELL_TYPE[] cell_types, GridData cellData, GridData pointData, List<String> comments) throws Exception {
+        return unstructuredGridToVTK(path, x, y, z, connectivity, offsets, cell_types, cellData, pointData, comments, new ExportOptions());
+    }
+
+    /**
+     * Exports an unstructured grid as a VTK grid file.
+     * See unstructuredGridToVTK above for a description of the other parameters.
+     *
+     * @param options:      options that control how the grid is written, see ExportOptions.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public static String unstructuredGridToVTK(String path, double[] x, double[] y, double[] z, int[] connectivity, int[] offsets,
+                                               VTK_CELL_TYPE[] cell_types, GridData cellData, GridData pointData,
+                                               List<String> comments, ExportOptions options) throws Exception {
+        var temporaries = ExportEstimate.unstructuredTemporaries(x.length, connectivity.length, offsets.length,
+                cellData, pointData, options);
+        return reserved(temporaries, () -> unstructuredGridToVTKImpl(path, x, y, z, connectivity, offsets, cell_types,
+                cellData, pointData, comments, options));
+    }
+
+    // Helper function: unstructuredGridToVTK without reserving memory for its temporary arrays.
+    private static String unstructuredGridToVTKImpl(String path, double[] x, double[] y, double[] z, int[] connectivity,
+                                                    int[] offsets, VTK_CELL_TYPE[] cell_types, GridData cellData,
+                                                    GridData pointData, List<String> comments, ExportOptions options) throws Exception {
+        assert (offsets.length == cell_types.length);
+
+        // Hexahedral meshes of a rectilinear grid are written as rectilinear grids or images,
+        // see ExportOptions.setCompactionTolerance
+        var tolerance = options.getCompactionTolerance();
+        if (tolerance >= 0.0) {
+            var g = Compaction.unstructuredToRectilinear(x, y, z, connectivity, offsets, cell_types, tolerance);
+            if (g != null) {
+                return rectilinearGridToVTKImpl(path, g.x, g.y, g.z, g.cellData(cellData), g.pointData(pointData),
+                        comments, options);
+            }
+        }
+
+        var curve = options.getSpaceFillingCurve();
+        if (curve != null) {
+            var r = new Reordering(curve, options.getReorderCells(), x, y, z, connectivity, offsets, cell_types,
+                    cellData, pointData);
+            return unstructuredArraysToVTK(path, r.x, r.y, r.z, r.connectivity, r.offsets, r.cell_types,
+                    r.cellData, r.pointData, comments, options);
+        }
+        return unstructuredArraysToVTK(path, x, y, z, connectivity, offsets, cell_types, cellData, pointData,
+                comments, options);
+    }
+
+    // Helper function: unstructuredGridToVTK once points and cells are in their final order.
+    private static String unstructuredArraysToVTK(String path, double[] x, double[] y, double[] z,
+                                                  int[] connectivity, int[] offsets, VTK_CELL_TYPE[] cell_types,
+                                                  GridData cellData, GridData pointData,
+                                                  List<String> comments, ExportOptions options) throws Exception {
+        var ctype = options.indexType(connectivity);
+        var otype = options.indexType(offsets);
+        return unstructuredGridToVTK(path, x, y, z, connectivity.length, cell_types.length, ctype, otype, out -> {
+            VTKWriter.writeArray(out, connectivity, ctype);
+            VTKWriter.writeArray(out, offsets, otype);
+            VTKWriter.writeArray(out, cell_types);
+        }, cellData, pointData, comments, options);
+    }
+
+    /**
+     * Exports an unstructured grid whose topology is written by cells, which must write
+     * the connectivity, offsets and types arrays, each one preceded by its size in bytes.
+     * This allows writing topologies that can be generated on the fly without temporary arrays.
+     * Connectivity and offsets must be written with the types ctype and otype.
+     */
+    private static String unstructuredGridToVTK(String path, double[] x, double[] y, double[] z, long nconnectivity, long nncells,
+                                                VTK_DATA_TYPE ctype, VTK_DATA_TYPE otype, VTKWriter.BlockEncoder cells, GridData cellData, GridData pointData,
+                                                List<String> comments, ExportOptions options) throws Exception {
+        assert (y.length == x.length);
+        assert (z.length == x.length);
+
+        var origin = options.originFor(x, y, z);
+        return unstructuredGridToVTK(path, x.length, coordinates(ArrayView.of(x), ArrayView.of(y), ArrayView.of(z), origin, options),
+                origin, nconnectivity, nncells, ctype, otype, cells, cellData, pointData, comments, options);
+    }
+
+    // Helper function: unstructuredGridToVTK with nnpoints coordinates re-centered around origin and written by points.
+    private static String unstructuredGridToVTK(String path, long nnpoints, VTKWriter.BlockEncoder points, double[] origin,
+                                                long nconnectivity, long nncells, VTK_DATA_TYPE ctype, VTK_DATA_TYPE otype,
+                                                VTKWriter.BlockEncoder cells, GridData cellData, GridData pointData,
+                                                List<String> comments, ExportOptions options) throws Exception {
+        var precision = options.getPrecision();
+        var narrow = options.getNarrowIntegers();
+
+        var maxBytes = Math.max(nnpoints * 3 * precision.sizeof(),
+                Math.max(nconnectivity * ctype.sizeof(), nncells * otype.sizeof()));
         var full_path = path + ".vtu";
         var dst = new File(full_path);
-        var vw = new VTKWriter(dst, VTK_FILE_TYPE.UNSTRUCTURED_GRID);
+        var vw = new VTKWriter(dst, VTK_FILE_TYPE.UNSTRUCTURED_GRID, headerType(maxBytes, precision, cellData, pointData));
         if(comments != null) {
             vw.addComments(comments);
         }
 
-        var nnpoints = x.length;
-        var nncells = cell_types.length;
-
-        assert (y.length == nnpoints);
-        assert (z.length == nnpoints);
-        assert (offsets.length == nncells);
-
         vw.openUnstructuredGrid();
+        addOriginToVTK(vw, origin);
         vw.openPiece(nnpoints, nncells);
 
         if (cellData != null) {
-            cellData.addArrayToVTK(vw, nnpoints, nncells);
+            cellData.addArrayToVTK(vw, nnpoints, nncells, precision, narrow);
         }
 
         if (pointData != null) {
-            pointData.addArrayToVTK(vw, nnpoints, nncells);
+            pointData.addArrayToVTK(vw, nnpoints, nncells, precision, narrow);
         }
 
         vw.openElement("Points");
-        vw.addDataArray("points", VTK_DATA_TYPE.FLOAT64, nnpoints, 3);
+        vw.addDataArray("points", precision, nnpoints, 3);
         vw.closeElement("Points");
         vw.openElement("Cells");
-        vw.addDataArray("connectivity", VTK_DATA_TYPE.INT32, connectivity.length, 1);
-        vw.addDataArray("offsets", VTK_DATA_TYPE.INT32, offsets.length, 1);
-        vw.addDataArray("types", VTK_DATA_TYPE.UINT8, cell_types.length, 1);
+        vw.addDataArray("connectivity", ctype, nconnectivity, 1);
+        vw.addDataArray("offsets", otype, nncells, 1);
+        vw.addDataArray("types", VTK_DATA_TYPE.UINT8, nncells, 1);
         vw.closeElement("Cells");
 
         vw.closePiece();
@@ -322,22 +681,200 @@ public class EVTK {
 
         // APPENDED DATA
         vw.openAppendedData();
+        appendOrigin(vw, origin);
 
         if (cellData != null) {
-            cellData.appendData(vw, nnpoints, nncells);
+            cellData.appendData(vw, nnpoints, nncells, precision, narrow);
         }
 
         if (pointData != null) {
-            pointData.appendData(vw, nnpoints, nncells);
+            pointData.appendData(vw, nnpoints, nncells, precision, narrow);
         }
 
         // coordinates
-        vw.appendArraysAs3D(x, y, z);
+        points.encode(vw.getStream());
+
+        // connectivity, offsets and types
+        cells.encode(vw.getStream());
+
+        vw.closeAppendedData();
+        vw.close();
+
+        return full_path;
+    }
+
+    /**
+     * Exports several partitions of an unstructured grid as the pieces of a single VTK grid file.
+     * <p>
+     * The XML section with the declaration of all pieces is written first. Then, the binary data of
+     * each piece is encoded by its own thread and written concurrently to its region of the file.
+     * All arrays have one element per partition and should follow the conventions of unstructuredGridToVTK,
+     * i.e. connectivity and offsets of each partition refer to its own points.
+     *
+     * @param path:         path to where file should be saved without extension.
+     * @param x:            x-coordinate of the nodes of each partition.
+     * @param y:            y-coordinate of the nodes of each partition.
+     * @param z:            z-coordinate of the nodes of each partition.
+     * @param connectivity: connectivity of each partition.
+     * @param offsets:      offsets of each partition.
+     * @param cell_types:   cell types of each partition.
+     * @param cellData:     containers with cell data of each partition. It can be null, as each of its elements.
+     * @param pointData:    containers with point data of each partition. It can be null, as each of its elements.
+     *                      NOTE: All partitions should contain the same variables.
+     * @param comments:     list comments as strings.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public static String unstructuredGridPiecesToVTK(String path, double[][] x, double[][] y, double[][] z,
+                                                     int[][] connectivity, int[][] offsets, VTK_CELL_TYPE[][] cell_types,
+                                                     GridData[] cellData, GridData[] pointData, List<String> comments) throws Exception {
+        return unstructuredGridPiecesToVTK(path, x, y, z, connectivity, offsets, cell_types, cellData, pointData, comments,
+                                           new ExportOptions());
+    }
+
+    /**
+     * Exports several partitions of an unstructured grid as the pieces of a single VTK grid file.
+     * See unstructuredGridPiecesToVTK above for a description of the other parameters.
+     *
+     * @param options:      options that control how the grid is written, see ExportOptions.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public static String unstructuredGridPiecesToVTK(String path, double[][] x, double[][] y, double[][] z,
+                                                     int[][] connectivity, int[][] offsets, VTK_CELL_TYPE[][] cell_types,
+                                                     GridData[] cellData, GridData[] pointData, List<String> comments,
+                                                     ExportOptions options) throws Exception {
+        var npieces = x.length;
+        var npoints = new int[npieces];
+        var nconnectivity = new int[npieces];
+        var ncells = new int[npieces];
+        for (int p = 0; p < npieces; p++) {
+            npoints[p] = x[p].length;
+            nconnectivity[p] = connectivity[p].length;
+            ncells[p] = cell_types[p].length;
+        }
+
+        // Blocks are encoded in memory, so they are only written concurrently if there is enough memory
+        // available for all of them. Otherwise, they are written one after the other with the IO buffers only.
+        var estimate = ExportEstimate.unstructuredGridPiecesToVTK(npoints, nconnectivity, ncells, cellData, pointData, options);
+        try (var r = MemoryGovernor.reserve(estimate.transientBytes, true)) {
+            if (r.isGranted()) {
+                return unstructuredGridPiecesToVTKImpl(path, x, y, z, connectivity, offsets, cell_types, cellData,
+                        pointData, comments, options, true);
+            }
+        }
+        return reserved(0, () -> unstructuredGridPiecesToVTKImpl(path, x, y, z, connectivity, offsets, cell_types,
+                cellData, pointData, comments, options, false));
+    }
+
+    // Helper function: unstructuredGridPiecesToVTK once memory is reserved, where concurrent is true if
+    // blocks can be encoded in memory by several threads.
+    private static String unstructuredGridPiecesToVTKImpl(String path, double[][] x, double[][] y, double[][] z,
+                                                          int[][] connectivity, int[][] offsets,
+                                                          VTK_CELL_TYPE[][] cell_types, GridData[] cellData,
+                                                          GridData[] pointData, List<String> comments,
+                                                          ExportOptions options, boolean concurrent) throws Exception {
+        var precision = options.getPrecision();
+        var narrow = options.getNarrowIntegers();
+        var origin = options.originFor(x, y, z);
+        var npieces = x.length;
+        assert (y.length == npieces) && (z.length == npieces);
+        assert (connectivity.length == npieces) && (offsets.length == npieces) && (cell_types.length == npieces);
+        assert (cellData == null || cellData.length == npieces) && (pointData == null || pointData.length == npieces);
+
+        // Types of the connectivity and offsets of each piece and size of the largest array
+        var ctypes = new VTK_DATA_TYPE[npieces];
+        var otypes = new VTK_DATA_TYPE[npieces];
+        long maxBytes = 0;
+        for (int p = 0; p < npieces; p++) {
+            ctypes[p] = options.indexType(connectivity[p]);
+            otypes[p] = options.indexType(offsets[p]);
+            var cd = (cellData != null) ? cellData[p] : null;
+            var pd = (pointData != null) ? pointData[p] : null;
+            var pieceBytes = Math.max((long) x[p].length * 3 * precision.sizeof(),
+                    Math.max((long) connectivity[p].length * ctypes[p].sizeof(), (long) offsets[p].length * otypes[p].sizeof()));
+            maxBytes = Math.max(maxBytes, headerBytes(pieceBytes, precision, cd, pd));
+        }
+
+        var full_path = path + ".vtu";
+        var dst = new File(full_path);
+        var vw = new VTKWriter(dst, VTK_FILE_TYPE.UNSTRUCTURED_GRID, VTKWriter.headerType(maxBytes));
+        if(comments != null) {
+            vw.addComments(comments);
+        }
+
+        vw.openUnstructuredGrid();
+        addOriginToVTK(vw, origin);
+
+        // Declare all pieces and keep track of the size of their appended blocks
+        var sizes = new long[npieces];
+        for (int p = 0; p < npieces; p++) {
+            var start = vw.getOffset();
+
+            var nnpoints = x[p].length;
+            var nncells = cell_types[p].length;
+            assert (y[p].length == nnpoints) && (z[p].length == nnpoints);
+            assert (offsets[p].length == nncells);
 
-        vw.appendArray(connectivity);
-        vw.appendArray(offsets);
-        var ct = VTK_CELL_TYPE.asByteArray(cell_types);
-        vw.appendArray(ct);
+            vw.openPiece(nnpoints, nncells);
+
+            var cd = (cellData != null) ? cellData[p] : null;
+            var pd = (pointData != null) ? pointData[p] : null;
+            if (cd != null) {
+                cd.addArrayToVTK(vw, nnpoints, nncells, precision, narrow);
+            }
+
+            if (pd != null) {
+                pd.addArrayToVTK(vw, nnpoints, nncells, precision, narrow);
+            }
+
+            vw.openElement("Points");
+            vw.addDataArray("points", precision, nnpoints, 3);
+            vw.closeElement("Points");
+            vw.openElement("Cells");
+            vw.addDataArray("connectivity", ctypes[p], connectivity[p].length, 1);
+            vw.addDataArray("offsets", otypes[p], offsets[p].length, 1);
+            vw.addDataArray("types", VTK_DATA_TYPE.UINT8, cell_types[p].length, 1);
+            vw.closeElement("Cells");
+
+            vw.closePiece();
+            sizes[p] = vw.getOffset() - start;
+        }
+
+        vw.closeUnstructuredGrid();
+
+        // APPENDED DATA: one block per piece, in the same order they were declared.
+        var encoders = new ArrayList<VTKWriter.BlockEncoder>(npieces);
+        for (int p = 0; p < npieces; p++) {
+            final int pp = p;
+            final var cd = (cellData != null) ? cellData[p] : null;
+            final var pd = (pointData != null) ? pointData[p] : null;
+            encoders.add( out -> {
+                var nnpoints = x[pp].length;
+                var nncells = cell_types[pp].length;
+                if (cd != null) {
+                    cd.appendData(out, nnpoints, nncells, precision, narrow);
+                }
+
+                if (pd != null) {
+                    pd.appendData(out, nnpoints, nncells, precision, narrow);
+                }
+
+                VTKWriter.writeArraysAs3D(out, x[pp], y[pp], z[pp], precision, origin);
+                VTKWriter.writeArray(out, connectivity[pp], ctypes[pp]);
+                VTKWriter.writeArray(out, offsets[pp], otypes[pp]);
+                VTKWriter.writeArray(out, cell_types[pp]);
+            });
+        }
+
+        vw.openAppendedData();
+        appendOrigin(vw, origin);
+
+        if (concurrent) {
+            vw.appendBlocks(sizes, encoders);
+        } else {
+            for (VTKWriter.BlockEncoder e : encoders) {
+                e.encode(vw.getStream());
+            }
+        }
 
         vw.closeAppendedData();
         vw.close();
@@ -348,8 +885,8 @@ public class EVTK {
     /**
      * Exports points with associated data as a VTK unstructured grid.
      * <p>
-     * Internally, this method calls unstructuredGridToVTK with the appropriated arrays that describe the
-     * topology of the unstructured grid that represents the group of points.
+     * Internally, this method writes an unstructured grid where each point is a vertex cell. The arrays that
+     * describe the topology of the grid are written on the fly, so no temporary arrays are needed.
      *
      * @param path:      path to where grid file should be saved without extension.
      * @param x:         1D array with x coordinate.
@@ -360,24 +897,340 @@ public class EVTK {
      * @throws Exception
      */
     public static String pointsToVTK(String path, double[] x, double[] y, double[] z, GridData pointData, List<String> comments) throws Exception {
-        var nnpoints = x.length;
+        return pointsToVTK(path, x, y, z, pointData, comments, new ExportOptions());
+    }
+
+    /**
+     * Exports points with associated data as a VTK unstructured grid.
+     * See pointsToVTK above for a description of the other parameters.
+     *
+     * @param options:   options that control how the grid is written, see ExportOptions.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public static String pointsToVTK(String path, double[] x, double[] y, double[] z, GridData pointData,
+                                     List<String> comments, ExportOptions options) throws Exception {
+        return reserved(ExportEstimate.pointsTemporaries(x.length, pointData, options),
+                () -> pointsToVTKImpl(path, x, y, z, pointData, comments, options));
+    }
 
-        var connectivity = new int[nnpoints + 1];
-        var offsets = new int[nnpoints];
-        var cell_types = new VTK_CELL_TYPE[nnpoints];
-        for (int i = 0; i < nnpoints; i++) {
-            connectivity[i] = i;
-            offsets[i] = i;
-            cell_types[i] = VTK_CELL_TYPE.VTK_VERTEX;
+    // Helper function: pointsToVTK without reserving memory for its temporary arrays.
+    private static String pointsToVTKImpl(String path, double[] x, double[] y, double[] z, GridData pointData,
+                                          List<String> comments, ExportOptions options) throws Exception {
+        var curve = options.getSpaceFillingCurve();
+        if (curve != null) {
+            var r = new Reordering(curve, x, y, z, pointData);
+            return pointArraysToVTK(path, r.x, r.y, r.z, r.pointData, comments, options);
         }
-        connectivity[nnpoints] = nnpoints;
+        return pointArraysToVTK(path, x, y, z, pointData, comments, options);
+    }
 
+    /**
+     * Exports points whose coordinates are given by views, e.g. the fields of particle records packed in a
+     * ByteBuffer, see ArrayView. Coordinates are gathered by chunks while they are written, so they are never
+     * copied to dense arrays. Points are written in the order of the views, i.e. setSpaceFillingCurve does not apply.
+     * See pointsToVTK above for a description of the other parameters.
+     *
+     * @param x:         view of the x coordinate.
+     * @param y:         view of the y coordinate.
+     * @param z:         view of the z coordinate.
+     * @param options:   options that control how the grid is written, see ExportOptions.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public static String pointsToVTK(String path, ArrayView x, ArrayView y, ArrayView z, GridData pointData,
+                                     List<String> comments, ExportOptions options) throws Exception {
+        // views are never copied, so the writer only needs its IO buffers
+        assert (y.size() == x.size()) && (z.size() == x.size());
+        var origin = options.originFor(x, y, z);
+        return reserved(0, () -> pointsToVTK(path, x.size(), coordinates(x, y, z, origin, options), origin,
+                pointData, comments, options));
+    }
+
+    /**
+     * Exports points whose coordinates are stored in arrays indexed by a long, so a point cloud can have more
+     * than 2^31 points. Coordinates are converted by chunks while they are written and are never copied.
+     * Points are written in the order of the arrays, i.e. setSpaceFillingCurve does not apply.
+     * See pointsToVTK above for a description of the other parameters. Point data with as many elements can be
+     * added to GridData as a BigDoubleArray or a BigIntArray.
+     *
+     * @param x:         x coordinate.
+     * @param y:         y coordinate.
+     * @param z:         z coordinate.
+     * @param options:   options that control how the grid is written, see ExportOptions.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public static String pointsToVTK(String path, BigDoubleArray x, BigDoubleArray y, BigDoubleArray z, GridData pointData,
+                                     List<String> comments, ExportOptions options) throws Exception {
+        assert (y.length() == x.length()) && (z.length() == x.length());
+        var origin = options.originFor(x, y, z);
+        var precision = options.getPrecision();
+        return reserved(0, () -> pointsToVTK(path, x.length(), out -> VTKWriter.writeArraysAs3D(out, x, y, z, precision, origin),
+                origin, pointData, comments, options));
+    }
+
+    // Helper function: pointsToVTK once points are in their final order.
+    private static String pointArraysToVTK(String path, double[] x, double[] y, double[] z, GridData pointData,
+                                           List<String> comments, ExportOptions options) throws Exception {
+        assert (y.length == x.length) && (z.length == x.length);
+        var origin = options.originFor(x, y, z);
+        return pointsToVTK(path, x.length, coordinates(ArrayView.of(x), ArrayView.of(y), ArrayView.of(z), origin, options),
+                origin, pointData, comments, options);
+    }
+
+    // Helper function: pointsToVTK with nnpoints coordinates re-centered around origin and written by points.
+    private static String pointsToVTK(String path, long nnpoints, VTKWriter.BlockEncoder points, double[] origin,
+                                      GridData pointData, List<String> comments, ExportOptions options) throws Exception {
+        // Each point is a vertex cell. The topology is written on the fly.
         GridData cellData = null;
 
-        var p = unstructuredGridToVTK(path, x, y, z, connectivity, offsets, cell_types, cellData, pointData, comments);
+        var ctype = options.indexType(0, nnpoints - 1);
+        var otype = options.indexType(0, nnpoints);
+        var p = unstructuredGridToVTK(path, nnpoints, points, origin, nnpoints, nnpoints, ctype, otype, out -> {
+            // connectivity
+            VTKWriter.writeSize(out, nnpoints * ctype.sizeof());
+            for (long i = 0; i < nnpoints; i++) {
+                writeIndex(out, ctype, i);
+            }
+            // offsets
+            VTKWriter.writeSize(out, nnpoints * otype.sizeof());
+            for (long i = 0; i < nnpoints; i++) {
+                writeIndex(out, otype, i + 1);
+            }
+            writeCellTypes(out, VTK_CELL_TYPE.VTK_VERTEX, nnpoints);
+        }, cellData, pointData, comments, options);
         return p;
     }
 
+    /**
+     * Exports a large point cloud as levels of detail, so a viewer can open a coarse level first.
+     * <p>
+     * An octree of the points is built in parallel (see Octree). Each level is a subsample with one
+     * representative point for each occupied node of the octree at some depth, i.e. the point closest to the center
+     * of the node, which keeps its own point data. The depth of each level is chosen so that each level has
+     * around 8 times more points than the previous one, and the last level has all points.
+     * Each level is written with pointsToVTK to a file named path_lodL, where L is the index of the level among
+     * the written levels, i.e. 0, 1, 2 and so on, and the levels are listed in a group file with L as time step.
+     *
+     * @param path:      path to where files should be saved without extension.
+     * @param x, y, z:   1D arrays with the coordinates of the points.
+     * @param pointData: Data stored in a container that is associated to each point, it can be null.
+     * @param nlevels:   maximum number of levels, including the level with all points.
+     *                   Levels that would have the same points as the previous level are skipped.
+     * @param comments:  list comments as strings, they are added to each level.
+     * @param options:   options that control how each level is written, see ExportOptions.
+     * @return the full path to the group file.
+     */
+    public static String pointCloudLevelsToVTK(String path, double[] x, double[] y, double[] z, GridData pointData,
+                                               int nlevels, List<String> comments, ExportOptions options) throws Exception {
+        return reserved(ExportEstimate.pointCloudLevelsTemporaries(x.length, pointData, options),
+                () -> pointCloudLevelsToVTKImpl(path, x, y, z, pointData, nlevels, comments, options));
+    }
+
+    // Helper function: pointCloudLevelsToVTK without reserving memory for its temporary arrays.
+    private static String pointCloudLevelsToVTKImpl(String path, double[] x, double[] y, double[] z, GridData pointData,
+                                                    int nlevels, List<String> comments, ExportOptions options) throws Exception {
+        assert nlevels > 0;
+        var npoints = x.length;
+        var octree = new Octree(x, y, z);
+
+        var group = createGroup(path);
+        var previous = 0;
+        var nwritten = 0;
+        for (int level = 0; level < nlevels; level++) {
+            var levelPath = path + "_lod" + nwritten;
+            String full_path;
+            if (level == nlevels - 1) {
+                full_path = pointsToVTKImpl(levelPath, x, y, z, pointData, comments, options);
+            } else {
+                var maxPoints = npoints / Math.pow(8, nlevels - 1 - level);
+                var points = octree.representatives(octree.depthFor((long) maxPoints));
+                if (points.length <= previous || points.length == npoints) continue;
+                previous = points.length;
+
+                var lx = new double[points.length];
+                var ly = new double[points.length];
+                var lz = new double[points.length];
+                IntStream.range(0, points.length).parallel().forEach(i -> {
+                    lx[i] = x[points[i]];
+                    ly[i] = y[points[i]];
+                    lz[i] = z[points[i]];
+                });
+                var lpointData = (pointData != null) ? pointData.gather(points.length, i -> points[(int) i]) : null;
+                full_path = pointsToVTKImpl(levelPath, lx, ly, lz, lpointData, comments, options);
+            }
+            group.addFile(new File(full_path).getName(), nwritten, 0);
+            nwritten++;
+        }
+        group.close();
+
+        return path + ".pvd";
+    }
+
+    /**
+     * Exports a block-structured AMR grid as an overlapping AMR dataset, i.e. a hierarchy file (.vthb) that links
+     * one image file for each box, so only the refined regions are stored at fine resolution.
+     * <p>
+     * Boxes are written with imageToVTK concurrently, one thread for each available processor, to a directory
+     * with the same name as the hierarchy file. Each box reserves its own memory from the MemoryGovernor. The hierarchy is written when all boxes are saved.
+     * Options that write only part of a grid, i.e. setRegion, setStride and setSlices, should not be used,
+     * because boxes would not match their position in the hierarchy.
+     *
+     * @param path:     path to where the hierarchy file should be saved without extension.
+     * @param origin:   origin of the domain as a double[3].
+     * @param spacing:  spacing of each level as a double[nlevels][3], level 0 is the coarsest.
+     * @param boxes:    boxes of all levels, see AMRBox.
+     * @param comments: list comments as strings, they are added to each box.
+     * @param options:  options that control how each box is written, see ExportOptions.
+     * @return the full path to the hierarchy file.
+     */
+    public static String overlappingAMRToVTK(String path, double[] origin, double[][] spacing, List<AMRBox> boxes,
+                                             List<String> comments, ExportOptions options) throws Exception {
+        var full_path = path + ".vthb";
+        var directory = new File(path);
+        directory.mkdirs();
+
+        var hierarchy = new VTKOverlappingAMR(new File(full_path), origin);
+        var nboxes = boxes.size();
+        var jobs = new ArrayList<Callable<String>>(nboxes);
+        for (int b = 0; b < nboxes; b++) {
+            var box = boxes.get(b);
+            var boxPath = new File(directory, directory.getName() + "_" + box.level + "_" + b).getPath();
+            var s = spacing[box.level];
+            var boxOrigin = new double[3];
+            for (int d = 0; d < 3; d++) {
+                boxOrigin[d] = origin[d] + box.start[d] * s[d];
+            }
+            jobs.add(() -> imageToVTK(boxPath, box.ncells, boxOrigin, s, box.cellData, box.pointData, comments, options));
+        }
+
+        var executor = Executors.newFixedThreadPool(Math.max(1, Math.min(nboxes, Runtime.getRuntime().availableProcessors())));
+        try {
+            var saved = executor.invokeAll(jobs);
+            for (int b = 0; b < nboxes; b++) {
+                String box_path;
+                try {
+                    box_path = saved.get(b).get();
+                } catch (ExecutionException e) {
+                    var cause = e.getCause();
+                    throw (cause instanceof Exception) ? (Exception) cause : e;
+                }
+                var box = boxes.get(b);
+                hierarchy.addBox(box.level, spacing[box.level], box.start, box.ncells,
+                        directory.getName() + "/" + new File(box_path).getName());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        hierarchy.close();
+
+        return full_path;
+    }
+
+    /**
+     * Exports a tree-based adaptive grid as a VTK hyper tree grid, i.e. a rectilinear grid of root cells where
+     * each root cell is refined as an octree (a quadtree for 2D grids). Cells are not written as points and
+     * connectivity, only one bit for each refined or leaf cell is stored, so files are much smaller than
+     * an unstructured grid of voxels.
+     * <p>
+     * Each tree is described by the refine flag of its cells in breadth-first order, i.e. the root cell, then
+     * its children, then the children of the refined children, and so on, where the children of a cell are
+     * ordered with x changing fastest, then y, then z. The flags of the last level, which are all false,
+     * can be omitted, but not the flags of the other levels, otherwise an IllegalArgumentException is thrown
+     * before anything is written.
+     *
+     * @param path:     path to where grid file should be saved without extension.
+     * @param x, y, z:  1D arrays with the coordinates of the points of the grid of root cells.
+     *                  Directions with a single point are not refined, e.g. to write a 2D grid.
+     * @param trees:    index of the root cell of each tree in the grid of root cells, i.e. i + j * nx + k * nx * ny
+     *                  where nx and ny are the number of root cells in the x and y directions.
+     *                  Root cells without a tree are not shown.
+     * @param refined:  refine flag of the cells of each tree in breadth-first order as a boolean[ntrees][].
+     * @param cellData: a container with data for all the cells of all trees, including refined cells, in the
+     *                  order of trees and then in breadth-first order. It can be null.
+     * @param comments: list comments as strings.
+     * @param options:  options that control how the grid is written, see ExportOptions.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public static String hyperTreeGridToVTK(String path, double[] x, double[] y, double[] z, int[] trees, boolean[][] refined,
+                                            GridData cellData, List<String> comments, ExportOptions options) throws Exception {
+        assert trees.length == refined.length;
+        var levels = treeLevels(refined, new int[]{x.length, y.length, z.length});
+        return reserved(ExportEstimate.hyperTreeTemporaries(levels, cellData),
+                () -> hyperTreeGridToVTKImpl(path, x, y, z, trees, refined, levels, cellData, comments, options));
+    }
+
+    // Helper function: hyperTreeGridToVTK with the number of cells of each level of each tree, see treeLevels,
+    // without reserving memory for its temporary arrays.
+    private static String hyperTreeGridToVTKImpl(String path, double[] x, double[] y, double[] z, int[] trees,
+                                                 boolean[][] refined, long[][] levels, GridData cellData,
+                                                 List<String> comments, ExportOptions options) throws Exception {
+        var precision = options.getPrecision();
+        var narrow = options.getNarrowIntegers();
+        var origin = options.originFor(x, y, z);
+        var dimensions = new int[]{x.length, y.length, z.length};
+        var ntrees = trees.length;
+
+        // Cell data of each tree
+        var treeData = new GridData[ntrees];
+        var base = 0L;
+        for (int t = 0; t < ntrees; t++) {
+            var nvertices = Arrays.stream(levels[t]).sum();
+            final long b = base;
+            treeData[t] = (cellData != null) ? cellData.gather(nvertices, i -> b + i) : null;
+            base += nvertices;
+        }
+
+        var full_path = path + ".htg";
+        var dst = new File(full_path);
+        var vw = new VTKWriter(dst, VTK_FILE_TYPE.HYPER_TREE_GRID, headerType(precision.sizeof() * Math.max(x.length, Math.max(y.length, z.length)),
+                precision, (cellData != null) ? new GridData[]{cellData} : new GridData[0]));
+        if (comments != null) {
+            vw.addComments(comments);
+        }
+
+        vw.openHyperTreeGrid(2, dimensions);
+        addOriginToVTK(vw, origin);
+        vw.openElement("Grid");
+        vw.addFieldDataArray("XCoordinates", precision, x.length, 1);
+        vw.addFieldDataArray("YCoordinates", precision, y.length, 1);
+        vw.addFieldDataArray("ZCoordinates", precision, z.length, 1);
+        vw.closeElement("Grid");
+
+        vw.openElement("Trees");
+        for (int t = 0; t < ntrees; t++) {
+            var nlevels = levels[t].length;
+            var nvertices = Arrays.stream(levels[t]).sum();
+            vw.openTree(trees[t], nlevels, nvertices);
+            // the last level only has leaves, so it is not described
+            vw.addBitArray("Descriptor", nvertices - levels[t][nlevels - 1]);
+            vw.addFieldDataArray("NbVerticesByLevel", VTK_DATA_TYPE.INT64, nlevels, 1);
+            if (treeData[t] != null) {
+                treeData[t].addArrayToVTK(vw, 0, nvertices, precision, narrow);
+            }
+            vw.closeTree();
+        }
+        vw.closeElement("Trees");
+        vw.closeHyperTreeGrid();
+
+        vw.openAppendedData();
+        appendOrigin(vw, origin);
+        vw.appendArray(x, precision, (origin != null) ? origin[0] : 0.0);
+        vw.appendArray(y, precision, (origin != null) ? origin[1] : 0.0);
+        vw.appendArray(z, precision, (origin != null) ? origin[2] : 0.0);
+        for (int t = 0; t < ntrees; t++) {
+            var nlevels = levels[t].length;
+            var nvertices = Arrays.stream(levels[t]).sum();
+            vw.appendBits(refined[t], (int) (nvertices - levels[t][nlevels - 1]));
+            vw.appendArray(levels[t]);
+            if (treeData[t] != null) {
+                treeData[t].appendData(vw, 0, nvertices, precision, narrow);
+            }
+        }
+        vw.closeAppendedData();
+        vw.close();
+
+        return full_path;
+    }
+
     /**
      * Exports cylinder as VTK unstructured grid.
      *
@@ -400,6 +1253,29 @@ public class EVTK {
     public static String cylinderToVTK(String path, double x0, double y0, double z0,
                                        double z1, double radius, int nlayers, int npilars,
                                        GridData cellData, GridData pointData, List<String> comments) throws Exception {
+        return cylinderToVTK(path, x0, y0, z0, z1, radius, nlayers, npilars, cellData, pointData, comments, new ExportOptions());
+    }
+
+    /**
+     * Exports cylinder as VTK unstructured grid.
+     * See cylinderToVTK above for a description of the other parameters.
+     *
+     * @param options: options that control how the grid is written, see ExportOptions.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public static String cylinderToVTK(String path, double x0, double y0, double z0,
+                                       double z1, double radius, int nlayers, int npilars,
+                                       GridData cellData, GridData pointData, List<String> comments,
+                                       ExportOptions options) throws Exception {
+        return reserved(ExportEstimate.cylinderTemporaries(nlayers, npilars, cellData, pointData, options),
+                () -> cylinderToVTKImpl(path, x0, y0, z0, z1, radius, nlayers, npilars, cellData, pointData, comments, options));
+    }
+
+    // Helper function: cylinderToVTK without reserving memory for its temporary arrays.
+    private static String cylinderToVTKImpl(String path, double x0, double y0, double z0,
+                                            double z1, double radius, int nlayers, int npilars,
+                                            GridData cellData, GridData pointData, List<String> comments,
+                                            ExportOptions options) throws Exception {
         // Define x, y coordinates from polar coordinates.
         var dpi = 2.0 * Math.PI / npilars;
         var nang = (int) (2.0 * Math.PI / dpi);
@@ -472,7 +1348,7 @@ public class EVTK {
             ctype[i] = VTK_CELL_TYPE.VTK_PIXEL;
         }
 
-        var full_path = unstructuredGridToVTK(path, xx, yy, zz, conn, offsets, ctype, cellData, pointData, comments);
+        var full_path = unstructuredGridToVTKImpl(path, xx, yy, zz, conn, offsets, ctype, cellData, pointData, comments, options);
         return full_path;
     }
 
@@ -491,6 +1367,25 @@ public class EVTK {
      */
     public static String linesToVTK(String path, double[] x, double[] y, double[] z,
                                     GridData cellData, GridData pointData, List<String> comments) throws Exception {
+        return linesToVTK(path, x, y, z, cellData, pointData, comments, new ExportOptions());
+    }
+
+    /**
+     * Exports line segments that joint 2 points and associated data.
+     * See linesToVTK above for a description of the other parameters.
+     *
+     * @param options:   options that control how the grid is written, see ExportOptions.
+     * @return full path to saved file including extension.
+     */
+    public static String linesToVTK(String path, double[] x, double[] y, double[] z, GridData cellData, GridData pointData,
+                                    List<String> comments, ExportOptions options) throws Exception {
+        // the topology is written on the fly, so the writer only needs its IO buffers
+        return reserved(0, () -> linesToVTKImpl(path, x, y, z, cellData, pointData, comments, options));
+    }
+
+    // Helper function: linesToVTK without reserving memory for its IO buffers.
+    private static String linesToVTKImpl(String path, double[] x, double[] y, double[] z, GridData cellData,
+                                         GridData pointData, List<String> comments, ExportOptions options) throws Exception {
 
         assert (x.length == y.length) && (x.length == z.length);
         assert (x.length % 2 == 0);
@@ -500,26 +1395,22 @@ public class EVTK {
 
         // Check cellData has the same size that the number of cells
 
-        // create some temporary arrays to write grid topology
-        var offsets = new int[ncells];      // index of last node in each cell
-        for (int i = 0; i < ncells; i++) {
-            offsets[i] = 2 + i * 2;
-        }
-
-        // each point is only connected to itself
-        var connectivity = new int[npoints];
-        for (int i = 0; i < npoints; i++) {
-            connectivity[i] = i;
-        }
-
-        var cell_types = new VTK_CELL_TYPE[ncells];
-        for (int i = 0; i < ncells; i++) {
-            cell_types[i] = VTK_CELL_TYPE.VTK_LINE;
-        }
-
-        var ppath = path + ".vtu";
-        var full_path = unstructuredGridToVTK(ppath, x, y, z, connectivity,
-                                    offsets, cell_types, cellData, pointData, comments);
+        // The topology is written on the fly.
+        var ctype = options.indexType(0, npoints - 1);
+        var otype = options.indexType(0, npoints);
+        var full_path = unstructuredGridToVTK(path, x, y, z, npoints, ncells, ctype, otype, out -> {
+            // each point is only connected to itself
+            VTKWriter.writeSize(out, (long) npoints * ctype.sizeof());
+            for (int i = 0; i < npoints; i++) {
+                writeIndex(out, ctype, i);
+            }
+            // index of last node in each cell
+            VTKWriter.writeSize(out, (long) ncells * otype.sizeof());
+            for (int i = 0; i < ncells; i++) {
+                writeIndex(out, otype, 2 + i * 2);
+            }
+            writeCellTypes(out, VTK_CELL_TYPE.VTK_LINE, ncells);
+        }, cellData, pointData, comments, options);
         return full_path;
 
     }
@@ -541,35 +1432,53 @@ public class EVTK {
      */
     public static String polylinesToVTK(String path, double[] x, double[] y, double[] z, int[] pointsPerLine,
                                     GridData cellData, GridData pointData, List<String> comments) throws Exception {
+        return polylinesToVTK(path, x, y, z, pointsPerLine, cellData, pointData, comments, new ExportOptions());
+    }
+
+    /**
+     * Exports line segments that join 2 or more points and associated data.
+     * See polylinesToVTK above for a description of the other parameters.
+     *
+     * @param options:   options that control how the grid is written, see ExportOptions.
+     * @return full path to saved file including extension.
+     */
+    public static String polylinesToVTK(String path, double[] x, double[] y, double[] z, int[] pointsPerLine,
+                                        GridData cellData, GridData pointData, List<String> comments,
+                                        ExportOptions options) throws Exception {
+        // the topology is written on the fly, so the writer only needs its IO buffers
+        return reserved(0, () -> polylinesToVTKImpl(path, x, y, z, pointsPerLine, cellData, pointData, comments, options));
+    }
+
+    // Helper function: polylinesToVTK without reserving memory for its IO buffers.
+    private static String polylinesToVTKImpl(String path, double[] x, double[] y, double[] z, int[] pointsPerLine,
+                                             GridData cellData, GridData pointData, List<String> comments,
+                                             ExportOptions options) throws Exception {
 
         var npoints = x.length;
         var ncells =  pointsPerLine.length;
 
         assert (x.length == y.length) && (x.length == z.length);
 
-        // Creates some temporary arrays to specify grid topology
-        // index of last node in each cell
-        var offsets = new int[ncells];
-        var ii = 0;
-        for (int i = 0; i < ncells; i++) {
-            ii += pointsPerLine[i];
-            offsets[i] = ii;
-        }
-        assert (ii == npoints);
-        // each line connects points that are consecutive
-        var connectivity = new int[npoints];
-        for (int i = 0; i < npoints; i++) {
-            connectivity[i] = i;
-        }
-
-        // all cells are polylines
-        var cell_types = new VTK_CELL_TYPE[ncells];
-        for (int i = 0; i < ncells; i++) {
-            cell_types[i] = VTK_CELL_TYPE.VTK_POLY_LINE;
-        }
-
-        var full_path = unstructuredGridToVTK(path, x, y, z, connectivity, offsets,
-                                                    cell_types, cellData, pointData, comments);
+        // The topology is written on the fly.
+        var ctype = options.indexType(0, npoints - 1);
+        var otype = options.indexType(0, npoints);
+        var full_path = unstructuredGridToVTK(path, x, y, z, npoints, ncells, ctype, otype, out -> {
+            // each line connects points that are consecutive
+            VTKWriter.writeSize(out, (long) npoints * ctype.sizeof());
+            for (int i = 0; i < npoints; i++) {
+                writeIndex(out, ctype, i);
+            }
+            // index of last node in each cell
+            VTKWriter.writeSize(out, (long) ncells * otype.sizeof());
+            var ii = 0;
+            for (int i = 0; i < ncells; i++) {
+                ii += pointsPerLine[i];
+                writeIndex(out, otype, ii);
+            }
+            assert (ii == npoints);
+            // all cells are polylines
+            writeCellTypes(out, VTK_CELL_TYPE.VTK_POLY_LINE, ncells);
+        }, cellData, pointData, comments, options);
 
         return full_path;
     }
@@ -585,7 +1494,7 @@ public class EVTK {
      *                          and that they are given in the order expected by VTK (counter-clock wise).
      *                          A polygon defined by 4 nodes, should have associated a pointsPerPolygon = 4, however
      *                          internally the method repeats the first node in the connectivity list to close
-     *                          the loop of the polygon.
+     *                          the loop of the polygon, unless points are merged with ExportOptions.setWeldTolerance.
      * @param cellData:  GridData with variables associated to each line.
      * @param pointData: GridData with variables associated to each node.
      * @param comments:  list of comment strings, which will be added to the header section of the file.
@@ -593,6 +1502,31 @@ public class EVTK {
      */
     public static String polygonsToVTK(String path, double[] x, double[] y, double[] z, int[] pointsPerPolygon,
                                         GridData cellData, GridData pointData, List<String> comments) throws Exception {
+        return polygonsToVTK(path, x, y, z, pointsPerPolygon, cellData, pointData, comments, new ExportOptions());
+    }
+
+    /**
+     * Exports polygons defined by 3 or more points and associated data.
+     * See polygonsToVTK above for a description of the other parameters.
+     *
+     * @param options:   options that control how the grid is written, see ExportOptions.
+     * @return full path to saved file including extension.
+     */
+    public static String polygonsToVTK(String path, double[] x, double[] y, double[] z, int[] pointsPerPolygon,
+                                       GridData cellData, GridData pointData, List<String> comments,
+                                       ExportOptions options) throws Exception {
+        return reserved(ExportEstimate.polygonsTemporaries(x.length, pointData, options),
+                () -> polygonsToVTKImpl(path, x, y, z, pointsPerPolygon, cellData, pointData, comments, options));
+    }
+
+    // Helper function: polygonsToVTK without reserving memory for its temporary arrays.
+    private static String polygonsToVTKImpl(String path, double[] x, double[] y, double[] z, int[] pointsPerPolygon,
+                                            GridData cellData, GridData pointData, List<String> comments,
+                                            ExportOptions options) throws Exception {
+
+        if (options.getWeldTolerance() >= 0.0) {
+            return weldedPolygonsToVTK(path, x, y, z, pointsPerPolygon, cellData, pointData, comments, options);
+        }
 
         var ncells =  pointsPerPolygon.length;
 
@@ -601,44 +1535,333 @@ public class EVTK {
 
         assert (x.length == y.length) && (x.length == z.length);
 
-        // Creates some temporary arrays to specify grid topology
-        // index of last node in each cell
-        var offsets = new int[ncells];
-        var ii = 0;
-        for (int i = 0; i < ncells; i++) {
-            ii += pointsPerPolygon[i] + 1;
-            offsets[i] = ii;
-        }
-        assert (ii == npoints);
+        // The topology is written on the fly.
+        var ctype = options.indexType(0, x.length - 1);
+        var otype = options.indexType(0, npoints);
+        var full_path = unstructuredGridToVTK(path, x, y, z, npoints, ncells, ctype, otype, out -> {
+            // each line connects points that are consecutive
+            // we add one element per polygon to close the loop
+            VTKWriter.writeSize(out, (long) npoints * ctype.sizeof());
+            var pos = 0;
+            for (int i = 0; i < ncells; i++) {
+                var pointsInCell = pointsPerPolygon[i];
+                for (int j = 0; j < pointsInCell; j++) {
+                    writeIndex(out, ctype, pos + j);
+                }
+                writeIndex(out, ctype, pos);
+                pos = pos + pointsPerPolygon[i];
+            }
+            // index of last node in each cell
+            VTKWriter.writeSize(out, (long) ncells * otype.sizeof());
+            var ii = 0;
+            for (int i = 0; i < ncells; i++) {
+                ii += pointsPerPolygon[i] + 1;
+                writeIndex(out, otype, ii);
+            }
+            assert (ii == npoints);
+            // all cells are polygons
+            writeCellTypes(out, VTK_CELL_TYPE.VTK_POLYGON, ncells);
+        }, cellData, pointData, comments, options);
 
-        // each line connects points that are consecutive
-        // we add one element per polygon to close the loop
-        var connectivity = new int[npoints];
-        var pos = 0;
-        ii = 0;
-        for (int i = 0; i < ncells; i++) {
-            var pointsInCell = pointsPerPolygon[i];
-            for (int j = 0; j < pointsInCell; j++) {
-                connectivity[ii] = pos + j;
-                ii += 1;
+        return full_path;
+    }
+
+    // Helper function: polygonsToVTK with points merged as set by ExportOptions.setWeldTolerance.
+    private static String weldedPolygonsToVTK(String path, double[] x, double[] y, double[] z, int[] pointsPerPolygon,
+                                              GridData cellData, GridData pointData, List<String> comments,
+                                              ExportOptions options) throws Exception {
+        assert (x.length == y.length) && (x.length == z.length);
+        var ncells = pointsPerPolygon.length;
+        var nconnectivity = x.length;   // polygons are not closed
+
+        var w = new Welding(x, y, z, options.getWeldTolerance());
+        var wx = w.gather(x);
+        var wy = w.gather(y);
+        var wz = w.gather(z);
+        var wpointData = (pointData != null) ? pointData.gather(w.npoints(), i -> w.points[(int) i]) : null;
+
+        var ctype = options.indexType(0, w.npoints() - 1);
+        var otype = options.indexType(0, nconnectivity);
+        return unstructuredGridToVTK(path, wx, wy, wz, nconnectivity, ncells, ctype, otype, out -> {
+            // the vertices of each polygon are consecutive in the input arrays
+            VTKWriter.writeSize(out, (long) nconnectivity * ctype.sizeof());
+            for (int i = 0; i < nconnectivity; i++) {
+                writeIndex(out, ctype, w.index[i]);
+            }
+            // index of last node in each cell
+            VTKWriter.writeSize(out, (long) ncells * otype.sizeof());
+            var ii = 0;
+            for (int i = 0; i < ncells; i++) {
+                ii += pointsPerPolygon[i];
+                writeIndex(out, otype, ii);
             }
-            connectivity[ii] = pos;
-            ii += 1;
-            pos = pos + pointsPerPolygon[i];
+            assert (ii == nconnectivity);
+            writeCellTypes(out, VTK_CELL_TYPE.VTK_POLYGON, ncells);
+        }, cellData, wpointData, comments, options);
+    }
+
+    /**
+     * Exports a surface made of polygons as a VTK poly data file, e.g. the boundary of a volume mesh.
+     * Unlike polygonsToVTK, polygons can share points and are written with the native PolyData format.
+     * As in unstructuredGridToVTK, the topology is given by int arrays, so a surface is limited to 2^31 - 1
+     * points, polygons and connectivity entries.
+     *
+     * @param path:         path to where file should be saved without extension.
+     * @param x:            1D array with x-coordinate of the points.
+     * @param y:            1D array with y-coordinate of the points.
+     * @param z:            1D array with z-coordinate of the points.
+     * @param connectivity: 1D array with the vertices of each polygon, which are listed consecutively.
+     * @param offsets:      1D array with the index of the last vertex of each polygon in the connectivity array
+     *                      plus one, as in unstructuredGridToVTK. It should have length npolygons.
+     * @param cellData:     a container with data for each polygon created with makeCellData.
+     * @param pointData:    a container with data for each point created with makePointData.
+     * @param comments:     list comments as strings.
+     * @return the full path to where the file was saved including extension.
+     */
+    public static String polyDataToVTK(String path, double[] x, double[] y, double[] z, int[] connectivity, int[] offsets,
+                                       GridData cellData, GridData pointData, List<String> comments) throws Exception {
+        return polyDataToVTK(path, x, y, z, connectivity, offsets, cellData, pointData, comments, new ExportOptions());
+    }
+
+    /**
+     * Exports a surface made of polygons as a VTK poly data file.
+     * See polyDataToVTK above for a description of the other parameters.
+     *
+     * @param options:      options that control how the surface is written, see ExportOptions.
+     * @return the full path to where the file was saved including extension.
+     */
+    public static String polyDataToVTK(String path, double[] x, double[] y, double[] z, int[] connectivity, int[] offsets,
+                                       GridData cellData, GridData pointData, List<String> comments,
+                                       ExportOptions options) throws Exception {
+        // arrays are written as they are given, so the writer only needs its IO buffers
+        return reserved(0, () -> polyDataToVTKImpl(path, x, y, z, connectivity, offsets, cellData, pointData, comments, options));
+    }
+
+    // Helper function: polyDataToVTK without reserving memory for its IO buffers.
+    private static String polyDataToVTKImpl(String path, double[] x, double[] y, double[] z, int[] connectivity, int[] offsets,
+                                            GridData cellData, GridData pointData, List<String> comments,
+                                            ExportOptions options) throws Exception {
+        var precision = options.getPrecision();
+        var narrow = options.getNarrowIntegers();
+        var origin = options.originFor(x, y, z);
+        var nnpoints = x.length;
+        var npolys = offsets.length;
+
+        assert (y.length == nnpoints) && (z.length == nnpoints);
+
+        var ctype = options.indexType(connectivity);
+        var otype = options.indexType(offsets);
+        var maxBytes = Math.max((long) nnpoints * 3 * precision.sizeof(),
+                Math.max((long) connectivity.length * ctype.sizeof(), (long) npolys * otype.sizeof()));
+        var full_path = path + ".vtp";
+        var dst = new File(full_path);
+        var vw = new VTKWriter(dst, VTK_FILE_TYPE.POLY_DATA, headerType(maxBytes, precision, cellData, pointData));
+        if (comments != null) {
+            vw.addComments(comments);
         }
 
-        // all cells are polygons
-        var cell_types = new VTK_CELL_TYPE[ncells];
-        for (int i = 0; i < ncells; i++) {
-            cell_types[i] = VTK_CELL_TYPE.VTK_POLYGON;
+        vw.openPolyData();
+        addOriginToVTK(vw, origin);
+        vw.openPiece(nnpoints, 0, 0, 0, npolys);
+
+        if (cellData != null) {
+            cellData.addArrayToVTK(vw, nnpoints, npolys, precision, narrow);
+        }
+
+        if (pointData != null) {
+            pointData.addArrayToVTK(vw, nnpoints, npolys, precision, narrow);
+        }
+
+        vw.openElement("Points");
+        vw.addDataArray("points", precision, nnpoints, 3);
+        vw.closeElement("Points");
+        vw.openElement("Polys");
+        vw.addDataArray("connectivity", ctype, connectivity.length, 1);
+        vw.addDataArray("offsets", otype, npolys, 1);
+        vw.closeElement("Polys");
+
+        vw.closePiece();
+        vw.closePolyData();
+
+        vw.openAppendedData();
+        appendOrigin(vw, origin);
+
+        if (cellData != null) {
+            cellData.appendData(vw, nnpoints, npolys, precision, narrow);
         }
 
-        var full_path = unstructuredGridToVTK(path, x, y, z, connectivity, offsets,
-                                                     cell_types, cellData, pointData, comments);
+        if (pointData != null) {
+            pointData.appendData(vw, nnpoints, npolys, precision, narrow);
+        }
+
+        vw.appendArraysAs3D(x, y, z, precision, origin);
+        VTKWriter.writeArray(vw.getStream(), connectivity, ctype);
+        VTKWriter.writeArray(vw.getStream(), offsets, otype);
+
+        vw.closeAppendedData();
+        vw.close();
 
         return full_path;
     }
 
+    // Helper function: runs a writer once the memory for its temporary arrays and IO buffers is reserved,
+    // see MemoryGovernor. Writers that are called by other writers must be called without reserving memory.
+    private static String reserved(long temporaries, Callable<String> writer) throws Exception {
+        var reservation = MemoryGovernor.reserve(ExportEstimate.IO_BYTES + temporaries, false);
+        try {
+            return writer.call();
+        } finally {
+            reservation.close();
+        }
+    }
+
+    /**
+     * Returns the number of cells of each level of each tree of a hyper tree grid, see hyperTreeGridToVTK.
+     * Trees are scanned in parallel.
+     *
+     * @param refined:    refine flag of the cells of each tree in breadth-first order.
+     * @param dimensions: number of points of the grid of root cells in each direction.
+     * @throws IllegalArgumentException if the flags of a tree do not cover all the cells of its refined levels.
+     */
+    static long[][] treeLevels(boolean[][] refined, int[] dimensions) {
+        var nchildren = 1;
+        for (int d : dimensions) {
+            if (d > 1) nchildren *= 2;
+        }
+
+        var ntrees = refined.length;
+        var levels = new long[ntrees][];
+        final int nc = nchildren;
+        IntStream.range(0, ntrees).parallel().forEach(t -> {
+            var counts = new ArrayList<Long>();
+            long start = 0, n = 1;
+            while (n > 0) {
+                counts.add(n);
+                var nrefined = 0L;
+                for (long v = start; v < Math.min(start + n, refined[t].length); v++) {
+                    if (refined[t][(int) v]) nrefined++;
+                }
+                start += n;
+                n = nrefined * nc;
+            }
+            levels[t] = counts.stream().mapToLong(Long::longValue).toArray();
+        });
+
+        // the flags of every level but the last one are written, so they must be given
+        for (int t = 0; t < ntrees; t++) {
+            var ndescribed = Arrays.stream(levels[t]).sum() - levels[t][levels[t].length - 1];
+            if (refined[t].length < ndescribed) {
+                throw new IllegalArgumentException("Tree " + t + " has " + refined[t].length +
+                        " refine flags, but its refined levels have " + ndescribed + " cells");
+            }
+        }
+        return levels;
+    }
+
+    // Helper function: stores the origin of re-centered coordinates as field data.
+    private static void addOriginToVTK(VTKWriter vw, double[] origin) throws IOException {
+        if (origin == null) return;
+        vw.openFieldData();
+        vw.addFieldDataArray(ExportOptions.ORIGIN_ARRAY, VTK_DATA_TYPE.FLOAT64, 1, 3);
+        vw.closeFieldData();
+    }
+
+    // Helper function: appends the origin declared by addOriginToVTK.
+    private static void appendOrigin(VTKWriter vw, double[] origin) throws IOException {
+        if (origin == null) return;
+        vw.appendArray(origin);
+    }
+
+    // Helper function: writes a row of values without the size of the array.
+    private static void writeRow(DataOutputStream out, double[] row, VTK_DATA_TYPE precision) throws IOException {
+        if (precision == VTK_DATA_TYPE.FLOAT32) {
+            for (double v : row) {
+                out.writeFloat((float) v);
+            }
+        } else {
+            for (double v : row) {
+                out.writeDouble(v);
+            }
+        }
+    }
+
+    // Helper function: size in bytes of the largest of an array of maxArrayBytes and the variables in data.
+    private static long headerBytes(long maxArrayBytes, VTK_DATA_TYPE precision, GridData... data) {
+        var n = maxArrayBytes;
+        for (GridData d : data) {
+            if (d != null) n = Math.max(n, d.maxArrayBytes(precision));
+        }
+        return n;
+    }
+
+    // Helper function: data of all the pieces of a sampled grid, either of them can be null.
+    // Helper interface: writes a grid with the points and cells given by a sampling, see slicesToVTK.
+    private interface SampledWriter {
+        String write(String path, Sampling sampling) throws Exception;
+    }
+
+    // Helper function: writes each slice of a sampling to its own file, named path_sliceS, where S is the position
+    // of the slice in ExportOptions.setSlices, and lists them in a group file with the index of the point of the
+    // whole grid where each slice is taken as time step.
+    private static String slicesToVTK(String path, Sampling sampling, SampledWriter writer) throws Exception {
+        var group = createGroup(path);
+        for (int p = 0; p < sampling.npieces(); p++) {
+            var full_path = writer.write(path + "_slice" + p, sampling.slice(p));
+            group.addFile(new File(full_path).getName(), sampling.slicePoint(p), 0);
+        }
+        group.close();
+
+        return path + ".pvd";
+    }
+
+    private static GridData[] allPieces(GridData[] cellPieces, GridData[] pointPieces) {
+        var all = new ArrayList<GridData>();
+        if (cellPieces != null) all.addAll(Arrays.asList(cellPieces));
+        if (pointPieces != null) all.addAll(Arrays.asList(pointPieces));
+        return all.toArray(new GridData[0]);
+    }
+
+    // Helper function: header type needed by the largest of an array of maxArrayBytes and the variables in data.
+    private static VTK_DATA_TYPE headerType(long maxArrayBytes, VTK_DATA_TYPE precision, GridData... data) {
+        return VTKWriter.headerType(headerBytes(maxArrayBytes, precision, data));
+    }
+
+    // Helper function: writes an index with one of the integer types returned by ExportOptions.indexType.
+    private static void writeIndex(DataOutputStream out, VTK_DATA_TYPE type, long v) throws IOException {
+        switch (type) {
+            case INT8:
+            case UINT8:
+                out.writeByte((int) v);
+                break;
+            case INT16:
+            case UINT16:
+                out.writeShort((int) v);
+                break;
+            case INT64:
+                out.writeLong(v);
+                break;
+            default:
+                out.writeInt((int) v);
+                break;
+        }
+    }
+
+    // Helper function: writes coordinates given by views re-centered around origin.
+    private static VTKWriter.BlockEncoder coordinates(ArrayView x, ArrayView y, ArrayView z, double[] origin,
+                                                      ExportOptions options) {
+        var precision = options.getPrecision();
+        return out -> VTKWriter.writeArraysAs3D(out, x, y, z, precision, origin);
+    }
+
+    // Helper function: writes an array of ncells cells of the same type.
+    private static void writeCellTypes(DataOutputStream out, VTK_CELL_TYPE type, long ncells) throws IOException {
+        VTKWriter.writeSize(out, ncells * VTK_DATA_TYPE.UINT8.sizeof());
+        var t = type.valueOf();
+        for (long i = 0; i < ncells; i++) {
+            out.writeByte(t);
+        }
+    }
+
     /**
      * Creates and returns a VTKGroup that can be used to specify links to multiple VTK files that
      * can be used for animations or merging multiple files in a single scene.
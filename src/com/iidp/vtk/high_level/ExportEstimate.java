@@ -0,0 +1,702 @@
+/*
+ * Copyright (C) 2009-2020 Paulo A. Herrera <paulo.herrera.eirl at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level;
+
+import com.iidp.vtk.high_level.data.GridData;
+import com.iidp.vtk.low_level.VTKWriter;
+import com.iidp.vtk.low_level.VTK_DATA_TYPE;
+
+import java.util.List;
+
+/**
+ * Size of the file written by one of the EVTK writers and of the temporary memory it needs.
+ * <p>
+ * There is one static method for each writer in EVTK, which takes the sizes of the grid instead of the
+ * arrays, so the estimate can be computed before allocating them, and the ExportOptions used to write it.
+ * The size of the binary section is exact, except when integers are narrowed, since the narrowed type of
+ * connectivity and offsets depends on their values, in which case it is an upper bound. The size of the
+ * XML section is an upper bound. Grids are assumed not to be compacted, see ExportOptions.setCompactionTolerance.
+ * <p>
+ * The temporary memory includes the arrays allocated by the writer, e.g. the values of the written region of a grid
+ * or the sorted arrays of a grid reordered along a space filling curve, and the IO buffers. It does not include the
+ * arrays and GridData containers given to the writer, which are allocated before and kept after the export.
+ * This is the memory that writers reserve from the MemoryGovernor.
+ * <p>
+ * Example:
+ * <pre>
+ *   var e = ExportEstimate.imageToVTK(ncells, cellData, pointData, options);
+ *   System.out.println(e);
+ * </pre>
+ */
+public class ExportEstimate {
+    /** Projected size of the file in bytes. */
+    public final long fileBytes;
+
+    /** Projected peak of temporary heap memory in bytes. */
+    public final long transientBytes;
+
+    // Upper bounds for the size of the XML section
+    static final long HEADER_BYTES = 512;
+    static final long PIECE_BYTES = 160;
+    static final long ARRAY_DECLARATION_BYTES = 160;
+
+    // Size of a reference to an object, e.g. elements of VTK_CELL_TYPE[]
+    static final long REFERENCE_BYTES = 8;
+
+    // Size of the buffers used to write a file, i.e. the buffer of the stream and the chunks of values
+    // that are converted at a time, see VTKWriter
+    static final long IO_BYTES = 256 * 1024;
+
+    // Size of the keys and of the order of each value while it is sorted, see Reordering.order
+    static final long SORT_BYTES = 8 + 8 + 8 + 4 + 4;
+
+    ExportEstimate(long _fileBytes, long _transientBytes) {
+        fileBytes = _fileBytes;
+        transientBytes = _transientBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportEstimate{fileBytes=" + fileBytes + ", transientBytes=" + transientBytes + "}";
+    }
+
+    /**
+     * Estimate for EVTK.imageToVTK with the default options.
+     *
+     * @param ncells: number of cells in each direction as a int[3].
+     * @param cellData: cell data container, it can be null.
+     * @param pointData: point data container, it can be null.
+     */
+    public static ExportEstimate imageToVTK(int[] ncells, GridData cellData, GridData pointData) {
+        return imageToVTK(ncells, cellData, pointData, new ExportOptions());
+    }
+
+    /**
+     * Estimate for EVTK.imageToVTK.
+     * See imageToVTK above for a description of the other parameters.
+     *
+     * @param options: options used to write the grid.
+     */
+    public static ExportEstimate imageToVTK(int[] ncells, GridData cellData, GridData pointData, ExportOptions options) {
+        var sampling = options.sampling(npoints(ncells));
+        var files = files(sampling, options);
+        for (int p = 0; p < sampling.npieces(); p++) {
+            var t = files[p];
+            t.piece();
+            t.data(pointData, sampling.npoints(p));
+            t.data(cellData, sampling.ncells(p));
+        }
+        return new ExportEstimate(fileBytes(sampling, files), IO_BYTES + imageTemporaries(ncells, cellData, pointData, options));
+    }
+
+    /**
+     * Estimate for EVTK.rectilinearGridToVTK with the default options.
+     *
+     * @param ncells: number of cells in each direction as a int[3].
+     * @param cellData: cell data container, it can be null.
+     * @param pointData: point data container, it can be null.
+     */
+    public static ExportEstimate rectilinearGridToVTK(int[] ncells, GridData cellData, GridData pointData) {
+        return rectilinearGridToVTK(ncells, cellData, pointData, new ExportOptions());
+    }
+
+    /**
+     * Estimate for EVTK.rectilinearGridToVTK.
+     * See rectilinearGridToVTK above for a description of the other parameters.
+     *
+     * @param options: options used to write the grid.
+     */
+    public static ExportEstimate rectilinearGridToVTK(int[] ncells, GridData cellData, GridData pointData,
+                                                      ExportOptions options) {
+        var precision = options.getPrecision();
+        var sampling = options.sampling(npoints(ncells));
+        var files = files(sampling, options);
+        for (Tally t : files) t.origin(options);
+        for (int p = 0; p < sampling.npieces(); p++) {
+            var t = files[p];
+            t.piece();
+            for (int d = 0; d < 3; d++) {
+                t.array(sampling.npoints(p, d) * precision.sizeof());
+            }
+            t.data(cellData, sampling.ncells(p));
+            t.data(pointData, sampling.npoints(p));
+        }
+        return new ExportEstimate(fileBytes(sampling, files), IO_BYTES + rectilinearTemporaries(ncells, cellData, pointData, options));
+    }
+
+    /**
+     * Estimate for EVTK.structuredGridToVTK with the default options.
+     *
+     * @param ncells: number of cells in each direction as a int[3].
+     * @param cellData: cell data container, it can be null.
+     * @param pointData: point data container, it can be null.
+     */
+    public static ExportEstimate structuredGridToVTK(int[] ncells, GridData cellData, GridData pointData) {
+        return structuredGridToVTK(ncells, cellData, pointData, new ExportOptions());
+    }
+
+    /**
+     * Estimate for EVTK.structuredGridToVTK, with coordinates given either by arrays or by views.
+     * See structuredGridToVTK above for a description of the other parameters.
+     *
+     * @param options: options used to write the grid.
+     */
+    public static ExportEstimate structuredGridToVTK(int[] ncells, GridData cellData, GridData pointData,
+                                                     ExportOptions options) {
+        var precision = options.getPrecision();
+        var sampling = options.sampling(npoints(ncells));
+        var files = files(sampling, options);
+        for (Tally t : files) t.origin(options);
+        for (int p = 0; p < sampling.npieces(); p++) {
+            var t = files[p];
+            t.piece();
+            t.data(cellData, sampling.ncells(p));
+            t.data(pointData, sampling.npoints(p));
+            t.array(sampling.npoints(p) * 3 * precision.sizeof());
+        }
+        return new ExportEstimate(fileBytes(sampling, files), IO_BYTES + structuredTemporaries(ncells, cellData, pointData, options));
+    }
+
+    /**
+     * Estimate for EVTK.unstructuredGridToVTK with the default options.
+     *
+     * @param npoints: number of points.
+     * @param nconnectivity: length of the connectivity array.
+     * @param ncells: number of cells.
+     * @param cellData: cell data container, it can be null.
+     * @param pointData: point data container, it can be null.
+     */
+    public static ExportEstimate unstructuredGridToVTK(long npoints, long nconnectivity, long ncells,
+                                                      GridData cellData, GridData pointData) {
+        return unstructuredGridToVTK(npoints, nconnectivity, ncells, cellData, pointData, new ExportOptions());
+    }
+
+    /**
+     * Estimate for EVTK.unstructuredGridToVTK.
+     * See unstructuredGridToVTK above for a description of the other parameters.
+     *
+     * @param options: options used to write the grid.
+     */
+    public static ExportEstimate unstructuredGridToVTK(long npoints, long nconnectivity, long ncells,
+                                                      GridData cellData, GridData pointData, ExportOptions options) {
+        var file = unstructuredFile(npoints, nconnectivity, ncells, cellData, pointData, options);
+        var memory = IO_BYTES + unstructuredTemporaries(npoints, nconnectivity, ncells, cellData, pointData, options);
+        return new ExportEstimate(file, memory);
+    }
+
+    /**
+     * Estimate for EVTK.unstructuredGridPiecesToVTK with the default options.
+     * The temporary memory includes the blocks that are encoded at the same time.
+     *
+     * @param npoints: number of points of each piece.
+     * @param nconnectivity: length of the connectivity array of each piece.
+     * @param ncells: number of cells of each piece.
+     * @param cellData: cell data container of each piece, it can be null.
+     * @param pointData: point data container of each piece, it can be null.
+     */
+    public static ExportEstimate unstructuredGridPiecesToVTK(int[] npoints, int[] nconnectivity, int[] ncells,
+                                                            GridData[] cellData, GridData[] pointData) {
+        return unstructuredGridPiecesToVTK(npoints, nconnectivity, ncells, cellData, pointData, new ExportOptions());
+    }
+
+    /**
+     * Estimate for EVTK.unstructuredGridPiecesToVTK.
+     * See unstructuredGridPiecesToVTK above for a description of the other parameters.
+     *
+     * @param options: options used to write the grid.
+     */
+    public static ExportEstimate unstructuredGridPiecesToVTK(int[] npoints, int[] nconnectivity, int[] ncells,
+                                                            GridData[] cellData, GridData[] pointData,
+                                                            ExportOptions options) {
+        var npieces = npoints.length;
+        var t = new Tally(options);
+        var pieces = new Tally[npieces];
+        t.origin(options);
+        for (int p = 0; p < npieces; p++) {
+            var cd = (cellData != null) ? cellData[p] : null;
+            var pd = (pointData != null) ? pointData[p] : null;
+            pieces[p] = new Tally(options);
+            for (Tally tp : new Tally[]{t, pieces[p]}) {
+                tp.piece();
+                tp.data(cd, ncells[p]);
+                tp.data(pd, npoints[p]);
+                tp.cells(npoints[p], nconnectivity[p], ncells[p], true, options);
+            }
+        }
+
+        // Each block is encoded in memory with the header type of the whole file
+        long maxBlock = 0;
+        for (Tally tp : pieces) {
+            maxBlock = Math.max(maxBlock, tp.nbytes + tp.narrays * t.headerBytes());
+        }
+        var nthreads = Math.min(npieces, Runtime.getRuntime().availableProcessors());
+        return new ExportEstimate(t.fileBytes(), IO_BYTES + nthreads * maxBlock);
+    }
+
+    /**
+     * Estimate for EVTK.pointsToVTK with the default options.
+     *
+     * @param npoints: number of points.
+     * @param pointData: point data container, it can be null.
+     */
+    public static ExportEstimate pointsToVTK(long npoints, GridData pointData) {
+        return pointsToVTK(npoints, pointData, new ExportOptions());
+    }
+
+    /**
+     * Estimate for EVTK.pointsToVTK, with coordinates given either by arrays or by views.
+     * Points given by views are never reordered, so setSpaceFillingCurve does not change their estimate.
+     * See pointsToVTK above for a description of the other parameters.
+     *
+     * @param options: options used to write the grid.
+     */
+    public static ExportEstimate pointsToVTK(long npoints, GridData pointData, ExportOptions options) {
+        var file = unstructuredFile(npoints, npoints, npoints, null, pointData, options);
+        return new ExportEstimate(file, IO_BYTES + pointsTemporaries(npoints, pointData, options));
+    }
+
+    /**
+     * Estimate for EVTK.pointCloudLevelsToVTK.
+     * The size of the levels depends on the distribution of the points, so the size of the files is an upper
+     * bound where the level L has npoints / 8^(nlevels - 1 - L) points.
+     *
+     * @param npoints: number of points.
+     * @param nlevels: maximum number of levels.
+     * @param pointData: point data container, it can be null.
+     * @param options: options used to write each level.
+     */
+    public static ExportEstimate pointCloudLevelsToVTK(long npoints, int nlevels, GridData pointData,
+                                                       ExportOptions options) {
+        var file = HEADER_BYTES + nlevels * ARRAY_DECLARATION_BYTES;
+        for (int level = 0; level < nlevels; level++) {
+            var n = Math.max(1, Math.min(npoints, (long) (npoints / Math.pow(8, nlevels - 1 - level))));
+            file += pointsToVTK(n, pointData, options).fileBytes;
+        }
+        return new ExportEstimate(file, IO_BYTES + pointCloudLevelsTemporaries(npoints, pointData, options));
+    }
+
+    /**
+     * Estimate for EVTK.overlappingAMRToVTK, i.e. the image files of all boxes and the hierarchy file.
+     * The temporary memory includes the boxes that are written at the same time.
+     *
+     * @param boxes: boxes of all levels, see AMRBox.
+     * @param options: options used to write each box.
+     */
+    public static ExportEstimate overlappingAMRToVTK(List<AMRBox> boxes, ExportOptions options) {
+        var file = HEADER_BYTES;
+        long maxMemory = 0;
+        for (AMRBox box : boxes) {
+            var e = imageToVTK(box.ncells, box.cellData, box.pointData, options);
+            file += e.fileBytes + ARRAY_DECLARATION_BYTES;
+            maxMemory = Math.max(maxMemory, e.transientBytes);
+        }
+        var nthreads = Math.max(1, Math.min(boxes.size(), Runtime.getRuntime().availableProcessors()));
+        return new ExportEstimate(file, nthreads * maxMemory);
+    }
+
+    /**
+     * Estimate for EVTK.hyperTreeGridToVTK.
+     *
+     * @param npoints: number of points of the grid of root cells in each direction as a int[3].
+     * @param refined: refine flag of the cells of each tree in breadth-first order.
+     * @param cellData: cell data container, it can be null.
+     * @param options: options used to write the grid.
+     */
+    public static ExportEstimate hyperTreeGridToVTK(int[] npoints, boolean[][] refined, GridData cellData,
+                                                    ExportOptions options) {
+        var levels = EVTK.treeLevels(refined, npoints);
+        var t = new Tally(options);
+        t.origin(options);
+        for (int d = 0; d < 3; d++) {
+            t.array(npoints[d] * options.getPrecision().sizeof());
+        }
+        if (cellData != null) {
+            t.largest(cellData.maxArrayBytes(options.getPrecision()));
+        }
+        for (long[] l : levels) {
+            var nvertices = sum(l);
+            t.piece();
+            t.array((nvertices - l[l.length - 1] + 7) / 8);
+            t.array(8L * l.length);
+            t.data(cellData, nvertices);
+        }
+        return new ExportEstimate(t.fileBytes(), IO_BYTES + hyperTreeTemporaries(levels, cellData));
+    }
+
+    /**
+     * Estimate for EVTK.cylinderToVTK with the default options.
+     *
+     * @param nlayers: number of layers.
+     * @param npilars: number of pilars.
+     * @param cellData: cell data container, it can be null.
+     * @param pointData: point data container, it can be null.
+     */
+    public static ExportEstimate cylinderToVTK(int nlayers, int npilars, GridData cellData, GridData pointData) {
+        return cylinderToVTK(nlayers, npilars, cellData, pointData, new ExportOptions());
+    }
+
+    /**
+     * Estimate for EVTK.cylinderToVTK.
+     * See cylinderToVTK above for a description of the other parameters.
+     *
+     * @param options: options used to write the grid.
+     */
+    public static ExportEstimate cylinderToVTK(int nlayers, int npilars, GridData cellData, GridData pointData,
+                                               ExportOptions options) {
+        var npoints = (long) npilars * (nlayers + 1);
+        var ncells = (long) npilars * nlayers;
+        var file = unstructuredFile(npoints, 4 * ncells, ncells, cellData, pointData, options);
+        return new ExportEstimate(file, IO_BYTES + cylinderTemporaries(nlayers, npilars, cellData, pointData, options));
+    }
+
+    /**
+     * Estimate for EVTK.linesToVTK with the default options.
+     *
+     * @param npoints: number of points, i.e. 2 * number of lines.
+     * @param cellData: cell data container, it can be null.
+     * @param pointData: point data container, it can be null.
+     */
+    public static ExportEstimate linesToVTK(long npoints, GridData cellData, GridData pointData) {
+        return linesToVTK(npoints, cellData, pointData, new ExportOptions());
+    }
+
+    /**
+     * Estimate for EVTK.linesToVTK.
+     * See linesToVTK above for a description of the other parameters.
+     *
+     * @param options: options used to write the grid.
+     */
+    public static ExportEstimate linesToVTK(long npoints, GridData cellData, GridData pointData, ExportOptions options) {
+        return new ExportEstimate(unstructuredFile(npoints, npoints, npoints / 2, cellData, pointData, options), IO_BYTES);
+    }
+
+    /**
+     * Estimate for EVTK.polylinesToVTK with the default options.
+     *
+     * @param npoints: number of points.
+     * @param nlines: number of lines.
+     * @param cellData: cell data container, it can be null.
+     * @param pointData: point data container, it can be null.
+     */
+    public static ExportEstimate polylinesToVTK(long npoints, long nlines, GridData cellData, GridData pointData) {
+        return polylinesToVTK(npoints, nlines, cellData, pointData, new ExportOptions());
+    }
+
+    /**
+     * Estimate for EVTK.polylinesToVTK.
+     * See polylinesToVTK above for a description of the other parameters.
+     *
+     * @param options: options used to write the grid.
+     */
+    public static ExportEstimate polylinesToVTK(long npoints, long nlines, GridData cellData, GridData pointData,
+                                                ExportOptions options) {
+        return new ExportEstimate(unstructuredFile(npoints, npoints, nlines, cellData, pointData, options), IO_BYTES);
+    }
+
+    /**
+     * Estimate for EVTK.polygonsToVTK with the default options.
+     *
+     * @param npoints: number of points.
+     * @param npolygons: number of polygons.
+     * @param cellData: cell data container, it can be null.
+     * @param pointData: point data container, it can be null.
+     */
+    public static ExportEstimate polygonsToVTK(long npoints, long npolygons, GridData cellData, GridData pointData) {
+        return polygonsToVTK(npoints, npolygons, cellData, pointData, new ExportOptions());
+    }
+
+    /**
+     * Estimate for EVTK.polygonsToVTK.
+     * When points are merged, the number of merged points depends on the coordinates, so the size of the file
+     * is an upper bound where no points are merged.
+     * See polygonsToVTK above for a description of the other parameters.
+     *
+     * @param options: options used to write the grid.
+     */
+    public static ExportEstimate polygonsToVTK(long npoints, long npolygons, GridData cellData, GridData pointData,
+                                               ExportOptions options) {
+        // polygons are closed by repeating their first point in the connectivity, unless points are merged
+        var nconnectivity = (options.getWeldTolerance() >= 0.0) ? npoints : npoints + npolygons;
+        var file = unstructuredFile(npoints, nconnectivity, npolygons, cellData, pointData, options);
+        return new ExportEstimate(file, IO_BYTES + polygonsTemporaries(npoints, pointData, options));
+    }
+
+    /**
+     * Estimate for EVTK.polyDataToVTK with the default options.
+     *
+     * @param npoints: number of points.
+     * @param nconnectivity: length of the connectivity array.
+     * @param npolygons: number of polygons.
+     * @param cellData: cell data container, it can be null.
+     * @param pointData: point data container, it can be null.
+     */
+    public static ExportEstimate polyDataToVTK(long npoints, long nconnectivity, long npolygons,
+                                               GridData cellData, GridData pointData) {
+        return polyDataToVTK(npoints, nconnectivity, npolygons, cellData, pointData, new ExportOptions());
+    }
+
+    /**
+     * Estimate for EVTK.polyDataToVTK.
+     * See polyDataToVTK above for a description of the other parameters.
+     *
+     * @param options: options used to write the surface.
+     */
+    public static ExportEstimate polyDataToVTK(long npoints, long nconnectivity, long npolygons,
+                                               GridData cellData, GridData pointData, ExportOptions options) {
+        var t = new Tally(options);
+        t.origin(options);
+        t.piece();
+        t.data(cellData, npolygons);
+        t.data(pointData, npoints);
+        t.cells(npoints, nconnectivity, npolygons, false, options);
+        return new ExportEstimate(t.fileBytes(), IO_BYTES);
+    }
+
+    /*
+     * Temporary arrays allocated by each writer, without the IO buffers. These are the sizes that writers
+     * reserve from the MemoryGovernor, together with IO_BYTES.
+     */
+
+    /** Returns the size of the values of the written region of an image, see ExportOptions.setRegion. */
+    static long imageTemporaries(int[] ncells, GridData cellData, GridData pointData, ExportOptions options) {
+        return gathered(options.sampling(npoints(ncells)), cellData, pointData);
+    }
+
+    /** Returns the size of the values and coordinates of the written region of a rectilinear grid. */
+    static long rectilinearTemporaries(int[] ncells, GridData cellData, GridData pointData, ExportOptions options) {
+        var sampling = options.sampling(npoints(ncells));
+        var n = gathered(sampling, cellData, pointData);
+        if (!sampling.isWhole()) {
+            for (int p = 0; p < sampling.npieces(); p++) {
+                n += 8L * (sampling.npoints(p, 0) + sampling.npoints(p, 1) + sampling.npoints(p, 2));
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the size of the values of the written region of a structured grid and of the row of coordinates
+     * that is converted at a time.
+     */
+    static long structuredTemporaries(int[] ncells, GridData cellData, GridData pointData, ExportOptions options) {
+        var sampling = options.sampling(npoints(ncells));
+        long row = 0;
+        for (int p = 0; p < sampling.npieces(); p++) {
+            row = Math.max(row, 3 * 8L * sampling.npoints(p, 0));
+        }
+        return gathered(sampling, cellData, pointData) + row;
+    }
+
+    /**
+     * Returns the size of the arrays of a grid that is compacted or reordered along a space filling curve,
+     * see ExportOptions.setCompactionTolerance and ExportOptions.setSpaceFillingCurve.
+     * Compaction is tried first, and its arrays are released if it does not apply.
+     */
+    static long unstructuredTemporaries(long npoints, long nconnectivity, long ncells,
+                                        GridData cellData, GridData pointData, ExportOptions options) {
+        long compaction = 0;
+        if (options.getCompactionTolerance() >= 0.0) {
+            // sorted copy and distinct values of an axis, index of the points along each axis,
+            // map of grid points and grid cells, and data in the order of the rectilinear grid
+            compaction = 8 * npoints + 4 * npoints + 3 * 4 * npoints + 4 * npoints + 4 * ncells +
+                    stored(cellData, ncells) + stored(pointData, npoints);
+            if (options.samples()) {
+                compaction += stored(cellData, ncells) + stored(pointData, npoints);
+            }
+        }
+
+        long reordering = 0;
+        if (options.getSpaceFillingCurve() != null) {
+            // sorted points, their inverse order and the renumbered connectivity
+            reordering = reorderedPoints(npoints, pointData) + 4 * npoints + 4 * nconnectivity;
+            if (options.getReorderCells()) {
+                // centroids, sorted cells, offsets, types and cell data
+                reordering += 3 * 8 * ncells + SORT_BYTES * ncells + 4 * ncells + REFERENCE_BYTES * ncells +
+                        stored(cellData, ncells);
+            }
+        }
+        return Math.max(compaction, reordering);
+    }
+
+    /** Returns the size of the sorted points written by pointsToVTK, see ExportOptions.setSpaceFillingCurve. */
+    static long pointsTemporaries(long npoints, GridData pointData, ExportOptions options) {
+        return (options.getSpaceFillingCurve() != null) ? reorderedPoints(npoints, pointData) : 0;
+    }
+
+    /** Returns the size of the merged points written by polygonsToVTK, see ExportOptions.setWeldTolerance. */
+    static long polygonsTemporaries(long npoints, GridData pointData, ExportOptions options) {
+        if (options.getWeldTolerance() < 0.0) return 0;
+        // keys, target, kept, points and index of each point, and the coordinates and data of merged points
+        return 8 * npoints + 4 * 4 * npoints + 3 * 8 * npoints + stored(pointData, npoints);
+    }
+
+    /** Returns the size of the octree, of the largest level and of the arrays used to write it. */
+    static long pointCloudLevelsTemporaries(long npoints, GridData pointData, ExportOptions options) {
+        // keys, sorted keys and order of the points
+        var octree = SORT_BYTES * npoints + 8 * npoints;
+        // first point of each node, representative points, their coordinates and their data
+        var level = 4 * npoints + 4 * npoints + 3 * 8 * npoints + stored(pointData, npoints);
+        return octree + level + pointsTemporaries(npoints, pointData, options);
+    }
+
+    /**
+     * Returns the size of the number of cells of each level and of the data of each tree of a hyper tree grid,
+     * and of the descriptor of the largest tree packed in bits.
+     *
+     * @param levels: number of cells of each level of each tree, see EVTK.treeLevels.
+     */
+    static long hyperTreeTemporaries(long[][] levels, GridData cellData) {
+        long nlevels = 0, nvertices = 0, maxBits = 0;
+        for (long[] l : levels) {
+            nlevels += l.length;
+            nvertices += sum(l);
+            maxBits = Math.max(maxBits, sum(l) - l[l.length - 1]);
+        }
+        return 8 * nlevels + stored(cellData, nvertices) + (maxBits + 7) / 8;
+    }
+
+    /** Returns the size of the arrays allocated by cylinderToVTK, including the ones of unstructuredGridToVTK. */
+    static long cylinderTemporaries(int nlayers, int npilars, GridData cellData, GridData pointData,
+                                    ExportOptions options) {
+        var npoints = (long) npilars * (nlayers + 1);
+        var ncells = (long) npilars * nlayers;
+        var cylinder = 3 * 8L * npilars + 8L * (nlayers + 1) + 3 * 8L * npoints +
+                4 * 4L * ncells + 4L * ncells + REFERENCE_BYTES * ncells;
+        return cylinder + unstructuredTemporaries(npoints, 4 * ncells, ncells, cellData, pointData, options);
+    }
+
+    // Helper class: arrays written to the appended section of a file, from which the type of the size written
+    // before each array and the size of the file follow, see VTKWriter.headerType.
+    private static final class Tally {
+        private final VTK_DATA_TYPE precision;
+        private final boolean narrow;
+        private long npieces = 0, narrays = 0, nbytes = 0, maxBytes = 0;
+
+        Tally(ExportOptions options) {
+            precision = options.getPrecision();
+            narrow = options.getNarrowIntegers();
+        }
+
+        // Adds a piece of a grid or a tree of a hyper tree grid.
+        void piece() {
+            npieces++;
+        }
+
+        // Adds an array of n bytes.
+        void array(long n) {
+            narrays++;
+            nbytes += n;
+            largest(n);
+        }
+
+        // Adds the arrays of the variables in data with n values each.
+        void data(GridData data, long n) {
+            if (data == null) return;
+            narrays += data.size();
+            nbytes += n * data.elementBytes(precision, narrow);
+            largest(n * data.maxElementBytes(precision));
+        }
+
+        // Adds the origin of re-centered coordinates, see ExportOptions.setOrigin.
+        void origin(ExportOptions options) {
+            if (options.recenters()) array(3 * VTK_DATA_TYPE.FLOAT64.sizeof());
+        }
+
+        // Adds the points, connectivity, offsets and, optionally, cell types of an unstructured grid or poly data.
+        void cells(long npoints, long nconnectivity, long ncells, boolean types, ExportOptions options) {
+            array(npoints * 3 * precision.sizeof());
+            array(nconnectivity * options.indexType(0, Math.max(npoints - 1, 0)).sizeof());
+            array(ncells * options.indexType(0, nconnectivity).sizeof());
+            if (types) array(ncells * VTK_DATA_TYPE.UINT8.sizeof());
+        }
+
+        // Takes into account an array of n bytes that is not written, but that determines the header type.
+        void largest(long n) {
+            maxBytes = Math.max(maxBytes, n);
+        }
+
+        long headerBytes() {
+            return VTKWriter.headerType(maxBytes).sizeof();
+        }
+
+        long fileBytes() {
+            return HEADER_BYTES + PIECE_BYTES * npieces + ARRAY_DECLARATION_BYTES * narrays +
+                    nbytes + narrays * headerBytes();
+        }
+    }
+
+    // Helper functions.
+    private static int[] npoints(int[] ncells) {
+        return new int[]{ncells[0] + 1, ncells[1] + 1, ncells[2] + 1};
+    }
+
+    // One file per piece of a sampling: a grid is written as a single piece, unless it is sliced, and then each
+    // slice is written to its own file and listed in a group file, see EVTK.slicesToVTK.
+    private static Tally[] files(Sampling sampling, ExportOptions options) {
+        var files = new Tally[sampling.npieces()];
+        for (int f = 0; f < files.length; f++) files[f] = new Tally(options);
+        return files;
+    }
+
+    private static long fileBytes(Sampling sampling, Tally[] files) {
+        if (!sampling.isSliced()) return files[0].fileBytes();
+        var n = HEADER_BYTES + files.length * ARRAY_DECLARATION_BYTES;
+        for (Tally t : files) n += t.fileBytes();
+        return n;
+    }
+
+    private static long unstructuredFile(long npoints, long nconnectivity, long ncells,
+                                         GridData cellData, GridData pointData, ExportOptions options) {
+        var t = new Tally(options);
+        t.origin(options);
+        t.piece();
+        t.data(cellData, ncells);
+        t.data(pointData, npoints);
+        t.cells(npoints, nconnectivity, ncells, true, options);
+        return t.fileBytes();
+    }
+
+    // Size of the values of data when they are copied, e.g. by GridData.gather.
+    private static long stored(GridData data, long n) {
+        return (data != null) ? n * data.elementBytes(VTK_DATA_TYPE.FLOAT64, false) : 0;
+    }
+
+    // Size of the values of the pieces of a sampled grid, which are copies unless the whole grid is written,
+    // and of the index lookup tables used to gather them.
+    private static long gathered(Sampling sampling, GridData cellData, GridData pointData) {
+        if (sampling.isWhole()) return 0;
+        long n = 0;
+        for (int p = 0; p < sampling.npieces(); p++) {
+            n += stored(cellData, sampling.ncells(p)) + stored(pointData, sampling.npoints(p));
+            n += 2 * 8L * (sampling.npoints(p, 0) + sampling.npoints(p, 1) + sampling.npoints(p, 2));
+        }
+        return n;
+    }
+
+    // Size of the sorted points with their data, see Reordering.
+    private static long reorderedPoints(long npoints, GridData pointData) {
+        return SORT_BYTES * npoints + 3 * 8 * npoints + stored(pointData, npoints);
+    }
+
+    private static long sum(long[] a) {
+        long s = 0;
+        for (long v : a) {
+            s += v;
+        }
+        return s;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2009-2020 Paulo A. Herrera <paulo.herrera.eirl at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level;
+
+import com.iidp.vtk.low_level.ArrayView;
+import com.iidp.vtk.low_level.BigDoubleArray;
+import com.iidp.vtk.low_level.VTK_DATA_TYPE;
+
+import java.util.Arrays;
+
+/**
+ * Options that control how the writers in EVTK export a grid.
+ * <p>
+ * The default options write files exactly as the EVTK methods without options.
+ * Options are set with chained calls, e.g.
+ * <pre>
+ *   var options = new ExportOptions().setPrecision(VTK_DATA_TYPE.FLOAT32).setAutoOrigin(true);
+ *   EVTK.pointsToVTK("points", x, y, z, pointData, comments, options);
+ * </pre>
+ */
+public class ExportOptions {
+    /** Name of the field data array where the origin of re-centered coordinates is stored. */
+    public static final String ORIGIN_ARRAY = "CoordinatesOrigin";
+
+    private VTK_DATA_TYPE precision = VTK_DATA_TYPE.FLOAT64;
+    private double[] origin = null;
+    private boolean autoOrigin = false;
+    private boolean narrowIntegers = false;
+    private int[] regionStart = null, regionEnd = null;
+    private int[] stride = null;
+    private int sliceAxis = -1;
+    private int[] slices = null;
+    private double weldTolerance = -1.0;
+    private SPACE_FILLING_CURVE curve = null;
+    private boolean reorderCells = false;
+    private double compactionTolerance = -1.0;
+
+    /**
+     * Sets the type used to write coordinates and double variables.
+     *
+     * @param type: either VTK_DATA_TYPE.FLOAT64 (default) or VTK_DATA_TYPE.FLOAT32, which halves the size of
+     *              these arrays but only keeps around 7 significant digits.
+     * @return this ExportOptions.
+     */
+    public ExportOptions setPrecision(VTK_DATA_TYPE type) {
+        assert (type == VTK_DATA_TYPE.FLOAT64) || (type == VTK_DATA_TYPE.FLOAT32);
+        precision = type;
+        return this;
+    }
+
+    /** Returns the type used to write coordinates and double variables. */
+    public VTK_DATA_TYPE getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Re-centers coordinates around an origin, i.e. the origin is subtracted from all coordinates before
+     * writing them. This keeps the precision of Float32 coordinates of grids that are far away from (0, 0, 0).
+     * It only applies to grids with explicit coordinates, i.e. it does not apply to images.
+     * The origin is stored in the file as a field data array named ORIGIN_ARRAY.
+     *
+     * @param _origin: origin as a double[3], or null to write coordinates as they are.
+     * @return this ExportOptions.
+     */
+    public ExportOptions setOrigin(double[] _origin) {
+        assert (_origin == null) || (_origin.length == 3);
+        origin = (_origin != null) ? _origin.clone() : null;
+        autoOrigin = false;
+        return this;
+    }
+
+    /**
+     * Re-centers coordinates around the center of the bounding box of the grid.
+     * See setOrigin.
+     *
+     * @param auto: if true, the origin is computed when the grid is written.
+     * @return this ExportOptions.
+     */
+    public ExportOptions setAutoOrigin(boolean auto) {
+        autoOrigin = auto;
+        if (auto) origin = null;
+        return this;
+    }
+
+    /**
+     * Writes integer arrays, i.e. connectivity, offsets and int variables, with the smallest type
+     * that can store all their values, e.g. UInt8 for flags or Int16 for small meshes.
+     * The range of each array is found with a parallel scan before it is declared.
+     *
+     * @param narrow: if true, integer arrays are narrowed, otherwise they are written as Int32.
+     * @return this ExportOptions.
+     */
+    public ExportOptions setNarrowIntegers(boolean narrow) {
+        narrowIntegers = narrow;
+        return this;
+    }
+
+    /** Returns true if integer arrays are written with the smallest type that can store their values. */
+    public boolean getNarrowIntegers() {
+        return narrowIntegers;
+    }
+
+    /**
+     * Writes only a region of an image, rectilinear or structured grid, e.g. to preview part of a large volume.
+     * The extent, origin and coordinates of the file are those of the region, i.e. its first point has index 0.
+     *
+     * @param start: index of the first point of the region in each direction as a int[3].
+     * @param end:   index of the last point of the region in each direction as a int[3] (included),
+     *               or null for the whole grid.
+     * @return this ExportOptions.
+     */
+    public ExportOptions setRegion(int[] start, int[] end) {
+        assert ((start == null) && (end == null)) || ((start.length == 3) && (end.length == 3));
+        regionStart = (start != null) ? start.clone() : null;
+        regionEnd = (end != null) ? end.clone() : null;
+        return this;
+    }
+
+    /**
+     * Writes every stride-th point of an image, rectilinear or structured grid in each direction.
+     * Cells of the written grid take the values of the first cell of the grid that they cover.
+     *
+     * @param _stride: distance between written points in each direction as a int[3], or null to write all points.
+     * @return this ExportOptions.
+     */
+    public ExportOptions setStride(int[] _stride) {
+        assert (_stride == null) || ((_stride.length == 3) && (_stride[0] > 0) && (_stride[1] > 0) && (_stride[2] > 0));
+        stride = (_stride != null) ? _stride.clone() : null;
+        return this;
+    }
+
+    /**
+     * Writes only axis-aligned slices of an image, rectilinear or structured grid, each one to its own file path_sliceS,
+     * where S is the position of the slice in indices, with its own extent. The files are listed in path.pvd, with
+     * the index of the slice point as time step, and the path of the .pvd file is returned.
+     * Slices are taken inside the region, and with the stride, set with setRegion and setStride.
+     * Cells of a slice take the values of the layer of cells after it, or before it for the last layer.
+     *
+     * @param axis:    direction normal to the slices, i.e. 0, 1 or 2 for x, y or z.
+     * @param indices: index of the points of the grid where slices are taken, or null to write whole volumes.
+     * @return this ExportOptions.
+     */
+    public ExportOptions setSlices(int axis, int... indices) {
+        assert (0 <= axis) && (axis < 3);
+        sliceAxis = (indices != null) ? axis : -1;
+        slices = (indices != null) ? indices.clone() : null;
+        return this;
+    }
+
+    /**
+     * Merges points that are closer than a tolerance before writing polygons with EVTK.polygonsToVTK, e.g. the
+     * repeated vertices of a triangle soup. Point data takes the values of the first merged point, and
+     * polygons are written without repeating their first point at the end of the connectivity.
+     *
+     * @param tolerance: maximum distance between merged points, 0 to only merge points with the same
+     *                   coordinates, or a negative value to write all points (default).
+     * @return this ExportOptions.
+     */
+    public ExportOptions setWeldTolerance(double tolerance) {
+        weldTolerance = tolerance;
+        return this;
+    }
+
+    /** Returns the weld tolerance, which is negative if points are not merged. */
+    public double getWeldTolerance() {
+        return weldTolerance;
+    }
+
+    /**
+     * Sorts points, and optionally cells, along a space filling curve before they are written by EVTK.pointsToVTK
+     * and EVTK.unstructuredGridToVTK, so points that are close in space are also close in the file. This improves
+     * the compression of the file and the memory locality of readers. Connectivity, cell data and point data
+     * are permuted consistently. Cells are sorted by their centroid.
+     *
+     * @param _curve: curve used to sort points, or null to write them in the given order (default).
+     * @param cells:  if true, cells are also sorted, otherwise they are written in the given order.
+     * @return this ExportOptions.
+     */
+    public ExportOptions setSpaceFillingCurve(SPACE_FILLING_CURVE _curve, boolean cells) {
+        curve = _curve;
+        reorderCells = (_curve != null) && cells;
+        return this;
+    }
+
+    /** Returns the curve used to sort points, or null if they are not sorted. */
+    public SPACE_FILLING_CURVE getSpaceFillingCurve() {
+        return curve;
+    }
+
+    /** Returns true if cells are sorted along the space filling curve. */
+    public boolean getReorderCells() {
+        return reorderCells;
+    }
+
+    /**
+     * Writes grids in a more compact form when it does not lose information: EVTK.structuredGridToVTK writes
+     * axis aligned grids as rectilinear grids, EVTK.rectilinearGridToVTK writes evenly spaced axes as images,
+     * and EVTK.unstructuredGridToVTK writes meshes of hexahedra or voxels that are the cells of a rectilinear
+     * grid as rectilinear grids, with cell data and point data in the order of the grid. The downgraded grid is
+     * written with the other options, and the extension of the returned path is the one of its file.
+     *
+     * @param tolerance: maximum difference between coordinates that are considered equal, 0 to only accept
+     *                   exact coordinates, or a negative value to always write the given grid (default).
+     * @return this ExportOptions.
+     */
+    public ExportOptions setCompactionTolerance(double tolerance) {
+        compactionTolerance = tolerance;
+        return this;
+    }
+
+    /** Returns the compaction tolerance, which is negative if grids are written as they are given. */
+    public double getCompactionTolerance() {
+        return compactionTolerance;
+    }
+
+    /**
+     * Returns the points and cells that are written of a grid with the given number of points in each direction.
+     */
+    Sampling sampling(int[] npoints) {
+        var start = (regionStart != null) ? regionStart : new int[]{0, 0, 0};
+        var end = (regionEnd != null) ? regionEnd : new int[]{npoints[0] - 1, npoints[1] - 1, npoints[2] - 1};
+        var s = (stride != null) ? stride : new int[]{1, 1, 1};
+        return new Sampling(npoints, start, end, s, sliceAxis, slices);
+    }
+
+    /**
+     * Returns true if only part of an image, rectilinear or structured grid is written, see setRegion,
+     * setStride and setSlices.
+     */
+    boolean samples() {
+        return (regionStart != null) || (stride != null) || (slices != null);
+    }
+
+    /**
+     * Returns true if coordinates are re-centered, in which case the origin is written as field data.
+     */
+    boolean recenters() {
+        return (origin != null) || autoOrigin;
+    }
+
+    /**
+     * Returns the type used to write an array of indices, e.g. connectivity or offsets.
+     */
+    VTK_DATA_TYPE indexType(int[] a) {
+        return narrowIntegers ? VTK_DATA_TYPE.narrowest(a) : VTK_DATA_TYPE.INT32;
+    }
+
+    /**
+     * Returns the type used to write an array of indices whose values are in the given range.
+     * Indices that do not fit an Int32 are always written as Int64.
+     */
+    VTK_DATA_TYPE indexType(long min, long max) {
+        var t = VTK_DATA_TYPE.narrowest(min, max);
+        if (narrowIntegers || t == VTK_DATA_TYPE.INT64) return t;
+        return VTK_DATA_TYPE.INT32;
+    }
+
+    /**
+     * Returns the origin used to re-center the given coordinates, or null if they are not re-centered.
+     */
+    double[] originFor(double[] x, double[] y, double[] z) {
+        return originFor(new double[][]{x}, new double[][]{y}, new double[][]{z});
+    }
+
+    /**
+     * Returns the origin used to re-center the coordinates of several pieces, or null if they are not re-centered.
+     */
+    double[] originFor(double[][] x, double[][] y, double[][] z) {
+        if (origin != null) return origin.clone();
+        if (!autoOrigin) return null;
+
+        return new double[]{center(x), center(y), center(z)};
+    }
+
+    /**
+     * Returns the origin used to re-center the coordinates of a structured grid, or null if they are not re-centered.
+     */
+    double[] originFor(double[][][] x, double[][][] y, double[][][] z) {
+        if (origin != null) return origin.clone();
+        if (!autoOrigin) return null;
+
+        return new double[]{center(flatten(x)), center(flatten(y)), center(flatten(z))};
+    }
+
+    /**
+     * Returns the origin used to re-center coordinates given by views, or null if they are not re-centered.
+     */
+    double[] originFor(ArrayView x, ArrayView y, ArrayView z) {
+        if (origin != null) return origin.clone();
+        if (!autoOrigin) return null;
+
+        return new double[]{center(x.range()), center(y.range()), center(z.range())};
+    }
+
+    /**
+     * Returns the origin used to re-center coordinates stored in big arrays, or null if they are not re-centered.
+     */
+    double[] originFor(BigDoubleArray x, BigDoubleArray y, BigDoubleArray z) {
+        if (origin != null) return origin.clone();
+        if (!autoOrigin) return null;
+
+        return new double[]{center(chunks(x)), center(chunks(y)), center(chunks(z))};
+    }
+
+    // Helper function: list of the chunks of a big array.
+    private static double[][] chunks(BigDoubleArray a) {
+        var c = new double[a.nchunks()][];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = a.chunk(i);
+        }
+        return c;
+    }
+
+    // Helper function: center of a range of values, or 0 if it is empty.
+    private static double center(double[] range) {
+        return (range[0] <= range[1]) ? 0.5 * (range[0] + range[1]) : 0.0;
+    }
+
+    // Helper function: list of the rows of a 3D array.
+    private static double[][] flatten(double[][][] a) {
+        return Arrays.stream(a).flatMap(Arrays::stream).toArray(double[][]::new);
+    }
+
+    // Helper function: center of the range of values in all arrays.
+    private static double center(double[][] a) {
+        var min = Double.POSITIVE_INFINITY;
+        var max = Double.NEGATIVE_INFINITY;
+        for (double[] ai : a) {
+            var s = Arrays.stream(ai).parallel().summaryStatistics();
+            min = Math.min(min, s.getMin());
+            max = Math.max(max, s.getMax());
+        }
+        return (min <= max) ? 0.5 * (min + max) : 0.0;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2009-2020 Paulo A. Herrera <paulo.herrera.eirl at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level;
+
+/**
+ * Global budget for the temporary memory used by the writers in EVTK.
+ * <p>
+ * Before allocating temporary arrays, every writer in EVTK reserves their size and the size of its IO buffers,
+ * as computed by ExportEstimate. Grids that a writer passes to another one, e.g. a compacted grid, are covered by
+ * the reservation of the first writer, while EVTK.overlappingAMRToVTK reserves memory for each box it writes.
+ * When the budget would be exceeded, writers wait until other writers finish or, if the policy
+ * is MEMORY_POLICY.STREAM and they support it, write their data on the fly without temporaries, which
+ * EVTK.unstructuredGridPiecesToVTK does by encoding its pieces one after the other.
+ * By default there is no budget and reservations are always granted.
+ * <p>
+ * Example:
+ * <pre>
+ *   MemoryGovernor.setBudget(2L &lt;&lt; 30, MEMORY_POLICY.STREAM);
+ * </pre>
+ */
+public class MemoryGovernor {
+    private static ByteBudget budget = null;
+    private static MEMORY_POLICY policy = MEMORY_POLICY.BLOCK;
+
+    /**
+     * Sets the global memory budget.
+     * Reservations made before calling this method are returned to the previous budget.
+     *
+     * @param nbytes: maximum number of bytes that writers can use for temporaries at the same time.
+     * @param _policy: what writers do when the budget would be exceeded.
+     */
+    public static synchronized void setBudget(long nbytes, MEMORY_POLICY _policy) {
+        budget = new ByteBudget(nbytes);
+        policy = _policy;
+    }
+
+    /** Removes the global memory budget. */
+    public static synchronized void clearBudget() {
+        budget = null;
+        policy = MEMORY_POLICY.BLOCK;
+    }
+
+    /**
+     * Reserves memory for temporaries.
+     *
+     * @param nbytes:     number of bytes needed by the writer.
+     * @param canStream:  true if the writer can proceed without temporaries.
+     * @return a reservation that must be closed when the temporaries are no longer used.
+     *         If the reservation is not granted, the writer must not allocate the temporaries.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public static Reservation reserve(long nbytes, boolean canStream) throws InterruptedException {
+        ByteBudget b;
+        MEMORY_POLICY p;
+        synchronized (MemoryGovernor.class) {
+            b = budget;
+            p = policy;
+        }
+
+        if (b == null) {
+            return new Reservation(null, 0, true);
+        }
+
+        if (canStream && p == MEMORY_POLICY.STREAM) {
+            var n = b.tryAcquire(nbytes);
+            return (n < 0) ? new Reservation(null, 0, false) : new Reservation(b, n, true);
+        }
+
+        var n = b.acquire(nbytes);
+        return new Reservation(b, n, true);
+    }
+
+    /**
+     * Memory reserved by a writer.
+     */
+    public static class Reservation implements AutoCloseable {
+        private final ByteBudget budget;
+        private final long nbytes;
+        private final boolean granted;
+
+        private Reservation(ByteBudget _budget, long _nbytes, boolean _granted) {
+            budget = _budget;
+            nbytes = _nbytes;
+            granted = _granted;
+        }
+
+        /** Returns true if the writer can allocate its temporaries, false if it must stream its data. */
+        public boolean isGranted() {
+            return granted;
+        }
+
+        /** Returns reserved memory to the budget. */
+        @Override
+        public void close() {
+            if (budget != null) budget.release(nbytes);
+        }
+    }
+}
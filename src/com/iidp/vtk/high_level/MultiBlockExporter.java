@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2009-2020 Paulo A. Herrera <paulo.herrera.eirl at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level;
+
+import com.iidp.vtk.low_level.VTKMultiBlock;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Writes several grids of any type as the blocks of a single multiblock file (.vtm), e.g. the grids of
+ * the different models of a coupled simulation at one time step.
+ * <p>
+ * Each block is a job that calls one of the EVTK.xxxToVTK methods with the path given to it. Jobs run
+ * concurrently as soon as they are added, and the hierarchy of blocks is written when this writer is closed,
+ * in the order in which the blocks were added. Grid files are saved in a directory with the same name
+ * as the multiblock file. Example:
+ * <pre>
+ *   try (var mb = new MultiBlockExporter("step_10")) {
+ *       mb.addBlock("atmosphere", p -&gt; EVTK.imageToVTK(p, ncells, origin, spacing, cellData, null, null));
+ *       mb.addBlock("ocean", p -&gt; EVTK.unstructuredGridToVTK(p, x, y, z, connectivity, offsets, types, null, null, null));
+ *       mb.addBlock("coast", "lines", p -&gt; EVTK.polylinesToVTK(p, lx, ly, lz, pointsPerLine, null, null, null));
+ *   }
+ * </pre>
+ */
+public class MultiBlockExporter implements AutoCloseable {
+
+    /**
+     * Export of a single block. It should save the grid to the given path and return the full path of the saved file.
+     */
+    public interface BlockJob {
+        String export(String path) throws Exception;
+    }
+
+    private final String path;
+    private final File directory;
+    private final VTKMultiBlock multiblock;
+    private final Map<String, VTKMultiBlock.Block> groups = new HashMap<>();
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;         // true if the executor is shut down by close
+    private final List<CompletableFuture<String>> jobs = new ArrayList<>();
+    private int nblocks = 0;
+
+    /**
+     * Creates a writer that runs one job for each available processor at the same time.
+     *
+     * @param _path: path to where the multiblock file should be saved without extension.
+     */
+    public MultiBlockExporter(String _path) {
+        this(_path, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()), true);
+    }
+
+    /**
+     * Creates a writer that runs jobs on the given executor.
+     * The executor belongs to the caller and is not shut down when this writer is closed.
+     *
+     * @param _path:    path to where the multiblock file should be saved without extension.
+     * @param _executor: executor used to run the jobs.
+     */
+    public MultiBlockExporter(String _path, ExecutorService _executor) {
+        this(_path, _executor, false);
+    }
+
+    private MultiBlockExporter(String _path, ExecutorService _executor, boolean owned) {
+        path = _path;
+        directory = new File(path);
+        multiblock = new VTKMultiBlock(new File(path + ".vtm"));
+        executor = _executor;
+        ownsExecutor = owned;
+    }
+
+    /**
+     * Adds a top level block.
+     *
+     * @param name: name of the block, which is shown by readers.
+     * @param job:  export of the grid of the block.
+     * @return a future with the full path of the saved grid file.
+     */
+    public CompletableFuture<String> addBlock(String name, BlockJob job) {
+        return addBlock(multiblock.getRoot(), name, job);
+    }
+
+    /**
+     * Adds a block to a named list of blocks, which is created the first time it is used.
+     *
+     * @param group: name of the list of blocks.
+     * @param name:  name of the block, which is shown by readers.
+     * @param job:   export of the grid of the block.
+     * @return a future with the full path of the saved grid file.
+     */
+    public CompletableFuture<String> addBlock(String group, String name, BlockJob job) {
+        VTKMultiBlock.Block parent;
+        synchronized (groups) {
+            parent = groups.computeIfAbsent(group, g -> multiblock.getRoot().addBlock(g));
+        }
+        return addBlock(parent, name, job);
+    }
+
+    /**
+     * Waits until all blocks are written, writes the multiblock file and releases the threads created by this writer.
+     *
+     * @throws ExecutionException wrapping the exception thrown by the first job that failed, in which case the
+     *                            multiblock file is not written. If the wait was interrupted, the interrupt
+     *                            flag is restored.
+     */
+    @Override
+    public void close() throws ExecutionException {
+        try {
+            List<CompletableFuture<String>> submitted;
+            synchronized (jobs) {
+                submitted = new ArrayList<>(jobs);
+            }
+
+            ExecutionException error = null;
+            for (CompletableFuture<String> f : submitted) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (error == null) error = e;
+                }
+            }
+            if (error != null) throw error;
+
+            multiblock.close();
+        } catch (ExecutionException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        } catch (Exception e) {
+            throw new ExecutionException(e);
+        } finally {
+            if (ownsExecutor) executor.shutdown();
+        }
+    }
+
+    /** Returns the full path of the multiblock file. */
+    public String getPath() {
+        return path + ".vtm";
+    }
+
+    // Helper function: reserves the position of the block and runs its job.
+    private CompletableFuture<String> addBlock(VTKMultiBlock.Block parent, String name, BlockJob job) {
+        int b;
+        synchronized (jobs) {
+            b = nblocks++;
+        }
+        var index = parent.reserveDataSet();
+        var blockPath = new File(directory, directory.getName() + "_" + b).getPath();
+        var future = new CompletableFuture<String>();
+        synchronized (jobs) {
+            jobs.add(future);
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    directory.mkdirs();
+                    var saved = job.export(blockPath);
+                    parent.setDataSet(index, name, directory.getName() + "/" + new File(saved).getName());
+                    future.complete(saved);
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (jobs) {
+                jobs.remove(future);
+            }
+            parent.releaseDataSet(index);
+            future.completeExceptionally(e);
+            throw e;
+        }
+
+        return future;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2009-2020 Paulo A. Herrera <paulo.herrera.eirl at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level;
+
+import java.util.stream.IntStream;
+
+/**
+ * Octree of a point cloud used to write levels of detail, see EVTK.pointCloudLevelsToVTK.
+ * <p>
+ * The octree is not stored as nodes. Points are sorted along a Morton curve with Reordering, so the points
+ * of each node at depth d are consecutive and share the first 3 * d bits of their keys. Nodes at any depth
+ * are found with a parallel scan of the sorted keys. The number of nodes at every depth is counted once,
+ * in a single scan, when the octree is built.
+ */
+final class Octree {
+    /** Maximum depth of the octree, i.e. nodes at this depth have the resolution of the quantized coordinates. */
+    static final int MAX_DEPTH = Reordering.BITS;
+
+    private final double[] x, y, z;
+    private final double[] bounds;
+    private final int[] order;       // index of the points sorted along the curve
+    private final long[] keys;       // sorted keys
+    private final int[] nnodes;      // number of nodes at each depth that contain points
+
+    Octree(double[] _x, double[] _y, double[] _z) {
+        assert (_x.length == _y.length) && (_x.length == _z.length);
+        x = _x;
+        y = _y;
+        z = _z;
+        bounds = Reordering.bounds(x, y, z);
+        var k = Reordering.keys(SPACE_FILLING_CURVE.MORTON, x, y, z, bounds);
+        order = Reordering.order(k);
+        keys = new long[k.length];
+        IntStream.range(0, k.length).parallel().forEach(i -> keys[i] = k[order[i]]);
+        nnodes = countNodes(keys);
+    }
+
+    /** Returns the number of points. */
+    int npoints() {
+        return order.length;
+    }
+
+    /** Returns the number of nodes at the given depth that contain points. */
+    int nnodes(int depth) {
+        return nnodes[depth];
+    }
+
+    /**
+     * Returns the deepest depth whose number of nodes is not larger than maxNodes, or 0.
+     */
+    int depthFor(long maxNodes) {
+        var depth = 0;
+        while (depth < MAX_DEPTH && nnodes(depth + 1) <= maxNodes) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Returns one representative point for each node at the given depth, i.e. the point closest to the center
+     * of the node. Points are returned as their index in the input arrays, sorted along the curve.
+     */
+    int[] representatives(int depth) {
+        var first = IntStream.range(0, keys.length).parallel().filter(i -> isFirst(i, depth)).toArray();
+        final int nnodes = first.length;
+        final int half = (depth < MAX_DEPTH) ? 1 << (MAX_DEPTH - depth - 1) : 0;
+        final int mask = ~((1 << (MAX_DEPTH - depth)) - 1);
+
+        var points = new int[nnodes];
+        IntStream.range(0, nnodes).parallel().forEach(n -> {
+            final int end = (n + 1 < nnodes) ? first[n + 1] : keys.length;
+            var best = order[first[n]];
+            var bestDistance = Long.MAX_VALUE;
+            for (int i = first[n]; i < end; i++) {
+                final int p = order[i];
+                var q = quantized(p);
+                var d = 0L;
+                for (int c = 0; c < 3; c++) {
+                    long dc = q[c] - ((q[c] & mask) + half);
+                    d += dc * dc;
+                }
+                if (d < bestDistance) {
+                    bestDistance = d;
+                    best = p;
+                }
+            }
+            points[n] = best;
+        });
+        return points;
+    }
+
+    // Helper function: number of nodes at each depth. Sorted point i starts a new node at every depth from
+    // the shallowest one where its key differs from the key of point i - 1, so a histogram of these depths
+    // gives the counts of all depths in a single parallel pass.
+    private static int[] countNodes(long[] keys) {
+        var starts = IntStream.range(1, keys.length).parallel().collect(() -> new int[MAX_DEPTH + 1], (h, i) -> {
+            var diff = keys[i] ^ keys[i - 1];
+            if (diff != 0) {
+                var bit = 63 - Long.numberOfLeadingZeros(diff);
+                h[MAX_DEPTH - bit / 3]++;
+            }
+        }, (h1, h2) -> {
+            for (int d = 0; d <= MAX_DEPTH; d++) {
+                h1[d] += h2[d];
+            }
+        });
+
+        var counts = new int[MAX_DEPTH + 1];
+        var n = (keys.length > 0) ? 1 : 0;
+        for (int d = 0; d <= MAX_DEPTH; d++) {
+            n += starts[d];
+            counts[d] = n;
+        }
+        return counts;
+    }
+
+    // True if sorted point i is the first point of its node at the given depth.
+    private boolean isFirst(int i, int depth) {
+        if (i == 0) return true;
+        final int shift = 3 * (MAX_DEPTH - depth);  // at most 63, since keys have 3 * MAX_DEPTH bits
+        return (keys[i] >>> shift) != (keys[i - 1] >>> shift);
+    }
+
+    private int[] quantized(int p) {
+        return new int[]{
+                Reordering.quantize(x[p], bounds[0], bounds[1]),
+                Reordering.quantize(y[p], bounds[2], bounds[3]),
+                Reordering.quantize(z[p], bounds[4], bounds[5])};
+    }
+}
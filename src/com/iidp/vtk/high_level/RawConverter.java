@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2009-2020 Paulo A. Herrera <paulo.herrera.eirl at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level;
+
+import com.iidp.vtk.low_level.RawArray;
+import com.iidp.vtk.low_level.VTKWriter;
+import com.iidp.vtk.low_level.VTK_CELL_TYPE;
+import com.iidp.vtk.low_level.VTK_DATA_TYPE;
+import com.iidp.vtk.low_level.VTK_FILE_TYPE;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts raw binary files, e.g. the fields dumped by a solver, to VTK files without loading them in memory.
+ * <p>
+ * Each array is described by a RawArray, which maps its file by windows and streams it into the appended section,
+ * so the heap needed by a conversion does not depend on the size of the data. Values are written with the type
+ * they have in the raw file. Arrays are added with chained calls and then written as one of the grids below, e.g.
+ * <pre>
+ *   var layout = new RawLayout(VTK_DATA_TYPE.FLOAT32, 513, 513, 513).setByteOrder(ByteOrder.LITTLE_ENDIAN);
+ *   new RawConverter().addPointData("pressure", new RawArray(new File("p.raw"), layout))
+ *                     .imageToVTK("pressure", new int[]{512, 512, 512}, origin, spacing, null);
+ * </pre>
+ * For a command line version, see com.iidp.vtk.Convert.
+ */
+public class RawConverter {
+    private final List<String> pointNames = new ArrayList<>();
+    private final List<RawArray> pointArrays = new ArrayList<>();
+    private final List<String> cellNames = new ArrayList<>();
+    private final List<RawArray> cellArrays = new ArrayList<>();
+
+    /** Adds an array with one tuple for each point of the grid. */
+    public RawConverter addPointData(String name, RawArray a) {
+        pointNames.add(name);
+        pointArrays.add(a);
+        return this;
+    }
+
+    /** Adds an array with one tuple for each cell of the grid. */
+    public RawConverter addCellData(String name, RawArray a) {
+        cellNames.add(name);
+        cellArrays.add(a);
+        return this;
+    }
+
+    /**
+     * Writes the arrays as data of an image. See EVTK.imageToVTK.
+     *
+     * @param path:     full path without extension where grid file should be saved.
+     * @param ncells:   number of cells in each direction as a int[3].
+     * @param origin:   coordinates of origin of the grid as a double[3].
+     * @param spacing:  grid spacing in each direction as a double[3].
+     * @param comments: list of comments, it can be null.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public String imageToVTK(String path, int[] ncells, double[] origin, double[] spacing,
+                             List<String> comments) throws Exception {
+        var full_path = path + ".vti";
+        var vw = open(full_path, VTK_FILE_TYPE.IMAGE_DATA, comments, 0);
+        var start = new int[]{0, 0, 0};
+        vw.openImageData(start, ncells, origin, spacing);
+        vw.openPiece(start, ncells);
+        addDataToVTK(vw, npoints(ncells), ncells(ncells));
+        vw.closePiece();
+        vw.closeImageData();
+
+        vw.openAppendedData();
+        appendData(vw);
+        vw.closeAppendedData();
+        vw.close();
+        return full_path;
+    }
+
+    /**
+     * Writes the arrays as data of a rectilinear grid. See EVTK.rectilinearGridToVTK.
+     *
+     * @param path:     full path without extension where grid file should be saved.
+     * @param x:        x-coordinate of grid nodes.
+     * @param y:        y-coordinate of grid nodes.
+     * @param z:        z-coordinate of grid nodes.
+     * @param comments: list of comments, it can be null.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public String rectilinearGridToVTK(String path, double[] x, double[] y, double[] z,
+                                       List<String> comments) throws Exception {
+        var ncells = new int[]{x.length - 1, y.length - 1, z.length - 1};
+        var full_path = path + ".vtr";
+        var vw = open(full_path, VTK_FILE_TYPE.RECTILINEAR_GRID, comments, 8L * Math.max(x.length, Math.max(y.length, z.length)));
+        var start = new int[]{0, 0, 0};
+        vw.openRectilinearGrid(start, ncells);
+        vw.openPiece(start, ncells);
+        vw.openElement("Coordinates");
+        vw.addDataArray("x_coordinates", VTK_DATA_TYPE.FLOAT64, x.length, 1);
+        vw.addDataArray("y_coordinates", VTK_DATA_TYPE.FLOAT64, y.length, 1);
+        vw.addDataArray("z_coordinates", VTK_DATA_TYPE.FLOAT64, z.length, 1);
+        vw.closeElement("Coordinates");
+        addDataToVTK(vw, npoints(ncells), ncells(ncells));
+        vw.closePiece();
+        vw.closeRectilinearGrid();
+
+        vw.openAppendedData();
+        vw.appendArray(x);
+        vw.appendArray(y);
+        vw.appendArray(z);
+        appendData(vw);
+        vw.closeAppendedData();
+        vw.close();
+        return full_path;
+    }
+
+    /**
+     * Writes the arrays as data of a structured grid. See EVTK.structuredGridToVTK.
+     *
+     * @param path:     full path without extension where grid file should be saved.
+     * @param ncells:   number of cells in each direction as a int[3].
+     * @param points:   coordinates of the points, with 3 components and x varying fastest.
+     * @param comments: list of comments, it can be null.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public String structuredGridToVTK(String path, int[] ncells, RawArray points,
+                                      List<String> comments) throws Exception {
+        assert points.ncomponents() == 3 && points.ntuples() == npoints(ncells);
+
+        var full_path = path + ".vts";
+        var vw = open(full_path, VTK_FILE_TYPE.STRUCTURED_GRID, comments, 0, points);
+        var start = new int[]{0, 0, 0};
+        vw.openStructuredGrid(start, ncells);
+        vw.openPiece(start, ncells);
+        vw.openElement("Points");
+        vw.addDataArray("points", points.type(), points.ntuples(), 3);
+        vw.closeElement("Points");
+        addDataToVTK(vw, npoints(ncells), ncells(ncells));
+        vw.closePiece();
+        vw.closeStructuredGrid();
+
+        vw.openAppendedData();
+        vw.appendArray(points);
+        appendData(vw);
+        vw.closeAppendedData();
+        vw.close();
+        return full_path;
+    }
+
+    /**
+     * Writes the arrays as data of a cloud of points, where each point is a vertex cell. See EVTK.pointsToVTK.
+     * Point data is written, while cell data is not allowed.
+     *
+     * @param path:     full path without extension where grid file should be saved.
+     * @param points:   coordinates of the points, with 3 components.
+     * @param comments: list of comments, it can be null.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public String pointsToVTK(String path, RawArray points, List<String> comments) throws Exception {
+        assert points.ncomponents() == 3 && cellArrays.isEmpty();
+
+        final var n = points.ntuples();
+        final var itype = (n < Integer.MAX_VALUE) ? VTK_DATA_TYPE.INT32 : VTK_DATA_TYPE.INT64;
+        var full_path = path + ".vtu";
+        var vw = open(full_path, VTK_FILE_TYPE.UNSTRUCTURED_GRID, comments, n * itype.sizeof(), points);
+        vw.openUnstructuredGrid();
+        vw.openPiece(n, n);
+        addDataToVTK(vw, n, n);
+        vw.openElement("Points");
+        vw.addDataArray("points", points.type(), n, 3);
+        vw.closeElement("Points");
+        vw.openElement("Cells");
+        vw.addDataArray("connectivity", itype, n, 1);
+        vw.addDataArray("offsets", itype, n, 1);
+        vw.addDataArray("types", VTK_DATA_TYPE.UINT8, n, 1);
+        vw.closeElement("Cells");
+        vw.closePiece();
+        vw.closeUnstructuredGrid();
+
+        vw.openAppendedData();
+        appendData(vw);
+        vw.appendArray(points);
+
+        // The topology is written on the fly
+        var out = vw.getStream();
+        writeRange(out, itype, 0, n);
+        writeRange(out, itype, 1, n);
+        VTKWriter.writeSize(out, n * VTK_DATA_TYPE.UINT8.sizeof());
+        var t = VTK_CELL_TYPE.VTK_VERTEX.valueOf();
+        for (long i = 0; i < n; i++) {
+            out.writeByte(t);
+        }
+        vw.closeAppendedData();
+        vw.close();
+        return full_path;
+    }
+
+    /**
+     * Writes the arrays as data of an unstructured grid. See EVTK.unstructuredGridToVTK.
+     *
+     * @param path:         full path without extension where grid file should be saved.
+     * @param points:       coordinates of the points, with 3 components.
+     * @param connectivity: vertices of each cell, with an integer type.
+     * @param offsets:      index of the last vertex of each cell in connectivity, with an integer type.
+     * @param cell_types:   type of each cell, as UInt8 values of VTK_CELL_TYPE.
+     * @param comments:     list of comments, it can be null.
+     * @return the full path to where the grid file was saved including extension.
+     */
+    public String unstructuredGridToVTK(String path, RawArray points, RawArray connectivity, RawArray offsets,
+                                        RawArray cell_types, List<String> comments) throws Exception {
+        assert points.ncomponents() == 3;
+        assert offsets.ntuples() == cell_types.ntuples() && cell_types.type() == VTK_DATA_TYPE.UINT8;
+
+        var n = points.ntuples();
+        var ncells = offsets.ntuples();
+        var full_path = path + ".vtu";
+        var vw = open(full_path, VTK_FILE_TYPE.UNSTRUCTURED_GRID, comments, 0, points, connectivity, offsets);
+        vw.openUnstructuredGrid();
+        vw.openPiece(n, ncells);
+        addDataToVTK(vw, n, ncells);
+        vw.openElement("Points");
+        vw.addDataArray("points", points.type(), n, 3);
+        vw.closeElement("Points");
+        vw.openElement("Cells");
+        vw.addDataArray("connectivity", connectivity.type(), connectivity.ntuples(), 1);
+        vw.addDataArray("offsets", offsets.type(), ncells, 1);
+        vw.addDataArray("types", VTK_DATA_TYPE.UINT8, ncells, 1);
+        vw.closeElement("Cells");
+        vw.closePiece();
+        vw.closeUnstructuredGrid();
+
+        vw.openAppendedData();
+        appendData(vw);
+        vw.appendArray(points);
+        vw.appendArray(connectivity);
+        vw.appendArray(offsets);
+        vw.appendArray(cell_types);
+        vw.closeAppendedData();
+        vw.close();
+        return full_path;
+    }
+
+    // Helper function: creates the file, with a header type that can store the size of its largest array.
+    // The size of arrays that are generated while writing, e.g. connectivity, is given by generatedBytes.
+    private VTKWriter open(String full_path, VTK_FILE_TYPE type, List<String> comments, long generatedBytes,
+                           RawArray... grid) throws Exception {
+        long max = generatedBytes;
+        for (var a : grid) {
+            max = Math.max(max, a.nbytes());
+        }
+        for (var a : pointArrays) {
+            max = Math.max(max, a.nbytes());
+        }
+        for (var a : cellArrays) {
+            max = Math.max(max, a.nbytes());
+        }
+
+        var vw = new VTKWriter(new File(full_path), type, VTKWriter.headerType(max));
+        if (comments != null) {
+            vw.addComments(comments);
+        }
+        return vw;
+    }
+
+    // Helper function: declares point data and cell data.
+    private void addDataToVTK(VTKWriter vw, long npoints, long ncells) throws IOException {
+        if (!pointArrays.isEmpty()) {
+            vw.openPointData(pointNames.get(0), null, null, null, null);
+            for (int i = 0; i < pointArrays.size(); i++) {
+                var a = pointArrays.get(i);
+                assert a.ntuples() == npoints : "point data " + pointNames.get(i) + " has a wrong size";
+                vw.addDataArray(pointNames.get(i), a.type(), npoints, a.ncomponents());
+            }
+            vw.closePointData();
+        }
+        if (!cellArrays.isEmpty()) {
+            vw.openCellData(cellNames.get(0), null, null, null, null);
+            for (int i = 0; i < cellArrays.size(); i++) {
+                var a = cellArrays.get(i);
+                assert a.ntuples() == ncells : "cell data " + cellNames.get(i) + " has a wrong size";
+                vw.addDataArray(cellNames.get(i), a.type(), ncells, a.ncomponents());
+            }
+            vw.closeCellData();
+        }
+    }
+
+    // Helper function: streams point data and cell data, in the order they were declared.
+    private void appendData(VTKWriter vw) throws IOException {
+        for (var a : pointArrays) {
+            vw.appendArray(a);
+        }
+        for (var a : cellArrays) {
+            vw.appendArray(a);
+        }
+    }
+
+    // Helper function: writes the indices first, first + 1, ..., first + n - 1.
+    private static void writeRange(DataOutputStream out, VTK_DATA_TYPE type, long first, long n) throws IOException {
+        VTKWriter.writeSize(out, n * type.sizeof());
+        for (long i = first; i < first + n; i++) {
+            if (type == VTK_DATA_TYPE.INT64) {
+                out.writeLong(i);
+            } else {
+                out.writeInt((int) i);
+            }
+        }
+    }
+
+    private static long npoints(int[] ncells) {
+        return (long) (ncells[0] + 1) * (ncells[1] + 1) * (ncells[2] + 1);
+    }
+
+    private static long ncells(int[] ncells) {
+        return (long) Math.max(ncells[0], 1) * Math.max(ncells[1], 1) * Math.max(ncells[2], 1);
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2009-2020 Paulo A. Herrera <paulo.herrera.eirl at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level;
+
+import com.iidp.vtk.high_level.data.GridData;
+import com.iidp.vtk.low_level.VTK_CELL_TYPE;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Points, and optionally cells, of an unstructured grid sorted along a space filling curve,
+ * when ExportOptions define one.
+ * <p>
+ * Coordinates are scaled to the bounding box of the points and quantized to BITS bits in each direction,
+ * which gives a 63 bit key for each point. Cells are sorted by the key of their centroid. Keys are sorted
+ * with a parallel LSD radix sort, which is stable, so points with the same key keep their order.
+ * Connectivity and data arrays are permuted consistently.
+ */
+final class Reordering {
+    /** Number of bits of the quantized coordinates. */
+    static final int BITS = 21;
+
+    // Minimum number of keys in each block of the radix sort
+    private static final int MIN_BLOCK = 1 << 16;
+
+    final double[] x, y, z;
+    final int[] connectivity, offsets;
+    final VTK_CELL_TYPE[] cell_types;
+    final GridData cellData, pointData;
+
+    /**
+     * Sorts points with their data.
+     */
+    Reordering(SPACE_FILLING_CURVE curve, double[] _x, double[] _y, double[] _z, GridData _pointData) {
+        this(curve, false, _x, _y, _z, null, null, null, null, _pointData);
+    }
+
+    /**
+     * Sorts the points, and optionally the cells, of an unstructured grid.
+     * See EVTK.unstructuredGridToVTK for a description of the grid parameters, connectivity can be null.
+     *
+     * @param curve: space filling curve.
+     * @param cells: if true, cells are also sorted.
+     */
+    Reordering(SPACE_FILLING_CURVE curve, boolean cells, double[] _x, double[] _y, double[] _z,
+               int[] _connectivity, int[] _offsets, VTK_CELL_TYPE[] _cell_types, GridData _cellData, GridData _pointData) {
+        assert (_x.length == _y.length) && (_x.length == _z.length);
+        final int npoints = _x.length;
+        var bounds = bounds(_x, _y, _z);
+
+        // order[i] is the input index of point i
+        var order = order(keys(curve, _x, _y, _z, bounds));
+        x = gather(_x, order);
+        y = gather(_y, order);
+        z = gather(_z, order);
+        pointData = (_pointData != null) ? _pointData.gather(npoints, i -> order[(int) i]) : null;
+
+        if (_connectivity == null) {
+            connectivity = null;
+            offsets = null;
+            cell_types = null;
+            cellData = null;
+            return;
+        }
+
+        var inverse = new int[npoints];
+        IntStream.range(0, npoints).parallel().forEach(i -> inverse[order[i]] = i);
+
+        if (!cells) {
+            connectivity = new int[_connectivity.length];
+            IntStream.range(0, connectivity.length).parallel().forEach(i -> connectivity[i] = inverse[_connectivity[i]]);
+            offsets = _offsets;
+            cell_types = _cell_types;
+            cellData = _cellData;
+            return;
+        }
+
+        // Cells are sorted by their centroid
+        final int ncells = _offsets.length;
+        var cx = new double[ncells];
+        var cy = new double[ncells];
+        var cz = new double[ncells];
+        IntStream.range(0, ncells).parallel().forEach(c -> {
+            final int start = first(_offsets, c), end = _offsets[c];
+            double sx = 0.0, sy = 0.0, sz = 0.0;
+            for (int v = start; v < end; v++) {
+                sx += _x[_connectivity[v]];
+                sy += _y[_connectivity[v]];
+                sz += _z[_connectivity[v]];
+            }
+            var n = Math.max(end - start, 1);
+            cx[c] = sx / n;
+            cy[c] = sy / n;
+            cz[c] = sz / n;
+        });
+        var corder = order(keys(curve, cx, cy, cz, bounds));
+
+        offsets = new int[ncells];
+        IntStream.range(0, ncells).parallel().forEach(c -> offsets[c] = _offsets[corder[c]] - first(_offsets, corder[c]));
+        Arrays.parallelPrefix(offsets, Integer::sum);
+        connectivity = new int[_connectivity.length];
+        IntStream.range(0, ncells).parallel().forEach(c -> {
+            var dst = first(offsets, c);
+            for (int v = first(_offsets, corder[c]); v < _offsets[corder[c]]; v++) {
+                connectivity[dst++] = inverse[_connectivity[v]];
+            }
+        });
+        cell_types = new VTK_CELL_TYPE[ncells];
+        IntStream.range(0, ncells).parallel().forEach(c -> cell_types[c] = _cell_types[corder[c]]);
+        cellData = (_cellData != null) ? _cellData.gather(ncells, c -> corder[(int) c]) : null;
+    }
+
+    /**
+     * Returns the key of each point along the curve, with coordinates scaled to the given bounds.
+     *
+     * @param bounds: {xmin, xmax, ymin, ymax, zmin, zmax}.
+     */
+    static long[] keys(SPACE_FILLING_CURVE curve, double[] x, double[] y, double[] z, double[] bounds) {
+        var keys = new long[x.length];
+        IntStream.range(0, x.length).parallel().forEach(p -> {
+            var qx = quantize(x[p], bounds[0], bounds[1]);
+            var qy = quantize(y[p], bounds[2], bounds[3]);
+            var qz = quantize(z[p], bounds[4], bounds[5]);
+            keys[p] = (curve == SPACE_FILLING_CURVE.HILBERT) ? hilbert(qx, qy, qz) : morton(qx, qy, qz);
+        });
+        return keys;
+    }
+
+    /**
+     * Returns the order of the keys, i.e. order[i] is the index of the i-th smallest key.
+     * <p>
+     * Keys are sorted as unsigned values with a stable LSD radix sort with 8 bit digits. In each pass,
+     * the digits of blocks of keys are counted in parallel, and each block then moves its keys in parallel to
+     * the positions given by the prefix sum of the counts, digit by digit and block by block.
+     * Digits that are equal for all keys are skipped.
+     */
+    static int[] order(long[] keys) {
+        final int n = keys.length;
+        var k = keys.clone();
+        var k2 = new long[n];
+        var order = IntStream.range(0, n).toArray();
+        var order2 = new int[n];
+
+        final int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        final int nblocks = Math.max(1, Math.min(4 * parallelism, n / MIN_BLOCK));
+        final int blockSize = (n + nblocks - 1) / nblocks;
+        var count = new int[nblocks][256];
+
+        for (int shift = 0; shift < 64; shift += 8) {
+            final int s = shift;
+            final long[] src = k, dst = k2;
+            final int[] osrc = order, odst = order2;
+            IntStream.range(0, nblocks).parallel().forEach(b -> {
+                var cb = count[b];
+                Arrays.fill(cb, 0);
+                for (int i = b * blockSize; i < Math.min(n, (b + 1) * blockSize); i++) {
+                    cb[(int) (src[i] >>> s) & 0xFF]++;
+                }
+            });
+
+            var first = (n > 0) ? (int) (src[0] >>> s) & 0xFF : 0;
+            var total = 0;
+            for (int b = 0; b < nblocks; b++) {
+                total += count[b][first];
+            }
+            if (total == n) continue;
+
+            var sum = 0;
+            for (int d = 0; d < 256; d++) {
+                for (int b = 0; b < nblocks; b++) {
+                    var c = count[b][d];
+                    count[b][d] = sum;
+                    sum += c;
+                }
+            }
+            IntStream.range(0, nblocks).parallel().forEach(b -> {
+                var cb = count[b];
+                for (int i = b * blockSize; i < Math.min(n, (b + 1) * blockSize); i++) {
+                    var pos = cb[(int) (src[i] >>> s) & 0xFF]++;
+                    dst[pos] = src[i];
+                    odst[pos] = osrc[i];
+                }
+            });
+
+            k2 = k;
+            k = dst;
+            order2 = order;
+            order = odst;
+        }
+        return order;
+    }
+
+    // Helper function: bounding box of the points as {xmin, xmax, ymin, ymax, zmin, zmax}.
+    static double[] bounds(double[] x, double[] y, double[] z) {
+        var b = new double[6];
+        var a = new double[][]{x, y, z};
+        for (int d = 0; d < 3; d++) {
+            var s = Arrays.stream(a[d]).parallel().summaryStatistics();
+            b[2 * d] = s.getMin();
+            b[2 * d + 1] = s.getMax();
+        }
+        return b;
+    }
+
+    // Helper function: coordinate scaled from [min, max] to [0, 2^BITS - 1].
+    static int quantize(double c, double min, double max) {
+        if (!(max > min)) return 0;
+        var q = (c - min) / (max - min) * ((1 << BITS) - 1);
+        return (int) Math.max(0.0, Math.min(q, (1 << BITS) - 1));  // also maps NaN to 0
+    }
+
+    // Helper function: key of a point along a Morton curve.
+    private static long morton(int qx, int qy, int qz) {
+        return spread(qx) | (spread(qy) << 1) | (spread(qz) << 2);
+    }
+
+    // Helper function: inserts two 0 bits between the BITS bits of v.
+    private static long spread(int v) {
+        var b = v & 0x1FFFFFL;
+        b = (b | (b << 32)) & 0x1F00000000FFFFL;
+        b = (b | (b << 16)) & 0x1F0000FF0000FFL;
+        b = (b | (b << 8)) & 0x100F00F00F00F00FL;
+        b = (b | (b << 4)) & 0x10C30C30C30C30C3L;
+        b = (b | (b << 2)) & 0x1249249249249249L;
+        return b;
+    }
+
+    // Helper function: key of a point along a Hilbert curve, from the transposed form of J. Skilling,
+    // "Programming the Hilbert curve", AIP Conference Proceedings 707, 2004.
+    private static long hilbert(int qx, int qy, int qz) {
+        var q = new int[]{qx, qy, qz};
+        final int m = 1 << (BITS - 1);
+        for (int b = m; b > 1; b >>= 1) {
+            final int p = b - 1;
+            for (int i = 0; i < 3; i++) {
+                if ((q[i] & b) != 0) {
+                    q[0] ^= p;
+                } else {
+                    var t = (q[0] ^ q[i]) & p;
+                    q[0] ^= t;
+                    q[i] ^= t;
+                }
+            }
+        }
+        q[1] ^= q[0];
+        q[2] ^= q[1];
+        var t = 0;
+        for (int b = m; b > 1; b >>= 1) {
+            if ((q[2] & b) != 0) t ^= b - 1;
+        }
+        q[0] ^= t;
+        q[1] ^= t;
+        q[2] ^= t;
+
+        var key = 0L;
+        for (int b = BITS - 1; b >= 0; b--) {
+            for (int i = 0; i < 3; i++) {
+                key = (key << 1) | ((q[i] >>> b) & 1);
+            }
+        }
+        return key;
+    }
+
+    private static double[] gather(double[] a, int[] order) {
+        var g = new double[order.length];
+        IntStream.range(0, order.length).parallel().forEach(i -> g[i] = a[order[i]]);
+        return g;
+    }
+
+    private static int first(int[] offsets, int c) {
+        return (c > 0) ? offsets[c - 1] : 0;
+    }
+}
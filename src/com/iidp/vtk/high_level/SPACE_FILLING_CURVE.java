@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2009-2020 Paulo A. Herrera <paulo.herrera.eirl at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level;
+
+/**
+ * Curves used to sort points and cells before they are written, see ExportOptions.setSpaceFillingCurve.
+ */
+public enum SPACE_FILLING_CURVE {
+    /** Z-order curve, i.e. interleaved bits of the coordinates. Cheap to compute. */
+    MORTON,
+    /** Hilbert curve, which keeps consecutive points closer than the Morton curve. */
+    HILBERT
+}
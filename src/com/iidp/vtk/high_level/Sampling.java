@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2009-2020 Paulo A. Herrera <paulo.herrera.eirl at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level;
+
+import com.iidp.vtk.high_level.data.GridData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Points and cells of an image, rectilinear or structured grid that are written when ExportOptions
+ * define a region, a stride or slices.
+ * <p>
+ * The written grid is indexed by sampled points, i.e. sampled point q along axis d is point
+ * lo[d] + q * stride[d] of the whole grid. It is written as a single piece or, when it is sliced, each
+ * slice is written to its own file whose extent is the slice, see slice. Each sampled cell takes the values of
+ * the first cell of the whole grid that it covers, and cells of a slice take the values of the layer of cells after it, or before it for the last layer.
+ * Values are gathered from the arrays of the whole grid when the file is written.
+ */
+final class Sampling {
+    private final int[] npoints;       // number of points of the whole grid in each direction
+    private final int[] lo, stride;
+    private final int[] m;             // number of sampled points in each direction
+    private final int sliceAxis;
+    private final List<int[][]> pieces = new ArrayList<>();
+    private final int[][] whole;       // first and last sampled points of the written extent
+
+    /**
+     * @param _npoints: number of points of the whole grid in each direction.
+     * @param start: first point of the region in each direction.
+     * @param end: last point of the region in each direction (included).
+     * @param _stride: distance between sampled points in each direction.
+     * @param _sliceAxis: direction normal to the slices, or -1 to write the whole region.
+     * @param slices: index of the points of the whole grid where slices are taken along sliceAxis.
+     */
+    Sampling(int[] _npoints, int[] start, int[] end, int[] _stride, int _sliceAxis, int[] slices) {
+        npoints = _npoints;
+        lo = start;
+        stride = _stride;
+        sliceAxis = _sliceAxis;
+        m = new int[3];
+        for (int d = 0; d < 3; d++) {
+            assert (0 <= start[d]) && (start[d] <= end[d]) && (end[d] < npoints[d]);
+            assert stride[d] > 0;
+            m[d] = (end[d] - start[d]) / stride[d] + 1;
+        }
+
+        whole = new int[][]{{0, 0, 0}, {m[0] - 1, m[1] - 1, m[2] - 1}};
+        if (sliceAxis < 0) {
+            pieces.add(new int[][]{wholeStart(), wholeEnd()});
+        } else {
+            for (int s : slices) {
+                var q = (s - lo[sliceAxis]) / stride[sliceAxis];
+                assert (s - lo[sliceAxis]) % stride[sliceAxis] == 0 : "slice is not a sampled point";
+                assert (0 <= q) && (q < m[sliceAxis]) : "slice is outside the region";
+                var ps = wholeStart();
+                var pe = wholeEnd();
+                ps[sliceAxis] = q;
+                pe[sliceAxis] = q;
+                pieces.add(new int[][]{ps, pe});
+            }
+        }
+    }
+
+    // Creates the sampling of slice p of a sliced sampling, see slice.
+    private Sampling(Sampling sliced, int p) {
+        npoints = sliced.npoints;
+        lo = sliced.lo;
+        stride = sliced.stride;
+        m = sliced.m;
+        sliceAxis = -1;
+        pieces.add(sliced.pieces.get(p));
+        whole = sliced.pieces.get(p);
+    }
+
+    /** Returns the first sampled point of the written extent, i.e. the WholeExtent of the file. */
+    int[] wholeStart() {
+        return whole[0].clone();
+    }
+
+    /** Returns the last sampled point of the written extent (included). */
+    int[] wholeEnd() {
+        return whole[1].clone();
+    }
+
+    /** Returns true if slices are written, each one to its own file, see slice. */
+    boolean isSliced() {
+        return sliceAxis >= 0;
+    }
+
+    /**
+     * Returns the sampling of a single slice, whose extent is the slice, so readers do not allocate
+     * the space between slices.
+     */
+    Sampling slice(int p) {
+        assert isSliced();
+        return new Sampling(this, p);
+    }
+
+    /** Returns the index in the whole grid of the point where slice p is taken. */
+    int slicePoint(int p) {
+        assert isSliced();
+        return point(sliceAxis, pieces.get(p)[0][sliceAxis]);
+    }
+
+    int npieces() {
+        return pieces.size();
+    }
+
+    /** Returns the first sampled point of a piece in each direction. */
+    int[] start(int p) {
+        return pieces.get(p)[0].clone();
+    }
+
+    /** Returns the last sampled point of a piece in each direction (included). */
+    int[] end(int p) {
+        return pieces.get(p)[1].clone();
+    }
+
+    /** Number of points of a piece in direction d. */
+    int npoints(int p, int d) {
+        return pieces.get(p)[1][d] - pieces.get(p)[0][d] + 1;
+    }
+
+    /** Number of cells of a piece in direction d, where a piece with a single point is one cell thick. */
+    int ncells(int p, int d) {
+        return Math.max(npoints(p, d) - 1, 1);
+    }
+
+    long npoints(int p) {
+        return (long) npoints(p, 0) * npoints(p, 1) * npoints(p, 2);
+    }
+
+    long ncells(int p) {
+        return (long) ncells(p, 0) * ncells(p, 1) * ncells(p, 2);
+    }
+
+    /** Returns the index in the whole grid of sampled point q along direction d. */
+    int point(int d, int q) {
+        return lo[d] + q * stride[d];
+    }
+
+    /** Returns the index in the whole grid of the cell that gives its values to sampled cell q along direction d. */
+    int cell(int d, int q) {
+        return Math.max(0, Math.min(point(d, q), npoints[d] - 2));
+    }
+
+    /** Returns true if the only piece is the whole grid. */
+    boolean isWhole() {
+        for (int d = 0; d < 3; d++) {
+            if (npoints(0, d) != npoints[d]) return false;
+        }
+        return pieces.size() == 1;
+    }
+
+    /** Returns the origin of the sampled image. */
+    double[] origin(double[] origin, double[] spacing) {
+        if (isWhole()) return origin;
+        return new double[]{origin[0] + lo[0] * spacing[0], origin[1] + lo[1] * spacing[1], origin[2] + lo[2] * spacing[2]};
+    }
+
+    /** Returns the spacing of the sampled image. */
+    double[] spacing(double[] spacing) {
+        if (isWhole()) return spacing;
+        return new double[]{spacing[0] * stride[0], spacing[1] * stride[1], spacing[2] * stride[2]};
+    }
+
+    /** Returns the coordinates of the points of a piece along direction d of a rectilinear grid. */
+    double[] coordinates(int p, int d, double[] x) {
+        if (isWhole()) return x;
+        var c = new double[npoints(p, d)];
+        var q0 = pieces.get(p)[0][d];
+        for (int q = 0; q < c.length; q++) {
+            c[q] = x[point(d, q0 + q)];
+        }
+        return c;
+    }
+
+    /** Returns the point data of each piece, or null if data is null. */
+    GridData[] gatherPoints(GridData data) {
+        return gather(data, false);
+    }
+
+    /** Returns the cell data of each piece, or null if data is null. */
+    GridData[] gatherCells(GridData data) {
+        return gather(data, true);
+    }
+
+    // Helper function: values of each piece, with index lookup tables for each direction.
+    private GridData[] gather(GridData data, boolean cells) {
+        if (data == null) return null;
+        var g = new GridData[pieces.size()];
+        if (isWhole()) {
+            g[0] = data;
+            return g;
+        }
+
+        var nx = cells ? Math.max(npoints[0] - 1, 1) : npoints[0];
+        var ny = cells ? Math.max(npoints[1] - 1, 1) : npoints[1];
+        var mult = new long[]{1, nx, (long) nx * ny};
+        for (int p = 0; p < g.length; p++) {
+            var offset = new long[3][];
+            for (int d = 0; d < 3; d++) {
+                var q0 = pieces.get(p)[0][d];
+                offset[d] = new long[cells ? ncells(p, d) : npoints(p, d)];
+                for (int c = 0; c < offset[d].length; c++) {
+                    offset[d][c] = mult[d] * (cells ? cell(d, q0 + c) : point(d, q0 + c));
+                }
+            }
+            var n0 = offset[0].length;
+            var n1 = offset[1].length;
+            var n = (long) n0 * n1 * offset[2].length;
+            g[p] = data.gather(n, i -> offset[0][(int) (i % n0)] + offset[1][(int) ((i / n0) % n1)] +
+                    offset[2][(int) (i / ((long) n0 * n1))]);
+        }
+        return g;
+    }
+}
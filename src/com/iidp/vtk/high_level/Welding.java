@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2009-2020 Paulo A. Herrera <paulo.herrera.eirl at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Merges points that are closer than a tolerance, e.g. the repeated vertices of a triangle soup,
+ * when ExportOptions define a weld tolerance.
+ * <p>
+ * Points are hashed by the cell of a uniform grid with spacing equal to the tolerance, and the keys
+ * are sorted in parallel, so the points of a cell are consecutive. Each point is merged with the point with
+ * the smallest index that is within the tolerance in its cell or in one of its 26 neighbours, and chains of
+ * merged points are followed until they reach a point that is kept. Kept points keep their order.
+ * A tolerance of 0 only merges points with exactly the same coordinates.
+ */
+final class Welding {
+    /** New index of each input point. */
+    final int[] index;
+
+    /** Input index of each kept point. */
+    final int[] points;
+
+    private final double[] x, y, z;
+    private final double tolerance;
+    private final long[] keys;
+
+    /**
+     * @param _x, _y, _z: coordinates of the input points.
+     * @param _tolerance: maximum distance between merged points, 0 or larger.
+     */
+    Welding(double[] _x, double[] _y, double[] _z, double _tolerance) {
+        assert _tolerance >= 0.0;
+        x = _x;
+        y = _y;
+        z = _z;
+        tolerance = _tolerance;
+        final int n = x.length;
+
+        keys = new long[n];
+        IntStream.range(0, n).parallel().forEach(p -> keys[p] = ((long) hash(cell(x[p]), cell(y[p]), cell(z[p])) << 32) | p);
+        Arrays.parallelSort(keys);
+
+        // Each point points to the first point within the tolerance, which is itself for kept points
+        var target = new int[n];
+        IntStream.range(0, n).parallel().forEach(p -> target[p] = first(p));
+        var changed = true;
+        while (changed) {
+            changed = IntStream.range(0, n).parallel().map(p -> {
+                var t = target[target[p]];
+                if (t == target[p]) return 0;
+                target[p] = t;
+                return 1;
+            }).sum() > 0;
+        }
+
+        // Kept points are numbered in order
+        var kept = new int[n];
+        IntStream.range(0, n).parallel().forEach(p -> kept[p] = (target[p] == p) ? 1 : 0);
+        Arrays.parallelPrefix(kept, Integer::sum);
+        points = new int[(n > 0) ? kept[n - 1] : 0];
+        index = new int[n];
+        IntStream.range(0, n).parallel().forEach(p -> {
+            if (target[p] == p) points[kept[p] - 1] = p;
+            index[p] = kept[target[p]] - 1;
+        });
+    }
+
+    /** Returns the number of kept points. */
+    int npoints() {
+        return points.length;
+    }
+
+    /** Returns the values of a coordinate array for the kept points. */
+    double[] gather(double[] a) {
+        var g = new double[points.length];
+        IntStream.range(0, points.length).parallel().forEach(i -> g[i] = a[points[i]]);
+        return g;
+    }
+
+    // Smallest index of the points within the tolerance of point p, including p.
+    private int first(int p) {
+        var min = p;
+        var cx = cell(x[p]);
+        var cy = cell(y[p]);
+        var cz = cell(z[p]);
+        var r = (tolerance > 0.0) ? 1 : 0;
+        var tol2 = tolerance * tolerance;
+        for (long i = cx - r; i <= cx + r; i++) {
+            for (long j = cy - r; j <= cy + r; j++) {
+                for (long k = cz - r; k <= cz + r; k++) {
+                    var h = (long) hash(i, j, k) << 32;
+                    var s = Arrays.binarySearch(keys, h);
+                    for (int a = (s >= 0) ? s : -s - 1; a < keys.length && (keys[a] & 0xFFFFFFFF00000000L) == h; a++) {
+                        final int q = (int) keys[a];
+                        if (q >= min) break;  // points of a cell are sorted by index
+                        var dx = x[q] - x[p];
+                        var dy = y[q] - y[p];
+                        var dz = z[q] - z[p];
+                        if (dx * dx + dy * dy + dz * dz <= tol2) min = q;
+                    }
+                }
+            }
+        }
+        return min;
+    }
+
+    // Cell of a coordinate, or its bits if the tolerance is 0.
+    private long cell(double c) {
+        if (tolerance > 0.0) return (long) Math.floor(c / tolerance);
+        return Double.doubleToLongBits(c + 0.0);  // +0.0 maps -0.0 to 0.0
+    }
+
+    // Helper function: mixes the indices of a cell into 32 bits, different cells can have the same hash.
+    private static int hash(long i, long j, long k) {
+        var h = i * 0x9E3779B97F4A7C15L + j * 0xC2B2AE3D27D4EB4FL + k * 0x165667B19E3779F9L;
+        h ^= (h >>> 33);
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= (h >>> 33);
+        return (int) h;
+    }
+}
@@ -16,11 +16,17 @@
  */
 package com.iidp.vtk.high_level.data;
 
+import com.iidp.vtk.low_level.ArrayView;
+import com.iidp.vtk.low_level.BigDoubleArray;
+import com.iidp.vtk.low_level.BigIntArray;
 import com.iidp.vtk.low_level.VTKWriter;
+import com.iidp.vtk.low_level.VTK_DATA_TYPE;
 
 import java.io.DataOutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.LongToDoubleFunction;
+import java.util.function.LongUnaryOperator;
 
 /**
  * Container to add and store data associated to cells or nodes of the grid.
@@ -48,12 +54,45 @@ public class GridData {
      * @param _data: values that should be associated to cells or points of the grid.
      *               NOTE: array values must be given in the VTK grid order,
      *               i.e. x direction changing fastest, then y, then z.
+     *               The array is not copied, so it should not be modified until the data is written.
      */
     public void addData(String name, double[] _data) {
         var p = PairData.makeDoublePair(name, _data);
         pd.add(p);
     }
 
+    /**
+     * Adds data to this container that is written with a limited precision.
+     * See addData above and PairData.setMaxRelativeError.
+     *
+     * @param name:  name of the variable.
+     * @param _data: values that should be associated to cells or points of the grid.
+     * @param maxRelativeError: maximum relative error of the written values, e.g. 1.0e-4 keeps
+     *                          around 4 significant digits.
+     */
+    public void addData(String name, double[] _data, double maxRelativeError) {
+        var p = PairData.makeDoublePair(name, _data).setMaxRelativeError(maxRelativeError);
+        pd.add(p);
+    }
+
+    /**
+     * Sets the maximum relative error of a variable already stored in this container.
+     * See PairData.setMaxRelativeError.
+     *
+     * @param name: name of the variable.
+     * @param maxRelativeError: maximum relative error of the written values, or 0 to write all bits.
+     */
+    public void setMaxRelativeError(String name, double maxRelativeError) {
+        var found = false;
+        for (PairData p : pd) {
+            if (p.name.equals(name)) {
+                p.setMaxRelativeError(maxRelativeError);
+                found = true;
+            }
+        }
+        assert found : "unknown variable " + name;
+    }
+
     /**
      * Adds data to this container.
      *
@@ -61,12 +100,154 @@ public class GridData {
      * @param _data: values that should be associated to cells or points of the grid.
      *               NOTE: array values must be given in the VTK grid order,
      *               i.e. x direction changing fastest, then y, then z.
+     *               The array is not copied, so it should not be modified until the data is written.
      */
     public void addData(String name, int[] _data) {
         var p = PairData.makeIntegerPair(name, _data);
         pd.add(p);
     }
 
+    /**
+     * Adds data with more than 2^31 values to this container.
+     * See addData(String, double[]).
+     *
+     * @param name:  name of the variable.
+     * @param _data: values that should be associated to cells or points of the grid.
+     */
+    public void addData(String name, BigDoubleArray _data) {
+        var p = PairData.makeDoublePair(name, _data);
+        pd.add(p);
+    }
+
+    /**
+     * Adds data with more than 2^31 values to this container.
+     * See addData(String, int[]).
+     *
+     * @param name:  name of the variable.
+     * @param _data: values that should be associated to cells or points of the grid.
+     */
+    public void addData(String name, BigIntArray _data) {
+        var p = PairData.makeIntegerPair(name, _data);
+        pd.add(p);
+    }
+
+    /**
+     * Adds data that is not stored in VTK order to this container, e.g. a Fortran or C array,
+     * a strided sub-array or a field of records in a ByteBuffer. See PairData.makeViewPair.
+     *
+     * @param name:  name of the variable.
+     * @param _data: view of the values that should be associated to cells or points of the grid.
+     *               The source is not copied, so it should not be modified until the data is written.
+     */
+    public void addData(String name, ArrayView _data) {
+        var p = PairData.makeViewPair(name, _data);
+        pd.add(p);
+    }
+
+    /**
+     * Returns a new container with a subset of the values of each variable, e.g. the values of the
+     * cells of a region of the grid. See PairData.gather.
+     *
+     * @param n: number of values of each variable of the new container.
+     * @param index: index in this container of each value of the new one.
+     * @return a new GridData of the same type.
+     */
+    public GridData gather(long n, LongUnaryOperator index) {
+        var g = new GridData(type);
+        for (PairData p : pd) {
+            g.pd.add(p.gather(n, index));
+        }
+        return g;
+    }
+
+    /**
+     * Returns a new container with values interpolated between pairs of values of each variable,
+     * e.g. the values of the points of an isosurface. See PairData.interpolate.
+     *
+     * @param n: number of values of each variable of the new container.
+     * @param from: index in this container of the first value of each value of the new one.
+     * @param to: index in this container of the second value of each value of the new one.
+     * @param weight: weight of the second value, between 0 and 1.
+     * @return a new GridData of the same type.
+     */
+    public GridData interpolate(long n, LongUnaryOperator from, LongUnaryOperator to, LongToDoubleFunction weight) {
+        var g = new GridData(type);
+        for (PairData p : pd) {
+            g.pd.add(p.interpolate(n, from, to, weight));
+        }
+        return g;
+    }
+
+    /**
+     * Returns the variable with the given name, or null if there is no such variable in this container.
+     */
+    public PairData get(String name) {
+        for (PairData p : pd) {
+            if (p.name.equals(name)) return p;
+        }
+        return null;
+    }
+
+    /** Returns the number of variables stored in this container. */
+    public int size() {
+        return pd.size();
+    }
+
+    /**
+     * Returns the number of bytes that the variables in this container write for each point or cell,
+     * i.e. the sum of the sizes of their output types. The size written before each array is not included,
+     * since it depends on the file, see VTKWriter.getHeaderType.
+     *
+     * @param precision: type used to write double data, either FLOAT64 or FLOAT32.
+     * @param narrowIntegers: if true, int data is written with the smallest type that can store all its values.
+     */
+    public long elementBytes(VTK_DATA_TYPE precision, boolean narrowIntegers) {
+        long n = 0;
+        for (PairData p : pd) {
+            n += p.outputType(precision, narrowIntegers).sizeof();
+        }
+        return n;
+    }
+
+    /**
+     * Returns the size of the largest output type of the variables in this container, which is the one
+     * that determines maxArrayBytes.
+     *
+     * @param precision: type used to write double data, either FLOAT64 or FLOAT32.
+     */
+    public long maxElementBytes(VTK_DATA_TYPE precision) {
+        long n = 0;
+        for (PairData p : pd) {
+            n = Math.max(n, p.outputType(precision).sizeof());
+        }
+        return n;
+    }
+
+    /**
+     * Returns the size in bytes of the largest variable in this container, without the header
+     * written before it. It is used to choose the header type of a file, see VTKWriter.headerType.
+     *
+     * @param precision: type used to write double data, either FLOAT64 or FLOAT32.
+     */
+    public long maxArrayBytes(VTK_DATA_TYPE precision) {
+        long n = 0;
+        for (PairData p : pd) {
+            n = Math.max(n, p.size() * p.outputType(precision).sizeof());
+        }
+        return n;
+    }
+
+    /**
+     * Returns an estimate of the heap memory used to store the variables in this container.
+     */
+    public long memoryBytes() {
+        long n = 0;
+        for (PairData p : pd) {
+            n += p.memoryBytes();
+        }
+        return n;
+    }
+
     /**
      *  Writes array declaration to XML section of the file.
      *  Actual data must be appended to the binary section later.
@@ -76,10 +257,40 @@ public class GridData {
      * @param nncells: number of cells in grid
      * @throws Exception
      */
-    public void addArrayToVTK(VTKWriter vw, int nnpoints, int nncells) throws Exception {
+    public void addArrayToVTK(VTKWriter vw, long nnpoints, long nncells) throws Exception {
         addArrayToVTK(vw, nnpoints, nncells, false);
     }
 
+    /**
+     *  Writes array declaration to XML section of the file.
+     *  Actual data must be appended to the binary section later with the same precision.
+     *
+     * @param vw: VTKWriter
+     * @param nnpoints: number of points in grid
+     * @param nncells: number of cells in grid
+     * @param precision: type used to write double data, either FLOAT64 or FLOAT32.
+     * @throws Exception
+     */
+    public void addArrayToVTK(VTKWriter vw, long nnpoints, long nncells, VTK_DATA_TYPE precision) throws Exception {
+        addArrayToVTK(vw, nnpoints, nncells, false, precision, false);
+    }
+
+    /**
+     *  Writes array declaration to XML section of the file.
+     *  Actual data must be appended to the binary section later with the same precision and narrowIntegers.
+     *
+     * @param vw: VTKWriter
+     * @param nnpoints: number of points in grid
+     * @param nncells: number of cells in grid
+     * @param precision: type used to write double data, either FLOAT64 or FLOAT32.
+     * @param narrowIntegers: if true, int data is declared with the smallest type that can store all its values.
+     * @throws Exception
+     */
+    public void addArrayToVTK(VTKWriter vw, long nnpoints, long nncells, VTK_DATA_TYPE precision,
+                              boolean narrowIntegers) throws Exception {
+        addArrayToVTK(vw, nnpoints, nncells, false, precision, narrowIntegers);
+    }
+
     /**
      *  Writes array declaration to XML section of the file and write data as ASCII text.
      *
@@ -90,10 +301,16 @@ public class GridData {
      *                      but data must be manually appendended to the binary section later.
      * @throws Exception
      */
-    public void addArrayToVTK(VTKWriter vw, int nnpoints, int nncells, boolean writeAsASCII) throws Exception {
+    public void addArrayToVTK(VTKWriter vw, long nnpoints, long nncells, boolean writeAsASCII) throws Exception {
+        addArrayToVTK(vw, nnpoints, nncells, writeAsASCII, VTK_DATA_TYPE.FLOAT64, false);
+    }
+
+    // Helper function: declares arrays with the given precision.
+    private void addArrayToVTK(VTKWriter vw, long nnpoints, long nncells, boolean writeAsASCII,
+                               VTK_DATA_TYPE precision, boolean narrowIntegers) throws Exception {
         if (pd.size() == 0) return;
 
-        var size = 0;
+        long size = 0;
 
         var default_name = pd.get(0).name;
         if (type.equals("pointData") ) {
@@ -112,7 +329,7 @@ public class GridData {
         } else {
             for (PairData p : pd) {
                 assert p.size() == size;
-                vw.addDataArray(p.name, p.type, p.size(), 1);
+                vw.addDataArray(p.name, p.outputType(precision, narrowIntegers), p.size(), 1);
             }
         }
 
@@ -130,14 +347,77 @@ public class GridData {
      * @param nnpoints: number of nodes in grid.
      * @param nncells: number of cells in grid.
      */
-    public void appendData(VTKWriter vw, int nnpoints, int nncells) throws Exception {
+    public void appendData(VTKWriter vw, long nnpoints, long nncells) throws Exception {
+        appendData(vw.getStream(), nnpoints, nncells);
+    }
+
+    /**
+     * Writes data previously declared in the XML section to binary section of the file.
+     *
+     * @param vw: writer used to create this file.
+     * @param nnpoints: number of nodes in grid.
+     * @param nncells: number of cells in grid.
+     * @param precision: type used to write double data, it must match the one used to declare the arrays.
+     */
+    public void appendData(VTKWriter vw, long nnpoints, long nncells, VTK_DATA_TYPE precision) throws Exception {
+        appendData(vw.getStream(), nnpoints, nncells, precision, false);
+    }
+
+    /**
+     * Writes data previously declared in the XML section to binary section of the file.
+     *
+     * @param vw: writer used to create this file.
+     * @param nnpoints: number of nodes in grid.
+     * @param nncells: number of cells in grid.
+     * @param precision: type used to write double data, it must match the one used to declare the arrays.
+     * @param narrowIntegers: it must match the one used to declare the arrays.
+     */
+    public void appendData(VTKWriter vw, long nnpoints, long nncells, VTK_DATA_TYPE precision,
+                           boolean narrowIntegers) throws Exception {
+        appendData(vw.getStream(), nnpoints, nncells, precision, narrowIntegers);
+    }
+
+    /**
+     * Writes data previously declared in the XML section to a binary stream.
+     * This is useful when the appended section is encoded in blocks, e.g. see VTKWriter.appendBlocks.
+     *
+     * @param dos: binary stream.
+     * @param nnpoints: number of nodes in grid.
+     * @param nncells: number of cells in grid.
+     */
+    public void appendData(DataOutputStream dos, long nnpoints, long nncells) throws Exception {
+        appendData(dos, nnpoints, nncells, VTK_DATA_TYPE.FLOAT64);
+    }
+
+    /**
+     * Writes data previously declared in the XML section to a binary stream.
+     *
+     * @param dos: binary stream.
+     * @param nnpoints: number of nodes in grid.
+     * @param nncells: number of cells in grid.
+     * @param precision: type used to write double data, it must match the one used to declare the arrays.
+     */
+    public void appendData(DataOutputStream dos, long nnpoints, long nncells, VTK_DATA_TYPE precision) throws Exception {
+        appendData(dos, nnpoints, nncells, precision, false);
+    }
+
+    /**
+     * Writes data previously declared in the XML section to a binary stream.
+     *
+     * @param dos: binary stream.
+     * @param nnpoints: number of nodes in grid.
+     * @param nncells: number of cells in grid.
+     * @param precision: type used to write double data, it must match the one used to declare the arrays.
+     * @param narrowIntegers: it must match the one used to declare the arrays.
+     */
+    public void appendData(DataOutputStream dos, long nnpoints, long nncells, VTK_DATA_TYPE precision,
+                           boolean narrowIntegers) throws Exception {
         if (pd.size() == 0) return;
 
         var size = (type.equals("pointData")) ? nnpoints : nncells;
-        DataOutputStream dos = vw.getStream();
         for (PairData p : pd) {
             assert p.size() == size;
-            p.appendTo(dos);
+            p.appendTo(dos, precision, narrowIntegers);
         }
     }
 }
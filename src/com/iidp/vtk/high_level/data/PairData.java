@@ -16,28 +16,52 @@
  */
 package com.iidp.vtk.high_level.data;
 
+import com.iidp.vtk.low_level.ArrayView;
+import com.iidp.vtk.low_level.BigDoubleArray;
+import com.iidp.vtk.low_level.BigIntArray;
 import com.iidp.vtk.low_level.VTKWriter;
 import com.iidp.vtk.low_level.VTK_DATA_TYPE;
 
 import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.LongToDoubleFunction;
+import java.util.function.LongUnaryOperator;
 
 /**
  * Container to store data associated to cells or nodes of the grid.
  * It also provides methods to append data to a binary file or write it
  * as text as part of the XML section of the file.
  *
- * Current version can store double or int data.
+ * Current version can store double or int data. Values are kept in a primitive array,
+ * which is not copied when the PairData is created from an array. Variables with more
+ * than 2^31 values are stored in a BigDoubleArray or BigIntArray. Values that are not
+ * in VTK order are kept in an ArrayView, which is gathered by chunks when it is written.
  */
 public class PairData {
     public final String name;
     public final VTK_DATA_TYPE type;
 
-    List<Integer> idata;
-    List<Double> ddata;
+    BigIntArray idata;
+    BigDoubleArray ddata;
+    ArrayView view;
 
-    int _size;
-    public int size() {
+    /** True if the values were copied from a List when this PairData was created. */
+    private final boolean copied;
+
+    /** Number of mantissa bits of double data that are written, see setMaxRelativeError. */
+    private int mantissaBits = VTKWriter.FULL_MANTISSA;
+
+    /**
+     * Narrowed type of int data, see outputType. It is computed when it is first needed and kept until the data
+     * is appended, so the values are scanned only once for each file even though the type is needed to declare
+     * the array, to choose the header type of the file and to write the values.
+     */
+    private volatile VTK_DATA_TYPE narrowed = null;
+
+    long _size;
+    public long size() {
         return _size;
     }
 
@@ -47,28 +71,128 @@ public class PairData {
      * though the static factory methods.
      *
      * @param _name:  name of the variable.
-     * @param _ddata: double data, if null then _idata should be a list.
-     * @param _idata: int data, if null then _ddata should be a list.
+     * @param _ddata: double data, if null then _idata should be an array.
+     * @param _idata: int data, if null then _ddata should be an array.
+     * @param _copied: true if the array was created by the factory method.
      */
-    private PairData(String _name, List<Double> _ddata, List<Integer> _idata) {
+    private PairData(String _name, BigDoubleArray _ddata, BigIntArray _idata, boolean _copied) {
         name = _name;
+        copied = _copied;
         VTK_DATA_TYPE _t = null;
         if (_ddata != null) {
             _t = VTK_DATA_TYPE.FLOAT64;
             ddata = _ddata;
-            _size = ddata.size();
+            _size = ddata.length();
         }
 
         if (_idata != null) {
             assert _t == null;
             _t = VTK_DATA_TYPE.INT32;
             idata = _idata;
-            _size = idata.size();
+            _size = idata.length();
         }
         type = _t;
         assert type != null;
     }
 
+    // Creates a PairData that reads its values from a view, see makeViewPair.
+    private PairData(String _name, ArrayView _view, boolean _copied) {
+        name = _name;
+        copied = _copied;
+        view = _view;
+        type = viewType(view.type());
+        _size = view.size();
+    }
+
+    // Helper function: type of the data of a view, i.e. Int32 for integers that fit an Int32, Int64 for
+    // UInt32 and Int64 values, which are read as longs when they are written, and UInt64 for UInt64 values.
+    private static VTK_DATA_TYPE viewType(VTK_DATA_TYPE t) {
+        switch (t) {
+            case FLOAT32:
+            case FLOAT64:
+                return VTK_DATA_TYPE.FLOAT64;
+            case UINT32:
+            case INT64:
+                return VTK_DATA_TYPE.INT64;
+            case UINT64:
+                return VTK_DATA_TYPE.UINT64;
+            default:
+                return VTK_DATA_TYPE.INT32;
+        }
+    }
+
+    /**
+     * Sets the maximum relative error of the double values written to a binary file.
+     * The low bits of the mantissa that are not needed to keep this error are set to zero,
+     * so the array is still a standard float array, but it compresses much better.
+     * E.g. an error of 1.0e-4 keeps around 4 significant digits.
+     * It has no effect on int data or on data written as text. Data written as Float32 is rounded to 24 bits
+     * if a smaller error is requested, so its error can be up to 2^-24.
+     *
+     * @param maxRelativeError: maximum relative error of normal values, or 0 to write all bits.
+     * @return this PairData.
+     */
+    public PairData setMaxRelativeError(double maxRelativeError) {
+        assert maxRelativeError >= 0.0;
+        if (maxRelativeError == 0.0) {
+            mantissaBits = VTKWriter.FULL_MANTISSA;
+        } else {
+            // Truncated values with k mantissa bits have a relative error smaller than 2^-k
+            var k = (int) Math.ceil(-Math.log(maxRelativeError) / Math.log(2.0));
+            mantissaBits = Math.max(0, Math.min(52, k));
+        }
+        return this;
+    }
+
+    /**
+     * Returns the number of mantissa bits of double data that are written,
+     * or VTKWriter.FULL_MANTISSA if all of them are written.
+     */
+    public int getMantissaBits() {
+        return mantissaBits;
+    }
+
+    /**
+     * Returns the type used to write this PairData.
+     *
+     * @param precision: type used to write double data, either FLOAT64 or FLOAT32.
+     */
+    public VTK_DATA_TYPE outputType(VTK_DATA_TYPE precision) {
+        return outputType(precision, false);
+    }
+
+    /**
+     * Returns the type used to write this PairData.
+     *
+     * @param precision: type used to write double data, either FLOAT64 or FLOAT32.
+     * @param narrowIntegers: if true, int data is written with the smallest type that can store all its values,
+     *                        which requires a scan of the data the first time it is needed for a file.
+     */
+    public VTK_DATA_TYPE outputType(VTK_DATA_TYPE precision, boolean narrowIntegers) {
+        if (type == VTK_DATA_TYPE.FLOAT64) return precision;
+        // UInt64 values from 2^63 do not fit any other type
+        if (!narrowIntegers || type == VTK_DATA_TYPE.UINT64) return type;
+        var t = narrowed;
+        if (t == null) {
+            if (view != null) {
+                var r = view.range();
+                t = (_size > 0) ? VTK_DATA_TYPE.narrowest((long) r[0], (long) r[1]) : VTK_DATA_TYPE.UINT8;
+            } else {
+                t = VTK_DATA_TYPE.narrowest(idata);
+            }
+            narrowed = t;
+        }
+        return t;
+    }
+
+    /**
+     * Returns an estimate of the heap memory used to store the values of this PairData.
+     * It is zero when this PairData was created from an array, since the array is not copied.
+     */
+    public long memoryBytes() {
+        return copied ? _size * type.sizeof() : 0;
+    }
+
     /**
      * Appends data stored in this PairData to a binary stream.
      * NOTE: The data declaration should have been previously included in
@@ -78,28 +202,150 @@ public class PairData {
      * @throws Exception
      */
     public void appendTo(DataOutputStream stream) throws Exception {
-        stream.writeInt(this._size * type.sizeof());
-        if (type == VTK_DATA_TYPE.FLOAT64) {
-            Helpers.writeDouble(stream, ddata);
+        appendTo(stream, VTK_DATA_TYPE.FLOAT64);
+    }
+
+    /**
+     * Appends data stored in this PairData to a binary stream.
+     * NOTE: The data declaration should have been previously included in
+     * the file XML section of the file using outputType(precision).
+     *
+     * @param stream: binary stream.
+     * @param precision: type used to write double data, either FLOAT64 or FLOAT32.
+     * @throws Exception
+     */
+    public void appendTo(DataOutputStream stream, VTK_DATA_TYPE precision) throws Exception {
+        appendTo(stream, precision, false);
+    }
+
+    /**
+     * Appends data stored in this PairData to a binary stream.
+     * NOTE: The data declaration should have been previously included in
+     * the file XML section of the file using outputType(precision, narrowIntegers).
+     *
+     * @param stream: binary stream.
+     * @param precision: type used to write double data, either FLOAT64 or FLOAT32.
+     * @param narrowIntegers: if true, int data is written with the smallest type that can store all its values.
+     * @throws Exception
+     */
+    public void appendTo(DataOutputStream stream, VTK_DATA_TYPE precision, boolean narrowIntegers) throws Exception {
+        var t = outputType(precision, narrowIntegers);
+        if (view != null) {
+            if (type == VTK_DATA_TYPE.FLOAT64) {
+                VTKWriter.writeArray(stream, view, precision, 0.0, mantissaBits);
+            } else {
+                VTKWriter.writeArray(stream, view, t);
+            }
+        } else if (type == VTK_DATA_TYPE.FLOAT64) {
+            VTKWriter.writeArray(stream, ddata, precision, 0.0, mantissaBits);
         } else if (type == VTK_DATA_TYPE.INT32) {
-            Helpers.writeInt(stream, idata);
+            VTKWriter.writeArray(stream, idata, t);
         }
+        // the values may change before they are written to another file
+        narrowed = null;
     }
 
     /**
      * Writes data stored in this PairData as text to the XML section.
+     * Variables stored in big arrays are written chunk by chunk, so they can have more than 2^31 values.
      *
      * @param vw: writer used to create this file.
      * @throws Exception
      */
     public void addToVTKAsAscii(VTKWriter vw) throws Exception {
-       if (type == VTK_DATA_TYPE.FLOAT64) {
-           vw.addDataArrayDoubleASCII(name, ddata);
+       if (view != null) {
+           var values = new double[Math.toIntExact(_size)];
+           view.copy(0, values.length, values);
+           if (type == VTK_DATA_TYPE.FLOAT64) {
+               vw.addDataArrayASCII(name, values);
+           } else if (type == VTK_DATA_TYPE.INT32) {
+               vw.addDataArrayASCII(name, Arrays.stream(values).mapToInt(v -> (int) v).toArray());
+           } else {
+               var longs = new long[values.length];
+               Arrays.setAll(longs, i -> view.getLong(i));
+               vw.addDataArrayASCII(name, longs, type);
+           }
+       } else if (type == VTK_DATA_TYPE.FLOAT64) {
+           vw.addDataArrayASCII(name, ddata);
        } else if (type == VTK_DATA_TYPE.INT32) {
-           vw.addDataArrayIntASCII(name, idata);
+           vw.addDataArrayASCII(name, idata);
        }
     }
 
+    /**
+     * Returns a new PairData with a subset of the values of this one, e.g. the values of the cells of
+     * a region of the grid. Values are gathered in parallel and the precision of double data is kept.
+     *
+     * @param n: number of values of the new PairData.
+     * @param index: index in this PairData of each value of the new one.
+     * @return a new PairData.
+     */
+    public PairData gather(long n, LongUnaryOperator index) {
+        if (view != null) {
+            return interpolate(n, index, index, i -> 0.0);
+        }
+        var p = (type == VTK_DATA_TYPE.FLOAT64) ?
+                new PairData(name, ddata.gather(n, index), null, true) :
+                new PairData(name, null, idata.gather(n, index), true);
+        p.mantissaBits = mantissaBits;
+        return p;
+    }
+
+    /**
+     * Returns a new PairData whose values are interpolated between pairs of values of this one, e.g. the values
+     * of the points of an isosurface. Int data takes the nearest value. See BigDoubleArray.interpolate.
+     *
+     * @param n: number of values of the new PairData.
+     * @param from: index in this PairData of the first value of each value of the new one.
+     * @param to: index in this PairData of the second value of each value of the new one.
+     * @param weight: weight of the second value, between 0 and 1.
+     * @return a new PairData.
+     */
+    public PairData interpolate(long n, LongUnaryOperator from, LongUnaryOperator to, LongToDoubleFunction weight) {
+        if (view != null && type.sizeof() == Long.BYTES) {
+            return longViewPair(n, i -> {
+                var w = weight.applyAsDouble(i);
+                return view.getLong((w < 0.5) ? from.applyAsLong(i) : to.applyAsLong(i));
+            });
+        }
+        if (view != null) {
+            var p = (type == VTK_DATA_TYPE.FLOAT64) ?
+                    new PairData(name, BigDoubleArray.generate(n, i -> {
+                        var w = weight.applyAsDouble(i);
+                        var a = view.get(from.applyAsLong(i));
+                        return (w == 0.0) ? a : (1.0 - w) * a + w * view.get(to.applyAsLong(i));
+                    }), null, true) :
+                    new PairData(name, null, BigIntArray.generate(n, i -> {
+                        var w = weight.applyAsDouble(i);
+                        return (int) view.get((w < 0.5) ? from.applyAsLong(i) : to.applyAsLong(i));
+                    }), true);
+            p.mantissaBits = mantissaBits;
+            return p;
+        }
+        var p = (type == VTK_DATA_TYPE.FLOAT64) ?
+                new PairData(name, ddata.interpolate(n, from, to, weight), null, true) :
+                new PairData(name, null, idata.interpolate(n, from, to, weight), true);
+        p.mantissaBits = mantissaBits;
+        return p;
+    }
+
+    // Helper function: PairData of the same type as this one, whose n longs are copied to a buffer that is read
+    // through a view, since big arrays only store int and double data.
+    private PairData longViewPair(long n, LongUnaryOperator values) {
+        var b = ByteBuffer.allocate(Math.toIntExact(n * Long.BYTES));
+        for (long i = 0; i < n; i++) {
+            b.putLong(values.applyAsLong(i));
+        }
+        var t = (type == VTK_DATA_TYPE.UINT64) ? VTK_DATA_TYPE.UINT64 : VTK_DATA_TYPE.INT64;
+        return new PairData(name, ArrayView.records(b, t, 0, Long.BYTES, (int) n), true);
+    }
+
+    /** Returns value i of this PairData as a double. */
+    public double get(long i) {
+        if (view != null) return view.get(i);
+        return (type == VTK_DATA_TYPE.FLOAT64) ? ddata.get(i) : idata.get(i);
+    }
+
     /**
      * Factory method to create a PairData that contains double data.
      *
@@ -108,20 +354,37 @@ public class PairData {
      * @return a new PairData.
      */
     public static PairData makeDoublePair(String name, List<Double> data) {
-        return new PairData(name, data, null);
+        var _data = new double[data.size()];
+        for (int i = 0; i < _data.length; i++) {
+            _data[i] = data.get(i);
+        }
+        return new PairData(name, BigDoubleArray.wrap(_data), null, true);
     }
 
     /**
      * Factory method to create a PairData that contains double data.
+     * The array is not copied, so it should not be modified until the data is written.
      *
      * @param name: name of the variable.
      * @param data: data to store.
      * @return a new PairData.
      */
     public static PairData makeDoublePair(String name, double[] data) {
-        var _data = Helpers.createList(data);
-        assert _data != null;
-        return new PairData(name, _data, null);
+        assert data != null;
+        return new PairData(name, BigDoubleArray.wrap(data), null, false);
+    }
+
+    /**
+     * Factory method to create a PairData that contains double data with more than 2^31 values.
+     * The array is not copied, so it should not be modified until the data is written.
+     *
+     * @param name: name of the variable.
+     * @param data: data to store.
+     * @return a new PairData.
+     */
+    public static PairData makeDoublePair(String name, BigDoubleArray data) {
+        assert data != null;
+        return new PairData(name, data, null, false);
     }
 
     /**
@@ -132,19 +395,52 @@ public class PairData {
      * @return a new PairData.
      */
     public static PairData makeIntegerPair(String name, List<Integer> data) {
-        return new PairData(name, null, data);
+        var _data = new int[data.size()];
+        for (int i = 0; i < _data.length; i++) {
+            _data[i] = data.get(i);
+        }
+        return new PairData(name, null, BigIntArray.wrap(_data), true);
     }
 
     /**
      * Factory method to create a PairData that contains integer data.
+     * The array is not copied, so it should not be modified until the data is written.
      *
      * @param name: name of the variable.
      * @param data: data to store.
      * @return a new PairData.
      */
     public static PairData makeIntegerPair(String name, int[] data) {
-        var _data = Helpers.createList(data);
-        assert _data != null;
-        return new PairData(name, null, _data);
+        assert data != null;
+        return new PairData(name, null, BigIntArray.wrap(data), false);
+    }
+
+    /**
+     * Factory method to create a PairData that contains integer data with more than 2^31 values.
+     * The array is not copied, so it should not be modified until the data is written.
+     *
+     * @param name: name of the variable.
+     * @param data: data to store.
+     * @return a new PairData.
+     */
+    public static PairData makeIntegerPair(String name, BigIntArray data) {
+        assert data != null;
+        return new PairData(name, null, data, false);
+    }
+
+    /**
+     * Factory method to create a PairData that reads its values from a view, e.g. a Fortran array,
+     * a strided sub-array or a field of records in a ByteBuffer. The values are not copied, they are
+     * gathered by chunks when the PairData is written. Views of integers are written as int data, except
+     * UInt32 and Int64 values, which are written as Int64, and UInt64 values, which are written as UInt64.
+     * Values of 64 bits are read as longs, so they are not rounded to doubles.
+     *
+     * @param name: name of the variable.
+     * @param data: view of the values, see ArrayView.
+     * @return a new PairData.
+     */
+    public static PairData makeViewPair(String name, ArrayView data) {
+        assert data != null;
+        return new PairData(name, data, false);
     }
 }
@@ -0,0 +1,59 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level.examples;
+
+import com.iidp.vtk.high_level.BatchExporter;
+
+import static com.iidp.vtk.high_level.EVTK.*;
+
+/**
+ * Example of how to export many files at the same time and collect them in a group
+ * that can be animated.
+ */
+public class ExBatchExport {
+
+    public static void main(String[] args) throws Exception {
+        var nsteps = 20;
+        var nc = 20;
+        var ncells = new int[] {nc, nc, nc};
+        var nncells = nc * nc * nc;
+        var origin = new double[]{0.0, 0.0, 0.0};
+        var spacing = new double[]{1.0, 1.0, 1.0};
+
+        // Each file needs around 8 bytes per cell, allow 4 of them in flight.
+        var nbytes = 8L * nncells;
+
+        var group = createGroup("batch_series");
+        try (var batch = new BatchExporter(4 * nbytes, 4).setGroup(group)) {
+            for (int s = 0; s < nsteps; s++) {
+                final int step = s;
+                batch.submit(() -> {
+                    var temp = new double[nncells];
+                    for (int i = 0; i < nncells; i++) {
+                        temp[i] = Math.sin(0.01 * i + 0.1 * step);
+                    }
+                    var cellData = makeCellData();
+                    cellData.addData("temp", temp);
+                    return imageToVTK("batch_step_" + step, ncells, origin, spacing, cellData, null, null);
+                }, nbytes, step, 0);
+            }
+        }
+        group.close();
+
+        System.out.println("*** ALL DONE ***");
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level.examples;
+
+import com.iidp.vtk.high_level.MultiBlockExporter;
+import com.iidp.vtk.low_level.VTK_CELL_TYPE;
+
+import static com.iidp.vtk.high_level.EVTK.*;
+
+/**
+ * Example of how to export grids of different types at the same time as blocks of a multiblock file.
+ */
+public class ExMultiBlock {
+
+    public static void main(String[] args) throws Exception {
+        // Image with a cell variable
+        var nc = 10;
+        var ncells = new int[]{nc, nc, nc};
+        var temp = new double[nc * nc * nc];
+        for (int i = 0; i < temp.length; i++) {
+            temp[i] = Math.sin(0.01 * i);
+        }
+        var cellData = makeCellData();
+        cellData.addData("temp", temp);
+
+        // Unstructured grid with a single tetrahedron below the image
+        var x = new double[]{0.0, 10.0, 0.0, 0.0};
+        var y = new double[]{0.0, 0.0, 10.0, 0.0};
+        var z = new double[]{-10.0, -10.0, -10.0, -1.0};
+        var connectivity = new int[]{0, 1, 2, 3};
+        var offsets = new int[]{4};
+        var types = new VTK_CELL_TYPE[]{VTK_CELL_TYPE.VTK_TETRA};
+
+        // Line above the image
+        var lx = new double[]{0.0, 10.0};
+        var ly = new double[]{0.0, 10.0};
+        var lz = new double[]{11.0, 11.0};
+
+        try (var mb = new MultiBlockExporter("multiblock")) {
+            mb.addBlock("image", p -> imageToVTK(p, ncells, new double[]{0.0, 0.0, 0.0},
+                    new double[]{1.0, 1.0, 1.0}, cellData, null, null));
+            mb.addBlock("tetra", p -> unstructuredGridToVTK(p, x, y, z, connectivity, offsets, types,
+                    null, null, null));
+            mb.addBlock("lines", "diagonal", p -> linesToVTK(p, lx, ly, lz, null, null, null));
+        }
+
+        System.out.println("*** ALL DONE ***");
+    }
+}
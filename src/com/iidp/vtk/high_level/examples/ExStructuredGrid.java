@@ -33,15 +33,15 @@ public class ExStructuredGrid {
         var nncells = nc * nc * nc;
         var nnpoints = (nc + 1) * (nc + 1) * (nc + 1);
 
-        var x = new double[nc][nc][nc];
-        var y = new double[nc][nc][nc];
-        var z = new double[nc][nc][nc];
+        var x = new double[nc + 1][nc + 1][nc + 1];
+        var y = new double[nc + 1][nc + 1][nc + 1];
+        var z = new double[nc + 1][nc + 1][nc + 1];
 
         var rnd = new Random();
         var factor = 0.2;
-        for (int k = 0; k < nc; k++) {
-            for (int j = 0; j < nc; j++) {
-                for (int i = 0; i < nc; i++) {
+        for (int k = 0; k < nc + 1; k++) {
+            for (int j = 0; j < nc + 1; j++) {
+                for (int i = 0; i < nc + 1; i++) {
                     x[i][j][k] = dx * i + rnd.nextDouble() * dx * factor;
                     y[i][j][k] = dy * j + rnd.nextDouble() * dy * factor;
                     z[i][j][k] = dz * k + rnd.nextDouble() * dz * factor;
@@ -0,0 +1,86 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.high_level.examples;
+
+import com.iidp.vtk.high_level.EVTK;
+import com.iidp.vtk.high_level.data.GridData;
+import com.iidp.vtk.low_level.VTK_CELL_TYPE;
+
+/**
+ * Example of how to export several partitions of a grid as the pieces of a single file.
+ * Each partition is a row of quads.
+ */
+public class ExUnstructuredPieces {
+
+    public static void main(String[] args) throws Exception {
+        var npieces = 4;
+        var nquads = 10;
+        var nnpoints = 2 * (nquads + 1);
+
+        var x = new double[npieces][];
+        var y = new double[npieces][];
+        var z = new double[npieces][];
+        var conn = new int[npieces][];
+        var offsets = new int[npieces][];
+        var ctype = new VTK_CELL_TYPE[npieces][];
+        var cellData = new GridData[npieces];
+        var pointData = new GridData[npieces];
+
+        for (int p = 0; p < npieces; p++) {
+            // Nodes of the row: lower nodes first, then upper nodes
+            x[p] = new double[nnpoints];
+            y[p] = new double[nnpoints];
+            z[p] = new double[nnpoints];
+            for (int i = 0; i < nquads + 1; i++) {
+                x[p][i] = i;
+                y[p][i] = p;
+                x[p][i + nquads + 1] = i;
+                y[p][i + nquads + 1] = p + 1;
+            }
+
+            conn[p] = new int[4 * nquads];
+            offsets[p] = new int[nquads];
+            ctype[p] = new VTK_CELL_TYPE[nquads];
+            for (int i = 0; i < nquads; i++) {
+                conn[p][4 * i + 0] = i;
+                conn[p][4 * i + 1] = i + 1;
+                conn[p][4 * i + 2] = i + nquads + 2;
+                conn[p][4 * i + 3] = i + nquads + 1;
+                offsets[p][i] = 4 * (i + 1);
+                ctype[p][i] = VTK_CELL_TYPE.VTK_QUAD;
+            }
+
+            var partition = new int[nquads];
+            for (int i = 0; i < nquads; i++) {
+                partition[i] = p;
+            }
+            cellData[p] = EVTK.makeCellData();
+            cellData[p].addData("partition", partition);
+
+            var elevation = new double[nnpoints];
+            for (int i = 0; i < nnpoints; i++) {
+                elevation[i] = y[p][i];
+            }
+            pointData[p] = EVTK.makePointData();
+            pointData[p].addData("elevation", elevation);
+        }
+
+        EVTK.unstructuredGridPiecesToVTK("unstructured_pieces", x, y, z, conn, offsets, ctype, cellData, pointData, null);
+
+        System.out.println("*** ALL DONE ***");
+    }
+}
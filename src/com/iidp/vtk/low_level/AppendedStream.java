@@ -0,0 +1,45 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.low_level;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Binary stream that knows how the size of the arrays in the appended section
+ * of a file is written, i.e. as a 32 or 64 bit unsigned integer.
+ * See VTKWriter.writeSize.
+ */
+class AppendedStream extends DataOutputStream {
+    private final boolean header64;
+
+    AppendedStream(OutputStream out, boolean _header64) {
+        super(out);
+        header64 = _header64;
+    }
+
+    /** Writes the size in bytes of an array. */
+    void writeSize(long nbytes) throws IOException {
+        if (header64) {
+            writeLong(nbytes);
+        } else {
+            assert nbytes <= 0xFFFFFFFFL : "array larger than 4 GB requires a UINT64 header";
+            writeInt((int) nbytes);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.low_level;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only view of values that are not stored in VTK order, which is written without copying it first.
+ * <p>
+ * A view has a shape, i.e. the number of values in the x, y and z directions, and strides, i.e. the distance
+ * in the source between consecutive values in each direction. Value (i, j, k) is read at
+ * offset + i * strides[0] + j * strides[1] + k * strides[2]. For example:
+ * <ul>
+ *   <li>a Fortran array a(nx, ny, nz) is in VTK order, i.e. strides {1, nx, nx * ny}, see columnMajor.</li>
+ *   <li>a C array a[nx][ny][nz] flattened in row-major order has strides {ny * nz, nz, 1}, see rowMajor.</li>
+ *   <li>a field of particle records packed in a ByteBuffer is a 1D view whose stride is the size of a record
+ *       and whose offset is the position of the field in the record, see records.</li>
+ * </ul>
+ * Strides of arrays are given in elements, and strides of ByteBuffers in bytes. Values are copied to the file
+ * by chunks in VTK order, see copy. When the x direction is not the fastest one in the source, chunks are
+ * gathered by tiles of rows, so consecutive reads stay close in memory. There is no full-size temporary copy.
+ */
+public abstract class ArrayView {
+    // Number of rows and values per row of the tiles used to gather a chunk
+    private static final int TILE = 32;
+
+    final int[] shape;
+    final long[] strides;
+    final long offset;
+
+    ArrayView(int[] _shape, long[] _strides, long _offset) {
+        assert _shape.length == 3 && _strides.length == 3;
+        shape = _shape.clone();
+        strides = _strides.clone();
+        offset = _offset;
+    }
+
+    /** Returns the number of values. */
+    public long size() {
+        return (long) shape[0] * shape[1] * shape[2];
+    }
+
+    /** Returns the number of values in each direction. */
+    public int[] shape() {
+        return shape.clone();
+    }
+
+    /** Returns the type of the values of the source, e.g. VTK_DATA_TYPE.FLOAT64 for a double array. */
+    public abstract VTK_DATA_TYPE type();
+
+    /**
+     * Returns true if values are integers, which are written as Int32 by the high level interface,
+     * or as Int64 or UInt64 when their type does not fit an Int32, see type.
+     */
+    public boolean isInteger() {
+        return (type() != VTK_DATA_TYPE.FLOAT32) && (type() != VTK_DATA_TYPE.FLOAT64);
+    }
+
+    /** Returns the value at a position of the source. */
+    abstract double value(long position);
+
+    /** Returns the value at a position of the source as a long, which is exact for integers of 64 bits. */
+    long longValue(long position) {
+        return (long) value(position);
+    }
+
+    /** Returns a view of the same source with another shape, strides and offset. */
+    abstract ArrayView view(int[] _shape, long[] _strides, long _offset);
+
+    /** Returns value i in VTK order, i.e. with x changing fastest, then y, then z. */
+    public double get(long i) {
+        var nx = shape[0];
+        var ny = shape[1];
+        return value(position(i % nx, (i / nx) % ny, i / ((long) nx * ny)));
+    }
+
+    /**
+     * Returns value i in VTK order as a long, see get. Integers of 64 bits are returned without rounding them
+     * to a double, and UInt64 values are returned with the same bits, i.e. values from 2^63 are negative.
+     */
+    public long getLong(long i) {
+        var nx = shape[0];
+        var ny = shape[1];
+        return longValue(position(i % nx, (i / nx) % ny, i / ((long) nx * ny)));
+    }
+
+    /**
+     * Returns a view of a subset of the values, e.g. a region of a grid or every other point.
+     *
+     * @param first: index of the first value in each direction as a int[3].
+     * @param count: number of values in each direction as a int[3].
+     * @param step:  distance between values in each direction as a int[3].
+     */
+    public ArrayView sample(int[] first, int[] count, int[] step) {
+        for (int d = 0; d < 3; d++) {
+            assert (first[d] >= 0) && (count[d] > 0) && (first[d] + (long) (count[d] - 1) * step[d] < shape[d]);
+        }
+        var s = new long[]{strides[0] * step[0], strides[1] * step[1], strides[2] * step[2]};
+        return view(count, s, position(first[0], first[1], first[2]));
+    }
+
+    /**
+     * Copies n consecutive values in VTK order to an array.
+     *
+     * @param start: index of the first value in VTK order.
+     * @param n: number of values.
+     * @param dst: destination, it must have at least n elements.
+     */
+    public void copy(long start, int n, double[] dst) {
+        final int nx = shape[0];
+        final int ny = shape[1];
+
+        // Rows of the chunk, i.e. runs of values along x, where only the first and the last rows can be partial
+        final int maxRows = n / nx + 2;
+        var rowDst = new int[maxRows];
+        var rowPos = new long[maxRows];
+        var rowLen = new int[maxRows];
+        var nrows = 0;
+        for (int d = 0; d < n; nrows++) {
+            var i = start + d;
+            var ix = i % nx;
+            var len = (int) Math.min(nx - ix, n - d);
+            rowDst[nrows] = d;
+            rowPos[nrows] = position(ix, (i / nx) % ny, i / ((long) nx * ny));
+            rowLen[nrows] = len;
+            d += len;
+        }
+
+        final var sx = strides[0];
+        if (Math.abs(sx) <= Math.abs(strides[1]) || nrows == 1) {
+            // x is the fastest direction of the source, so rows are read one after the other
+            for (int r = 0; r < nrows; r++) {
+                copyRow(rowPos[r], sx, rowLen[r], dst, rowDst[r]);
+            }
+            return;
+        }
+
+        // Otherwise tiles of TILE rows by TILE values are transposed, reading consecutive rows in the inner loop
+        for (int r0 = 0; r0 < nrows; r0 += TILE) {
+            var r1 = Math.min(nrows, r0 + TILE);
+            for (int i0 = 0; i0 < nx; i0 += TILE) {
+                var i1 = Math.min(nx, i0 + TILE);
+                for (int i = i0; i < i1; i++) {
+                    for (int r = r0; r < r1; r++) {
+                        if (i < rowLen[r]) {
+                            dst[rowDst[r] + i] = value(rowPos[r] + i * sx);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Copies n values that start at a position of the source and are separated by stride. */
+    void copyRow(long position, long stride, int n, double[] dst, int off) {
+        for (int i = 0; i < n; i++) {
+            dst[off + i] = value(position + i * stride);
+        }
+    }
+
+    /** Returns the smallest and largest values as a double[2]. Values are scanned by chunks. */
+    public double[] range() {
+        var min = Double.POSITIVE_INFINITY;
+        var max = Double.NEGATIVE_INFINITY;
+        var chunk = new double[CHUNK_SIZE];
+        var n = size();
+        for (long start = 0; start < n; start += CHUNK_SIZE) {
+            var m = (int) Math.min(CHUNK_SIZE, n - start);
+            copy(start, m, chunk);
+            for (int i = 0; i < m; i++) {
+                min = Math.min(min, chunk[i]);
+                max = Math.max(max, chunk[i]);
+            }
+        }
+        return new double[]{min, max};
+    }
+
+    /** Number of values copied at once by range and by the writers in VTKWriter. */
+    static final int CHUNK_SIZE = 8190;
+
+    // Helper function: position in the source of value (i, j, k).
+    private long position(long i, long j, long k) {
+        return offset + i * strides[0] + j * strides[1] + k * strides[2];
+    }
+
+    /** Returns a view of an array in VTK order, i.e. a 1D array or a Fortran array a(nx, ny, nz). */
+    public static ArrayView of(double[] a) {
+        return columnMajor(a, a.length, 1, 1);
+    }
+
+    /** Returns a view of a Fortran, i.e. column-major, array a(nx, ny, nz), which is in VTK order. */
+    public static ArrayView columnMajor(double[] a, int nx, int ny, int nz) {
+        return of(a, new int[]{nx, ny, nz}, new long[]{1, nx, (long) nx * ny}, 0);
+    }
+
+    /** Returns a view of a C, i.e. row-major, array a[nx][ny][nz] flattened in a 1D array. */
+    public static ArrayView rowMajor(double[] a, int nx, int ny, int nz) {
+        return of(a, new int[]{nx, ny, nz}, new long[]{(long) ny * nz, nz, 1}, 0);
+    }
+
+    /**
+     * Returns a view of a double array.
+     *
+     * @param a: values.
+     * @param shape: number of values in each direction as a int[3].
+     * @param strides: distance in elements between consecutive values in each direction as a long[3].
+     * @param offset: index of the first value.
+     */
+    public static ArrayView of(double[] a, int[] shape, long[] strides, long offset) {
+        return new DoubleView(a, shape, strides, offset);
+    }
+
+    /** Returns a view of a float array, see of(double[], int[], long[], long). */
+    public static ArrayView of(float[] a, int[] shape, long[] strides, long offset) {
+        return new FloatView(a, shape, strides, offset);
+    }
+
+    /** Returns a view of an int array, see of(double[], int[], long[], long). */
+    public static ArrayView of(int[] a, int[] shape, long[] strides, long offset) {
+        return new IntView(a, shape, strides, offset);
+    }
+
+    /**
+     * Returns a view of values of a ByteBuffer, read with the byte order of the buffer.
+     *
+     * @param b: buffer.
+     * @param type: type of the values.
+     * @param shape: number of values in each direction as a int[3].
+     * @param strides: distance in bytes between consecutive values in each direction as a long[3].
+     * @param offset: position in bytes of the first value.
+     */
+    public static ArrayView of(ByteBuffer b, VTK_DATA_TYPE type, int[] shape, long[] strides, long offset) {
+        return new BufferView(b, type, shape, strides, offset);
+    }
+
+    /**
+     * Returns a view of a field of n records packed in a ByteBuffer, e.g. the x coordinate of particles.
+     *
+     * @param b: buffer, whose byte order is used to read values.
+     * @param type: type of the field.
+     * @param fieldOffset: position in bytes of the field in a record.
+     * @param recordBytes: size in bytes of a record.
+     * @param n: number of records.
+     */
+    public static ArrayView records(ByteBuffer b, VTK_DATA_TYPE type, int fieldOffset, int recordBytes, int n) {
+        return of(b, type, new int[]{n, 1, 1}, new long[]{recordBytes, (long) recordBytes * n, (long) recordBytes * n},
+                fieldOffset);
+    }
+
+    // Helper classes: views of each type of source.
+    private static class DoubleView extends ArrayView {
+        private final double[] a;
+
+        DoubleView(double[] _a, int[] _shape, long[] _strides, long _offset) {
+            super(_shape, _strides, _offset);
+            a = _a;
+        }
+
+        public VTK_DATA_TYPE type() {
+            return VTK_DATA_TYPE.FLOAT64;
+        }
+
+        double value(long position) {
+            return a[(int) position];
+        }
+
+        @Override
+        void copyRow(long position, long stride, int n, double[] dst, int off) {
+            if (stride == 1) {
+                System.arraycopy(a, (int) position, dst, off, n);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    dst[off + i] = a[(int) (position + i * stride)];
+                }
+            }
+        }
+
+        ArrayView view(int[] _shape, long[] _strides, long _offset) {
+            return new DoubleView(a, _shape, _strides, _offset);
+        }
+    }
+
+    private static class FloatView extends ArrayView {
+        private final float[] a;
+
+        FloatView(float[] _a, int[] _shape, long[] _strides, long _offset) {
+            super(_shape, _strides, _offset);
+            a = _a;
+        }
+
+        public VTK_DATA_TYPE type() {
+            return VTK_DATA_TYPE.FLOAT32;
+        }
+
+        double value(long position) {
+            return a[(int) position];
+        }
+
+        ArrayView view(int[] _shape, long[] _strides, long _offset) {
+            return new FloatView(a, _shape, _strides, _offset);
+        }
+    }
+
+    private static class IntView extends ArrayView {
+        private final int[] a;
+
+        IntView(int[] _a, int[] _shape, long[] _strides, long _offset) {
+            super(_shape, _strides, _offset);
+            a = _a;
+        }
+
+        public VTK_DATA_TYPE type() {
+            return VTK_DATA_TYPE.INT32;
+        }
+
+        double value(long position) {
+            return a[(int) position];
+        }
+
+        ArrayView view(int[] _shape, long[] _strides, long _offset) {
+            return new IntView(a, _shape, _strides, _offset);
+        }
+    }
+
+    private static class BufferView extends ArrayView {
+        private final ByteBuffer b;
+        private final VTK_DATA_TYPE type;
+
+        BufferView(ByteBuffer _b, VTK_DATA_TYPE _type, int[] _shape, long[] _strides, long _offset) {
+            super(_shape, _strides, _offset);
+            b = _b;
+            type = _type;
+        }
+
+        public VTK_DATA_TYPE type() {
+            return type;
+        }
+
+        double value(long position) {
+            var p = (int) position;
+            switch (type) {
+                case INT8:
+                    return b.get(p);
+                case UINT8:
+                    return b.get(p) & 0xFF;
+                case INT16:
+                    return b.getShort(p);
+                case UINT16:
+                    return b.getShort(p) & 0xFFFF;
+                case INT32:
+                    return b.getInt(p);
+                case UINT32:
+                    return b.getInt(p) & 0xFFFFFFFFL;
+                case INT64:
+                case UINT64:
+                    return b.getLong(p);
+                case FLOAT32:
+                    return b.getFloat(p);
+                default:
+                    return b.getDouble(p);
+            }
+        }
+
+        @Override
+        long longValue(long position) {
+            var p = (int) position;
+            switch (type) {
+                case UINT32:
+                    return b.getInt(p) & 0xFFFFFFFFL;
+                case INT64:
+                case UINT64:
+                    return b.getLong(p);
+                default:
+                    return (long) value(position);
+            }
+        }
+
+        ArrayView view(int[] _shape, long[] _strides, long _offset) {
+            return new BufferView(b, type, _shape, _strides, _offset);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.low_level;
+
+import java.util.Arrays;
+import java.util.function.LongToDoubleFunction;
+import java.util.function.LongToIntFunction;
+import java.util.function.LongUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Array of ints indexed by a long, which can store more than 2^31 elements.
+ * <p>
+ * Values are stored in chunks of at most 2^27 elements, i.e. 512 MB, so a large array
+ * does not need a single block of contiguous memory. An existing int[] can be wrapped
+ * without copying it, in which case it is the only chunk of the array.
+ */
+public class BigIntArray {
+    /** Log2 of the number of elements in each chunk of a new array. */
+    public static final int CHUNK_SHIFT = 27;
+
+    private final int[][] chunks;
+    private final long length;
+    private final int shift;
+    private final long mask;
+
+    // Number of elements filled or gathered by each task, see fill and gather.
+    private static final int FILL_BLOCK = 1 << 20;
+
+    /**
+     * Creates an array filled with zeros.
+     *
+     * @param _length: number of elements.
+     */
+    public BigIntArray(long _length) {
+        this(allocate(_length), _length, CHUNK_SHIFT);
+    }
+
+    private BigIntArray(int[][] _chunks, long _length, int _shift) {
+        assert _length >= 0;
+        chunks = _chunks;
+        length = _length;
+        shift = _shift;
+        mask = (1L << _shift) - 1;
+    }
+
+    /**
+     * Creates an array that uses a as its only chunk. The array is not copied.
+     *
+     * @param a: values.
+     * @return a new BigIntArray.
+     */
+    public static BigIntArray wrap(int[] a) {
+        return new BigIntArray(new int[][]{a}, a.length, 31);
+    }
+
+    /** Returns the number of elements. */
+    public long length() {
+        return length;
+    }
+
+    public int get(long i) {
+        return chunks[(int) (i >>> shift)][(int) (i & mask)];
+    }
+
+    public void set(long i, int v) {
+        chunks[(int) (i >>> shift)][(int) (i & mask)] = v;
+    }
+
+    /** Sets all elements to v. Blocks of FILL_BLOCK elements are filled in parallel. */
+    public BigIntArray fill(int v) {
+        var nblocks = (length + FILL_BLOCK - 1) / FILL_BLOCK;
+        IntStream.range(0, (int) nblocks).parallel().forEach(b -> {
+            var start = (long) b * FILL_BLOCK;
+            var end = Math.min(length, start + FILL_BLOCK);
+            while (start < end) {
+                var c = chunks[(int) (start >>> shift)];
+                var from = (int) (start & mask);
+                var to = (int) Math.min(c.length, from + (end - start));
+                Arrays.fill(c, from, to, v);
+                start += to - from;
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Returns a new array with n elements, where element i is values(i), e.g. the values of a view
+     * that are not stored in an array. Blocks of elements are computed in parallel.
+     *
+     * @param n: number of elements of the new array.
+     * @param values: value of each element of the new array.
+     */
+    public static BigIntArray generate(long n, LongToIntFunction values) {
+        var a = new BigIntArray(n);
+        var nblocks = (n + FILL_BLOCK - 1) / FILL_BLOCK;
+        IntStream.range(0, (int) nblocks).parallel().forEach(b -> {
+            var start = (long) b * FILL_BLOCK;
+            var end = Math.min(n, start + FILL_BLOCK);
+            for (long i = start; i < end; i++) {
+                a.set(i, values.applyAsInt(i));
+            }
+        });
+        return a;
+    }
+
+    /**
+     * Returns a new array with n elements, where element i is a copy of the element index(i) of this array.
+     * Blocks of elements are gathered in parallel.
+     *
+     * @param n: number of elements of the new array.
+     * @param index: index in this array of each element of the new array.
+     */
+    public BigIntArray gather(long n, LongUnaryOperator index) {
+        var a = new BigIntArray(n);
+        var nblocks = (n + FILL_BLOCK - 1) / FILL_BLOCK;
+        IntStream.range(0, (int) nblocks).parallel().forEach(b -> {
+            var start = (long) b * FILL_BLOCK;
+            var end = Math.min(n, start + FILL_BLOCK);
+            for (long i = start; i < end; i++) {
+                a.set(i, get(index.applyAsLong(i)));
+            }
+        });
+        return a;
+    }
+
+    /**
+     * Returns a new array with n elements, where element i is the element from(i) or to(i) of this array,
+     * whichever is nearest, i.e. the integer counterpart of BigDoubleArray.interpolate.
+     * Blocks of elements are computed in parallel.
+     *
+     * @param n: number of elements of the new array.
+     * @param from: index in this array of the first value of each element of the new array.
+     * @param to: index in this array of the second value of each element of the new array.
+     * @param weight: weight of the second value of each element, between 0 and 1.
+     */
+    public BigIntArray interpolate(long n, LongUnaryOperator from, LongUnaryOperator to, LongToDoubleFunction weight) {
+        var a = new BigIntArray(n);
+        var nblocks = (n + FILL_BLOCK - 1) / FILL_BLOCK;
+        IntStream.range(0, (int) nblocks).parallel().forEach(b -> {
+            var start = (long) b * FILL_BLOCK;
+            var end = Math.min(n, start + FILL_BLOCK);
+            for (long i = start; i < end; i++) {
+                var w = weight.applyAsDouble(i);
+                a.set(i, get((w < 0.5) ? from.applyAsLong(i) : to.applyAsLong(i)));
+            }
+        });
+        return a;
+    }
+
+    /** Returns the number of chunks. */
+    public int nchunks() {
+        return chunks.length;
+    }
+
+    /**
+     * Returns a chunk of this array. It is not copied, so changes to it change this array.
+     * All chunks have the same length, except the last one that can be shorter.
+     */
+    public int[] chunk(int c) {
+        return chunks[c];
+    }
+
+    // Helper function.
+    private static int[][] allocate(long length) {
+        var chunkLength = 1L << CHUNK_SHIFT;
+        var n = (int) ((length + chunkLength - 1) >>> CHUNK_SHIFT);
+        var c = new int[n][];
+        for (int i = 0; i < n; i++) {
+            c[i] = new int[(int) Math.min(chunkLength, length - i * chunkLength)];
+        }
+        return c;
+    }
+}
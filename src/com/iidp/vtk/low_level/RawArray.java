@@ -0,0 +1,166 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.low_level;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Array stored in a raw binary file, which is written to a VTK file without loading it in the heap.
+ * <p>
+ * The file is mapped in memory with FileChannel.map by windows, and values are copied to the appended
+ * section by chunks, where they are converted to Big Endian and, for planar layouts, interleaved.
+ * So arrays larger than the available memory can be written, e.g. with VTKWriter.appendArray(RawArray).
+ * The file is only opened while the array is written.
+ */
+public class RawArray {
+    // Size of the region of the file that is mapped at once
+    private static final long WINDOW_BYTES = 1L << 28;
+
+    // Size of the chunks copied to the output stream
+    private static final int CHUNK_BYTES = 1 << 16;
+
+    private final File file;
+    private final RawLayout layout;
+
+    /**
+     * @param _file: raw binary file.
+     * @param _layout: how values are stored in the file.
+     * @throws IOException if the file is shorter than the layout.
+     */
+    public RawArray(File _file, RawLayout _layout) throws IOException {
+        file = _file;
+        layout = _layout;
+        var needed = layout.getHeaderBytes() + layout.nbytes();
+        if (file.length() < needed) {
+            throw new IOException("Raw file is too short. File: " + file + "  size: " + file.length() +
+                    "  expected: " + needed);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public RawLayout getLayout() {
+        return layout;
+    }
+
+    public VTK_DATA_TYPE type() {
+        return layout.getType();
+    }
+
+    public long ntuples() {
+        return layout.ntuples();
+    }
+
+    public int ncomponents() {
+        return layout.getComponents();
+    }
+
+    /** Returns the size in bytes of the array in a VTK file, without its header. */
+    public long nbytes() {
+        return layout.nbytes();
+    }
+
+    /**
+     * Writes the array, preceded by its size in bytes, to a binary stream.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        VTKWriter.writeSize(out, nbytes());
+
+        final int size = type().sizeof();
+        final int nc = ncomponents();
+        final long n = ntuples();
+        final var planar = layout.isPlanar() && nc > 1;
+        final var swap = layout.getByteOrder() != ByteOrder.BIG_ENDIAN && size > 1;
+        final var start = layout.getHeaderBytes();
+
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // One window for each block of a planar layout, since they are read at the same time
+            var windows = new Window[planar ? nc : 1];
+            for (int c = 0; c < windows.length; c++) {
+                windows[c] = new Window(channel);
+            }
+
+            final int chunkTuples = Math.max(1, CHUNK_BYTES / (size * nc));
+            var src = planar ? new byte[chunkTuples * size] : null;
+            var dst = new byte[chunkTuples * size * nc];
+            for (long t0 = 0; t0 < n; t0 += chunkTuples) {
+                var m = (int) Math.min(chunkTuples, n - t0);
+                if (planar) {
+                    for (int c = 0; c < nc; c++) {
+                        windows[c].read(start + (c * n + t0) * size, src, m * size);
+                        for (int t = 0; t < m; t++) {
+                            System.arraycopy(src, t * size, dst, (t * nc + c) * size, size);
+                        }
+                    }
+                } else {
+                    windows[0].read(start + t0 * nc * size, dst, m * nc * size);
+                }
+                if (swap) {
+                    swapBytes(dst, m * nc, size);
+                }
+                out.write(dst, 0, m * nc * size);
+            }
+        }
+    }
+
+    // Helper function: reverses the bytes of each of the first n values of an array.
+    private static void swapBytes(byte[] a, int n, int size) {
+        for (int i = 0; i < n; i++) {
+            for (int lo = i * size, hi = lo + size - 1; lo < hi; lo++, hi--) {
+                var b = a[lo];
+                a[lo] = a[hi];
+                a[hi] = b;
+            }
+        }
+    }
+
+    // Helper class: region of a file mapped in memory, which is moved when a read falls outside of it.
+    private static class Window {
+        private final FileChannel channel;
+        private MappedByteBuffer buffer = null;
+        private long first = 0;
+
+        Window(FileChannel _channel) {
+            channel = _channel;
+        }
+
+        /** Copies n bytes that start at a position of the file. */
+        void read(long position, byte[] dst, int n) throws IOException {
+            var off = 0;
+            while (off < n) {
+                if (buffer == null || position < first || position >= first + buffer.limit()) {
+                    first = position;
+                    var length = Math.min(WINDOW_BYTES, channel.size() - position);
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, first, length);
+                }
+                var k = (int) Math.min(n - off, first + buffer.limit() - position);
+                buffer.position((int) (position - first));
+                buffer.get(dst, off, k);
+                off += k;
+                position += k;
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.low_level;
+
+import java.nio.ByteOrder;
+
+/**
+ * Describes how an array is stored in a raw binary file, e.g. a field dumped by a solver.
+ * <p>
+ * Values are stored with the first dimension varying fastest, as points and cells in VTK files.
+ * The components of each tuple are either stored together (interleaved), e.g. x0 y0 z0 x1 y1 z1...,
+ * or as one block for each component (planar), e.g. x0 x1... y0 y1... z0 z1...
+ * Layouts are defined with chained calls, e.g.
+ * <pre>
+ *   var layout = new RawLayout(VTK_DATA_TYPE.FLOAT32, 512, 512, 512).setByteOrder(ByteOrder.LITTLE_ENDIAN);
+ * </pre>
+ */
+public class RawLayout {
+    private final VTK_DATA_TYPE type;
+    private final long[] dimensions;
+    private ByteOrder order = ByteOrder.BIG_ENDIAN;
+    private int ncomponents = 1;
+    private boolean planar = false;
+    private long headerBytes = 0;
+
+    /**
+     * @param _type: type of the values in the file.
+     * @param _dimensions: number of tuples in each dimension, e.g. the number of points of a grid in each direction.
+     */
+    public RawLayout(VTK_DATA_TYPE _type, long... _dimensions) {
+        assert _dimensions.length > 0;
+        type = _type;
+        dimensions = _dimensions.clone();
+    }
+
+    /** Sets the byte order of the values, BIG_ENDIAN by default. */
+    public RawLayout setByteOrder(ByteOrder _order) {
+        order = _order;
+        return this;
+    }
+
+    /**
+     * Sets the number of components of each tuple and how they are stored.
+     *
+     * @param n: number of components, e.g. 1 for scalars (default) or 3 for vectors.
+     * @param _planar: if true, each component is stored as a block, otherwise the components of each tuple
+     *                 are stored together (default).
+     */
+    public RawLayout setComponents(int n, boolean _planar) {
+        assert n > 0;
+        ncomponents = n;
+        planar = _planar;
+        return this;
+    }
+
+    /** Sets the number of bytes at the start of the file before the values, e.g. a record marker. */
+    public RawLayout setHeaderBytes(long nbytes) {
+        assert nbytes >= 0;
+        headerBytes = nbytes;
+        return this;
+    }
+
+    public VTK_DATA_TYPE getType() {
+        return type;
+    }
+
+    public long[] getDimensions() {
+        return dimensions.clone();
+    }
+
+    public ByteOrder getByteOrder() {
+        return order;
+    }
+
+    public int getComponents() {
+        return ncomponents;
+    }
+
+    public boolean isPlanar() {
+        return planar;
+    }
+
+    public long getHeaderBytes() {
+        return headerBytes;
+    }
+
+    /** Returns the number of tuples, i.e. the product of the dimensions. */
+    public long ntuples() {
+        long n = 1;
+        for (long d : dimensions) {
+            n *= d;
+        }
+        return n;
+    }
+
+    /** Returns the size in bytes of the values, which is also their size in a VTK file. */
+    public long nbytes() {
+        return ntuples() * ncomponents * type.sizeof();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.low_level;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helper class to write a multiblock file (.vtm), which combines grid files of different types
+ * in a single dataset, e.g. an image and an unstructured grid computed at the same time step.
+ * <p>
+ * Blocks are kept in memory as a tree, so they can be added in any order, and the file is written
+ * when it is closed. Each block is either a dataset, i.e. a link to a grid file, or a named list of blocks.
+ */
+public class VTKMultiBlock {
+    private final File file;
+    private final Block root = new Block(null);
+
+    /** Create a multiblock file, which is written when it is closed. */
+    public VTKMultiBlock(File _file) {
+        file = _file;
+    }
+
+    /** Returns the top level list of blocks. */
+    public Block getRoot() {
+        return root;
+    }
+
+    /** Writes the file. */
+    public void close() throws Exception {
+        var xml = new XMLBuilder();
+        xml.addElement("VTKFile")
+                .addAttribute("type", "vtkMultiBlockDataSet")
+                .addAttribute("version", "1.0")
+                .addAttribute("byte_order", "BigEndian");
+        var sdate = LocalDateTime.now().toString();
+        xml.addComment("Created: " + sdate);
+        xml.addElement("vtkMultiBlockDataSet");
+        root.write(xml);
+        xml.closeElement("vtkMultiBlockDataSet");
+        xml.closeElement("VTKFile");
+
+        try (var stream = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+            stream.write(xml.toString());
+        }
+    }
+
+    /**
+     * Named list of blocks.
+     */
+    public static class Block {
+        private final String name;
+        private final List<Object> children = new ArrayList<>();  // Block or String[] {name, file}
+
+        private Block(String _name) {
+            name = _name;
+        }
+
+        /**
+         * Adds a list of blocks to this block.
+         *
+         * @param _name: name of the new block.
+         * @return the new block.
+         */
+        public synchronized Block addBlock(String _name) {
+            var b = new Block(_name);
+            children.add(b);
+            return b;
+        }
+
+        /**
+         * Adds a grid file to this block.
+         *
+         * @param _name: name of the dataset, which is shown by readers.
+         * @param filename: path to the grid file, relative to the multiblock file.
+         * @return this Block.
+         */
+        public synchronized Block addDataSet(String _name, String filename) {
+            children.add(new String[]{_name, filename});
+            return this;
+        }
+
+        /**
+         * Reserves the position of a grid file that is added later with setDataSet,
+         * e.g. when grid files are written concurrently.
+         *
+         * @return index of the dataset in this block.
+         */
+        public synchronized int reserveDataSet() {
+            children.add(null);
+            return children.size() - 1;
+        }
+
+        /**
+         * Sets a grid file reserved with reserveDataSet.
+         *
+         * @param index: index returned by reserveDataSet.
+         * @param _name: name of the dataset, which is shown by readers.
+         * @param filename: path to the grid file, relative to the multiblock file.
+         */
+        public synchronized void setDataSet(int index, String _name, String filename) {
+            assert children.get(index) == null;
+            children.set(index, new String[]{_name, filename});
+        }
+
+        /**
+         * Releases a position reserved with reserveDataSet whose grid file is not going to be written,
+         * e.g. because its job was rejected. The last position is removed, and other positions are
+         * written as empty datasets, so the indexes of the other reservations do not change.
+         *
+         * @param index: index returned by reserveDataSet.
+         */
+        public synchronized void releaseDataSet(int index) {
+            assert children.get(index) == null;
+            if (index == children.size() - 1) {
+                children.remove(index);
+            }
+        }
+
+        private synchronized void write(XMLBuilder xml) {
+            for (int i = 0; i < children.size(); i++) {
+                var c = children.get(i);
+                if (c instanceof Block) {
+                    var b = (Block) c;
+                    xml.addElement("Block")
+                            .addAttribute("index", Integer.toString(i))
+                            .addAttribute("name", b.name);
+                    b.write(xml);
+                    xml.closeElement("Block");
+                } else {
+                    // datasets that were reserved but never set are written empty
+                    var d = (String[]) c;
+                    xml.addElement("DataSet").addAttribute("index", Integer.toString(i));
+                    if (d != null) {
+                        xml.addAttribute("name", d[0]).addAttribute("file", d[1]);
+                    }
+                    xml.closeElement();
+                }
+            }
+        }
+    }
+}
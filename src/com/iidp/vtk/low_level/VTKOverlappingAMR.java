@@ -0,0 +1,114 @@
+/*
+ *  Copyright (C) 2009-2020 Paulo A. Herrera <pauloa.herrera@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.iidp.vtk.low_level;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Helper class to write the hierarchy file (.vthb) of an overlapping AMR dataset, which links
+ * the image files that store the boxes of each level.
+ * <p>
+ * Boxes can be added in any order, and the file is written when it is closed.
+ */
+public class VTKOverlappingAMR {
+    private final File file;
+    private final double[] origin;
+    private final List<double[]> spacing = new ArrayList<>();
+    private final List<List<String[]>> levels = new ArrayList<>();   // {amr_box, file} of each box
+
+    /**
+     * Create a hierarchy file, which is written when it is closed.
+     *
+     * @param _file:   path to the file including extension.
+     * @param _origin: origin of the domain as a double[3].
+     */
+    public VTKOverlappingAMR(File _file, double[] _origin) {
+        file = _file;
+        origin = _origin.clone();
+    }
+
+    /**
+     * Adds a box to a level.
+     *
+     * @param level:    level of the box, 0 is the coarsest level.
+     * @param _spacing: spacing of the level as a double[3].
+     * @param start:    index of the first cell of the box at its level in each direction as a int[3].
+     * @param ncells:   number of cells of the box in each direction as a int[3].
+     * @param filename: path to the image file of the box, relative to the hierarchy file.
+     * @return this VTKOverlappingAMR.
+     */
+    public synchronized VTKOverlappingAMR addBox(int level, double[] _spacing, int[] start, int[] ncells, String filename) {
+        while (levels.size() <= level) {
+            levels.add(new ArrayList<>());
+            spacing.add(null);
+        }
+        assert (spacing.get(level) == null) || Arrays.equals(spacing.get(level), _spacing);
+        spacing.set(level, _spacing.clone());
+
+        var box = new StringBuilder();
+        for (int d = 0; d < 3; d++) {
+            if (d > 0) box.append(" ");
+            box.append(start[d]).append(" ").append(start[d] + ncells[d] - 1);
+        }
+        levels.get(level).add(new String[]{box.toString(), filename});
+        return this;
+    }
+
+    /** Writes the file. */
+    public synchronized void close() throws Exception {
+        var xml = new XMLBuilder();
+        xml.addElement("VTKFile")
+                .addAttribute("type", "vtkOverlappingAMR")
+                .addAttribute("version", "1.1")
+                .addAttribute("byte_order", "BigEndian");
+        var sdate = LocalDateTime.now().toString();
+        xml.addComment("Created: " + sdate);
+        xml.addElement("vtkOverlappingAMR")
+                .addAttribute("origin", origin[0] + " " + origin[1] + " " + origin[2])
+                .addAttribute("grid_description", "XYZ");
+
+        for (int l = 0; l < levels.size(); l++) {
+            var s = spacing.get(l);
+            xml.addElement("Block").addAttribute("level", Integer.toString(l));
+            if (s != null) {
+                xml.addAttribute("spacing", s[0] + " " + s[1] + " " + s[2]);
+            }
+            var boxes = levels.get(l);
+            for (int i = 0; i < boxes.size(); i++) {
+                xml.addElement("DataSet")
+                        .addAttribute("index", Integer.toString(i))
+                        .addAttribute("amr_box", boxes.get(i)[0])
+                        .addAttribute("file", boxes.get(i)[1])
+                        .closeElement();
+            }
+            xml.closeElement("Block");
+        }
+
+        xml.closeElement("vtkOverlappingAMR");
+        xml.closeElement("VTKFile");
+        try (var stream = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+            stream.write(xml.toString());
+        }
+    }
+}
@@ -18,11 +18,19 @@ package com.iidp.vtk.low_level;
 
 import com.iidp.vtk.low_level.VTKXmlWriter;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongToDoubleFunction;
 
 /**
  * Helper class to write binary VTK files.
@@ -51,7 +59,10 @@ public class VTKWriter {
      *  Pointer to the position fo the data in the file.
      *  It is also used to keep track of the number of bytes added to the file.
      */
-    private int offset = 0;
+    private long offset = 0;
+
+    /** Type of the size written before each array in the appended section, UINT32 or UINT64. */
+    private final VTK_DATA_TYPE headerType;
 
     /**
      * Creates VTK file.
@@ -62,21 +73,60 @@ public class VTKWriter {
      *                  if the file is not found.
      */
     public VTKWriter(File file, VTK_FILE_TYPE type) throws Exception{
+        this(file, type, VTK_DATA_TYPE.UINT32);
+    }
+
+    /**
+     * Creates VTK file.
+     *
+     * @param file name of file with extension.
+     * @param type type of file.
+     * @param headerType type of the size written before each array in the appended section.
+     *                   UINT32 (default) limits arrays to 4 GB, UINT64 allows larger arrays,
+     *                   e.g. see headerType(long).
+     * throw Exception if the file extension does not match the given VTK_FILE_TYPE or
+     *                  if the file is not found.
+     */
+    public VTKWriter(File file, VTK_FILE_TYPE type, VTK_DATA_TYPE headerType) throws Exception{
         if ( !file.getName().endsWith(type.extension()) )
             throw new Exception("Wrong file extension. Filename: " + file.getName() +
                     "  VTK_EXTENSION: " + type.extension());
+        assert (headerType == VTK_DATA_TYPE.UINT32) || (headerType == VTK_DATA_TYPE.UINT64);
+        this.headerType = headerType;
 
-        xw = new VTKXmlWriter(file);
+        xw = new VTKXmlWriter(file, headerType == VTK_DATA_TYPE.UINT64);
         xw.addDeclaration();
 
         var sdate = LocalDateTime.now().toString();
         xw.addComment( "Created: " + sdate);
 
-        xw.openElement("VTKFile").addAttribute("type", type.toString()).
-                addAttribute("version", "0.1").addAttribute("byte_order", VTK_BYTE_ORDER);
+        xw.openElement("VTKFile").addAttribute("type", type.toString());
+        if (headerType == VTK_DATA_TYPE.UINT64 || type == VTK_FILE_TYPE.HYPER_TREE_GRID) {
+            // header_type is only understood by readers of version 1.0 files,
+            // and hyper tree grids with trees are only read from version 1.0 files
+            xw.addAttribute("version", "1.0").addAttribute("header_type", headerType.toString());
+        } else {
+            xw.addAttribute("version", "0.1");
+        }
+        xw.addAttribute("byte_order", VTK_BYTE_ORDER);
 
     }
 
+    /**
+     * Returns the type of header needed to write arrays of up to maxArrayBytes bytes.
+     *
+     * @param maxArrayBytes size in bytes of the largest array of a file.
+     * @return UINT32 if all arrays are smaller than 4 GB, otherwise UINT64.
+     */
+    public static VTK_DATA_TYPE headerType(long maxArrayBytes) {
+        return (maxArrayBytes <= 0xFFFFFFFFL) ? VTK_DATA_TYPE.UINT32 : VTK_DATA_TYPE.UINT64;
+    }
+
+    /** Returns the type of the size written before each array in the appended section. */
+    public final VTK_DATA_TYPE getHeaderType() {
+        return headerType;
+    }
+
     /** Closes this VTK file. */
     public final void close() throws IOException {
         xw.closeElement("VTKFile");
@@ -91,7 +141,7 @@ public class VTKWriter {
      *
      * NOTE: Before writing the actual data one must write the size in bytes
      *       of the data array. That usually means writing something like
-     *       <code> stream.writeInt(dataSize * VTK_DATA_TYPE.XXX.sizeof() ); </code>.
+     *       <code> VTKWriter.writeSize(stream, dataSize * VTK_DATA_TYPE.XXX.sizeof() ); </code>.
      */
     public DataOutputStream getStream() {
         return xw.out;
@@ -109,6 +159,13 @@ public class VTKWriter {
         return this;
     }
 
+    /** Opens a piece of an unstructured grid whose number of points or cells does not fit an int. */
+    public final VTKWriter openPiece(long npoints, long ncells) throws IOException {
+        xw.openElement("Piece").addAttribute("NumberOfPoints", npoints).
+                addAttribute("NumberOfCells", ncells);
+        return this;
+    }
+
     public final VTKWriter openPiece(int npoints, int nverts, int nlines,
                                      int nstrips, int npolys) throws IOException {
         xw.openElement("Piece").addAttribute("NumberOfPoints", npoints).
@@ -132,6 +189,20 @@ public class VTKWriter {
         return this;
     }
 
+    /**
+     * Opens a field data section, which stores arrays associated to the whole dataset.
+     * It must be opened right after the dataset element, e.g. after openUnstructuredGrid.
+     */
+    public final VTKWriter openFieldData() throws IOException {
+        xw.openElement("FieldData");
+        return this;
+    }
+
+    public final VTKWriter closeFieldData() throws IOException {
+        xw.closeElement("FieldData");
+        return this;
+    }
+
     /**
      * Opens a point data section.
      *
@@ -256,6 +327,42 @@ public class VTKWriter {
         return this;
     }
 
+    /**
+     * Opens a hyper tree grid, i.e. a grid of root cells where each root cell is refined as a tree.
+     *
+     * @param branchFactor: number of children of a refined cell in each direction, 2 or 3.
+     * @param dimensions: number of points of the grid of root cells in each direction as a int[3].
+     */
+    public final VTKWriter openHyperTreeGrid(int branchFactor, int[] dimensions) throws IOException {
+        xw.openElement("HyperTreeGrid").addAttribute("BranchFactor", branchFactor).
+                addAttribute("TransposedRootIndexing", 0).
+                addAttribute("Dimensions", IOArray.toString(dimensions));
+        return this;
+    }
+
+    public final VTKWriter closeHyperTreeGrid() throws IOException {
+        xw.closeElement("HyperTreeGrid");
+        return this;
+    }
+
+    /**
+     * Opens a tree of a hyper tree grid.
+     *
+     * @param index: index of the root cell of the tree in the grid of root cells.
+     * @param nlevels: number of levels of the tree.
+     * @param nvertices: number of cells of the tree, including refined cells.
+     */
+    public final VTKWriter openTree(int index, int nlevels, long nvertices) throws IOException {
+        xw.openElement("Tree").addAttribute("Index", index).addAttribute("NumberOfLevels", nlevels).
+                addAttribute("NumberOfVertices", nvertices);
+        return this;
+    }
+
+    public final VTKWriter closeTree() throws IOException {
+        xw.closeElement("Tree");
+        return this;
+    }
+
     /**
      * Useful to add elements such as: Coordinates, Points, Verts, etc.
      */
@@ -296,7 +403,7 @@ public class VTKWriter {
      * @param nelements number of points or cells.
      * @param ncomponents number of components per point or cell, i.e.: scalar = 1, vector = 3.
      */
-    public final VTKWriter addDataArray(String name, VTK_DATA_TYPE type, int nelements, int ncomponents) throws IOException {
+    public final VTKWriter addDataArray(String name, VTK_DATA_TYPE type, long nelements, int ncomponents) throws IOException {
         //System.out.println("name: " + name);
         //System.out.println("type: " + type);
 
@@ -309,7 +416,53 @@ public class VTKWriter {
         xw.addAttribute("offset", offset);
         xw.closeTag();
 
-        offset += nelements * ncomponents * type.sizeof() + 4; // add 4 to indicate array size
+        offset += nelements * ncomponents * type.sizeof() + headerType.sizeof(); // add size of the array header
+
+        return this;
+    }
+
+    /**
+     * Add field data array declaration to XML section of file.
+     * Field data arrays must declare their number of tuples, as well as the arrays of hyper tree grids.
+     *
+     * @param name data description.
+     * @param type data type.
+     * @param ntuples number of tuples.
+     * @param ncomponents number of components of each tuple.
+     */
+    public final VTKWriter addFieldDataArray(String name, VTK_DATA_TYPE type, long ntuples, int ncomponents) throws IOException {
+        xw.openElement("DataArray");
+        xw.addAttribute("type", type.toString());
+        xw.addAttribute("Name", name);
+        xw.addAttribute("NumberOfTuples", ntuples);
+        xw.addAttribute("NumberOfComponents", ncomponents);
+        xw.addAttribute("format", "appended");
+        xw.addAttribute("offset", offset);
+        xw.closeTag();
+
+        offset += ntuples * ncomponents * type.sizeof() + headerType.sizeof(); // add size of the array header
+
+        return this;
+    }
+
+    /**
+     * Add bit array declaration to XML section of file, e.g. the descriptor of a tree of a hyper tree grid.
+     * Bits are appended packed in bytes with appendBits.
+     *
+     * @param name data description.
+     * @param nbits number of bits.
+     */
+    public final VTKWriter addBitArray(String name, long nbits) throws IOException {
+        xw.openElement("DataArray");
+        xw.addAttribute("type", "Bit");
+        xw.addAttribute("Name", name);
+        xw.addAttribute("NumberOfTuples", nbits);
+        xw.addAttribute("NumberOfComponents", 1);
+        xw.addAttribute("format", "appended");
+        xw.addAttribute("offset", offset);
+        xw.closeTag();
+
+        offset += (nbits + 7) / 8 + headerType.sizeof(); // add size of the array header
 
         return this;
     }
@@ -387,6 +540,85 @@ public class VTKWriter {
         return this;
     }
 
+    /**
+     * Add byte data array in ASCII format.
+     *
+     * Array is immediately written to file, so it must not be appended in binary
+     * section.
+     *
+     * @param name data description, e.g. "Pressure", etc.
+     * @param data data values.
+     */
+    public final VTKWriter addDataArrayASCII(String name, byte[] data) throws IOException {
+        return addDataArrayASCII(name, data, VTK_DATA_TYPE.INT8);
+    }
+
+    /**
+     * Add byte data array in ASCII format, where bytes are either signed or unsigned.
+     *
+     * @param name data description, e.g. "vtkGhostType".
+     * @param data data values.
+     * @param type either VTK_DATA_TYPE.INT8 or VTK_DATA_TYPE.UINT8.
+     */
+    public final VTKWriter addDataArrayASCII(String name, byte[] data, VTK_DATA_TYPE type) throws IOException {
+        assert (type == VTK_DATA_TYPE.INT8) || (type == VTK_DATA_TYPE.UINT8);
+        xw.openElement("DataArray").addAttribute("type", type.toString()).
+                addAttribute("Name", name).addAttribute("NumberOfComponents", 1).
+                addAttribute("format", "ascii");
+        xw.addText("");
+        for (int i = 0; i < data.length; i++) {
+            var v = (type == VTK_DATA_TYPE.UINT8) ? Byte.toUnsignedInt(data[i]) : data[i];
+            xw.out.writeBytes(Integer.toString(v));
+            xw.out.writeBytes(" ");
+        }
+        xw.closeElement("DataArray");
+        return this;
+    }
+
+    /**
+     * Add short data array in ASCII format.
+     *
+     * Array is immediately written to file, so it must not be appended in binary
+     * section.
+     *
+     * @param name data description, e.g. "Pressure", etc.
+     * @param data data values.
+     */
+    public final VTKWriter addDataArrayASCII(String name, short[] data) throws IOException {
+        xw.openElement("DataArray").addAttribute("type", VTK_DATA_TYPE.INT16.toString()).
+                addAttribute("Name", name).addAttribute("NumberOfComponents", 1).
+                addAttribute("format", "ascii");
+        xw.addText("");
+        for (int i = 0; i < data.length; i++) {
+            xw.out.writeBytes(Short.toString(data[i]));
+            xw.out.writeBytes(" ");
+        }
+        xw.closeElement("DataArray");
+        return this;
+    }
+
+    /**
+     * Add float data array in ASCII format.
+     *
+     * Array is immediately written to file, so it must not be appended in binary
+     * section.
+     *
+     * @param name data description, e.g. "Pressure", etc.
+     * @param data data values.
+     */
+    public final VTKWriter addDataArrayASCII(String name, float[] data) throws IOException {
+        xw.openElement("DataArray").addAttribute("type", VTK_DATA_TYPE.FLOAT32.toString()).
+                addAttribute("Name", name).addAttribute("NumberOfComponents", 1).
+                addAttribute("format", "ascii");
+        xw.addText("");
+        for (int i = 0; i < data.length; i++) {
+            xw.out.writeBytes(Float.toString(data[i]));
+            xw.out.writeBytes(" ");
+        }
+        xw.closeElement("DataArray");
+        return this;
+    }
+
     public final VTKWriter addDataArrayDoubleASCII(String name, List<Double> data) throws IOException {
         xw.openElement("DataArray").addAttribute("type", VTK_DATA_TYPE.FLOAT64.toString()).
                 addAttribute("Name", name).addAttribute("NumberOfComponents", 1).
@@ -430,71 +662,757 @@ public class VTKWriter {
         return this;
     }
 
+    /**
+     * Add long data array in ASCII format.
+     *
+     * @param name data description, e.g. "Pressure", etc.
+     * @param data data values.
+     * @param type either VTK_DATA_TYPE.INT64 or VTK_DATA_TYPE.UINT64, in which case values are unsigned.
+     */
+    public final VTKWriter addDataArrayASCII(String name, long[] data, VTK_DATA_TYPE type) throws IOException {
+        assert (type == VTK_DATA_TYPE.INT64) || (type == VTK_DATA_TYPE.UINT64);
+        xw.openElement("DataArray").addAttribute("type", type.toString()).
+                addAttribute("Name", name).addAttribute("NumberOfComponents", 1).
+                addAttribute("format", "ascii");
+        xw.addText("");
+        for (int i = 0; i < data.length; i++) {
+            xw.out.writeBytes((type == VTK_DATA_TYPE.UINT64) ? Long.toUnsignedString(data[i]) : Long.toString(data[i]));
+            xw.out.writeBytes(" ");
+        }
+        xw.closeElement("DataArray");
+        return this;
+    }
+
+    /**
+     * Add big int array in ASCII format, which can have more than 2^31 elements. Chunks are written in order.
+     *
+     * @param name data description, e.g. "Pressure", etc.
+     * @param data data values.
+     */
+    public final VTKWriter addDataArrayASCII(String name, BigIntArray data) throws IOException {
+        xw.openElement("DataArray").addAttribute("type", VTK_DATA_TYPE.INT32.toString()).
+                addAttribute("Name", name).addAttribute("NumberOfComponents", 1).
+                addAttribute("format", "ascii");
+        xw.addText("");
+        for (int c = 0; c < data.nchunks(); c++) {
+            var chunk = data.chunk(c);
+            for (int i = 0; i < chunk.length; i++) {
+                xw.out.writeBytes(Integer.toString(chunk[i]));
+                xw.out.writeBytes(" ");
+            }
+        }
+        xw.closeElement("DataArray");
+        return this;
+    }
+
+    /**
+     * Add big double array in ASCII format, which can have more than 2^31 elements. Chunks are written in order.
+     *
+     * @param name data description, e.g. "Pressure", etc.
+     * @param data data values.
+     */
+    public final VTKWriter addDataArrayASCII(String name, BigDoubleArray data) throws IOException {
+        xw.openElement("DataArray").addAttribute("type", VTK_DATA_TYPE.FLOAT64.toString()).
+                addAttribute("Name", name).addAttribute("NumberOfComponents", 1).
+                addAttribute("format", "ascii");
+        xw.addText("");
+        for (int c = 0; c < data.nchunks(); c++) {
+            var chunk = data.chunk(c);
+            for (int i = 0; i < chunk.length; i++) {
+                xw.out.writeBytes(Double.toString(chunk[i]));
+                xw.out.writeBytes(" ");
+            }
+        }
+        xw.closeElement("DataArray");
+        return this;
+    }
+
+    /**
+     * Adds a data array with 3D points as pure ASCII, where the coordinates are given as separate arrays.
+     *
+     * @param name data description, e.g. "coordinates".
+     * @param x x-coordinate of points.
+     * @param y y-coordinate of points.
+     * @param z z-coordinate of points.
+     */
+    public final VTKWriter addDataArrayASCII(String name, double[] x, double[] y, double[] z) throws IOException {
+        assert (x.length == y.length) && (x.length == z.length);
+        xw.openElement("DataArray").addAttribute("type", VTK_DATA_TYPE.FLOAT64.toString()).
+                addAttribute("Name", name).addAttribute("NumberOfComponents", 3).
+                addAttribute("format", "ascii");
+        xw.addText("");
+        for (int i = 0; i < x.length; i++) {
+            xw.out.writeBytes(Double.toString(x[i]));
+            xw.out.writeBytes(" ");
+            xw.out.writeBytes(Double.toString(y[i]));
+            xw.out.writeBytes(" ");
+            xw.out.writeBytes(Double.toString(z[i]));
+            xw.out.writeBytes(" \n");
+        }
+        xw.closeElement("DataArray");
+        return this;
+    }
+
     /** Appends byte array to appended section. */
     public final VTKWriter appendArray(byte[] a) throws IOException {
-        xw.out.writeInt(a.length * VTK_DATA_TYPE.INT8.sizeof());
-        for (int i = 0; i < a.length; i++) {
-            xw.out.writeByte(a[i]);
-        }
+        writeArray(xw.out, a);
+        return this;
+    }
+
+    /** Appends the first n values of a boolean array as packed bits to appended section, see addBitArray. */
+    public final VTKWriter appendBits(boolean[] a, int n) throws IOException {
+        writeBits(xw.out, a, n);
         return this;
     }
 
     /** Appends short array to appended section. */
     public final VTKWriter appendArray(short[] a) throws IOException {
-        xw.out.writeInt(a.length * VTK_DATA_TYPE.INT16.sizeof());
-        for (int i = 0; i < a.length; i++) {
-            xw.out.writeShort(a[i]);
-        }
+        writeArray(xw.out, a);
         return this;
     }
 
     /** Appends int array to appended section. */
     public final VTKWriter appendArray(int[] a) throws IOException {
-        xw.out.writeInt(a.length * VTK_DATA_TYPE.INT32.sizeof());
-        for (int i = 0; i < a.length; i++) {
-            xw.out.writeInt(a[i]);
-        }
+        writeArray(xw.out, a);
         return this;
     }
 
     /** Appends long array to appended section. */
     public final VTKWriter appendArray(long[] a) throws IOException {
-        xw.out.writeInt(a.length * VTK_DATA_TYPE.INT64.sizeof() );
-        for (int i = 0; i < a.length; i++) {
-            xw.out.writeLong(a[i]);
-        }
+        writeArray(xw.out, a);
         return this;
     }
 
     /** Appends float array to appended section. */
     public final VTKWriter appendArray(float[] a) throws IOException {
-        xw.out.writeInt(a.length * VTK_DATA_TYPE.FLOAT32.sizeof());
-        for (int i = 0; i < a.length; i++) {
-            xw.out.writeFloat(a[i]);
-        }
+        writeArray(xw.out, a);
         return this;
     }
 
     /** Appends double array to appended section. */
     public final VTKWriter appendArray(double[] a) throws IOException {
-        xw.out.writeInt(a.length * VTK_DATA_TYPE.FLOAT64.sizeof());
-        for (int i = 0; i < a.length; i++) {
-            xw.out.writeDouble(a[i]);
+        writeArray(xw.out, a);
+        return this;
+    }
+
+    /**
+     * Appends double array to appended section converted to a floating point type.
+     *
+     * @param a: values.
+     * @param type: either VTK_DATA_TYPE.FLOAT64 or VTK_DATA_TYPE.FLOAT32.
+     * @param shift: value subtracted from each element before converting it.
+     */
+    public final VTKWriter appendArray(double[] a, VTK_DATA_TYPE type, double shift) throws IOException {
+        writeArray(xw.out, a, type, shift);
+        return this;
+    }
+
+    /** Appends big double array to appended section. */
+    public final VTKWriter appendArray(BigDoubleArray a) throws IOException {
+        writeArray(xw.out, a);
+        return this;
+    }
+
+    /** Appends big int array to appended section. */
+    public final VTKWriter appendArray(BigIntArray a) throws IOException {
+        writeArray(xw.out, a);
+        return this;
+    }
+
+    /** Appends an array stored in a raw binary file to appended section, see RawArray. */
+    public final VTKWriter appendArray(RawArray a) throws IOException {
+        writeArray(xw.out, a);
+        return this;
+    }
+
+    /**
+     * Appends the values of a view to appended section, see ArrayView.
+     *
+     * @param type: type of the written values, a floating point type for views of real values.
+     */
+    public final VTKWriter appendArray(ArrayView v, VTK_DATA_TYPE type) throws IOException {
+        if ((type == VTK_DATA_TYPE.FLOAT32) || (type == VTK_DATA_TYPE.FLOAT64)) {
+            writeArray(xw.out, v, type, 0.0, FULL_MANTISSA);
+        } else {
+            writeArray(xw.out, v, type);
         }
         return this;
     }
 
     public final VTKWriter appendArraysAs3D(double[] x, double[] y, double[] z) throws Exception {
+        writeArraysAs3D(xw.out, x, y, z);
+        return this;
+    }
+
+    /**
+     * Appends coordinates as an array of 3D points converted to a floating point type.
+     *
+     * @param type: either VTK_DATA_TYPE.FLOAT64 or VTK_DATA_TYPE.FLOAT32.
+     * @param origin: point subtracted from the coordinates before converting them, it can be null.
+     */
+    public final VTKWriter appendArraysAs3D(double[] x, double[] y, double[] z,
+                                            VTK_DATA_TYPE type, double[] origin) throws Exception {
+        writeArraysAs3D(xw.out, x, y, z, type, origin);
+        return this;
+    }
+
+    /**
+     * Appends values computed by a function of their index as a Float64 array.
+     * See writeArray(DataOutputStream, long, LongToDoubleFunction).
+     */
+    public final VTKWriter appendArray(long n, LongToDoubleFunction values) throws IOException {
+        writeArray(xw.out, n, values);
+        return this;
+    }
+
+    /**
+     * Returns the offset, relative to the start of the appended section, where the next
+     * declared data array will be stored.
+     * <p>
+     * It is equal to the number of bytes that have been declared so far.
+     */
+    public final long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Encodes and writes several consecutive blocks of the appended section concurrently.
+     * <p>
+     * Each block is encoded in memory by its own thread and then written to its region of
+     * the file, which is computed from the block sizes. Blocks are usually the data
+     * declared for each piece of a file, and their sizes can be computed with getOffset()
+     * before and after declaring the arrays of each piece.
+     * <p>
+     * NOTE: The appended section must be open, and each block must be smaller than 2 GB,
+     *       since it is encoded in a byte array.
+     *
+     * @param sizes:    size in bytes of each block, including the header written before each array.
+     * @param encoders: one encoder for each block, which must write exactly sizes[i] bytes.
+     * @return this VTKWriter.
+     * @throws Exception if any of the encoders fails or writes a wrong number of bytes.
+     */
+    public final VTKWriter appendBlocks(long[] sizes, List<BlockEncoder> encoders) throws Exception {
+        assert sizes.length == encoders.size();
+
+        xw.out.flush();
+        final var channel = xw.channel;
+        final long base = channel.position();
+
+        var starts = new long[sizes.length + 1];
+        for (int i = 0; i < sizes.length; i++) {
+            starts[i + 1] = starts[i] + sizes[i];
+        }
+
+        var nthreads = Math.max(1, Math.min(sizes.length, Runtime.getRuntime().availableProcessors()));
+        var pool = Executors.newFixedThreadPool(nthreads);
+        try {
+            var tasks = new ArrayList<Future<Object>>(sizes.length);
+            for (int i = 0; i < sizes.length; i++) {
+                final int b = i;
+                tasks.add(pool.submit(() -> {
+                    var block = new BlockBuffer(Math.toIntExact(sizes[b]));
+                    var dos = new AppendedStream(block, headerType == VTK_DATA_TYPE.UINT64);
+                    encoders.get(b).encode(dos);
+                    dos.flush();
+                    if (block.size() != sizes[b]) {
+                        throw new IOException("Wrong size of appended block " + b + ". Declared: " +
+                                sizes[b] + "  encoded: " + block.size());
+                    }
+
+                    var buf = block.toByteBuffer();
+                    var pos = base + starts[b];
+                    while (buf.hasRemaining()) {
+                        pos += channel.write(buf, pos);
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<Object> t : tasks) {
+                try {
+                    t.get();
+                } catch (ExecutionException e) {
+                    var cause = e.getCause();
+                    throw (cause instanceof Exception) ? (Exception) cause : e;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        channel.position(base + starts[sizes.length]);
+        return this;
+    }
+
+    /**
+     * Writes the data of one block of the appended section.
+     * See appendBlocks.
+     */
+    public interface BlockEncoder {
+        void encode(DataOutputStream out) throws Exception;
+    }
+
+    /**
+     * Writes the size in bytes of an array, which must precede its data in the appended section.
+     * The size is written as the header type of the writer that created the stream, see getHeaderType.
+     * Other streams, e.g. the ones passed to a BlockEncoder, use the same header type as the file.
+     */
+    public static void writeSize(DataOutputStream out, long nbytes) throws IOException {
+        if (out instanceof AppendedStream) {
+            ((AppendedStream) out).writeSize(nbytes);
+        } else {
+            assert nbytes <= 0xFFFFFFFFL;
+            out.writeInt((int) nbytes);
+        }
+    }
+
+    /** Writes byte array, preceded by its size in bytes, to a binary stream. */
+    public static void writeArray(DataOutputStream out, byte[] a) throws IOException {
+        writeSize(out, (long) a.length * VTK_DATA_TYPE.INT8.sizeof());
+        out.write(a);
+    }
+
+    /**
+     * Writes the first n values of a boolean array, preceded by their size in bytes, to a binary stream.
+     * Values are packed as bits, 8 in each byte starting from the most significant bit, as read by VTK.
+     */
+    public static void writeBits(DataOutputStream out, boolean[] a, int n) throws IOException {
+        assert n <= a.length;
+        var packed = new byte[(n + 7) / 8];
+        for (int i = 0; i < n; i++) {
+            if (a[i]) packed[i >> 3] |= (byte) (0x80 >>> (i & 7));
+        }
+        writeArray(out, packed);
+    }
+
+    /** Writes short array, preceded by its size in bytes, to a binary stream. */
+    public static void writeArray(DataOutputStream out, short[] a) throws IOException {
+        writeSize(out, (long) a.length * VTK_DATA_TYPE.INT16.sizeof());
+        for (int i = 0; i < a.length; i++) {
+            out.writeShort(a[i]);
+        }
+    }
+
+    /** Writes int array, preceded by its size in bytes, to a binary stream. */
+    public static void writeArray(DataOutputStream out, int[] a) throws IOException {
+        writeSize(out, (long) a.length * VTK_DATA_TYPE.INT32.sizeof());
+        for (int i = 0; i < a.length; i++) {
+            out.writeInt(a[i]);
+        }
+    }
+
+    /** Writes long array, preceded by its size in bytes, to a binary stream. */
+    public static void writeArray(DataOutputStream out, long[] a) throws IOException {
+        writeSize(out, (long) a.length * VTK_DATA_TYPE.INT64.sizeof());
+        for (int i = 0; i < a.length; i++) {
+            out.writeLong(a[i]);
+        }
+    }
+
+    /** Writes float array, preceded by its size in bytes, to a binary stream. */
+    public static void writeArray(DataOutputStream out, float[] a) throws IOException {
+        writeSize(out, (long) a.length * VTK_DATA_TYPE.FLOAT32.sizeof());
+        for (int i = 0; i < a.length; i++) {
+            out.writeFloat(a[i]);
+        }
+    }
+
+    /**
+     * Writes int array converted to an integer type, preceded by its size in bytes, to a binary stream.
+     * Values must fit in the type, e.g. see VTK_DATA_TYPE.narrowest.
+     *
+     * @param a: values.
+     * @param type: one of INT8, UINT8, INT16, UINT16, INT32 or INT64.
+     */
+    public static void writeArray(DataOutputStream out, int[] a, VTK_DATA_TYPE type) throws IOException {
+        assert (type != VTK_DATA_TYPE.FLOAT32) && (type != VTK_DATA_TYPE.FLOAT64);
+        writeSize(out, (long) a.length * type.sizeof());
+        writeValues(out, a, type, ByteBuffer.allocate(CHUNK_SIZE * type.sizeof()));
+    }
+
+    /** Writes big int array, preceded by its size in bytes, to a binary stream. */
+    public static void writeArray(DataOutputStream out, BigIntArray a) throws IOException {
+        writeArray(out, a, VTK_DATA_TYPE.INT32);
+    }
+
+    /**
+     * Writes big int array converted to an integer type, preceded by its size in bytes, to a binary stream.
+     * See writeArray(DataOutputStream, int[], VTK_DATA_TYPE).
+     */
+    public static void writeArray(DataOutputStream out, BigIntArray a, VTK_DATA_TYPE type) throws IOException {
+        assert (type != VTK_DATA_TYPE.FLOAT32) && (type != VTK_DATA_TYPE.FLOAT64);
+        writeSize(out, a.length() * type.sizeof());
+        var buffer = ByteBuffer.allocate(CHUNK_SIZE * type.sizeof());
+        for (int c = 0; c < a.nchunks(); c++) {
+            writeValues(out, a.chunk(c), type, buffer);
+        }
+    }
+
+    // Helper function: writes values converted to an integer type without the size of the array.
+    private static void writeValues(DataOutputStream out, int[] a, VTK_DATA_TYPE type, ByteBuffer buffer) throws IOException {
+        var bytes = buffer.array();
+        for (int start = 0; start < a.length; start += CHUNK_SIZE) {
+            var n = Math.min(CHUNK_SIZE, a.length - start);
+            buffer.clear();
+            switch (type) {
+                case INT8:
+                case UINT8:
+                    for (int i = 0; i < n; i++) buffer.put((byte) a[start + i]);
+                    break;
+                case INT16:
+                case UINT16:
+                    for (int i = 0; i < n; i++) buffer.putShort((short) a[start + i]);
+                    break;
+                case INT32:
+                case UINT32:
+                    buffer.asIntBuffer().put(a, start, n);
+                    break;
+                default:
+                    for (int i = 0; i < n; i++) buffer.putLong(a[start + i]);
+                    break;
+            }
+            out.write(bytes, 0, n * type.sizeof());
+        }
+    }
+
+    /** Writes double array, preceded by its size in bytes, to a binary stream. */
+    public static void writeArray(DataOutputStream out, double[] a) throws IOException {
+        writeArray(out, a, VTK_DATA_TYPE.FLOAT64, 0.0);
+    }
+
+    /**
+     * Writes double array converted to a floating point type, preceded by its size in bytes, to a binary stream.
+     * <p>
+     * Values are converted in chunks that are written with a single call, which is much faster than
+     * writing them one by one.
+     *
+     * @param a: values.
+     * @param type: either VTK_DATA_TYPE.FLOAT64 or VTK_DATA_TYPE.FLOAT32.
+     * @param shift: value subtracted from each element before converting it.
+     */
+    public static void writeArray(DataOutputStream out, double[] a, VTK_DATA_TYPE type, double shift) throws IOException {
+        writeArray(out, a, type, shift, FULL_MANTISSA);
+    }
+
+    /**
+     * Writes double array converted to a floating point type, preceded by its size in bytes, to a binary stream.
+     * The low bits of the mantissa of the converted values are set to zero, which does not change the format
+     * of the array, but makes it much easier to compress.
+     * <p>
+     * Values are truncated towards zero before they are converted, so the relative error of normal values is
+     * smaller than 2^-mantissaBits. Float32 values keep at most 23 bits, and are rounded if more are requested.
+     *
+     * @param a: values.
+     * @param type: either VTK_DATA_TYPE.FLOAT64 or VTK_DATA_TYPE.FLOAT32.
+     * @param shift: value subtracted from each element before converting it.
+     * @param mantissaBits: number of bits of the mantissa that are kept, or FULL_MANTISSA to keep all of them.
+     */
+    public static void writeArray(DataOutputStream out, double[] a, VTK_DATA_TYPE type, double shift,
+                                  int mantissaBits) throws IOException {
+        assert (type == VTK_DATA_TYPE.FLOAT64) || (type == VTK_DATA_TYPE.FLOAT32);
+        assert (mantissaBits >= 0) || (mantissaBits == FULL_MANTISSA);
+        writeSize(out, (long) a.length * type.sizeof());
+        writeValues(out, a, shift, new RealChunk(type, mantissaBits));
+    }
+
+    /** Writes big double array, preceded by its size in bytes, to a binary stream. */
+    public static void writeArray(DataOutputStream out, BigDoubleArray a) throws IOException {
+        writeArray(out, a, VTK_DATA_TYPE.FLOAT64, 0.0, FULL_MANTISSA);
+    }
+
+    /**
+     * Writes big double array converted to a floating point type, preceded by its size in bytes, to a binary stream.
+     * See writeArray(DataOutputStream, double[], VTK_DATA_TYPE, double, int).
+     */
+    public static void writeArray(DataOutputStream out, BigDoubleArray a, VTK_DATA_TYPE type, double shift,
+                                  int mantissaBits) throws IOException {
+        assert (type == VTK_DATA_TYPE.FLOAT64) || (type == VTK_DATA_TYPE.FLOAT32);
+        assert (mantissaBits >= 0) || (mantissaBits == FULL_MANTISSA);
+        writeSize(out, a.length() * type.sizeof());
+
+        var chunk = new RealChunk(type, mantissaBits);
+        for (int c = 0; c < a.nchunks(); c++) {
+            writeValues(out, a.chunk(c), shift, chunk);
+        }
+    }
+
+    /**
+     * Writes values computed by a function of their index as a Float64 array, preceded by its size in bytes,
+     * to a binary stream. Values are computed by chunk while they are written, so the full array is never
+     * stored in memory.
+     *
+     * @param n: number of values.
+     * @param values: function that returns the value of each index from 0 to n - 1.
+     */
+    public static void writeArray(DataOutputStream out, long n, LongToDoubleFunction values) throws IOException {
+        writeSize(out, n * VTK_DATA_TYPE.FLOAT64.sizeof());
+
+        var chunk = new RealChunk(VTK_DATA_TYPE.FLOAT64, FULL_MANTISSA);
+        for (long start = 0; start < n; start += CHUNK_SIZE) {
+            var m = (int) Math.min(CHUNK_SIZE, n - start);
+            for (int i = 0; i < m; i++) {
+                chunk.values[i] = values.applyAsDouble(start + i);
+            }
+            chunk.write(out, m);
+        }
+    }
+
+    // Helper function: writes values converted by chunk without the size of the array.
+    private static void writeValues(DataOutputStream out, double[] a, double shift, RealChunk chunk) throws IOException {
+        for (int start = 0; start < a.length; start += CHUNK_SIZE) {
+            var n = Math.min(CHUNK_SIZE, a.length - start);
+            for (int i = 0; i < n; i++) {
+                chunk.values[i] = a[start + i] - shift;
+            }
+            chunk.write(out, n);
+        }
+    }
+
+    /**
+     * Writes an array stored in a raw binary file, preceded by its size in bytes, to a binary stream.
+     * The file is mapped by windows and copied by chunks, so the array is never stored in the heap.
+     */
+    public static void writeArray(DataOutputStream out, RawArray a) throws IOException {
+        a.write(out);
+    }
+
+    /**
+     * Writes the values of a view converted to a floating point type, preceded by its size in bytes,
+     * to a binary stream. Values are gathered by chunks while they are written, see ArrayView.copy.
+     *
+     * @param type: either VTK_DATA_TYPE.FLOAT64 or VTK_DATA_TYPE.FLOAT32.
+     * @param shift: value subtracted from each element before converting it.
+     * @param mantissaBits: number of mantissa bits that are kept, or FULL_MANTISSA.
+     */
+    public static void writeArray(DataOutputStream out, ArrayView v, VTK_DATA_TYPE type, double shift,
+                                  int mantissaBits) throws IOException {
+        assert (type == VTK_DATA_TYPE.FLOAT64) || (type == VTK_DATA_TYPE.FLOAT32);
+        var n = v.size();
+        writeSize(out, n * type.sizeof());
+
+        var chunk = new RealChunk(type, mantissaBits);
+        for (long start = 0; start < n; start += CHUNK_SIZE) {
+            var m = (int) Math.min(CHUNK_SIZE, n - start);
+            v.copy(start, m, chunk.values);
+            if (shift != 0.0) {
+                for (int i = 0; i < m; i++) {
+                    chunk.values[i] -= shift;
+                }
+            }
+            chunk.write(out, m);
+        }
+    }
+
+    /**
+     * Writes the values of a view converted to an integer type, preceded by its size in bytes,
+     * to a binary stream. Values are gathered by chunks while they are written, see ArrayView.copy.
+     * Values written as Int64 or UInt64 are read as longs, see ArrayView.getLong, so they are not rounded.
+     */
+    public static void writeArray(DataOutputStream out, ArrayView v, VTK_DATA_TYPE type) throws IOException {
+        assert (type != VTK_DATA_TYPE.FLOAT32) && (type != VTK_DATA_TYPE.FLOAT64);
+        var n = v.size();
+        writeSize(out, n * type.sizeof());
+
+        if (type.sizeof() == Long.BYTES) {
+            var buffer = ByteBuffer.allocate(CHUNK_SIZE * Long.BYTES);
+            for (long start = 0; start < n; start += CHUNK_SIZE) {
+                var m = (int) Math.min(CHUNK_SIZE, n - start);
+                buffer.clear();
+                for (int i = 0; i < m; i++) {
+                    buffer.putLong(v.getLong(start + i));
+                }
+                out.write(buffer.array(), 0, m * Long.BYTES);
+            }
+            return;
+        }
+
+        var values = new double[CHUNK_SIZE];
+        var ivalues = new int[CHUNK_SIZE];
+        var buffer = ByteBuffer.allocate(CHUNK_SIZE * type.sizeof());
+        for (long start = 0; start < n; start += CHUNK_SIZE) {
+            var m = (int) Math.min(CHUNK_SIZE, n - start);
+            v.copy(start, m, values);
+            for (int i = 0; i < m; i++) {
+                ivalues[i] = (int) values[i];
+            }
+            writeValues(out, (m == CHUNK_SIZE) ? ivalues : Arrays.copyOf(ivalues, m), type, buffer);
+        }
+    }
+
+    /**
+     * Writes coordinates given by views as an array of 3D points converted to a floating point type,
+     * preceded by its size in bytes, to a binary stream. See writeArraysAs3D above.
+     */
+    public static void writeArraysAs3D(DataOutputStream out, ArrayView x, ArrayView y, ArrayView z,
+                                       VTK_DATA_TYPE type, double[] origin) throws IOException {
+        assert (type == VTK_DATA_TYPE.FLOAT64) || (type == VTK_DATA_TYPE.FLOAT32);
+        var nnpoints = x.size();
+        assert (nnpoints == y.size()) && (nnpoints == z.size());
+
+        var ox = (origin != null) ? origin[0] : 0.0;
+        var oy = (origin != null) ? origin[1] : 0.0;
+        var oz = (origin != null) ? origin[2] : 0.0;
+
+        writeSize(out, nnpoints * type.sizeof() * 3);
+
+        var chunk = new RealChunk(type, FULL_MANTISSA);
+        final int npoints = CHUNK_SIZE / 3;
+        var cx = new double[npoints];
+        var cy = new double[npoints];
+        var cz = new double[npoints];
+        for (long start = 0; start < nnpoints; start += npoints) {
+            var n = (int) Math.min(npoints, nnpoints - start);
+            x.copy(start, n, cx);
+            y.copy(start, n, cy);
+            z.copy(start, n, cz);
+            for (int i = 0; i < n; i++) {
+                chunk.values[3 * i] = cx[i] - ox;
+                chunk.values[3 * i + 1] = cy[i] - oy;
+                chunk.values[3 * i + 2] = cz[i] - oz;
+            }
+            chunk.write(out, 3 * n);
+        }
+    }
+
+    /**
+     * Writes coordinates stored in big arrays as an array of 3D points converted to a floating point type,
+     * preceded by its size in bytes, to a binary stream. See writeArraysAs3D above.
+     */
+    public static void writeArraysAs3D(DataOutputStream out, BigDoubleArray x, BigDoubleArray y, BigDoubleArray z,
+                                       VTK_DATA_TYPE type, double[] origin) throws IOException {
+        assert (type == VTK_DATA_TYPE.FLOAT64) || (type == VTK_DATA_TYPE.FLOAT32);
+        var nnpoints = x.length();
+        assert (nnpoints == y.length()) && (nnpoints == z.length());
+
+        var ox = (origin != null) ? origin[0] : 0.0;
+        var oy = (origin != null) ? origin[1] : 0.0;
+        var oz = (origin != null) ? origin[2] : 0.0;
+
+        writeSize(out, nnpoints * type.sizeof() * 3);
+
+        var chunk = new RealChunk(type, FULL_MANTISSA);
+        final int npoints = CHUNK_SIZE / 3;
+        for (long start = 0; start < nnpoints; start += npoints) {
+            var n = (int) Math.min(npoints, nnpoints - start);
+            for (int i = 0; i < n; i++) {
+                chunk.values[3 * i] = x.get(start + i) - ox;
+                chunk.values[3 * i + 1] = y.get(start + i) - oy;
+                chunk.values[3 * i + 2] = z.get(start + i) - oz;
+            }
+            chunk.write(out, 3 * n);
+        }
+    }
+
+    /** Writes cell types as an array of bytes, preceded by its size in bytes, to a binary stream. */
+    public static void writeArray(DataOutputStream out, VTK_CELL_TYPE[] t) throws IOException {
+        writeSize(out, (long) t.length * VTK_DATA_TYPE.UINT8.sizeof());
+        for (int i = 0; i < t.length; i++) {
+            out.writeByte(t[i].valueOf());
+        }
+    }
+
+    /** Writes coordinates as an array of 3D points, preceded by its size in bytes, to a binary stream. */
+    public static void writeArraysAs3D(DataOutputStream out, double[] x, double[] y, double[] z) throws IOException {
+        var nnpoints = x.length;
+        assert (nnpoints == y.length) && (nnpoints == z.length);
+
+        writeArraysAs3D(out, x, y, z, VTK_DATA_TYPE.FLOAT64, null);
+    }
+
+    /**
+     * Writes coordinates as an array of 3D points converted to a floating point type, preceded by its size in bytes,
+     * to a binary stream.
+     *
+     * @param type: either VTK_DATA_TYPE.FLOAT64 or VTK_DATA_TYPE.FLOAT32.
+     * @param origin: point subtracted from the coordinates before converting them, it can be null.
+     */
+    public static void writeArraysAs3D(DataOutputStream out, double[] x, double[] y, double[] z,
+                                       VTK_DATA_TYPE type, double[] origin) throws IOException {
+        assert (type == VTK_DATA_TYPE.FLOAT64) || (type == VTK_DATA_TYPE.FLOAT32);
         var nnpoints = x.length;
         assert (nnpoints == y.length) && (nnpoints == z.length);
 
-        xw.out.writeInt(nnpoints * VTK_DATA_TYPE.FLOAT64.sizeof() * 3);
-        for (int i = 0; i < nnpoints; i++) {
-            xw.out.writeDouble(x[i]);
-            xw.out.writeDouble(y[i]);
-            xw.out.writeDouble(z[i]);
+        var ox = (origin != null) ? origin[0] : 0.0;
+        var oy = (origin != null) ? origin[1] : 0.0;
+        var oz = (origin != null) ? origin[2] : 0.0;
+
+        writeSize(out, (long) nnpoints * type.sizeof() * 3);
+
+        var chunk = new RealChunk(type, FULL_MANTISSA);
+        final int npoints = CHUNK_SIZE / 3;
+        for (int start = 0; start < nnpoints; start += npoints) {
+            var n = Math.min(npoints, nnpoints - start);
+            for (int i = 0; i < n; i++) {
+                chunk.values[3 * i] = x[start + i] - ox;
+                chunk.values[3 * i + 1] = y[start + i] - oy;
+                chunk.values[3 * i + 2] = z[start + i] - oz;
+            }
+            chunk.write(out, 3 * n);
+        }
+    }
+
+    // Number of elements converted at once when writing arrays.
+    private static final int CHUNK_SIZE = 8190;
+
+    /** Number of mantissa bits used to write all the bits of the mantissa, see writeArray. */
+    public static final int FULL_MANTISSA = -1;
+
+    // Helper class: converts chunks of double values to a floating point type and writes them.
+    private static class RealChunk {
+        final double[] values = new double[CHUNK_SIZE];
+        private final float[] fvalues;
+        private final byte[] bytes;
+        private final ByteBuffer buffer;
+        private final VTK_DATA_TYPE type;
+        private final long mask;      // bits of the double values that are kept, all of them if -1
+
+        RealChunk(VTK_DATA_TYPE _type, int mantissaBits) {
+            type = _type;
+            fvalues = (type == VTK_DATA_TYPE.FLOAT32) ? new float[CHUNK_SIZE] : null;
+            bytes = new byte[CHUNK_SIZE * type.sizeof()];
+            buffer = ByteBuffer.wrap(bytes);    // Big Endian
+
+            // Values are truncated before they are converted to Float32, which is then exact for normal values,
+            // so the rounding error of the conversion does not add to the truncation error. Float32 values
+            // with 23 or more bits are only rounded, whose relative error is at most 2^-24.
+            var nbits = (type == VTK_DATA_TYPE.FLOAT32) ? 23 : 52;
+            var ndropped = (mantissaBits == FULL_MANTISSA || mantissaBits >= nbits) ? 0 : 52 - mantissaBits;
+            mask = -1L << ndropped;
+        }
+
+        /** Writes the first n values. */
+        void write(DataOutputStream out, int n) throws IOException {
+            if (mask != -1L) {
+                for (int i = 0; i < n; i++) {
+                    // NaN and infinity are kept as they are
+                    if (Double.isFinite(values[i])) {
+                        values[i] = Double.longBitsToDouble(Double.doubleToRawLongBits(values[i]) & mask);
+                    }
+                }
+            }
+            if (type == VTK_DATA_TYPE.FLOAT32) {
+                for (int i = 0; i < n; i++) {
+                    fvalues[i] = (float) values[i];
+                }
+                buffer.clear();
+                buffer.asFloatBuffer().put(fvalues, 0, n);
+            } else {
+                buffer.clear();
+                buffer.asDoubleBuffer().put(values, 0, n);
+            }
+            out.write(bytes, 0, n * type.sizeof());
+        }
+    }
+
+    // Helper class: gives access to the encoded bytes without copying them.
+    private static class BlockBuffer extends ByteArrayOutputStream {
+        BlockBuffer(int size) {
+            super(size);
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
         }
-        return this;
     }
 
     // Helper function.
@@ -22,6 +22,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.List;
 
 /**
@@ -40,13 +41,30 @@ class VTKXmlWriter {
      * This is public to allow direct writing.
      */
     public final DataOutputStream out;
+
+    /**
+     * Channel of the file connected to this writer.
+     * <p>
+     * It shares the file position with out, so it must be only used after flushing out.
+     */
+    final FileChannel channel;
     private boolean openTag = false;
     private static final int IO_BUFFER_SIZE = 8096;
 
     public VTKXmlWriter(File file) throws FileNotFoundException {
-        out = new DataOutputStream(
-                new BufferedOutputStream(
-                        new FileOutputStream(file), IO_BUFFER_SIZE));
+        this(file, false);
+    }
+
+    /**
+     * @param file: file to write.
+     * @param header64: if true, sizes of arrays in the binary section are written as 64 bit integers,
+     *                  see VTKWriter.writeSize.
+     */
+    public VTKXmlWriter(File file, boolean header64) throws FileNotFoundException {
+        var fos = new FileOutputStream(file);
+        channel = fos.getChannel();
+        out = new AppendedStream(
+                new BufferedOutputStream(fos, IO_BUFFER_SIZE), header64);
     }
 
     public final void close() throws IOException {
@@ -160,6 +178,16 @@ class VTKXmlWriter {
         return this;
     }
 
+    public VTKXmlWriter addAttribute(String name, long value) throws IOException {
+        assert openTag;
+        out.writeBytes(" ");
+        out.writeBytes(name);
+        out.writeBytes("=\"");
+        out.writeBytes(Long.toString(value));
+        out.writeBytes("\"");
+        return this;
+    }
+
     public VTKXmlWriter addAttribute(String name, double value) throws IOException {
         assert openTag;
         out.writeBytes(" ");
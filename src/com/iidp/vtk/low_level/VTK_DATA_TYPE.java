@@ -16,6 +16,8 @@
  */
 package com.iidp.vtk.low_level;
 
+import java.util.Arrays;
+
 /**
  * Allowed data types in VTK files.
  */
@@ -81,4 +83,51 @@ public enum VTK_DATA_TYPE {
         assert false;
         return 0;
     }
+
+    /**
+     * Returns the smallest integer type that can store all values in a range.
+     * Ranges that do not fit an Int32 are stored as Int64.
+     *
+     * @param min: smallest value.
+     * @param max: largest value.
+     */
+    public static VTK_DATA_TYPE narrowest(long min, long max) {
+        if (min >= 0 && max <= 255) return UINT8;
+        if (min >= -128 && max <= 127) return INT8;
+        if (min >= 0 && max <= 65535) return UINT16;
+        if (min >= Short.MIN_VALUE && max <= Short.MAX_VALUE) return INT16;
+        if (min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE) return INT32;
+        return INT64;
+    }
+
+    /**
+     * Returns the smallest integer type that can store all values in an array.
+     * The range of values is found with a parallel scan of the array.
+     *
+     * @param values: values to store.
+     */
+    public static VTK_DATA_TYPE narrowest(int[] values) {
+        if (values.length == 0) return UINT8;
+        var s = Arrays.stream(values).parallel().summaryStatistics();
+        return narrowest(s.getMin(), s.getMax());
+    }
+
+    /**
+     * Returns the smallest integer type that can store all values in a big array.
+     * The range of values is found with a parallel scan of each chunk of the array.
+     *
+     * @param values: values to store.
+     */
+    public static VTK_DATA_TYPE narrowest(BigIntArray values) {
+        long min = 0;
+        long max = 0;
+        for (int c = 0; c < values.nchunks(); c++) {
+            var chunk = values.chunk(c);
+            if (chunk.length == 0) continue;
+            var s = Arrays.stream(chunk).parallel().summaryStatistics();
+            min = (c == 0) ? s.getMin() : Math.min(min, s.getMin());
+            max = (c == 0) ? s.getMax() : Math.max(max, s.getMax());
+        }
+        return narrowest(min, max);
+    }
 }
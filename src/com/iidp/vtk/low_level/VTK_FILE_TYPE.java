@@ -21,7 +21,7 @@ package com.iidp.vtk.low_level;
  */
 public enum VTK_FILE_TYPE {
     IMAGE_DATA, POLY_DATA, RECTILINEAR_GRID,
-    STRUCTURED_GRID, UNSTRUCTURED_GRID;
+    STRUCTURED_GRID, UNSTRUCTURED_GRID, HYPER_TREE_GRID;
 
     /**
      * Returns string representation of this type of file.
@@ -34,6 +34,7 @@ public enum VTK_FILE_TYPE {
             case RECTILINEAR_GRID:  return "RectilinearGrid";
             case STRUCTURED_GRID:   return "StructuredGrid";
             case UNSTRUCTURED_GRID: return "UnstructuredGrid";
+            case HYPER_TREE_GRID:   return "HyperTreeGrid";
         }
         assert false;
         return "NONE";
@@ -49,6 +50,7 @@ public enum VTK_FILE_TYPE {
             case RECTILINEAR_GRID:  return "vtr";
             case STRUCTURED_GRID:   return "vts";
             case UNSTRUCTURED_GRID: return "vtu";
+            case HYPER_TREE_GRID:   return "htg";
         }
         assert false;
         return "NONE";